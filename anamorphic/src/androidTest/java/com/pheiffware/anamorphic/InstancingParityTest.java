@@ -0,0 +1,72 @@
+package com.pheiffware.anamorphic;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the instanced technique lights the monkeys the same as the standard technique.  Debug builds draw the first frame both ways (see
+ * AnamorphicRenderer.getInstancingParityError()), so this only needs to start the activity and wait for the result.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InstancingParityTest
+{
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    @Rule
+    public final ActivityTestRule<Anamorphic> activityRule = new ActivityTestRule<>(Anamorphic.class, false, false);
+
+    @Test
+    public void instancedMatchesStandardTechnique() throws Exception
+    {
+        grantCameraPermission();
+        Anamorphic activity = activityRule.launchActivity(null);
+        AnamorphicFragment fragment = (AnamorphicFragment) activity.getSupportFragmentManager().findFragmentById(R.id.anamorphicFragment);
+
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        int error = fragment.getInstancingParityError();
+        while (error < 0 && SystemClock.uptimeMillis() < deadline)
+        {
+            Thread.sleep(100);
+            error = fragment.getInstancingParityError();
+        }
+        assertTrue("Parity was not checked within " + TIMEOUT_MILLIS + " ms", error >= 0);
+        assertTrue("Instanced and standard techniques differ by " + error + " (of 255) in some color channel", error <= AnamorphicRenderer.INSTANCING_PARITY_TOLERANCE);
+    }
+
+    /**
+     * Grant the camera permission up front, so the activity isn't paused behind the permission dialog (or finished once it has been refused).
+     */
+    private static void grantCameraPermission() throws IOException
+    {
+        String packageName = InstrumentationRegistry.getTargetContext().getPackageName();
+        ParcelFileDescriptor output = InstrumentationRegistry.getInstrumentation().getUiAutomation()
+                .executeShellCommand("pm grant " + packageName + " android.permission.CAMERA");
+        //The command completes when its output is closed
+        InputStream in = new FileInputStream(output.getFileDescriptor());
+        try
+        {
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) != -1)
+            {
+            }
+        }
+        finally
+        {
+            in.close();
+            output.close();
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package com.pheiffware.anamorphic;
 
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
+import android.widget.TextView;
 
 import com.pheiffware.lib.and.gui.LoggedActivity;
 
 public class Anamorphic extends LoggedActivity
 {
+    //Show pipeline latency percentiles on screen
+    private static final boolean showLatencyOverlay = false;
+    private static final long LATENCY_OVERLAY_PERIOD_MILLIS = 500;
+
+    private final Handler handler = new Handler();
+    private Runnable latencyOverlayUpdater;
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -23,5 +31,39 @@ public class Anamorphic extends LoggedActivity
                 anamorphicFragment.startCalibration();
             }
         });
+        if (showLatencyOverlay)
+        {
+            final TextView latencyOverlay = (TextView) findViewById(R.id.latencyOverlay);
+            latencyOverlay.setVisibility(View.VISIBLE);
+            latencyOverlayUpdater = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    latencyOverlay.setText(anamorphicFragment.getLatencySummary());
+                    handler.postDelayed(this, LATENCY_OVERLAY_PERIOD_MILLIS);
+                }
+            };
+        }
+    }
+
+    @Override
+    protected void onResume()
+    {
+        super.onResume();
+        if (latencyOverlayUpdater != null)
+        {
+            handler.post(latencyOverlayUpdater);
+        }
+    }
+
+    @Override
+    protected void onPause()
+    {
+        if (latencyOverlayUpdater != null)
+        {
+            handler.removeCallbacks(latencyOverlayUpdater);
+        }
+        super.onPause();
     }
 }
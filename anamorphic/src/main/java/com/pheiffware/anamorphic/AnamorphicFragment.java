@@ -4,29 +4,50 @@ import android.Manifest;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
+import android.graphics.PointF;
 import android.hardware.SensorManager;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v13.app.ActivityCompat;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
 import android.view.ViewGroup;
 
 import com.google.android.gms.vision.CameraSource;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.FaceDetector;
 import com.google.android.gms.vision.face.LargestFaceFocusingProcessor;
+import com.pheiffware.anamorphic.camera.FaceRegionTracker;
+import com.pheiffware.anamorphic.camera.FileFrameSource;
+import com.pheiffware.anamorphic.camera.LumaCrop;
+import com.pheiffware.anamorphic.camera.FrameSource;
 import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+import com.pheiffware.anamorphic.faceDetection.DetectionBudgetController;
+import com.pheiffware.anamorphic.faceDetection.DetectorConfiguration;
+import com.pheiffware.anamorphic.faceDetection.TimedDetector;
+import com.pheiffware.anamorphic.latency.LatencyTracer;
+import com.pheiffware.anamorphic.recording.TrackingRecorder;
 import com.pheiffware.lib.and.gui.graphics.openGL.BaseGameFragment;
 import com.pheiffware.lib.and.gui.graphics.openGL.GameView;
 import com.pheiffware.lib.and.input.CameraDisplayInfo;
 import com.pheiffware.lib.and.input.CameraUtils;
 import com.pheiffware.lib.graphics.FilterQuality;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * Created by Steve on 9/2/2017.
@@ -34,23 +55,82 @@ import java.io.IOException;
 
 public class AnamorphicFragment extends BaseGameFragment
 {
-    private static final int CAMERA_PREVIEW_HEIGHT = 400;
-    private static final int speedMode = FaceDetector.ACCURATE_MODE;
-    //private static final int speedMode = FaceDetector.FAST_MODE;
+    //Detector configurations, from cheapest to most expensive, which are chosen between to meet the detection time target
+    private static final DetectorConfiguration[] DETECTOR_LEVELS = new DetectorConfiguration[]{
+            new DetectorConfiguration(false, 240, 20),
+            new DetectorConfiguration(false, 320, 30),
+            new DetectorConfiguration(false, 400, 30),
+            new DetectorConfiguration(true, 400, 30),
+            new DetectorConfiguration(true, 480, 30)
+    };
+    private static final int INITIAL_DETECTOR_LEVEL = 3;
+    //Target time the detector takes for each frame
+    private static final float TARGET_DETECTION_MILLIS = 33.0f;
+    //Number of detections averaged before each decision
+    private static final int DETECTION_WINDOW_SIZE = 30;
     private static final boolean useAutoFocus = false;
 
+    //Capture frames with camera2 and hand them to the detector without copying, rather than through the Vision CameraSource
+    private static final boolean useCamera2FrameSource = true;
+    //Frames the detector may hold at once.  Further frames are dropped until one is released.
+    private static final int NUM_FRAME_BUFFERS = 2;
+
+    //Once a face is found, only scan a window around it, scanning whole frames to find it again when lost (requires useCamera2FrameSource)
+    private static final boolean useRegionTracking = true;
+    //Space left around the face in each window, as a fraction of the face's size
+    private static final float REGION_MARGIN = 0.5f;
+    //While tracking, scan a whole frame once in this many frames, in case a more prominent face has appeared
+    private static final int FULL_SCAN_INTERVAL = 15;
+    //Minimum face size, as a fraction of the image, for window scans, in which the face fills about half the image
+    private static final float REGION_MIN_FACE_SIZE = 0.25f;
+    //Directory, in app storage, of recorded PGM frames in camera orientation.  If present, these are played in a loop instead of the camera, so detection
+    //can be measured against the same input with and without region tracking.
+    private static final String RECORDED_FRAMES_DIR = "frames";
+    private static final long RECORDED_FRAME_PERIOD = 33333333L;
+
     private static final int CAMERA_PERMISSIONS_REQUEST_CODE = 30465;
 
+    //File, in app storage, which latency statistics are written to on pause
+    private static final String LATENCY_REPORT_FILE = "latency.txt";
+
+    //Record raw face and rotation vector events to a log in app storage, for replay with EyeTrackingReplay
+    private static final boolean recordTracking = false;
+    private static final String TRACKING_LOG_FILE = "tracking.log";
+
+    //Only draw frames when the eye or scene changed, rather than continuously
+    private static final boolean renderOnDemand = true;
+
+    //Rotation vector sampling (200Hz).  Events may wait in the sensor FIFO for up to a frame, so they are delivered in batches rather than one wakeup each.
+    private static final int ROTATION_SAMPLING_PERIOD_US = 5000;
+    private static final int ROTATION_MAX_REPORT_LATENCY_US = 16667;
+
     private EyeSensorCalibration calibration;
-    FaceDetector faceDetector;
+    //Detectors are timed (see TimedDetector), so the budget controller sees only the time spent detecting
+    Detector<Face> faceDetector;
+    //Detector for window scans, if useRegionTracking
+    Detector<Face> regionDetector;
+    private FaceRegionTracker regionTracker;
     CameraSource cameraSource;
+    //Used instead of cameraSource, if useCamera2FrameSource and the camera could be opened through camera2
+    FrameSource frameSource;
+    DetectorFrameFeeder detectorFeeder;
     private boolean alreadyAskedForCamera;
     private AnamorphicRenderer renderer;
+    private CameraDisplayInfo cameraInfo;
+    private DetectionBudgetController detectionBudgetController;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private RotationSensorIngest rotationSensorIngest;
+
+    //SystemClock.elapsedRealtime() when the camera was started.  Detector frame time stamps are relative to this.
+    private volatile long cameraStartTimeMillis;
+
+    //Recorder of face and rotation events, if recording
+    private volatile TrackingRecorder trackingRecorder;
 
     public AnamorphicFragment()
     {
-        super(new int[]{Sensor.TYPE_ROTATION_VECTOR}, new int[]{
-                SensorManager.SENSOR_DELAY_FASTEST});
+        //Sensors are registered by RotationSensorIngest, which needs control of batching
+        super(new int[]{}, new int[]{});
     }
 
     @Override
@@ -60,23 +140,97 @@ public class AnamorphicFragment extends BaseGameFragment
         SharedPreferences sharedPref = getContext().getSharedPreferences(
                 "anamorphicData", Context.MODE_PRIVATE);
 
-        calibration = new EyeSensorCalibration(sharedPref);
+        calibration = EyeSensorCalibrationStore.load(sharedPref);
     }
 
     @Override
     public GameView onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
     {
         alreadyAskedForCamera = false;
-        faceDetector = new FaceDetector.Builder(getContext()).
+        try
+        {
+            //TODO: Switched width/height information, because we are in vertical mode.  Not clear how
+            cameraInfo = CameraUtils.getCameraDisplayInfo(getContext(), CameraCharacteristics.LENS_FACING_FRONT);
+        }
+        catch (CameraAccessException e)
+        {
+            //TODO: Proper error handling
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        detectionBudgetController = new DetectionBudgetController(DETECTOR_LEVELS, INITIAL_DETECTOR_LEVEL, TARGET_DETECTION_MILLIS, DETECTION_WINDOW_SIZE, new DetectionBudgetController.Listener()
+        {
+            @Override
+            public void onConfigurationChanged(DetectorConfiguration from, DetectorConfiguration to, float meanDetectionMillis, float targetMillis)
+            {
+                Log.i("DetectorBudget", String.format(Locale.US, "event=reconfigure mean_ms=%.1f target_ms=%.1f from=[%s] to=[%s]", meanDetectionMillis, targetMillis, from, to));
+                //Called on the detector's thread, which can't release its own detector
+                mainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        reconfigureCamera();
+                    }
+                });
+            }
+        });
+        DetectorConfiguration configuration = detectionBudgetController.getConfiguration();
+        //Frame size is set from the first frame
+        regionTracker = new FaceRegionTracker(0, 0, REGION_MARGIN, FULL_SCAN_INTERVAL);
+        int cameraPreviewWidth = buildCamera(configuration);
+        this.renderer = new AnamorphicRenderer(cameraPreviewWidth, configuration.previewHeight, cameraInfo.fovY, cameraInfo.fovX, calibration, getContext().getCacheDir());
+        final GameView gameView = new GameView(getContext(), renderer, FilterQuality.MEDIUM, true);
+        if (renderOnDemand)
+        {
+            renderer.setRenderOnDemand(gameView);
+        }
+        gameView.setOnTouchListener(new View.OnTouchListener()
+        {
+            @Override
+            public boolean onTouch(View view, MotionEvent event)
+            {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN)
+                {
+                    final float x = event.getX();
+                    final float y = event.getY();
+                    //Picking uses the eye position, which belongs to the GL thread
+                    gameView.queueEvent(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            renderer.pick(x, y);
+                        }
+                    });
+                }
+                //Still handled by the view, for touch transform events
+                return false;
+            }
+        });
+        return gameView;
+    }
+
+    /**
+     * Build the face detector and camera source for the given configuration.  If the camera can't be opened through camera2, the Vision CameraSource is used instead.
+     *
+     * @param configuration
+     * @return the requested camera preview width
+     */
+    private int buildCamera(DetectorConfiguration configuration)
+    {
+        int cameraPreviewWidth = (int) (configuration.previewHeight / cameraInfo.pixelAspect);
+        faceDetector = new TimedDetector<>(new FaceDetector.Builder(getContext()).
                 setProminentFaceOnly(true)
                 .setLandmarkType(FaceDetector.NO_LANDMARKS)
 //                .setLandmarkType(FaceDetector.ALL_LANDMARKS)
                 .setMinFaceSize(0.01f)
                 .setTrackingEnabled(true)
-                .setMode(speedMode)
-                .build();
+                .setMode(configuration.accurate ? FaceDetector.ACCURATE_MODE : FaceDetector.FAST_MODE)
+                .build(), detectionBudgetController);
+        FaceTracker faceTracker = new FaceTracker(cameraPreviewWidth, configuration.previewHeight);
         faceDetector.setProcessor(
-                new LargestFaceFocusingProcessor.Builder(faceDetector, new FaceTracker())
+                new LargestFaceFocusingProcessor.Builder(faceDetector, faceTracker)
                         .build());
 
         if (!faceDetector.isOperational())
@@ -85,28 +239,100 @@ public class AnamorphicFragment extends BaseGameFragment
             Log.e("FACE", "Face detector dependencies are not yet available.");
             getActivity().finish();
         }
-        try
+        if (useCamera2FrameSource)
+        {
+            try
+            {
+                Camera2FrameSource camera2FrameSource = new Camera2FrameSource(getContext(), cameraPreviewWidth, configuration.previewHeight, configuration.fps, useAutoFocus, NUM_FRAME_BUFFERS);
+                int sensorOrientation = camera2FrameSource.getSensorOrientation();
+                if (useRegionTracking)
+                {
+                    //Windows are cropped at varying offsets, so detector tracking between them would be meaningless
+                    regionDetector = new TimedDetector<>(new FaceDetector.Builder(getContext())
+                            .setProminentFaceOnly(true)
+                            .setLandmarkType(FaceDetector.NO_LANDMARKS)
+                            .setMinFaceSize(REGION_MIN_FACE_SIZE)
+                            .setTrackingEnabled(false)
+                            .setMode(configuration.accurate ? FaceDetector.ACCURATE_MODE : FaceDetector.FAST_MODE)
+                            .build(), detectionBudgetController);
+                    detectorFeeder = new RegionFaceFeeder(faceDetector, regionDetector, sensorOrientation, regionTracker, faceTracker);
+                }
+                else
+                {
+                    detectorFeeder = new DetectorFrameFeeder(faceDetector, sensorOrientation);
+                }
+                File[] recordedFrames = new File(getContext().getFilesDir(), RECORDED_FRAMES_DIR).listFiles();
+                if (recordedFrames != null && recordedFrames.length > 0)
+                {
+                    Arrays.sort(recordedFrames);
+                    frameSource = new FileFrameSource(Arrays.asList(recordedFrames), RECORDED_FRAME_PERIOD, NUM_FRAME_BUFFERS, true);
+                }
+                else
+                {
+                    frameSource = camera2FrameSource;
+                }
+            }
+            catch (CameraAccessException e)
+            {
+                Log.e("Camera", "Could not open camera2 frame source, falling back to CameraSource", e);
+                detectorFeeder = null;
+                frameSource = null;
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Could not read recorded frames", e);
+            }
+        }
+        if (frameSource == null)
         {
-
-            //TODO: Switched width/height information, because we are in vertical mode.  Not clear how
-            CameraDisplayInfo cameraInfo = CameraUtils.getCameraDisplayInfo(getContext(), CameraCharacteristics.LENS_FACING_FRONT);
-            int cameraPreviewWidth = (int) (CAMERA_PREVIEW_HEIGHT / cameraInfo.pixelAspect);
             cameraSource = new CameraSource.Builder(getContext(), faceDetector)
                     .setFacing(CameraSource.CAMERA_FACING_FRONT)
-                    .setRequestedPreviewSize(cameraPreviewWidth, CAMERA_PREVIEW_HEIGHT)
+                    .setRequestedPreviewSize(cameraPreviewWidth, configuration.previewHeight)
                     .setAutoFocusEnabled(useAutoFocus)
-                    .setRequestedFps(30)
+                    .setRequestedFps(configuration.fps)
                     .build();
-            this.renderer = new AnamorphicRenderer(cameraPreviewWidth, CAMERA_PREVIEW_HEIGHT, cameraInfo.fovY, cameraInfo.fovX, calibration);
-            return new GameView(getContext(), renderer, FilterQuality.MEDIUM, true);
         }
-        catch (CameraAccessException e)
+        return cameraPreviewWidth;
+    }
+
+    /**
+     * Release the face detector and whichever camera source is in use.
+     */
+    private void releaseCamera()
+    {
+        if (cameraSource != null)
         {
-            //TODO: Proper error handling
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            cameraSource.release();
+            cameraSource = null;
+        }
+        frameSource = null;
+        detectorFeeder = null;
+        faceDetector.release();
+        if (regionDetector != null)
+        {
+            regionDetector.release();
+            regionDetector = null;
         }
+    }
 
+    /**
+     * Replace the face detector and camera source with ones matching the budget controller's current configuration.
+     */
+    private void reconfigureCamera()
+    {
+        if (faceDetector == null)
+        {
+            //View already destroyed
+            return;
+        }
+        stopCamera();
+        releaseCamera();
+        buildCamera(detectionBudgetController.getConfiguration());
+        detectionBudgetController.resetWindow();
+        if (isResumed())
+        {
+            startCamera();
+        }
     }
 
     @Override
@@ -114,6 +340,11 @@ public class AnamorphicFragment extends BaseGameFragment
     {
         super.onResume();
         Log.i("Permissions", "Resume");
+        startRotationSensor();
+        if (recordTracking)
+        {
+            startRecording();
+        }
         startCamera();
     }
 
@@ -121,12 +352,15 @@ public class AnamorphicFragment extends BaseGameFragment
     public void onPause()
     {
         Log.i("Permissions", "Pause");
+        stopRotationSensor();
         stopCamera();
+        stopRecording();
+        writeLatencyReport();
         calibration = renderer.getEyeSensorCalibration();
         SharedPreferences sharedPref = getContext().getSharedPreferences(
                 "anamorphicData", Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = sharedPref.edit();
-        calibration.write(editor);
+        EyeSensorCalibrationStore.save(calibration, editor);
         editor.apply();
         super.onPause();
     }
@@ -136,8 +370,9 @@ public class AnamorphicFragment extends BaseGameFragment
     public void onDestroyView()
     {
         super.onDestroyView();
-        cameraSource.release();
-        faceDetector.release();
+        mainHandler.removeCallbacksAndMessages(null);
+        releaseCamera();
+        faceDetector = null;
         renderer = null;
     }
 
@@ -163,7 +398,17 @@ public class AnamorphicFragment extends BaseGameFragment
         }
         try
         {
-            cameraSource.start();
+            cameraStartTimeMillis = SystemClock.elapsedRealtime();
+            if (frameSource != null)
+            {
+                //Feeder time stamps are relative to the same moment as cameraStartTimeMillis, so toCaptureTimeNanos() applies to both sources
+                detectorFeeder.setTimeBase(System.nanoTime());
+                frameSource.start(detectorFeeder);
+            }
+            else
+            {
+                cameraSource.start();
+            }
         }
         catch (SecurityException e)
         {
@@ -177,7 +422,37 @@ public class AnamorphicFragment extends BaseGameFragment
 
     private void stopCamera()
     {
-        cameraSource.stop();
+        if (frameSource != null)
+        {
+            frameSource.stop();
+        }
+        else
+        {
+            cameraSource.stop();
+        }
+    }
+
+    private void startRotationSensor()
+    {
+        rotationSensorIngest = new RotationSensorIngest(renderer.getRotationSamples(), renderer);
+        if (!rotationSensorIngest.start(getSensorManager(), ROTATION_SAMPLING_PERIOD_US, ROTATION_MAX_REPORT_LATENCY_US))
+        {
+            Log.w("Sensors", "No rotation vector sensor, orientation will not be tracked");
+        }
+    }
+
+    private void stopRotationSensor()
+    {
+        if (rotationSensorIngest != null)
+        {
+            rotationSensorIngest.stop(getSensorManager());
+            rotationSensorIngest = null;
+        }
+    }
+
+    private SensorManager getSensorManager()
+    {
+        return (SensorManager) getContext().getSystemService(Context.SENSOR_SERVICE);
     }
 
     public void startCalibration()
@@ -185,48 +460,198 @@ public class AnamorphicFragment extends BaseGameFragment
         renderer.calibrateEyeSensor();
     }
 
+    /**
+     * @return summary of pipeline latencies, for display
+     */
+    public String getLatencySummary()
+    {
+        return renderer.getLatencyTracer().getSummary()
+                + String.format(Locale.US, "Skipped frames: %.1f%%%n", 100 * renderer.getSkippedFrameFraction())
+                + String.format(Locale.US, "Drawn / culled: %d / %d%n", renderer.getNumDrawnObjects(), renderer.getNumCulledObjects())
+                + String.format(Locale.US, "Picked object: %d%n", renderer.getPickedObject())
+                + String.format(Locale.US, "Triangles: %d (%d at full detail)%n", renderer.getNumTrianglesSubmitted(), renderer.getNumFullDetailTriangles())
+                + String.format(Locale.US, "Shadow faces rendered: %d%n", renderer.getNumShadowFacesRendered())
+                + String.format(Locale.US, "Resolution: %.0f%%, GPU %.1f ms%n", 100 * renderer.getResolutionScale(), renderer.getGpuFrameTime() / 1000000.0)
+                + String.format(Locale.US, "First frame: %.0f ms (Std3D/Std2D techniques uncached)%n", renderer.getTimeToFirstFrame() / 1000000.0)
+                + String.format(Locale.US, "Dropped camera frames: %d%n", frameSource != null ? frameSource.getNumDropped() : 0)
+                + String.format(Locale.US, "Calibration residual: %.3f%n", renderer.getCalibrationResidual())
+                + String.format(Locale.US, "Recalibration: %d samples, %d updates", renderer.getNumRecalibrationSamples(), renderer.getNumRecalibrations());
+    }
+
+    /**
+     * @return largest difference in any color channel (of 255) between the instanced and standard drawing of the scene, or -1 if that hasn't been checked
+     */
+    int getInstancingParityError()
+    {
+        AnamorphicRenderer renderer = this.renderer;
+        return renderer != null ? renderer.getInstancingParityError() : -1;
+    }
 
-    private class FaceTracker extends Tracker<Face>
+    private void startRecording()
     {
-        @Override
-        public void onNewItem(int faceId, final Face face)
+        try
         {
-            getView().queueEvent(new Runnable()
+            trackingRecorder = new TrackingRecorder(new File(getContext().getFilesDir(), TRACKING_LOG_FILE));
+            renderer.setTrackingRecorder(trackingRecorder);
+        }
+        catch (IOException e)
+        {
+            Log.e("Recording", "Could not open tracking log", e);
+        }
+    }
+
+    private void stopRecording()
+    {
+        TrackingRecorder recorder = trackingRecorder;
+        if (recorder == null)
+        {
+            return;
+        }
+        trackingRecorder = null;
+        renderer.setTrackingRecorder(null);
+        try
+        {
+            //The sensor and detector threads may still be recording to it, which does nothing once it is closed
+            recorder.close();
+        }
+        catch (IOException e)
+        {
+            Log.e("Recording", "Could not close tracking log", e);
+        }
+    }
+
+    private void writeLatencyReport()
+    {
+        LatencyTracer latencyTracer = renderer.getLatencyTracer();
+        File file = new File(getContext().getFilesDir(), LATENCY_REPORT_FILE);
+        try (Writer writer = new FileWriter(file))
+        {
+            latencyTracer.writeReport(writer);
+            writer.write(String.format(Locale.US, "skipped frames   %.4f%n", renderer.getSkippedFrameFraction()));
+            writer.write(String.format(Locale.US, "triangles        %d%n", renderer.getNumTrianglesSubmitted()));
+            writer.write(String.format(Locale.US, "full detail      %d%n", renderer.getNumFullDetailTriangles()));
+            if (regionDetector != null)
             {
-                @Override
-                public void run()
-                {
-                    renderer.faceOnCamera();
-                    renderer.faceUpdated(face);
-                }
-            });
+                regionTracker.writeReport(writer);
+            }
+        }
+        catch (IOException e)
+        {
+            Log.e("Latency", "Could not write latency report", e);
+        }
+    }
+
+    /**
+     * Convert a detector frame time stamp to the System.nanoTime() time base.
+     */
+    private long toCaptureTimeNanos(long frameTimeMillis)
+    {
+        long frameAgeMillis = SystemClock.elapsedRealtime() - (cameraStartTimeMillis + frameTimeMillis);
+        return System.nanoTime() - frameAgeMillis * 1000000L;
+    }
+
+
+    /**
+     * Receives face detections on the detector's thread and posts them to the renderer's mailbox.  The renderer picks up the latest one each frame.
+     */
+    private class FaceTracker extends Tracker<Face> implements RegionFaceFeeder.Listener
+    {
+        //Meta data of the last frame seen.  onNewItem() doesn't receive frame meta data, so it uses this.
+        private long lastFrameTimeMillis;
+        private int lastFrameWidth;
+        private int lastFrameHeight;
+
+        /**
+         * @param requestedPreviewWidth  assumed frame width until frame meta data is seen
+         * @param requestedPreviewHeight assumed frame height until frame meta data is seen
+         */
+        private FaceTracker(int requestedPreviewWidth, int requestedPreviewHeight)
+        {
+            lastFrameWidth = requestedPreviewWidth;
+            lastFrameHeight = requestedPreviewHeight;
+        }
+
+        @Override
+        public void onNewItem(int faceId, Face face)
+        {
+            renderer.postFace(face, true, lastFrameWidth, lastFrameHeight, lastFrameTimeMillis, toCaptureTimeNanos(lastFrameTimeMillis));
         }
 
         @Override
         public void onUpdate(FaceDetector.Detections<Face> detectionResults,
-                             final Face face)
+                             Face face)
         {
-            getView().queueEvent(new Runnable()
+            Frame.Metadata metadata = detectionResults.getFrameMetadata();
+            PointF position = face.getPosition();
+            //Meta data gives the unrotated frame size, while faces are found in the upright frame
+            int rotation = metadata.getRotation();
+            onFace(false, face.getWidth(), face.getHeight(), position.x, position.y,
+                    LumaCrop.uprightWidth(rotation, metadata.getWidth(), metadata.getHeight()), LumaCrop.uprightHeight(rotation, metadata.getWidth(), metadata.getHeight()),
+                    metadata.getTimestampMillis());
+        }
+
+        @Override
+        public void onFace(boolean newFace, float width, float height, float x, float y, int frameWidth, int frameHeight, long frameTimeMillis)
+        {
+            long captureTimeNanos = frameDetected(frameTimeMillis, frameWidth, frameHeight);
+            renderer.postFace(newFace, width, height, x, y, lastFrameWidth, lastFrameHeight, lastFrameTimeMillis, captureTimeNanos);
+            TrackingRecorder recorder = trackingRecorder;
+            if (recorder != null)
             {
-                @Override
-                public void run()
+                try
+                {
+                    recorder.recordFace(System.nanoTime(), captureTimeNanos, lastFrameTimeMillis, width, height, x, y, lastFrameWidth, lastFrameHeight);
+                }
+                catch (IOException e)
                 {
-                    renderer.faceUpdated(face);
+                    Log.e("Recording", "Could not record face", e);
                 }
-            });
+            }
         }
 
         @Override
         public void onMissing(FaceDetector.Detections<Face> detectionResults)
         {
-            getView().queueEvent(new Runnable()
+            Frame.Metadata metadata = detectionResults.getFrameMetadata();
+            int rotation = metadata.getRotation();
+            faceMissing(frameDetected(metadata.getTimestampMillis(),
+                    LumaCrop.uprightWidth(rotation, metadata.getWidth(), metadata.getHeight()), LumaCrop.uprightHeight(rotation, metadata.getWidth(), metadata.getHeight())));
+        }
+
+        @Override
+        public void onFaceMissing(long frameTimeMillis)
+        {
+            faceMissing(frameDetected(frameTimeMillis, lastFrameWidth, lastFrameHeight));
+        }
+
+        private void faceMissing(long captureTimeNanos)
+        {
+            renderer.postFaceMissing(lastFrameTimeMillis, captureTimeNanos);
+            TrackingRecorder recorder = trackingRecorder;
+            if (recorder != null)
             {
-                @Override
-                public void run()
+                try
+                {
+                    recorder.recordFaceMissing(System.nanoTime(), captureTimeNanos, lastFrameTimeMillis);
+                }
+                catch (IOException e)
                 {
-                    renderer.faceOffCamera();
+                    Log.e("Recording", "Could not record missing face", e);
                 }
-            });
+            }
+        }
+
+        /**
+         * Record frame meta data.
+         *
+         * @return the capture time of the frame in the System.nanoTime() time base
+         */
+        private long frameDetected(long frameTimeMillis, int frameWidth, int frameHeight)
+        {
+            lastFrameTimeMillis = frameTimeMillis;
+            lastFrameWidth = frameWidth;
+            lastFrameHeight = frameHeight;
+            return toCaptureTimeNanos(lastFrameTimeMillis);
         }
 
         @Override
@@ -1,20 +1,35 @@
 package com.pheiffware.anamorphic;
 
 import android.graphics.PointF;
-import android.hardware.Sensor;
+import android.opengl.EGL14;
 import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
 import android.util.Log;
 
 import com.google.android.gms.vision.face.Face;
-import com.google.android.gms.vision.face.Landmark;
+import com.pheiffware.anamorphic.culling.BoundingSphere;
+import com.pheiffware.anamorphic.culling.BoundingVolumeHierarchy;
+import com.pheiffware.anamorphic.culling.Frustum;
+import com.pheiffware.anamorphic.eyeTracking.AutoRecalibrator;
 import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
 import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
 import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.KalmanEyeFilter;
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+import com.pheiffware.anamorphic.eyeTracking.RotationVectorOrientation;
+import com.pheiffware.anamorphic.latency.LatencyTracer;
+import com.pheiffware.anamorphic.lod.LevelOfDetailMesh;
+import com.pheiffware.anamorphic.lod.LevelOfDetailSelector;
+import com.pheiffware.anamorphic.meshCache.CachedMesh;
+import com.pheiffware.anamorphic.meshCache.MeshCache;
+import com.pheiffware.anamorphic.recording.TrackingRecorder;
+import com.pheiffware.anamorphic.resolution.ResolutionScaler;
+import com.pheiffware.anamorphic.shaderCache.ProgramBinaryStore;
+import com.pheiffware.anamorphic.shadow.CubeShadowCache;
 import com.pheiffware.lib.AssetLoader;
 import com.pheiffware.lib.and.graphics.AndGraphicsUtils;
 import com.pheiffware.lib.and.gui.graphics.openGL.GameRenderer;
 import com.pheiffware.lib.and.gui.graphics.openGL.SystemInfo;
-import com.pheiffware.lib.and.input.OrientationTracker;
 import com.pheiffware.lib.and.input.TouchAnalyzer;
 import com.pheiffware.lib.geometry.collada.Collada;
 import com.pheiffware.lib.geometry.collada.ColladaFactory;
@@ -37,25 +52,128 @@ import com.pheiffware.lib.graphics.managed.program.RenderPropertyValue;
 import com.pheiffware.lib.graphics.managed.program.VertexAttribute;
 import com.pheiffware.lib.graphics.managed.techniques.Std3DTechnique;
 import com.pheiffware.lib.graphics.managed.techniques.Tech2D.Std2DTechnique;
+import com.pheiffware.lib.graphics.managed.texture.Texture2D;
 import com.pheiffware.lib.graphics.managed.texture.TextureCubeMap;
 import com.pheiffware.lib.graphics.utils.MeshGenUtils;
 import com.pheiffware.lib.graphics.utils.PheiffGLUtils;
 import com.pheiffware.lib.utils.dom.XMLParseException;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.List;
+import java.util.Locale;
 
 /**
  * Created by Steve on 9/2/2017.
  */
 
-class AnamorphicRenderer extends GameRenderer
+class AnamorphicRenderer extends GameRenderer implements RotationSensorIngest.Listener
 {
     private static final int numMonkeys = 30;
+    //Draw all monkeys with a single instanced draw call, rather than one draw call each
+    private static final boolean useInstancing = true;
+    //In debug builds (which instrumented tests use), draw the scene with both the instanced and the standard technique after the first frame, and record how far
+    //the images differ (see getInstancingParityError())
+    private static final boolean checkInstancingParity = BuildConfig.DEBUG;
+    //Largest difference in any color channel (of 255) which parity checking accepts, allowing for differences in shader arithmetic
+    static final int INSTANCING_PARITY_TOLERANCE = 8;
+    //Eye position drawn from before any face is seen (the first frame), and by the parity check: in front of the screen, so the nearest monkeys are in view
+    private static final float[] DEFAULT_EYE = new float[]{0.2f, 0.3f, 4.0f};
+    //Draw each monkey with a simplified mesh suited to its projected size (instanced drawing only)
+    private static final boolean useLevelOfDetail = true;
+    //Grid resolution of each simplified level of the monkey mesh (see MeshSimplifier), after the full detail level
+    private static final int[] LOD_GRID_RESOLUTIONS = new int[]{24, 12, 6};
+    //Smallest projected diameter, in rendered pixels, at which each level but the coarsest is drawn
+    private static final float[] LOD_THRESHOLDS = new float[]{400, 200, 100};
+    //Fraction of a threshold by which the projected size must cross it to change level
+    private static final float LOD_HYSTERESIS = 0.1f;
+    //Maximum number of frames which may be queued on the GPU.  0 means fully synchronous (glFinish() at the end of each frame).
+    private static final int maxFramesInFlight = 2;
+    //Number of views drawn each frame: 1 draws the tracked eye, 2 draws a stereo pair either side of it
+    private static final int numViews = 1;
+    //How views are arranged on the surface, if there is more than one
+    private static final ViewLayout viewLayout = ViewLayout.SIDE_BY_SIDE;
+    //Log every sensed eye position (allocates a string per face update)
+    private static final boolean logFaces = false;
     private static final float CALIBRATION_X = 0.25f;
     private static final float CALIBRATION_Y = 0.5f;
     private static final float CALIBRATION_Z = 4.0f;
+    //Calibrate against several targets across the screen, rather than averaging at the single point above
+    private static final boolean multiPointCalibration = true;
+    //x, y, z of each target in the order shown: center first, then opposite corners, so scale and offset separate as early as possible
+    private static final float[] CALIBRATION_TARGETS = new float[]{
+            0, 0, CALIBRATION_Z,
+            -0.3f, 0.6f, CALIBRATION_Z,
+            0.3f, -0.6f, CALIBRATION_Z,
+            0.3f, 0.6f, CALIBRATION_Z,
+            -0.3f, -0.6f, CALIBRATION_Z};
+    private static final int CALIBRATION_SAMPLES_PER_TARGET = 30;
+    //Also correct the camera's nominal field of view
+    private static final boolean calibrateFieldOfView = true;
+    //Residual error (screen coordinates) at which multi-point calibration stops
+    private static final float CALIBRATION_TOLERANCE = 0.02f;
+    //Keep refining the calibration in the background, from steady face samples taken while the device is held still
+    private static final boolean autoRecalibrate = true;
+    private static final int RECALIBRATION_CAPACITY = 256;
+    private static final int RECALIBRATION_MIN_SAMPLES = 64;
+    private static final int RECALIBRATION_INTERVAL = 16;
+    private static final float RECALIBRATION_RATE = 0.02f;
+
+    //Eye tracking tuning
+    //Maximum age of a sample in the weighted average (seconds)
+    private static final float EYE_MAX_SAMPLE_AGE = 0.1f;
+    //Rotation samples kept for lookup by time (over a second at 200Hz)
+    private static final int ROTATION_SAMPLE_CAPACITY = 256;
+    //How far ahead of the start of drawing a frame is displayed (seconds)
+    private static final float EYE_PREDICTION_HORIZON = 0.033f;
+    //Kalman filter noise parameters (see KalmanEyeFilter)
+    private static final float EYE_ACCELERATION_NOISE = 4.0f;
+    private static final float EYE_MEASUREMENT_NOISE = 0.001f;
+    private static final float EYE_INITIAL_VELOCITY_VARIANCE = 1.0f;
+    //Distance between a stereo pair of eyes, in screen coordinates (screen height is 2.0, so this is ~6cm on a phone held upright)
+    private static final float INTERPUPILLARY_DISTANCE = 0.9f;
+
+    //Render on demand tuning
+    //Eye movement (screen coordinates) below which a frame is not redrawn
+    private static final float EYE_REDRAW_EPSILON = 0.002f;
+    //Frames requested after the latest face, rotation or scene change, while the predicted eye settles (half a second at 60Hz)
+    private static final int EYE_SETTLE_FRAMES = 30;
+    //Change in any rotation vector component below which a sensor event does not request a frame
+    private static final float ROTATION_REDRAW_EPSILON = 0.0005f;
+
+    //Shadows
+    private static final boolean shadowsEnabled = true;
+    //Width and height of each cube shadow map face
+    private static final int SHADOW_RESOLUTION = 1024;
+    private static final float SHADOW_NEAR = 0.1f;
+    private static final float SHADOW_FAR = 100.0f;
+
+    //Dynamic resolution: the scene is rendered offscreen at a scale of the surface size, chosen to keep GPU frame time under a target, then upscaled
+    private static final boolean dynamicResolution = true;
+    private static final float MIN_RESOLUTION_SCALE = 0.5f;
+    private static final float MAX_RESOLUTION_SCALE = 1.0f;
+    private static final float RESOLUTION_SCALE_STEP = 0.1f;
+    //Leaves headroom within a 60Hz frame (nanoseconds)
+    private static final long TARGET_GPU_FRAME_TIME = 14000000L;
+
+    //Load this app's GLES 3 programs from binaries saved by earlier runs.  Turn off to measure time to first frame without the cache.
+    private static final boolean useProgramBinaryCache = true;
+    private static final String PROGRAM_BINARY_DIRECTORY = "programs";
+
+    private static final String MONKEY_MESH_PATH = "meshes/test_render.dae";
+    //Binary copy of the monkey mesh and its levels of detail in the app's cache directory, rebuilt when MONKEY_MESH_PATH or LOD_GRID_RESOLUTIONS change
+    private static final String MONKEY_MESH_CACHE_FILE = "monkey.mesh";
+
+    private static final float[] AMBIENT_LIGHT_COLOR = new float[]{0.2f, 0.2f, 0.2f, 1.0f};
+    private static final float[] LIGHT_POSITION = new float[]{0, 0, 2.7f, 1};
+    private static final float[] LIGHT_COLOR = new float[]{0.7f, 0.7f, 0.7f, 1.0f};
+    private static final float[] MONKEY_COLOR = new float[]{0f, 1f, 1f, 1f};
+    private static final float[] MONKEY_SPEC_COLOR = new float[]{1f, 1f, 1f, 1f};
+    private static final float MONKEY_SHININESS = 100f;
     private Std2DTechnique color2DTechnique;
     private Std3DTechnique color3DTechnique;
     private HoloLighting lighting;
@@ -64,20 +182,128 @@ class AnamorphicRenderer extends GameRenderer
     private AnamorphicCamera anamorphicCamera;
     //Represents the position of the eye relative to surface of the direct center of the screen if screen is flat.
     private final Vec4F absEyePosition = new Vec4F(0, 0, 2.7f, 1);
+    //Receives the tracked eye position each frame
+    private final float[] eye = new float[3];
     //private final Vec4F cameraEyePosition = new Vec4F(0, 0, 4, 1);
 
     private MeshHandle[] monkeyHandles;
+    private InstancedTechnique instancedTechnique;
+    private InstancedMeshHandle instancedMonkeys;
+    //Packed model matrices and world space bounds of each monkey, for frustum culling
+    private final float[] monkeyMatrices = new float[numMonkeys * 16];
+    private final BoundingSphere[] monkeyBounds = new BoundingSphere[numMonkeys];
+    //Index over monkeyBounds for culling and picking
+    private final BoundingVolumeHierarchy monkeyHierarchy = new BoundingVolumeHierarchy(numMonkeys);
+    //Monkey under the last touch, or -1
+    private volatile int pickedMonkey = -1;
+    //Indices of monkeys which passed culling this frame and the previous frame.  Instance data is only rewritten when the visible set changes.
+    private final int[] visibleMonkeys = new int[numMonkeys];
+    private final int[] previousVisibleMonkeys = new int[numMonkeys];
+    private int numPreviousVisibleMonkeys = -1;
+    //Largest color channel difference found by the parity check, or -1 until it has run
+    private volatile int instancingParityError = -1;
+    private final float[] savedEye = new float[3];
+    //Level of detail of each monkey, chosen every frame.  Visible monkeys are drawn grouped by level.
+    private final LevelOfDetailSelector monkeyLevelSelector = new LevelOfDetailSelector(numMonkeys, LOD_THRESHOLDS, LOD_HYSTERESIS);
+    private final int[] levelOrderedMonkeys = new int[numMonkeys];
+    private final int[] visibleMonkeyLevels = new int[numMonkeys];
+    private final int[] levelInstanceCounts = new int[LOD_GRID_RESOLUTIONS.length + 1];
+    private final int[] levelStarts = new int[LOD_GRID_RESOLUTIONS.length + 1];
+    //Triangles in the full detail monkey mesh
+    private int numMonkeyTriangles;
+    //Monkey triangles submitted in the last drawn frame, over all views, and how many there would have been at full detail
+    private volatile int numTrianglesSubmitted;
+    private volatile int numFullDetailTriangles;
+    //Monkeys drawn and culled in the last drawn frame
+    private volatile int numDrawnMonkeys;
+    private volatile int numCulledMonkeys;
+    //Light position transformed into view space for the instanced technique
+    private final float[] lightViewPosition = new float[3];
+    //Eye position, projection/view matrices (packed, see AnamorphicCamera.computeViews()) and frustum of each view
+    private final float[] viewEyes = new float[numViews * 3];
+    private final float[] viewMatrices = new float[numViews * AnamorphicCamera.FLOATS_PER_VIEW];
+    private final Frustum[] viewFrusta = new Frustum[numViews];
+    private final int[] viewport = new int[4];
+    //The current view's matrices, copied into the library's matrix type
+    private final Matrix4 projectionMatrix = Matrix4.newIdentity();
+    private final Matrix4 viewMatrix = Matrix4.newIdentity();
     private ObjectHandle monkeyGroupHandle;
     private MeshHandle screenHandle;
     private MeshHandle calibrationHandle;
+    //Matrices for the calibration overlay.  The projection depends on aspect ratio, so is rebuilt on resize.
+    private Matrix4 calibrationProjectionMatrix;
+    private final Matrix4 calibrationViewMatrix = Matrix4.newIdentity();
+    private final Matrix4 calibrationModelMatrix = Matrix4.newTranslation(CALIBRATION_X, CALIBRATION_Y, 0);
+    private final float[] calibrationTarget = new float[3];
+    private AutoRecalibrator autoRecalibrator;
+    //Only used for the depth constants the lit technique needs to sample shadows rendered by cubeShadowRenderer
     private CubeDepthRenderer cubeDepthRenderer;
-    private OrientationTracker orientationTracker;
+    //Faces of the shadow map are only re-rendered when the light, or a caster touching them, changes
+    private volatile CubeShadowCache shadowCache;
+    private CubeShadowRenderer cubeShadowRenderer;
+    //Casters of the face being rendered
+    private InstancedMeshHandle shadowMonkeys;
+    private final int[] shadowCasters = new int[numMonkeys];
     private EyeSensor eyeSensor;
     private EyeTracker eyeTracker;
 
-    public AnamorphicRenderer(int cameraPreviewWidth, int cameraPreviewHeight, float fovX, float fovY, EyeSensorCalibration eyeSensorCalibration)
+    //Latest face detection, handed off from the face detector thread.  Stale detections are overwritten, not queued.
+    private final FaceMailbox faceMailbox = new FaceMailbox();
+    private EyePipeline eyePipeline;
+
+    //Bounds how far the CPU runs ahead of the GPU
+    private final FramePacer framePacer = new FramePacer(Math.max(1, maxFramesInFlight));
+
+    //Measures latency from camera capture through to frame swap
+    private final LatencyTracer latencyTracer = new LatencyTracer();
+
+    //Written by the sensor thread (see RotationSensorIngest), sampled once per frame into the eye tracker's orientation
+    private final RotationSampleBuffer rotationSamples = new RotationSampleBuffer(ROTATION_SAMPLE_CAPACITY);
+
+    //If not null, rotation vector events are recorded here
+    private volatile TrackingRecorder trackingRecorder;
+
+    //If not null, the view renders on demand: frames are requested when input arrives and are skipped if nothing visible changed
+    private volatile GLSurfaceView onDemandView;
+    private final RedrawTracker redrawTracker = new RedrawTracker(EYE_REDRAW_EPSILON, EYE_SETTLE_FRAMES);
+    //Rotation vector at the last frame request
+    private final float[] requestedRotation = new float[3];
+    private boolean wasCalibrating;
+
+    private final MeshCache monkeyMeshCache;
+    private final ProgramBinaryStore programBinaryStore;
+    private ProgramBinaryCache programCache;
+    //Time from the surface (and GL context) being created until the first call to onDrawFrame(), in nanoseconds.  Negative until then.
+    private long surfaceCreatedTime;
+    private volatile long timeToFirstFrame = -1;
+    private GLCache glCache;
+    private final ResolutionScaler resolutionScaler = new ResolutionScaler(TARGET_GPU_FRAME_TIME, MIN_RESOLUTION_SCALE, MAX_RESOLUTION_SCALE, RESOLUTION_SCALE_STEP);
+    private GpuFrameTimer gpuFrameTimer;
+    //Dynamic resolution is in use.  It needs GPU timer queries: the CPU side of a GPU bound frame is no slower, so it can't show when to lower the resolution.
+    private boolean scaleResolution;
+    //Offscreen scene target.  Only grows, so the scene occupies its lower left renderWidth x renderHeight region.
+    private FrameBuffer sceneFrameBuffer;
+    private Texture2D sceneColorTexture;
+    private Texture2D sceneDepthTexture;
+    private int sceneTargetWidth;
+    private int sceneTargetHeight;
+    //Size the scene is rendered at this frame
+    private int renderWidth;
+    private int renderHeight;
+    private Std2DTechnique upscaleTechnique;
+    private MeshHandle upscaleHandle;
+    //Stretches the rendered region of the scene texture over the surface
+    private final Matrix4 upscaleModelMatrix = Matrix4.newIdentity();
+    private final Matrix4 identityMatrix = Matrix4.newIdentity();
+    //Reported to other threads
+    private volatile float resolutionScale = 1;
+    private volatile long gpuFrameTime;
+
+    public AnamorphicRenderer(int cameraPreviewWidth, int cameraPreviewHeight, float fovX, float fovY, EyeSensorCalibration eyeSensorCalibration, File cacheDir)
     {
         super(AndGraphicsUtils.GL_VERSION_30, AndGraphicsUtils.GL_VERSION_30, "shaders");
+        monkeyMeshCache = new MeshCache(new File(cacheDir, MONKEY_MESH_CACHE_FILE));
+        programBinaryStore = new ProgramBinaryStore(new File(cacheDir, PROGRAM_BINARY_DIRECTORY));
         if (eyeSensorCalibration == null)
         {
             eyeSensorCalibration = new EyeSensorCalibration();
@@ -88,62 +314,118 @@ class AnamorphicRenderer extends GameRenderer
         {
             eyeSensor = new EyeSensor(eyeSensorCalibration, cameraPreviewWidth, cameraPreviewHeight, fovX, fovY);
         }
+        if (autoRecalibrate)
+        {
+            autoRecalibrator = new AutoRecalibrator(RECALIBRATION_CAPACITY, RECALIBRATION_MIN_SAMPLES, RECALIBRATION_INTERVAL, RECALIBRATION_RATE);
+            eyeSensor.setAutoRecalibrator(autoRecalibrator);
+        }
     }
 
     @Override
     protected void onSurfaceCreated(AssetLoader al, GLCache glCache, SystemInfo systemInfo) throws GraphicsException
     {
+        surfaceCreatedTime = System.nanoTime();
+        timeToFirstFrame = -1;
+        this.glCache = glCache;
+        programCache = new ProgramBinaryCache(useProgramBinaryCache ? programBinaryStore : null);
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         GLES20.glCullFace(GLES20.GL_BACK);
         GLES20.glEnable(GLES20.GL_CULL_FACE);
 
         anamorphicCamera = new AnamorphicCamera(2.0f, -1.5f, 25.0f);
-        eyeTracker = new EyeTracker(0.1f);
+        for (int i = 0; i < numViews; i++)
+        {
+            viewFrusta[i] = new Frustum();
+        }
+        eyeTracker = new EyeTracker(EYE_MAX_SAMPLE_AGE, new RotationVectorOrientation());
+        eyeTracker.setPredictiveFilter(new KalmanEyeFilter(EYE_ACCELERATION_NOISE, EYE_MEASUREMENT_NOISE, EYE_INITIAL_VELOCITY_VARIANCE));
+        eyePipeline = new EyePipeline(faceMailbox, rotationSamples, eyeSensor, eyeTracker);
         PheiffGLUtils.enableAlphaTransparency();
-        orientationTracker = new OrientationTracker(true);
         GLES20.glClearColor(0.5f, 0.5f, 0.5f, 1.0f);
+        framePacer.reset();
+        setMaxFramesInFlight(maxFramesInFlight);
+        redrawTracker.reset();
+        if (onDemandView != null && !enablePreservedSwap())
+        {
+            //A skipped frame still swaps, which would show stale buffer contents
+            Log.w("Render", "Preserved swap not supported, rendering continuously");
+            onDemandView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+            onDemandView = null;
+        }
 
-        lighting = new HoloLighting(new float[]{0.2f, 0.2f, 0.2f, 1.0f}, new float[]{0, 0, 2.7f, 1}, new float[]{0.7f, 0.7f, 0.7f, 1.0f}, new boolean[]{true});
-        //lighting.setCastsCubeShadow(0, 1);
+        lighting = new HoloLighting(AMBIENT_LIGHT_COLOR, LIGHT_POSITION, LIGHT_COLOR, new boolean[]{true});
+        if (shadowsEnabled)
+        {
+            lighting.setCastsCubeShadow(0, 1);
+        }
         cubeDepthTextures = new TextureCubeMap[Lighting.numLightsSupported];
-        cubeDepthTextures[0] = glCache.buildCubeDepthTex(1024, 1024).build();
-        cubeDepthRenderer = new CubeDepthRenderer(glCache, 0.1f, 100.0f);
+        cubeDepthTextures[0] = glCache.buildCubeDepthTex(SHADOW_RESOLUTION, SHADOW_RESOLUTION).build();
+        cubeDepthRenderer = new CubeDepthRenderer(glCache, SHADOW_NEAR, SHADOW_FAR);
+        cubeShadowRenderer = new CubeShadowRenderer(cubeDepthTextures[0].getHandle(), SHADOW_RESOLUTION, programCache);
+        //The texture is new, so every face starts dirty
+        shadowCache = new CubeShadowCache(SHADOW_NEAR, SHADOW_FAR, numMonkeys);
+        shadowCache.setLightPosition(LIGHT_POSITION[0], LIGHT_POSITION[1], LIGHT_POSITION[2]);
         PheiffGLUtils.enableAlphaTransparency();
 
         color3DTechnique = glCache.buildTechnique(Std3DTechnique.class, GraphicsConfig.TEXTURED_MATERIAL, false);
         color2DTechnique = glCache.buildTechnique(Std2DTechnique.class,
                 GraphicsConfig.TEXTURED_2D, false,
                 GraphicsConfig.COLOR_VERTEX_2D, true);
+        upscaleTechnique = glCache.buildTechnique(Std2DTechnique.class,
+                GraphicsConfig.TEXTURED_2D, true,
+                GraphicsConfig.COLOR_VERTEX_2D, true);
+        gpuFrameTimer = new GpuFrameTimer();
+        scaleResolution = dynamicResolution && gpuFrameTimer.isSupported();
+        if (dynamicResolution && !scaleResolution)
+        {
+            Log.i("Render", "GPU timer queries not supported, so rendering at full resolution");
+        }
+        resolutionScaler.reset();
+        resolutionScale = resolutionScaler.getScale();
+        //Textures from a previous context are gone
+        sceneFrameBuffer = null;
+        sceneColorTexture = null;
+        sceneDepthTexture = null;
+        sceneTargetWidth = 0;
+        sceneTargetHeight = 0;
 
-        ColladaFactory colladaFactory = new ColladaFactory();
         try
         {
-            Collada collada = colladaFactory.loadCollada(al, "meshes/test_render.dae");
-
-            //Lookup object from loaded file by "name" (what user named it in editing tool)
-            ColladaObject3D monkey = collada.objects.get("Monkey");
-
-            //From a given object get all meshes which should be rendered with the given material (in this case there is only one mesh which uses the single material defined in the file).
-            Mesh mesh = monkey.getMesh(0);
+            long meshLoadStart = System.nanoTime();
+            byte[] monkeySourceHash = MeshCache.hash(al.getInputStream(MONKEY_MESH_PATH));
+            //Vertices and levels of detail, mapped from the cache, or built in direct memory on a miss.  Instanced and shadow drawing upload from this.
+            CachedMesh monkeyMesh = monkeyMeshCache.load(monkeySourceHash, LOD_GRID_RESOLUTIONS);
+            boolean cacheHit = monkeyMesh != null;
+            Mesh colladaMesh = null;
+            if (!cacheHit)
+            {
+                colladaMesh = loadColladaMonkey(al);
+                monkeyMesh = buildMonkeyMesh(monkeySourceHash, colladaMesh);
+                cacheMonkey(monkeyMesh);
+            }
+            Log.i("Render", String.format(Locale.US, "Monkey mesh loaded from %s in %.1f ms", cacheHit ? "cache" : "Collada", (System.nanoTime() - meshLoadStart) / 1000000.0));
 
             manager = new MeshDataManager();
-            monkeyHandles = new MeshHandle[numMonkeys];
-            monkeyHandles[0] = manager.addStaticMesh(
-                    mesh,
-                    color3DTechnique,
-                    new RenderPropertyValue[]
-                            {
-                                    new RenderPropertyValue(RenderProperty.MAT_COLOR, new float[]{0f, 1f, 1f, 1f}),
-                                    new RenderPropertyValue(RenderProperty.SPEC_MAT_COLOR, new float[]{1f, 1f, 1f, 1f}),
-                                    new RenderPropertyValue(RenderProperty.SHININESS, 100f)
-                            });
-            for (int i = 1; i < numMonkeys; i++)
+            monkeyHandles = null;
+            if (!useInstancing || checkInstancingParity)
             {
-                monkeyHandles[i] = monkeyHandles[0].copy();
+                monkeyHandles = new MeshHandle[numMonkeys];
+                monkeyHandles[0] = manager.addStaticMesh(
+                        colladaMesh != null ? colladaMesh : toMesh(monkeyMesh),
+                        color3DTechnique,
+                        new RenderPropertyValue[]
+                                {
+                                        new RenderPropertyValue(RenderProperty.MAT_COLOR, MONKEY_COLOR),
+                                        new RenderPropertyValue(RenderProperty.SPEC_MAT_COLOR, MONKEY_SPEC_COLOR),
+                                        new RenderPropertyValue(RenderProperty.SHININESS, MONKEY_SHININESS)
+                                });
+                for (int i = 1; i < numMonkeys; i++)
+                {
+                    monkeyHandles[i] = monkeyHandles[0].copy();
+                }
+                monkeyGroupHandle = new ObjectHandle();
+                monkeyGroupHandle.setMeshHandles(monkeyHandles);
             }
-            monkeyGroupHandle = new ObjectHandle();
-            monkeyGroupHandle.setMeshHandles(monkeyHandles);
-            cubeDepthRenderer.add(monkeyGroupHandle);
             EnumMap<VertexAttribute, float[]> data = new EnumMap<>(VertexAttribute.class);
             data.put(VertexAttribute.POSITION4, MeshGenUtils.genSingleQuadPositionData(0, 0, 0, 2f, VertexAttribute.POSITION4));
             data.put(VertexAttribute.NORMAL3, new float[]{0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1});
@@ -166,12 +448,38 @@ class AnamorphicRenderer extends GameRenderer
                     color2DTechnique,
                     new RenderPropertyValue[]{new RenderPropertyValue(RenderProperty.MODEL_MATRIX, Matrix4.newIdentity())});
 
+            upscaleHandle = manager.addStaticMesh(
+                    MeshGenUtils.genSingleQuadMeshTexColor(0, 0, 0, 2f, VertexAttribute.POSITION4, new float[]{1, 1, 1, 1}),
+                    upscaleTechnique,
+                    new RenderPropertyValue[]{new RenderPropertyValue(RenderProperty.MODEL_MATRIX, upscaleModelMatrix)});
+
             manager.packAndTransfer();
+            if (useInstancing)
+            {
+                instancedTechnique = new InstancedTechnique(programCache);
+                //Without level of detail, only level 0 is ever drawn
+                instancedMonkeys = new InstancedMeshHandle(monkeyMesh, numMonkeys);
+                numPreviousVisibleMonkeys = -1;
+            }
+            numMonkeyTriangles = monkeyMesh.getIndexCount(0) / 3;
+            shadowMonkeys = new InstancedMeshHandle(monkeyMesh, numMonkeys);
+            BoundingSphere monkeyLocalBounds = BoundingSphere.fromPositions(monkeyMesh.getPositions(), 4);
             for (int i = 0; i < numMonkeys; i++)
             {
                 Matrix4 transform = Matrix4.newTranslation(0.0f, 0.0f, 0.5f - i * 1f);
                 transform.scaleBy(0.3f, 0.3f, 0.3f);
-                monkeyHandles[i].setProperty(RenderProperty.MODEL_MATRIX, transform);
+                if (monkeyHandles != null)
+                {
+                    monkeyHandles[i].setProperty(RenderProperty.MODEL_MATRIX, transform);
+                }
+                System.arraycopy(transform.m, 0, monkeyMatrices, i * 16, 16);
+                monkeyBounds[i] = new BoundingSphere();
+                monkeyBounds[i].setTransformed(monkeyLocalBounds, transform.m);
+            }
+            monkeyHierarchy.build(monkeyBounds, numMonkeys);
+            for (int i = 0; i < numMonkeys; i++)
+            {
+                shadowCache.addObject(monkeyBounds[i]);
             }
         }
         catch (IOException | XMLParseException e)
@@ -180,70 +488,783 @@ class AnamorphicRenderer extends GameRenderer
         }
     }
 
+    /**
+     * Simplify the monkey mesh into levels of detail, which share its vertices, and lay it out for drawing and caching.
+     */
+    private static CachedMesh buildMonkeyMesh(byte[] sourceHash, Mesh mesh)
+    {
+        long start = System.nanoTime();
+        float[] positions = mesh.getAttributeData(VertexAttribute.POSITION4);
+        LevelOfDetailMesh levels = LevelOfDetailMesh.build(positions, 4, mesh.getVertexIndices(), LOD_GRID_RESOLUTIONS);
+        StringBuilder triangles = new StringBuilder();
+        for (int level = 0; level < levels.getNumLevels(); level++)
+        {
+            triangles.append(level == 0 ? "" : ", ").append(levels.getNumTriangles(level));
+        }
+        Log.i("Render", String.format(Locale.US, "Monkey levels of detail built in %.1f ms, triangles: %s", (System.nanoTime() - start) / 1000000.0, triangles));
+        return MeshCache.build(sourceHash, LOD_GRID_RESOLUTIONS, positions, mesh.getAttributeData(VertexAttribute.NORMAL3), levels);
+    }
+
+    private static Mesh loadColladaMonkey(AssetLoader al) throws IOException, XMLParseException
+    {
+        ColladaFactory colladaFactory = new ColladaFactory();
+        Collada collada = colladaFactory.loadCollada(al, MONKEY_MESH_PATH);
+
+        //Lookup object from loaded file by "name" (what user named it in editing tool)
+        ColladaObject3D monkey = collada.objects.get("Monkey");
+
+        //From a given object get all meshes which should be rendered with the given material (in this case there is only one mesh which uses the single material defined in the file).
+        return monkey.getMesh(0);
+    }
+
+    /**
+     * Save the monkey mesh, so the next launch needn't parse Collada or simplify it.  Failure only costs startup time, so is logged rather than thrown.
+     */
+    private void cacheMonkey(CachedMesh mesh)
+    {
+        try
+        {
+            monkeyMeshCache.store(mesh);
+        }
+        catch (IOException e)
+        {
+            Log.w("Render", "Could not cache monkey mesh", e);
+            monkeyMeshCache.delete();
+        }
+    }
+
+    /**
+     * Copy level 0 of the mesh into a heap Mesh, for the standard technique.  MeshDataManager only accepts array backed meshes, so this copy can't be avoided
+     * without a change to the graphics library.  Instanced and shadow drawing upload from the cached buffers directly, so this is only done when the standard
+     * technique draws the monkeys.
+     */
+    private static Mesh toMesh(CachedMesh cachedMesh)
+    {
+        EnumMap<VertexAttribute, float[]> data = new EnumMap<>(VertexAttribute.class);
+        FloatBuffer positions = cachedMesh.getPositions();
+        float[] positionData = new float[positions.remaining()];
+        positions.get(positionData);
+        data.put(VertexAttribute.POSITION4, positionData);
+        FloatBuffer normals = cachedMesh.getNormals();
+        float[] normalData = new float[normals.remaining()];
+        normals.get(normalData);
+        data.put(VertexAttribute.NORMAL3, normalData);
+        ShortBuffer indices = cachedMesh.getIndices();
+        short[] indexData = new short[cachedMesh.getIndexCount(0)];
+        indices.get(indexData);
+        return new Mesh(cachedMesh.getNumVertices(), data, indexData);
+    }
+
     @Override
     public void onDrawFrame() throws GraphicsException
     {
-
+        long frameStartTime = System.nanoTime();
+        //The first frame is drawn, and timed until the GPU finishes it, whether or not a face is seen yet
+        boolean firstFrame = timeToFirstFrame < 0;
+        //After the first frame, so it isn't timed, and before any early return, so it doesn't wait for a face
+        if (!firstFrame && checkInstancingParity && useInstancing && instancingParityError < 0)
+        {
+            checkInstancingParity();
+        }
+        eyePipeline.updateOrientation(frameStartTime);
+        FaceSnapshot faceSnapshot = eyePipeline.drainFace();
+        if (faceSnapshot != null)
+        {
+            if (faceSnapshot.present)
+            {
+                latencyTracer.faceDrained(faceSnapshot.captureTimeNanos, faceSnapshot.postTimeNanos, frameStartTime);
+                if (faceSnapshot.newFace)
+                {
+                    faceOnCamera();
+                }
+                faceUpdated();
+            }
+            else
+            {
+                faceOffCamera();
+            }
+        }
 
 //        Vec4F eye = absEyePosition.copy();
 //        eye.transformBy(orientationMatrix);
 
-        Vec4F eye = eyeTracker.getEye();
-        if (eye == null)
+        if (!eyePipeline.getEye(frameStartTime + (long) (EYE_PREDICTION_HORIZON * 1000000000.0), eye))
         {
+            if (!firstFrame)
+            {
+                return;
+            }
+            System.arraycopy(DEFAULT_EYE, 0, eye, 0, 3);
+        }
+
+        if (!shouldDraw() && !firstFrame)
+        {
+            latencyTracer.frameSkipped();
             return;
         }
 
-        anamorphicCamera.setPosition(eye.x(), eye.y(), eye.z());
+        computeViews();
+        long drawStartTime = System.nanoTime();
+        latencyTracer.drawStarted(drawStartTime);
+        gpuFrameTimer.beginFrame();
+
+        int numVisible = prepareScene();
+        if (useInstancing)
+        {
+            numTrianglesSubmitted = numViews * instancedMonkeys.getNumTriangles();
+        }
+        else
+        {
+            numTrianglesSubmitted = numViews * numVisible * numMonkeyTriangles;
+        }
+        numFullDetailTriangles = numViews * numVisible * numMonkeyTriangles;
 
-        //Render shadows
-        //renderShadowDepth(orientationMatrix);
+        for (int view = 0; view < numViews; view++)
+        {
+            drawView(view, numVisible, useInstancing);
+        }
 
+        if (scaleResolution)
+        {
+            upscaleScene();
+        }
 
-        //Bind main frame buffer
-        FrameBuffer.main.bind(0, 0, getSurfaceWidth(), getSurfaceHeight());
-        GLES20.glViewport(0, 0, getSurfaceWidth(), getSurfaceHeight());
+        if (eyeSensor.isCalibrating())
+        {
+            GLES20.glViewport(0, 0, getSurfaceWidth(), getSurfaceHeight());
+            color2DTechnique.setProperty(RenderProperty.PROJECTION_MATRIX, calibrationProjectionMatrix);
+            color2DTechnique.setProperty(RenderProperty.VIEW_MATRIX, calibrationViewMatrix);
+            //Marker at the current target
+            if (eyeSensor.getCalibrationTarget(calibrationTarget))
+            {
+                calibrationModelMatrix.m[12] = calibrationTarget[0];
+                calibrationModelMatrix.m[13] = calibrationTarget[1];
+            }
+            calibrationHandle.setProperty(RenderProperty.MODEL_MATRIX, calibrationModelMatrix);
+            calibrationHandle.drawTriangles();
+        }
+        gpuFrameTimer.endFrame();
+        if (firstFrame)
+        {
+            firstFrameFinished();
+        }
+        framePacer.endFrame();
+        //Swap happens immediately after this returns
+        long swapTime = System.nanoTime();
+        latencyTracer.frameSwapped(swapTime);
+        updateResolutionScale();
+    }
+
+    /**
+     * Record the time to first frame.  Startup cost includes the shader and mesh setup done in onSurfaceCreated(), and work drivers defer until a program is
+     * first drawn with (such as compiling it), so this waits for the GPU to finish the frame.
+     */
+    private void firstFrameFinished()
+    {
+        GLES20.glFinish();
+        timeToFirstFrame = System.nanoTime() - surfaceCreatedTime;
+        Log.i("Render", String.format(Locale.US, "Time to first frame: %.1f ms (program binary cache %s, %d loaded, %d compiled; library Std3D/Std2D techniques are not cached)",
+                timeToFirstFrame / 1000000.0, useProgramBinaryCache ? "on" : "off", programCache.getNumHits(), programCache.getNumMisses()));
+        GLSurfaceView view = onDemandView;
+        if (checkInstancingParity && useInstancing && view != null)
+        {
+            //The parity check runs at the start of the next frame
+            view.requestRender();
+        }
+    }
+
+    /**
+     * Update shadows, bind and clear the scene target, set the properties shared by all views, and cull the monkeys against the current views.
+     *
+     * @return number of visible monkeys
+     */
+    private int prepareScene()
+    {
+        if (shadowsEnabled)
+        {
+            updateShadowFaces();
+        }
+
+        bindSceneTarget();
         GLES20.glClearColor(0.5f, 0.5f, 0.5f, 1.0f);
         GLES20.glClearDepthf(1);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        color3DTechnique.setProperty(RenderProperty.PROJECTION_MATRIX, anamorphicCamera.getProjectionMatrix());
-        color3DTechnique.setProperty(RenderProperty.VIEW_MATRIX, anamorphicCamera.getViewMatrix());
+        //Scene properties are set once and shared by all views
         color3DTechnique.setProperty(RenderProperty.LIGHTING, lighting);
         color3DTechnique.setProperty(RenderProperty.DEPTH_Z_CONST, cubeDepthRenderer.getDepthZConst());
         color3DTechnique.setProperty(RenderProperty.DEPTH_Z_FACTOR, cubeDepthRenderer.getDepthZFactor());
         color3DTechnique.setProperty(RenderProperty.CUBE_DEPTH_TEXTURES, cubeDepthTextures);
+        int numVisible = cullMonkeys();
+        if (useInstancing)
+        {
+            updateInstancedMonkeys(numVisible);
+            instancedTechnique.bind(AMBIENT_LIGHT_COLOR, LIGHT_COLOR);
+            instancedTechnique.setMaterial(MONKEY_COLOR, MONKEY_SPEC_COLOR, MONKEY_SHININESS);
+            instancedTechnique.setShadow(cubeDepthTextures[0].getHandle(), cubeDepthRenderer.getDepthZConst(), cubeDepthRenderer.getDepthZFactor(), LIGHT_POSITION);
+        }
+        return numVisible;
+    }
+
+    /**
+     * Bind the frame buffer the scene is drawn into, and set renderWidth/renderHeight: the offscreen target at the current resolution scale, or the main frame buffer.
+     */
+    private void bindSceneTarget()
+    {
+        if (scaleResolution)
+        {
+            renderWidth = Math.max(1, Math.round(getSurfaceWidth() * resolutionScaler.getScale()));
+            renderHeight = Math.max(1, Math.round(getSurfaceHeight() * resolutionScaler.getScale()));
+            sceneFrameBuffer.bind(0, 0, renderWidth, renderHeight);
+        }
+        else
+        {
+            renderWidth = getSurfaceWidth();
+            renderHeight = getSurfaceHeight();
+            FrameBuffer.main.bind(0, 0, renderWidth, renderHeight);
+        }
+        GLES20.glViewport(0, 0, renderWidth, renderHeight);
+    }
+
+    /**
+     * Draw the rendered region of the offscreen scene over the whole surface.  Leaves the main frame buffer bound.
+     */
+    private void upscaleScene()
+    {
+        FrameBuffer.main.bind(0, 0, getSurfaceWidth(), getSurfaceHeight());
+        GLES20.glViewport(0, 0, getSurfaceWidth(), getSurfaceHeight());
+        //The quad covers the surface, and already blended scene alpha must not blend again
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_BLEND);
+
+        //Quad spans [-1, 1], with texture coordinates [0, 1].  Scale it about its lower left corner, so only the rendered region maps to the surface.
+        float scaleX = sceneTargetWidth / (float) renderWidth;
+        float scaleY = sceneTargetHeight / (float) renderHeight;
+        upscaleModelMatrix.m[0] = scaleX;
+        upscaleModelMatrix.m[5] = scaleY;
+        upscaleModelMatrix.m[12] = scaleX - 1;
+        upscaleModelMatrix.m[13] = scaleY - 1;
+        upscaleTechnique.setProperty(RenderProperty.PROJECTION_MATRIX, identityMatrix);
+        upscaleTechnique.setProperty(RenderProperty.VIEW_MATRIX, identityMatrix);
+        upscaleTechnique.setProperty(RenderProperty.IMAGE_TEXTURE, sceneColorTexture);
+        upscaleHandle.setProperty(RenderProperty.MODEL_MATRIX, upscaleModelMatrix);
+        upscaleHandle.drawTriangles();
+
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    }
+
+    /**
+     * Feed the GPU time of a frame, measured with timer queries, to the resolution scaler.  Results arrive a few frames late.
+     */
+    private void updateResolutionScale()
+    {
+        long frameTime = gpuFrameTimer.pollFrameTime();
+        if (frameTime < 0)
+        {
+            return;
+        }
+        gpuFrameTime = frameTime;
+        if (scaleResolution && resolutionScaler.addFrameTime(frameTime))
+        {
+            resolutionScale = resolutionScaler.getScale();
+            Log.i("Render", "Resolution scale: " + resolutionScale);
+            markSceneDirty();
+        }
+    }
+
+    /**
+     * Grow the offscreen scene target, if needed, to hold the surface at the maximum resolution scale.  Textures are never shrunk, as the surface size only changes
+     * on rotation and the old size is likely to return.  Grown textures replace the old ones in the same frame buffer, and the old ones are deleted.
+     */
+    private void allocateSceneTarget(int width, int height)
+    {
+        int targetWidth = Math.max(sceneTargetWidth, (int) Math.ceil(width * MAX_RESOLUTION_SCALE));
+        int targetHeight = Math.max(sceneTargetHeight, (int) Math.ceil(height * MAX_RESOLUTION_SCALE));
+        if (sceneFrameBuffer != null && targetWidth == sceneTargetWidth && targetHeight == sceneTargetHeight)
+        {
+            return;
+        }
+        Texture2D oldColorTexture = sceneColorTexture;
+        Texture2D oldDepthTexture = sceneDepthTexture;
+        sceneColorTexture = glCache.buildColorTex(targetWidth, targetHeight).build();
+        sceneDepthTexture = glCache.buildDepthTex(targetWidth, targetHeight).build();
+        if (sceneFrameBuffer == null)
+        {
+            sceneFrameBuffer = new FrameBuffer();
+        }
+        sceneFrameBuffer.attachColor(0, sceneColorTexture);
+        sceneFrameBuffer.attachDepth(sceneDepthTexture);
+        if (oldColorTexture != null)
+        {
+            //No longer attached anywhere
+            GLES20.glDeleteTextures(2, new int[]{oldColorTexture.getHandle(), oldDepthTexture.getHandle()}, 0);
+        }
+        sceneTargetWidth = targetWidth;
+        sceneTargetHeight = targetHeight;
+    }
+
+    /**
+     * @return largest difference in any color channel (of 255) between the scene drawn with the instanced and the standard technique, or -1 if that hasn't been
+     * checked (it is only checked in debug builds)
+     */
+    int getInstancingParityError()
+    {
+        return instancingParityError;
+    }
 
-        color3DTechnique.applyConstantProperties();
-        for (int i = 0; i < numMonkeys; i++)
+    /**
+     * @return time from surface creation until the GPU finished drawing the first frame, in nanoseconds, or -1 if there has been none yet.  Only the app's own
+     * programs are cached (see ProgramBinaryCache), so this always includes compiling the library's Std3D/Std2D techniques.
+     */
+    public long getTimeToFirstFrame()
+    {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * @return current scale of the scene's render resolution relative to the surface (1 unless dynamic resolution is enabled)
+     */
+    public float getResolutionScale()
+    {
+        return resolutionScale;
+    }
+
+    /**
+     * @return GPU time of the most recently measured frame, in nanoseconds, or 0 if none has been (GPU timer queries may not be supported)
+     */
+    public long getGpuFrameTime()
+    {
+        return gpuFrameTime;
+    }
+
+    /**
+     * Compute eye positions, matrices and frusta of all views from the tracked eye.
+     */
+    private void computeViews()
+    {
+        if (numViews == 1)
+        {
+            //A single view follows the camera, which keeps its own matrices and frustum
+            viewEyes[0] = eye[0];
+            viewEyes[1] = eye[1];
+            viewEyes[2] = eye[2];
+            anamorphicCamera.setPosition(eye[0], eye[1], eye[2]);
+            System.arraycopy(anamorphicCamera.getProjectionMatrix(), 0, viewMatrices, AnamorphicCamera.PROJECTION_OFFSET, 16);
+            System.arraycopy(anamorphicCamera.getViewMatrix(), 0, viewMatrices, AnamorphicCamera.VIEW_OFFSET, 16);
+            viewFrusta[0] = anamorphicCamera.getFrustum();
+            return;
+        }
+        if (numViews == 2)
+        {
+            AnamorphicCamera.computeStereoEyes(eye, INTERPUPILLARY_DISTANCE, viewEyes);
+        }
+        else
+        {
+            for (int i = 0; i < numViews; i++)
+            {
+                viewEyes[i * 3] = eye[0];
+                viewEyes[i * 3 + 1] = eye[1];
+                viewEyes[i * 3 + 2] = eye[2];
+            }
+        }
+        anamorphicCamera.computeViews(viewEyes, numViews, viewMatrices);
+        for (int i = 0; i < numViews; i++)
+        {
+            int viewStart = i * AnamorphicCamera.FLOATS_PER_VIEW;
+            viewFrusta[i].set(viewMatrices, viewStart + AnamorphicCamera.PROJECTION_OFFSET, viewMatrices, viewStart + AnamorphicCamera.VIEW_OFFSET);
+        }
+    }
+
+    /**
+     * Draw the scene into one view's viewport.  Only the view's matrices are set here.
+     *
+     * @param instanced draw the monkeys with instancedTechnique, rather than their individual handles
+     */
+    private void drawView(int view, int numVisible, boolean instanced)
+    {
+        if (numViews > 1)
+        {
+            viewLayout.getViewport(view, numViews, renderWidth, renderHeight, viewport);
+            GLES20.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        }
+        int projectionStart = view * AnamorphicCamera.FLOATS_PER_VIEW + AnamorphicCamera.PROJECTION_OFFSET;
+        int viewStart = view * AnamorphicCamera.FLOATS_PER_VIEW + AnamorphicCamera.VIEW_OFFSET;
+        System.arraycopy(viewMatrices, projectionStart, projectionMatrix.m, 0, 16);
+        System.arraycopy(viewMatrices, viewStart, viewMatrix.m, 0, 16);
+        color3DTechnique.setProperty(RenderProperty.PROJECTION_MATRIX, projectionMatrix);
+        color3DTechnique.setProperty(RenderProperty.VIEW_MATRIX, viewMatrix);
+
+        if (instanced)
+        {
+            if (numVisible > 0)
+            {
+                //The view matrix is a translation
+                lightViewPosition[0] = LIGHT_POSITION[0] + viewMatrices[viewStart + 12];
+                lightViewPosition[1] = LIGHT_POSITION[1] + viewMatrices[viewStart + 13];
+                lightViewPosition[2] = LIGHT_POSITION[2] + viewMatrices[viewStart + 14];
+                instancedTechnique.setView(viewMatrices, projectionStart, viewStart, lightViewPosition);
+                instancedMonkeys.drawTriangles();
+            }
+            color3DTechnique.applyConstantProperties();
+        }
+        else
         {
-            monkeyHandles[i].drawTriangles();
+            color3DTechnique.applyConstantProperties();
+            for (int i = 0; i < numVisible; i++)
+            {
+                monkeyHandles[visibleMonkeys[i]].drawTriangles();
+            }
         }
         screenHandle.drawTriangles();
+    }
 
-        if (eyeSensor.isCalibrating())
+    /**
+     * Draw the scene from DEFAULT_EYE with the instanced technique, then with the standard technique, each at full detail, and record how much the
+     * two images differ.  The two techniques' lighting is written separately, so this catches them drifting apart.  Leaves the standard image in the scene target,
+     * and the tracked eye as it was.
+     */
+    private void checkInstancingParity()
+    {
+        System.arraycopy(eye, 0, savedEye, 0, 3);
+        System.arraycopy(DEFAULT_EYE, 0, eye, 0, 3);
+        computeViews();
+        int numVisible = prepareScene();
+        ByteBuffer instancedPixels = ByteBuffer.allocateDirect(renderWidth * renderHeight * 4);
+        ByteBuffer standardPixels = ByteBuffer.allocateDirect(renderWidth * renderHeight * 4);
+        if (useLevelOfDetail)
         {
-            color2DTechnique.setProperty(RenderProperty.PROJECTION_MATRIX, Matrix4.newOrtho2D(getSurfaceWidth() / (float) getSurfaceHeight()));
-            color2DTechnique.setProperty(RenderProperty.VIEW_MATRIX, Matrix4.newIdentity());
-            calibrationHandle.setProperty(RenderProperty.MODEL_MATRIX, Matrix4.newTranslation(0.25f, 0.5f, 0));
-            calibrationHandle.drawTriangles();
+            //All visible instances at level 0
+            int[] fullDetailCounts = new int[levelInstanceCounts.length];
+            fullDetailCounts[0] = numVisible;
+            instancedMonkeys.setLevelInstances(fullDetailCounts);
         }
-        GLES20.glFinish();
+        drawAllViews(numVisible, true);
+        GLES20.glReadPixels(0, 0, renderWidth, renderHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, instancedPixels);
+        drawAllViews(numVisible, false);
+        GLES20.glReadPixels(0, 0, renderWidth, renderHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, standardPixels);
+        if (useLevelOfDetail)
+        {
+            instancedMonkeys.setLevelInstances(levelInstanceCounts);
+        }
+        System.arraycopy(savedEye, 0, eye, 0, 3);
+        redrawTracker.markSceneDirty();
+
+        int maxDifference = 0;
+        int numDiffering = 0;
+        for (int i = 0; i < renderWidth * renderHeight * 4; i++)
+        {
+            int difference = Math.abs((instancedPixels.get(i) & 0xFF) - (standardPixels.get(i) & 0xFF));
+            maxDifference = Math.max(maxDifference, difference);
+            if (difference > INSTANCING_PARITY_TOLERANCE)
+            {
+                numDiffering++;
+            }
+        }
+        String message = String.format(Locale.US, "Instanced vs standard technique (%d monkeys visible): max channel difference %d, %d channels over %d",
+                numVisible, maxDifference, numDiffering, INSTANCING_PARITY_TOLERANCE);
+        if (numDiffering > 0)
+        {
+            Log.w("Render", message);
+        }
+        else
+        {
+            Log.i("Render", message);
+        }
+        instancingParityError = maxDifference;
+    }
+
+    private void drawAllViews(int numVisible, boolean instanced)
+    {
+        GLES20.glViewport(0, 0, renderWidth, renderHeight);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        for (int view = 0; view < numViews; view++)
+        {
+            drawView(view, numVisible, instanced);
+        }
+    }
+
+    /**
+     * In render on demand mode, decide whether the current eye position, or scene changes, require the frame to be drawn.
+     */
+    private boolean shouldDraw()
+    {
+        //The calibration overlay is shown while calibrating and the calibration itself is changing
+        boolean calibrating = eyeSensor.isCalibrating();
+        if (calibrating || wasCalibrating)
+        {
+            redrawTracker.markSceneDirty();
+        }
+        wasCalibrating = calibrating;
+
+        GLSurfaceView view = onDemandView;
+        if (view == null)
+        {
+            return true;
+        }
+        if (!redrawTracker.needsRedraw(eye))
+        {
+            return false;
+        }
+        //Prediction extrapolates between samples, so keep drawing for a while after the latest input, until the eye settles
+        if (redrawTracker.rendered(eye))
+        {
+            view.requestRender();
+        }
+        return true;
+    }
+
+    /**
+     * Ask EGL to keep the color buffer contents across swaps, so that swapping without drawing redisplays the last frame.
+     *
+     * @return true if supported
+     */
+    private boolean enablePreservedSwap()
+    {
+        return EGL14.eglSurfaceAttrib(EGL14.eglGetCurrentDisplay(), EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW), EGL14.EGL_SWAP_BEHAVIOR, EGL14.EGL_BUFFER_PRESERVED);
+    }
+
+    /**
+     * Switch the view to render on demand.  Frames are requested when faces, significant rotations or scene changes arrive, and frames in which
+     * the eye has not moved are skipped entirely.  Must be called after the view's renderer is set.
+     *
+     * @param view the view rendering with this renderer
+     */
+    public void setRenderOnDemand(GLSurfaceView view)
+    {
+        view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        onDemandView = view;
+        view.requestRender();
+    }
+
+    /**
+     * Something visible, other than the eye position, changed.  Safe to call from any thread.
+     */
+    public void markSceneDirty()
+    {
+        redrawTracker.markSceneDirty();
+        requestRender();
     }
 
-    private void renderShadowDepth(Matrix4 orientationMatrix)
+    /**
+     * @return fraction of frames skipped because nothing visible changed (0 unless rendering on demand)
+     */
+    public float getSkippedFrameFraction()
     {
-        Vec4F positions = lighting.getPositions().copy();
-        positions.transformByAll(orientationMatrix);
-        positions.setIndex(0);
-        cubeDepthRenderer.render(positions.x(), positions.y(), positions.z(), cubeDepthTextures[0]);
+        return redrawTracker.getSkippedFraction();
+    }
+
+    /**
+     * Request a frame for new input.  Safe to call from any thread.
+     */
+    private void requestRender()
+    {
+        redrawTracker.inputArrived();
+        GLSurfaceView view = onDemandView;
+        if (view != null)
+        {
+            view.requestRender();
+        }
+    }
+
+    /**
+     * Select frame submission mode.  Must be called on the GL thread.
+     *
+     * @param maxFramesInFlight 0 for fully synchronous rendering (lowest latency), otherwise the maximum number of frames queued on the GPU
+     */
+    public void setMaxFramesInFlight(int maxFramesInFlight)
+    {
+        if (maxFramesInFlight == 0)
+        {
+            framePacer.setSynchronous();
+        }
+        else
+        {
+            framePacer.setPipelined(maxFramesInFlight);
+        }
+    }
+
+    /**
+     * Find monkeys inside any view's (off-axis) frustum.  All views draw the same set of monkeys, so instance data is shared.
+     *
+     * @return number of visible monkeys, whose indices are in visibleMonkeys
+     */
+    private int cullMonkeys()
+    {
+        int numVisible = monkeyHierarchy.cull(viewFrusta, numViews, visibleMonkeys);
+        numDrawnMonkeys = numVisible;
+        numCulledMonkeys = numMonkeys - numVisible;
+        return numVisible;
+    }
+
+    private void updateInstancedMonkeys(int numVisible)
+    {
+        int[] drawnMonkeys = visibleMonkeys;
+        if (useLevelOfDetail)
+        {
+            orderByLevel(numVisible);
+            drawnMonkeys = levelOrderedMonkeys;
+        }
+        if (visibleSetChanged(drawnMonkeys, numVisible))
+        {
+            //Pack visible monkeys' matrices into the first instances
+            for (int i = 0; i < numVisible; i++)
+            {
+                instancedMonkeys.setInstanceMatrices(i, monkeyMatrices, drawnMonkeys[i] * 16, 1);
+            }
+        }
+        if (useLevelOfDetail)
+        {
+            instancedMonkeys.setLevelInstances(levelInstanceCounts);
+        }
+        else
+        {
+            instancedMonkeys.setNumInstances(numVisible);
+        }
+    }
+
+    /**
+     * Choose each visible monkey's level of detail from its projected size in the first view, and put the visible monkeys, grouped by level, in
+     * levelOrderedMonkeys, with the number at each level in levelInstanceCounts.
+     */
+    private void orderByLevel(int numVisible)
+    {
+        Arrays.fill(levelInstanceCounts, 0);
+        for (int i = 0; i < numVisible; i++)
+        {
+            BoundingSphere bounds = monkeyBounds[visibleMonkeys[i]];
+            float diameter = renderHeight * AnamorphicProjection.projectedHeight(viewMatrices, AnamorphicCamera.PROJECTION_OFFSET, 2 * bounds.getRadius(), viewEyes[2] - bounds.getCenterZ());
+            int level = monkeyLevelSelector.select(visibleMonkeys[i], diameter);
+            visibleMonkeyLevels[i] = level;
+            levelInstanceCounts[level]++;
+        }
+        int start = 0;
+        for (int level = 0; level < levelInstanceCounts.length; level++)
+        {
+            levelStarts[level] = start;
+            start += levelInstanceCounts[level];
+        }
+        for (int i = 0; i < numVisible; i++)
+        {
+            levelOrderedMonkeys[levelStarts[visibleMonkeyLevels[i]]++] = visibleMonkeys[i];
+        }
+    }
+
+    private boolean visibleSetChanged(int[] drawnMonkeys, int numVisible)
+    {
+        boolean changed = numVisible != numPreviousVisibleMonkeys;
+        for (int i = 0; i < numVisible && !changed; i++)
+        {
+            changed = drawnMonkeys[i] != previousVisibleMonkeys[i];
+        }
+        if (changed)
+        {
+            System.arraycopy(drawnMonkeys, 0, previousVisibleMonkeys, 0, numVisible);
+            numPreviousVisibleMonkeys = numVisible;
+        }
+        return changed;
+    }
+
+    /**
+     * @return number of objects drawn in the last drawn frame, after frustum culling
+     */
+    public int getNumDrawnObjects()
+    {
+        return numDrawnMonkeys;
+    }
+
+    /**
+     * @return monkey triangles submitted for drawing in the last drawn frame, over all views (shadow map faces are not included)
+     */
+    public int getNumTrianglesSubmitted()
+    {
+        return numTrianglesSubmitted;
+    }
+
+    /**
+     * @return monkey triangles the last drawn frame would have submitted if every monkey were drawn at full detail
+     */
+    public int getNumFullDetailTriangles()
+    {
+        return numFullDetailTriangles;
+    }
+
+    /**
+     * @return number of objects culled, as outside the view frustum, in the last drawn frame
+     */
+    public int getNumCulledObjects()
+    {
+        return numCulledMonkeys;
+    }
+
+    /**
+     * Re-render only the shadow map faces which are out of date, each with only the monkeys which can cast into it.
+     * Leaves an arbitrary frame buffer bound.
+     */
+    private void updateShadowFaces()
+    {
+        float[] faceViewProjections = shadowCache.getFaceViewProjections();
+        for (int face = 0; face < CubeShadowCache.NUM_FACES; face++)
+        {
+            if (shadowCache.isFaceDirty(face))
+            {
+                int numCasters = shadowCache.getFaceCasters(face, shadowCasters);
+                for (int i = 0; i < numCasters; i++)
+                {
+                    shadowMonkeys.setInstanceMatrices(i, monkeyMatrices, shadowCasters[i] * 16, 1);
+                }
+                shadowMonkeys.setNumInstances(numCasters);
+                cubeShadowRenderer.renderFace(face, faceViewProjections, shadowMonkeys);
+                shadowCache.faceRendered(face);
+            }
+        }
+    }
+
+    /**
+     * @return total number of shadow map faces rendered (a full shadow map update is 6)
+     */
+    public long getNumShadowFacesRendered()
+    {
+        CubeShadowCache cache = shadowCache;
+        return cache == null ? 0 : cache.getNumFacesRendered();
     }
 
     @Override
     public void onSurfaceResize(int width, int height)
     {
         super.onSurfaceResize(width, height);
+        if (scaleResolution)
+        {
+            allocateSceneTarget(width, height);
+        }
         anamorphicCamera.setAspect(width / (float) height);
+        calibrationProjectionMatrix = Matrix4.newOrtho2D(width / (float) height);
+        markSceneDirty();
+    }
+
+    /**
+     * Find the monkey seen through a point on the screen: the nearest one along the ray from the eye through that point.  Must be called on the GL thread.
+     *
+     * @param touchX x of the point, in view pixels
+     * @param touchY y of the point, in view pixels (down is positive)
+     * @return index of the monkey, or -1 if there is none
+     */
+    public int pick(float touchX, float touchY)
+    {
+        //Screen coordinates: the screen is 2 high, centered at the origin, with up positive
+        float height = getSurfaceHeight();
+        float screenX = (2 * touchX - getSurfaceWidth()) / height;
+        float screenY = (height - 2 * touchY) / height;
+        pickedMonkey = monkeyHierarchy.pick(eye[0], eye[1], eye[2], screenX - eye[0], screenY - eye[1], -eye[2]);
+        return pickedMonkey;
+    }
+
+    /**
+     * @return index of the monkey found by the last pick(), or -1
+     */
+    public int getPickedObject()
+    {
+        return pickedMonkey;
     }
 
     @Override
@@ -259,73 +1280,195 @@ class AnamorphicRenderer extends GameRenderer
     @Override
     protected void onSensorChanged(int type, float[] values, long timestamp)
     {
-        switch (type)
+        //Rotation vector events arrive through RotationSensorIngest, not the view's sensor registration
+    }
+
+    /**
+     * @return buffer rotation vector events should be written into
+     */
+    public RotationSampleBuffer getRotationSamples()
+    {
+        return rotationSamples;
+    }
+
+    /**
+     * Called on the sensor thread, after the sample has been buffered.
+     */
+    @Override
+    public void onRotationSample(long eventTimeStamp, float[] values)
+    {
+        recordRotation(values, eventTimeStamp);
+        requestRenderIfRotated(values);
+    }
+
+    /**
+     * Sensor events arrive much faster than frames and jitter slightly while the device is still, so only request a frame if the rotation changed noticeably.
+     */
+    private void requestRenderIfRotated(float[] values)
+    {
+        if (onDemandView == null)
         {
-            case Sensor.TYPE_ROTATION_VECTOR:
-                orientationTracker.onSensorChanged(values);
-                eyeTracker.onOrientationSensorChanged(values);
-                break;
+            return;
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            if (Math.abs(values[i] - requestedRotation[i]) > ROTATION_REDRAW_EPSILON)
+            {
+                System.arraycopy(values, 0, requestedRotation, 0, 3);
+                requestRender();
+                return;
+            }
         }
     }
 
+    /**
+     * Post a face detection for the GL thread to pick up on its next frame.  Called from the face detector thread.
+     *
+     * @param face             the detected face
+     * @param newFace          is this the first detection of this face
+     * @param previewWidth     width of the upright camera frame the face was found in
+     * @param previewHeight    height of the upright camera frame the face was found in
+     * @param frameTimeMillis  detector's time stamp of the frame the face was found in
+     * @param captureTimeNanos System.nanoTime() at which the frame was captured
+     */
+    public void postFace(Face face, boolean newFace, int previewWidth, int previewHeight, long frameTimeMillis, long captureTimeNanos)
+    {
+        PointF position = face.getPosition();
+        postFace(newFace, face.getWidth(), face.getHeight(), position.x, position.y, previewWidth, previewHeight, frameTimeMillis, captureTimeNanos);
+    }
+
+    /**
+     * Post a face detection, given as its bounds, for the GL thread to pick up on its next frame.  Called from the face detector thread.
+     *
+     * @param newFace          is this the first detection of this face
+     * @param faceWidth        face width
+     * @param faceHeight       face height
+     * @param faceX            left of the face
+     * @param faceY            top of the face
+     * @param previewWidth     width of the upright camera frame the face was found in
+     * @param previewHeight    height of the upright camera frame the face was found in
+     * @param frameTimeMillis  detector's time stamp of the frame the face was found in
+     * @param captureTimeNanos System.nanoTime() at which the frame was captured
+     */
+    public void postFace(boolean newFace, float faceWidth, float faceHeight, float faceX, float faceY, int previewWidth, int previewHeight, long frameTimeMillis, long captureTimeNanos)
+    {
+        faceMailbox.postFace(newFace, faceWidth, faceHeight, faceX, faceY, previewWidth, previewHeight, frameTimeMillis, captureTimeNanos);
+        requestRender();
+    }
+
+    /**
+     * Post that the face is no longer on camera.  Called from the face detector thread.
+     *
+     * @param frameTimeMillis  detector's time stamp of the frame the face was lost in
+     * @param captureTimeNanos System.nanoTime() at which the frame was captured
+     */
+    public void postFaceMissing(long frameTimeMillis, long captureTimeNanos)
+    {
+        faceMailbox.postMissing(frameTimeMillis, captureTimeNanos);
+        requestRender();
+    }
 
-    public void faceOnCamera()
+    public LatencyTracer getLatencyTracer()
     {
+        return latencyTracer;
+    }
 
+    /**
+     * Set a recorder for rotation vector events (null to stop recording).
+     *
+     * @param trackingRecorder
+     */
+    public void setTrackingRecorder(TrackingRecorder trackingRecorder)
+    {
+        this.trackingRecorder = trackingRecorder;
     }
 
-    public void faceUpdated(Face face)
+    private void recordRotation(float[] values, long timestamp)
     {
-        final PointF leftEyePosition;
-        Landmark leftEye = getLandmark(face, Landmark.LEFT_EYE);
-        if (leftEye != null)
+        TrackingRecorder recorder = trackingRecorder;
+        if (recorder != null)
         {
-            leftEyePosition = leftEye.getPosition();
+            try
+            {
+                recorder.recordRotation(System.nanoTime(), timestamp, values);
+            }
+            catch (IOException e)
+            {
+                Log.e("Recording", "Could not record rotation, recording stopped", e);
+                trackingRecorder = null;
+            }
         }
-        else
+    }
+
+    /**
+     * @return the number of face detections which were replaced by a newer detection before being rendered
+     */
+    public long getNumCoalescedFaceUpdates()
+    {
+        return faceMailbox.getNumCoalesced();
+    }
+
+    private void faceOnCamera()
+    {
+
+    }
+
+    private void faceUpdated()
+    {
+        if (logFaces)
         {
-            leftEyePosition = null;
+            float[] eye = eyePipeline.getSensedEye();
+            Log.i("Face", "(" + eye[0] + "," + eye[1] + "," + eye[2] + ")");
         }
-
-        final float width = face.getWidth();
-        final float height = face.getHeight();
-        final float eulerY = face.getEulerY();
-        final float eulerZ = face.getEulerZ();
-        final PointF position = face.getPosition();
-        eyeTracker.zeroOrientation();
-        Vec4F eye = eyeSensor.getEyePosition(width, height, position.x, position.y); //, eulerY, eulerZ);
-        Log.i("Face", "(" + eye.x() + "," + eye.y() + "," + eye.z() + ")");
-        eyeTracker.addEye(eye);
     }
 
-    public void faceOffCamera()
+    private void faceOffCamera()
     {
         Log.i("Face", "Missing");
+        eyeSensor.faceLost();
     }
 
 
     public void calibrateEyeSensor()
     {
         //TODO: Z-calibration should be in real units and converted, based on physical screen size to Screen Coordinates
-        eyeSensor.calibrate(70, CALIBRATION_X, CALIBRATION_Y, CALIBRATION_Z);
+        if (multiPointCalibration)
+        {
+            eyeSensor.calibrateMultiPoint(CALIBRATION_TARGETS, CALIBRATION_SAMPLES_PER_TARGET, calibrateFieldOfView, CALIBRATION_TOLERANCE);
+        }
+        else
+        {
+            eyeSensor.calibrate(70, CALIBRATION_X, CALIBRATION_Y, CALIBRATION_Z);
+        }
+        markSceneDirty();
     }
 
-    public EyeSensorCalibration getEyeSensorCalibration()
+    /**
+     * @return residual error (screen coordinates) of the current or last multi-point calibration, or -1 if there hasn't been one
+     */
+    public float getCalibrationResidual()
     {
-        return eyeSensor.getCalibration();
+        return eyeSensor.getCalibrationResidual();
     }
 
-    private Landmark getLandmark(Face face, int type)
+    /**
+     * @return number of samples in the background recalibration reservoir, or 0 if not recalibrating in the background
+     */
+    public int getNumRecalibrationSamples()
     {
-        List<Landmark> landmarks = face.getLandmarks();
-        for (Landmark landmark : landmarks)
-        {
-            if (landmark.getType() == type)
-            {
-                return landmark;
-            }
-        }
+        return autoRecalibrator != null ? autoRecalibrator.getNumSamples() : 0;
+    }
 
-        return null;
+    /**
+     * @return number of background refinements of the calibration made
+     */
+    public long getNumRecalibrations()
+    {
+        return autoRecalibrator != null ? autoRecalibrator.getNumRefinements() : 0;
+    }
+
+    public EyeSensorCalibration getEyeSensorCalibration()
+    {
+        return eyeSensor.getCalibration();
     }
 }
\ No newline at end of file
@@ -0,0 +1,419 @@
+package com.pheiffware.anamorphic;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import com.pheiffware.anamorphic.camera.FrameListener;
+import com.pheiffware.anamorphic.camera.FrameSource;
+import com.pheiffware.anamorphic.camera.LumaBufferPool;
+import com.pheiffware.anamorphic.camera.LumaFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Captures YUV_420_888 frames from the front camera with camera2 into an ImageReader, and delivers the luminance plane of each as a LumaFrame.
+ * When the plane's rows are packed, the frame refers to the Image's own buffer, and releasing the frame closes the Image, so no pixels are copied.
+ * Otherwise rows are copied into a small pool of packed buffers.  The ImageReader's images are themselves the recycled pool: if the listener holds them all,
+ * new frames are dropped rather than queued.
+ * <p>
+ * Frame time stamps are the sensor's start of exposure, converted to the System.nanoTime() time base.
+ */
+class Camera2FrameSource implements FrameSource, LumaFrame.Recycler, ImageReader.OnImageAvailableListener
+{
+    private final CameraManager cameraManager;
+    private final String cameraId;
+    private final Size size;
+    private final Range<Integer> fpsRange;
+    private final boolean autoFocus;
+    private final int sensorOrientation;
+    //Whether sensor time stamps are in the elapsedRealtimeNanos() base, rather than nanoTime()
+    private final boolean realtimeTimeStamps;
+    private final int maxImages;
+    //Packed copies of frames whose rows are padded
+    private final LumaBufferPool copyPool;
+    //Frames which wrap an Image, ready for reuse
+    private final LumaFrame[] freeWrappers;
+    private int numFreeWrappers;
+
+    private FrameListener listener;
+    private HandlerThread thread;
+    private Handler handler;
+    private ImageReader imageReader;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession session;
+    //elapsedRealtimeNanos() - nanoTime()
+    private long clockOffset;
+    private long frameNumber;
+    private volatile long numDropped;
+    private volatile boolean running;
+
+    /**
+     * @param context
+     * @param requestedWidth  the available frame size closest to this is used
+     * @param requestedHeight the available frame size closest to this is used
+     * @param fps             requested frames per second
+     * @param autoFocus       use continuous auto focus
+     * @param numBuffers      number of frames which may be held by the listener at once
+     * @throws CameraAccessException
+     */
+    Camera2FrameSource(Context context, int requestedWidth, int requestedHeight, int fps, boolean autoFocus, int numBuffers) throws CameraAccessException
+    {
+        cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        cameraId = findFrontCamera(cameraManager);
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        StreamConfigurationMap configurationMap = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        size = chooseSize(configurationMap.getOutputSizes(ImageFormat.YUV_420_888), requestedWidth, requestedHeight);
+        fpsRange = chooseFpsRange(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES), fps);
+        this.autoFocus = autoFocus;
+        sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Integer timeStampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        realtimeTimeStamps = timeStampSource != null && timeStampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        //One extra image, which the camera can fill while the listener holds the rest
+        maxImages = numBuffers + 1;
+        copyPool = new LumaBufferPool(numBuffers, size.getWidth() * size.getHeight());
+        freeWrappers = new LumaFrame[maxImages];
+        for (int i = 0; i < maxImages; i++)
+        {
+            freeWrappers[i] = new LumaFrame(this);
+        }
+        numFreeWrappers = maxImages;
+    }
+
+    @Override
+    public synchronized void start(FrameListener listener) throws IOException
+    {
+        if (running)
+        {
+            return;
+        }
+        this.listener = listener;
+        running = true;
+        clockOffset = SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        thread = new HandlerThread("Camera2FrameSource");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, maxImages);
+        imageReader.setOnImageAvailableListener(this, handler);
+        try
+        {
+            cameraManager.openCamera(cameraId, new CameraDevice.StateCallback()
+            {
+                @Override
+                public void onOpened(CameraDevice camera)
+                {
+                    cameraOpened(camera);
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera)
+                {
+                    camera.close();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error)
+                {
+                    Log.e("Camera2FrameSource", "Camera error: " + error);
+                    camera.close();
+                }
+            }, handler);
+        }
+        catch (CameraAccessException | SecurityException e)
+        {
+            //Nothing has been posted to the thread yet
+            running = false;
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+            imageReader.close();
+            imageReader = null;
+            throw new IOException("Could not open camera " + cameraId, e);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        HandlerThread stoppingThread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            if (session != null)
+            {
+                session.close();
+                session = null;
+            }
+            if (cameraDevice != null)
+            {
+                cameraDevice.close();
+                cameraDevice = null;
+            }
+            stoppingThread = thread;
+            thread = null;
+            handler = null;
+        }
+        //Camera callbacks synchronize on this, so wait for the thread without holding the lock
+        stoppingThread.quitSafely();
+        try
+        {
+            stoppingThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this)
+        {
+            imageReader.close();
+            imageReader = null;
+        }
+    }
+
+    @Override
+    public long getNumDropped()
+    {
+        return numDropped;
+    }
+
+    /**
+     * @return clockwise rotation, in degrees, of the sensor image relative to the device's natural orientation
+     */
+    int getSensorOrientation()
+    {
+        return sensorOrientation;
+    }
+
+    int getWidth()
+    {
+        return size.getWidth();
+    }
+
+    int getHeight()
+    {
+        return size.getHeight();
+    }
+
+    private synchronized void cameraOpened(CameraDevice camera)
+    {
+        if (!running)
+        {
+            camera.close();
+            return;
+        }
+        cameraDevice = camera;
+        try
+        {
+            camera.createCaptureSession(Arrays.asList(imageReader.getSurface()), new CameraCaptureSession.StateCallback()
+            {
+                @Override
+                public void onConfigured(CameraCaptureSession configuredSession)
+                {
+                    sessionConfigured(configuredSession);
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession failedSession)
+                {
+                    Log.e("Camera2FrameSource", "Could not configure capture session");
+                }
+            }, handler);
+        }
+        catch (CameraAccessException e)
+        {
+            Log.e("Camera2FrameSource", "Could not create capture session", e);
+        }
+    }
+
+    private synchronized void sessionConfigured(CameraCaptureSession configuredSession)
+    {
+        if (!running)
+        {
+            configuredSession.close();
+            return;
+        }
+        session = configuredSession;
+        try
+        {
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(imageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            builder.set(CaptureRequest.CONTROL_AF_MODE, autoFocus ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO : CaptureRequest.CONTROL_AF_MODE_OFF);
+            session.setRepeatingRequest(builder.build(), null, handler);
+        }
+        catch (CameraAccessException e)
+        {
+            Log.e("Camera2FrameSource", "Could not start capture", e);
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader)
+    {
+        Image image;
+        try
+        {
+            //Skip straight to the newest frame if detection has fallen behind
+            image = reader.acquireLatestImage();
+        }
+        catch (IllegalStateException e)
+        {
+            //Every image is held by the listener
+            numDropped++;
+            return;
+        }
+        if (image == null)
+        {
+            return;
+        }
+        long timeStamp = realtimeTimeStamps ? image.getTimestamp() - clockOffset : image.getTimestamp();
+        Image.Plane plane = image.getPlanes()[0];
+        int width = image.getWidth();
+        int height = image.getHeight();
+        LumaFrame frame;
+        if (plane.getRowStride() == width && plane.getPixelStride() == 1)
+        {
+            frame = acquireWrapper();
+            ByteBuffer luma = plane.getBuffer();
+            luma.rewind();
+            frame.set(luma, width, height, width, timeStamp, frameNumber++, image);
+        }
+        else
+        {
+            frame = copyPool.acquire();
+            if (frame == null)
+            {
+                numDropped++;
+                image.close();
+                return;
+            }
+            copyRows(plane, width, height, frame.getLuma());
+            image.close();
+            frame.set(frame.getLuma(), width, height, width, timeStamp, frameNumber++, null);
+        }
+        listener.onFrame(frame);
+    }
+
+    /**
+     * Called when a frame wrapping an Image is released.
+     */
+    @Override
+    public void recycle(LumaFrame frame)
+    {
+        ((Image) frame.getOwner()).close();
+        frame.set(null, 0, 0, 0, 0, 0, null);
+        synchronized (freeWrappers)
+        {
+            freeWrappers[numFreeWrappers++] = frame;
+        }
+    }
+
+    private LumaFrame acquireWrapper()
+    {
+        //There are as many wrappers as images, so one is always free when an image was acquired
+        synchronized (freeWrappers)
+        {
+            LumaFrame frame = freeWrappers[--numFreeWrappers];
+            freeWrappers[numFreeWrappers] = null;
+            return frame;
+        }
+    }
+
+    private static void copyRows(Image.Plane plane, int width, int height, ByteBuffer destination)
+    {
+        ByteBuffer source = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        destination.clear();
+        for (int y = 0; y < height; y++)
+        {
+            int rowStart = y * rowStride;
+            if (pixelStride == 1)
+            {
+                source.limit(rowStart + width);
+                source.position(rowStart);
+                destination.put(source);
+                source.limit(source.capacity());
+            }
+            else
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    destination.put(source.get(rowStart + x * pixelStride));
+                }
+            }
+        }
+        destination.flip();
+    }
+
+    private static String findFrontCamera(CameraManager cameraManager) throws CameraAccessException
+    {
+        for (String id : cameraManager.getCameraIdList())
+        {
+            Integer facing = cameraManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT)
+            {
+                return id;
+            }
+        }
+        throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "No front facing camera");
+    }
+
+    /**
+     * Choose the size minimizing the total difference from the requested width and height, as CameraSource does.
+     */
+    private static Size chooseSize(Size[] sizes, int requestedWidth, int requestedHeight)
+    {
+        Size best = sizes[0];
+        int bestDifference = Integer.MAX_VALUE;
+        for (Size size : sizes)
+        {
+            int difference = Math.abs(size.getWidth() - requestedWidth) + Math.abs(size.getHeight() - requestedHeight);
+            if (difference < bestDifference)
+            {
+                best = size;
+                bestDifference = difference;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Choose the range whose bounds are closest to the requested rate, preferring a fixed rate, as CameraSource does.
+     */
+    private static Range<Integer> chooseFpsRange(Range<Integer>[] ranges, int fps)
+    {
+        Range<Integer> best = ranges[0];
+        int bestDifference = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges)
+        {
+            int difference = Math.abs(fps - range.getLower()) + Math.abs(fps - range.getUpper());
+            if (difference < bestDifference)
+            {
+                best = range;
+                bestDifference = difference;
+            }
+        }
+        return best;
+    }
+}
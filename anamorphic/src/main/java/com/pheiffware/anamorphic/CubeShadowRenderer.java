@@ -0,0 +1,88 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.pheiffware.anamorphic.shadow.CubeShadowCache;
+import com.pheiffware.lib.graphics.GraphicsException;
+
+/**
+ * Renders individual faces of a cube depth texture, so a CubeShadowCache can re-render only the faces which changed (CubeDepthRenderer always renders all six).
+ * Casters are drawn as InstancedMeshHandles with a depth only program.  Faces use the same 90 degree projection, near and far planes as the CubeDepthRenderer
+ * whose depth constants the lit techniques use, so the resulting texture is sampled identically.
+ */
+class CubeShadowRenderer
+{
+    private static final String VERTEX_SHADER = "" +
+            "#version 300 es\n" +
+            "layout(location = 0) in vec4 vertexPosition;\n" +
+            "layout(location = 2) in mat4 modelMatrix;\n" +
+            "uniform mat4 faceViewProjectionMatrix;\n" +
+            "void main()\n" +
+            "{\n" +
+            "    gl_Position = faceViewProjectionMatrix * modelMatrix * vertexPosition;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER = "" +
+            "#version 300 es\n" +
+            "void main()\n" +
+            "{\n" +
+            "}\n";
+
+    //Depth only: the frame buffer has no color attachment to draw to
+    private static final int[] NO_DRAW_BUFFERS = new int[]{GLES20.GL_NONE};
+
+    private final int program;
+    private final int faceViewProjectionMatrixLocation;
+    private final int frameBuffer;
+    private final int cubeTextureHandle;
+    private final int resolution;
+
+    /**
+     * @param cubeTextureHandle GL handle of a cube map with a depth format
+     * @param resolution        width and height of each face
+     * @param programCache
+     */
+    CubeShadowRenderer(int cubeTextureHandle, int resolution, ProgramBinaryCache programCache) throws GraphicsException
+    {
+        this.cubeTextureHandle = cubeTextureHandle;
+        this.resolution = resolution;
+        program = programCache.buildProgram(VERTEX_SHADER, FRAGMENT_SHADER, "cubeShadowDepth");
+        faceViewProjectionMatrixLocation = GLES20.glGetUniformLocation(program, "faceViewProjectionMatrix");
+        int[] frameBuffers = new int[1];
+        GLES20.glGenFramebuffers(1, frameBuffers, 0);
+        frameBuffer = frameBuffers[0];
+        //Draw buffers are frame buffer state, so are set once here rather than for every face
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES30.glDrawBuffers(1, NO_DRAW_BUFFERS, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Render a face.  Leaves the face's frame buffer bound, so the caller must rebind its own frame buffer and viewport afterwards.
+     *
+     * @param face                 face index (see CubeShadowCache)
+     * @param faceViewProjections  packed face matrices from CubeShadowCache
+     * @param casters              instances to draw, already set to the face's casters
+     */
+    void renderFace(int face, float[] faceViewProjections, InstancedMeshHandle casters)
+    {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, cubeTextureHandle, 0);
+        GLES20.glViewport(0, 0, resolution, resolution);
+        GLES20.glClearDepthf(1);
+        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT);
+        if (casters.getNumInstances() > 0)
+        {
+            GLES20.glUseProgram(program);
+            GLES20.glUniformMatrix4fv(faceViewProjectionMatrixLocation, 1, false, faceViewProjections, face * 16);
+            casters.drawTriangles();
+        }
+    }
+
+    void destroy()
+    {
+        GLES20.glDeleteFramebuffers(1, new int[]{frameBuffer}, 0);
+        GLES20.glDeleteProgram(program);
+    }
+}
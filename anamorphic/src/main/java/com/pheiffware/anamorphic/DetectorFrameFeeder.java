@@ -0,0 +1,77 @@
+package com.pheiffware.anamorphic;
+
+import android.graphics.ImageFormat;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.pheiffware.anamorphic.camera.FrameListener;
+import com.pheiffware.anamorphic.camera.LumaFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hands each frame from a FrameSource to a detector, on the source's thread, and releases it once detection is done.
+ * The frame's luminance buffer is given to the detector as the start of an NV21 image (the detector only reads luminance), so it is not copied.
+ * Frame time stamps are passed as milliseconds since a time base, as CameraSource does.
+ */
+class DetectorFrameFeeder implements FrameListener
+{
+    private final Detector<?> detector;
+    final int rotation;
+    //System.nanoTime() which detector frame time stamps are relative to
+    private volatile long timeBase;
+
+    /**
+     * @param detector          receives the frames
+     * @param sensorOrientation clockwise rotation, in degrees, of the camera image relative to the device's natural orientation
+     */
+    DetectorFrameFeeder(Detector<?> detector, int sensorOrientation)
+    {
+        this.detector = detector;
+        //Frame.ROTATION_0 through ROTATION_270 are 0 through 3
+        rotation = (sensorOrientation / 90) % 4;
+    }
+
+    /**
+     * @param timeBase System.nanoTime() which detector frame time stamps will be relative to
+     */
+    void setTimeBase(long timeBase)
+    {
+        this.timeBase = timeBase;
+    }
+
+    @Override
+    public void onFrame(LumaFrame frame)
+    {
+        try
+        {
+            detector.receiveFrame(buildFrame(frame.getLuma(), frame.getWidth(), frame.getHeight(), frame.getFrameNumber(), toFrameTimeMillis(frame.getTimeStamp())));
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * Wrap packed luminance data as a detector frame, without copying it.
+     */
+    Frame buildFrame(ByteBuffer luma, int width, int height, long frameNumber, long frameTimeMillis)
+    {
+        return new Frame.Builder()
+                .setImageData(luma, width, height, ImageFormat.NV21)
+                .setId((int) frameNumber)
+                .setTimestampMillis(frameTimeMillis)
+                .setRotation(rotation)
+                .build();
+    }
+
+    /**
+     * @param timeStamp capture time in the System.nanoTime() time base
+     * @return detector frame time stamp: milliseconds since the time base
+     */
+    long toFrameTimeMillis(long timeStamp)
+    {
+        return (timeStamp - timeBase) / 1000000L;
+    }
+}
@@ -0,0 +1,115 @@
+package com.pheiffware.anamorphic;
+
+import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
+import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+
+/**
+ * The non-GL part of each frame: samples the device's rotation into the tracker, takes the latest face detection from the mailbox, converts it to an eye position
+ * and feeds the tracker, then queries the tracker for the eye position to render with.  Kept separate from the renderer so it can be exercised on a plain JVM.
+ * Nothing in here allocates.
+ */
+class EyePipeline
+{
+    //The device is held still if it has rotated less than this (radians) over the last STABLE_WINDOW (nanoseconds)
+    private static final float STABLE_ROTATION = 0.02f;
+    private static final long STABLE_WINDOW = 250000000L;
+    //Rotation samples over which the device's angular velocity is averaged, for predicting rotation beyond the latest sample (nanoseconds)
+    private static final long ANGULAR_VELOCITY_WINDOW = 20000000L;
+
+    private final FaceMailbox faceMailbox;
+    private final RotationSampleBuffer rotationSamples;
+    private final EyeSensor eyeSensor;
+    private final EyeTracker eyeTracker;
+
+    //Receives the sensed eye position of each face update
+    private final float[] sensedEye = new float[3];
+    private final float[] frameRotation = new float[4];
+    private final float[] angularVelocity = new float[3];
+    //Rotation STABLE_WINDOW before the frame, to decide if the device is being held still
+    private final float[] earlierRotation = new float[4];
+
+    /**
+     * @param faceMailbox     face detections, posted by the detector
+     * @param rotationSamples device rotation, added by the sensor thread
+     * @param eyeSensor       converts faces to eye positions
+     * @param eyeTracker      tracks the eye between faces
+     */
+    EyePipeline(FaceMailbox faceMailbox, RotationSampleBuffer rotationSamples, EyeSensor eyeSensor, EyeTracker eyeTracker)
+    {
+        this.faceMailbox = faceMailbox;
+        this.rotationSamples = rotationSamples;
+        this.eyeSensor = eyeSensor;
+        this.eyeTracker = eyeTracker;
+    }
+
+    /**
+     * Sample the device's rotation at the start of a frame into the eye tracker, and tell the eye sensor whether the device is being held still.  Call before
+     * drainFace(), as a new face re-zeroes orientation.
+     *
+     * @param frameTime System.nanoTime() based time of the frame
+     */
+    void updateOrientation(long frameTime)
+    {
+        boolean deviceStable = false;
+        if (rotationSamples.getRotation(frameTime, frameRotation))
+        {
+            deviceStable = rotationSamples.getRotation(frameTime - STABLE_WINDOW, earlierRotation) && rotationAngle(frameRotation, earlierRotation) < STABLE_ROTATION;
+            eyeTracker.onOrientationSensorChanged(frameRotation);
+            long rotationTime = rotationSamples.getAngularVelocity(frameTime, ANGULAR_VELOCITY_WINDOW, angularVelocity);
+            if (rotationTime != Long.MIN_VALUE)
+            {
+                eyeTracker.setAngularVelocity(rotationTime, angularVelocity);
+            }
+        }
+        eyeSensor.setDeviceStable(deviceStable);
+    }
+
+    /**
+     * Take the latest face detection, if any, and feed it to the eye tracker.
+     *
+     * @return the snapshot which was processed (valid until the next call) or null if there was no new detection
+     */
+    FaceSnapshot drainFace()
+    {
+        FaceSnapshot face = faceMailbox.take();
+        if (face != null && face.present)
+        {
+            eyeTracker.zeroOrientation();
+            //Face positions are normalized by the upright frame size, which follows the camera if its frame size changes
+            eyeSensor.setCameraPreviewSize(face.previewWidth, face.previewHeight);
+            eyeSensor.getEyePosition(face.width, face.height, face.x, face.y, sensedEye);
+            eyeTracker.addEye(face.captureTimeNanos, sensedEye[0], sensedEye[1], sensedEye[2]);
+        }
+        return face;
+    }
+
+    /**
+     * Get the eye position to render with.
+     *
+     * @param displayTime System.nanoTime() based time at which the frame is expected to be displayed
+     * @param eyeOut      receives the eye position
+     * @return false if the eye position is not yet known
+     */
+    boolean getEye(long displayTime, float[] eyeOut)
+    {
+        return eyeTracker.getEye(displayTime, eyeOut);
+    }
+
+    /**
+     * @return the most recent eye position measured from a face
+     */
+    float[] getSensedEye()
+    {
+        return sensedEye;
+    }
+
+    /**
+     * @return angle (radians) of the rotation between two unit quaternions
+     */
+    private static float rotationAngle(float[] quaternion1, float[] quaternion2)
+    {
+        float dot = Math.abs(quaternion1[0] * quaternion2[0] + quaternion1[1] * quaternion2[1] + quaternion1[2] * quaternion2[2] + quaternion1[3] * quaternion2[3]);
+        return 2 * (float) Math.acos(Math.min(1, dot));
+    }
+}
@@ -0,0 +1,39 @@
+package com.pheiffware.anamorphic;
+
+import android.content.SharedPreferences;
+
+import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+
+/**
+ * Loads and saves EyeSensorCalibrations in SharedPreferences.  Kept out of the calibration itself, so the core tracking code has no Android dependencies.
+ */
+class EyeSensorCalibrationStore
+{
+    private static final String NORM_WIDTH = "normWidthCalibration";
+    private static final String NORM_HEIGHT = "normHeightCalibration";
+    private static final String OFFSET_X = "offsetX";
+    private static final String OFFSET_Y = "offsetY";
+    private static final String PROJECTED_SCALE_X = "projectedScaleX";
+    private static final String PROJECTED_SCALE_Y = "projectedScaleY";
+
+    static EyeSensorCalibration load(SharedPreferences pref)
+    {
+        return new EyeSensorCalibration(
+                pref.getFloat(NORM_WIDTH, 1),
+                pref.getFloat(NORM_HEIGHT, 1),
+                pref.getFloat(OFFSET_X, 0),
+                pref.getFloat(OFFSET_Y, 0),
+                pref.getFloat(PROJECTED_SCALE_X, 1),
+                pref.getFloat(PROJECTED_SCALE_Y, 1));
+    }
+
+    static void save(EyeSensorCalibration calibration, SharedPreferences.Editor editor)
+    {
+        editor.putFloat(NORM_WIDTH, calibration.getNormWidthCalibration());
+        editor.putFloat(NORM_HEIGHT, calibration.getNormHeightCalibration());
+        editor.putFloat(OFFSET_X, calibration.getOffsetX());
+        editor.putFloat(OFFSET_Y, calibration.getOffsetY());
+        editor.putFloat(PROJECTED_SCALE_X, calibration.getProjectedScaleX());
+        editor.putFloat(PROJECTED_SCALE_Y, calibration.getProjectedScaleY());
+    }
+}
@@ -0,0 +1,82 @@
+package com.pheiffware.anamorphic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single slot, lock-free, hand off of face detections from the face detector thread to the GL thread.  Only the latest detection is kept:
+ * if the GL thread falls behind, older detections are overwritten rather than queued.
+ * <p>
+ * Implemented as a triple buffer of pre-allocated snapshots, so nothing is allocated after construction.  The writer owns the "back" buffer, the reader owns the "front" buffer
+ * and the "middle" buffer is exchanged atomically, along with a flag saying whether it holds an unread snapshot.
+ * There must be only one writer thread and one reader thread.
+ */
+class FaceMailbox
+{
+    //Flag bit, stored alongside the middle buffer index, meaning it holds an unread snapshot
+    private static final int UNREAD = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final FaceSnapshot[] snapshots = new FaceSnapshot[]{new FaceSnapshot(), new FaceSnapshot(), new FaceSnapshot()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    //Owned by the writer
+    private int back = 0;
+
+    //Owned by the reader
+    private int front = 2;
+
+    //Number of snapshots which were overwritten before being read
+    private final AtomicLong numCoalesced = new AtomicLong();
+
+    /**
+     * Post a detected face.  Writer thread only.
+     */
+    void postFace(boolean newFace, float width, float height, float x, float y, int previewWidth, int previewHeight, long frameTimeMillis, long captureTimeNanos)
+    {
+        snapshots[back].set(true, newFace, width, height, x, y, previewWidth, previewHeight, frameTimeMillis, captureTimeNanos);
+        publish();
+    }
+
+    /**
+     * Post that the face is no longer on camera.  Writer thread only.
+     */
+    void postMissing(long frameTimeMillis, long captureTimeNanos)
+    {
+        snapshots[back].set(false, false, 0, 0, 0, 0, 0, 0, frameTimeMillis, captureTimeNanos);
+        publish();
+    }
+
+    /**
+     * Take the latest snapshot, if there is a new one.  Reader thread only.
+     *
+     * @return the latest snapshot, which remains valid until the next call to take(), or null if nothing was posted since the last take()
+     */
+    FaceSnapshot take()
+    {
+        if ((middle.get() & UNREAD) == 0)
+        {
+            return null;
+        }
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return snapshots[front];
+    }
+
+    /**
+     * @return the number of snapshots which were replaced by a newer one before the reader took them
+     */
+    long getNumCoalesced()
+    {
+        return numCoalesced.get();
+    }
+
+    private void publish()
+    {
+        int previous = middle.getAndSet(back | UNREAD);
+        if ((previous & UNREAD) != 0)
+        {
+            numCoalesced.incrementAndGet();
+        }
+        back = previous & INDEX_MASK;
+    }
+}
@@ -0,0 +1,47 @@
+package com.pheiffware.anamorphic;
+
+/**
+ * Primitive copy of the information used from a face detection.  Instances are owned and recycled by FaceMailbox.
+ */
+class FaceSnapshot
+{
+    //Is a face on camera.  If false, all other fields, except the time stamps, are meaningless.
+    boolean present;
+
+    //Is this the first detection of a new face
+    boolean newFace;
+
+    //Face dimensions and position in camera preview pixels
+    float width;
+    float height;
+    float x;
+    float y;
+
+    //Size of the camera frame the face was detected in, turned upright like the face position
+    int previewWidth;
+    int previewHeight;
+
+    //Time stamp, from the detector, of the camera frame which the face was detected in (milliseconds)
+    long frameTimeMillis;
+
+    //System.nanoTime() at which the camera frame was captured (estimated from frameTimeMillis)
+    long captureTimeNanos;
+
+    //System.nanoTime() at which detection finished and the snapshot was posted
+    long postTimeNanos;
+
+    void set(boolean present, boolean newFace, float width, float height, float x, float y, int previewWidth, int previewHeight, long frameTimeMillis, long captureTimeNanos)
+    {
+        this.present = present;
+        this.newFace = newFace;
+        this.width = width;
+        this.height = height;
+        this.x = x;
+        this.y = y;
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.frameTimeMillis = frameTimeMillis;
+        this.captureTimeNanos = captureTimeNanos;
+        this.postTimeNanos = System.nanoTime();
+    }
+}
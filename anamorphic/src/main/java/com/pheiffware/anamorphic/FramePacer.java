@@ -0,0 +1,118 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Controls how far the CPU may run ahead of the GPU at the end of each frame.
+ * <p>
+ * In synchronous mode, each frame ends with glFinish(), so the CPU and GPU never overlap.  This gives the lowest latency, but frame time is the sum of CPU and GPU time.
+ * In pipelined mode, a fence is inserted after each frame and the CPU only waits once more than maxFramesInFlight frames are unfinished on the GPU.  Frame time approaches
+ * the maximum of CPU and GPU time, at the cost of up to maxFramesInFlight frames of extra latency.
+ */
+class FramePacer
+{
+    //Waiting longer than this for a fence indicates something is wrong, so give up and let the frame proceed (nanoseconds)
+    private static final long FENCE_TIMEOUT = 100000000L;
+
+    //Ring of outstanding fences, oldest at head
+    private final long[] fences;
+    private int head;
+    private int numFences;
+
+    private boolean pipelined;
+    private int maxFramesInFlight;
+
+    //Time spent waiting at the end of the most recent frame (nanoseconds)
+    private long lastWaitTime;
+
+    /**
+     * @param maxQueueDepth the largest value which will be allowed for maxFramesInFlight
+     */
+    FramePacer(int maxQueueDepth)
+    {
+        fences = new long[maxQueueDepth + 1];
+        setSynchronous();
+    }
+
+    /**
+     * End each frame with glFinish().
+     */
+    void setSynchronous()
+    {
+        pipelined = false;
+        maxFramesInFlight = 0;
+    }
+
+    /**
+     * Allow up to maxFramesInFlight frames to be queued on the GPU before blocking.
+     *
+     * @param maxFramesInFlight between 1 and the maximum queue depth given at construction
+     */
+    void setPipelined(int maxFramesInFlight)
+    {
+        if (maxFramesInFlight < 1 || maxFramesInFlight >= fences.length)
+        {
+            throw new IllegalArgumentException("Frames in flight must be between 1 and " + (fences.length - 1) + ", was " + maxFramesInFlight);
+        }
+        pipelined = true;
+        this.maxFramesInFlight = maxFramesInFlight;
+    }
+
+    boolean isPipelined()
+    {
+        return pipelined;
+    }
+
+    /**
+     * Call at the end of rendering each frame.
+     */
+    void endFrame()
+    {
+        long start = System.nanoTime();
+        if (pipelined)
+        {
+            fences[(head + numFences) % fences.length] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            numFences++;
+            //Also drains any excess left from switching to a smaller queue depth
+            while (numFences > maxFramesInFlight)
+            {
+                GLES30.glClientWaitSync(fences[head], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+                releaseOldest();
+            }
+        }
+        else
+        {
+            while (numFences > 0)
+            {
+                releaseOldest();
+            }
+            GLES20.glFinish();
+        }
+        lastWaitTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Forget all fences without deleting them.  Call when the GL context has been (re)created, as old fences no longer exist.
+     */
+    void reset()
+    {
+        head = 0;
+        numFences = 0;
+    }
+
+    /**
+     * @return time spent blocked at the end of the most recent frame, in nanoseconds
+     */
+    long getLastWaitTime()
+    {
+        return lastWaitTime;
+    }
+
+    private void releaseOldest()
+    {
+        GLES30.glDeleteSync(fences[head]);
+        head = (head + 1) % fences.length;
+        numFences--;
+    }
+}
@@ -0,0 +1,105 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Measures GPU time of frames with GL_EXT_disjoint_timer_query.  Results arrive a few frames late, so queries are kept in a ring and polled without blocking.
+ * If the extension is not supported, isSupported() is false and frame times are never available.
+ */
+class GpuFrameTimer
+{
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+    //From the extension (not in GLES30)
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    //Frames which may be timed before results must be read
+    private static final int NUM_QUERIES = 4;
+
+    private final boolean supported;
+    private final int[] queries = new int[NUM_QUERIES];
+    private final int[] result = new int[1];
+    //Ring of issued queries, oldest at head
+    private int head;
+    private int numPending;
+    private boolean timing;
+
+    /**
+     * Must be called on the GL thread, with a current context.
+     */
+    GpuFrameTimer()
+    {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        supported = extensions != null && extensions.contains(EXTENSION);
+        if (supported)
+        {
+            GLES30.glGenQueries(NUM_QUERIES, queries, 0);
+        }
+    }
+
+    boolean isSupported()
+    {
+        return supported;
+    }
+
+    /**
+     * Start timing a frame.  If too many frames have no result yet, the frame is not timed.
+     */
+    void beginFrame()
+    {
+        if (!supported || numPending == NUM_QUERIES)
+        {
+            return;
+        }
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[(head + numPending) % NUM_QUERIES]);
+        timing = true;
+    }
+
+    void endFrame()
+    {
+        if (timing)
+        {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            numPending++;
+            timing = false;
+        }
+    }
+
+    /**
+     * Get the GPU time of the oldest timed frame, if it is available.
+     *
+     * @return nanoseconds, or -1 if no result is available
+     */
+    long pollFrameTime()
+    {
+        if (numPending == 0)
+        {
+            return -1;
+        }
+        GLES30.glGetQueryObjectuiv(queries[head], GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+        if (result[0] == 0)
+        {
+            return -1;
+        }
+        GLES30.glGetQueryObjectuiv(queries[head], GLES30.GL_QUERY_RESULT, result, 0);
+        long elapsed = result[0] & 0xFFFFFFFFL;
+        head = (head + 1) % NUM_QUERIES;
+        numPending--;
+
+        //Something (e.g. a power state change) invalidated timings in flight
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        if (result[0] != 0)
+        {
+            return -1;
+        }
+        return elapsed;
+    }
+
+    void destroy()
+    {
+        if (supported)
+        {
+            GLES30.glDeleteQueries(NUM_QUERIES, queries, 0);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.pheiffware.anamorphic.meshCache.CachedMesh;
+import com.pheiffware.lib.graphics.Matrix4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws many instances of a single mesh with one glDrawElementsInstanced() call (GLES 3.0).  Use with InstancedTechnique.
+ * <p>
+ * Per-instance model matrices are packed into a single vertex buffer.  Changing an instance only marks it dirty; on the next draw only the dirty range of instances is uploaded.
+ * <p>
+ * The index buffer may hold several levels of detail of the mesh (see CachedMesh), as ranges of indices over the same vertices.  Instances are then
+ * grouped by level: the first instances are drawn at level 0, the next at level 1 and so on, with one draw call per level in use.
+ */
+class InstancedMeshHandle
+{
+    private static final int FLOATS_PER_MATRIX = 16;
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private final int maxInstances;
+    //Range of indices of each level of detail
+    private final int[] levelIndexOffsets;
+    private final int[] levelIndexCounts;
+    //Number of instances drawn at each level
+    private final int[] levelInstances;
+    private final int vertexArray;
+    private final int[] buffers = new int[4];
+
+    //Client side copy of instance matrices
+    private final FloatBuffer instanceMatrices;
+
+    //Range of instances [dirtyStart, dirtyEnd) which have changed since the last upload
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    /**
+     * Creates GL buffers for the mesh, with all its levels of detail, uploaded directly from its (mapped or direct) buffers, and for maxInstances model matrices.
+     * Must be called on the GL thread.
+     *
+     * @param mesh         mesh, whose data is in native byte order
+     * @param maxInstances maximum number of instances which can be drawn
+     */
+    InstancedMeshHandle(CachedMesh mesh, int maxInstances)
+    {
+        this(mesh.getPositions(), mesh.getNormals(), mesh.getIndices(), levelIndexOffsets(mesh), levelIndexCounts(mesh), maxInstances);
+    }
+
+    private InstancedMeshHandle(FloatBuffer positions, FloatBuffer normals, ShortBuffer indices, int[] levelIndexOffsets, int[] levelIndexCounts, int maxInstances)
+    {
+        this.maxInstances = maxInstances;
+        this.levelIndexOffsets = levelIndexOffsets;
+        this.levelIndexCounts = levelIndexCounts;
+        levelInstances = new int[levelIndexOffsets.length];
+        int numIndices = indices.remaining();
+        instanceMatrices = ByteBuffer.allocateDirect(maxInstances * FLOATS_PER_MATRIX * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        int[] vertexArrays = new int[1];
+        GLES30.glGenVertexArrays(1, vertexArrays, 0);
+        vertexArray = vertexArrays[0];
+        GLES30.glBindVertexArray(vertexArray);
+        GLES20.glGenBuffers(buffers.length, buffers, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positions.remaining() * BYTES_PER_FLOAT, positions, GLES20.GL_STATIC_DRAW);
+        GLES20.glEnableVertexAttribArray(InstancedTechnique.POSITION_LOCATION);
+        GLES20.glVertexAttribPointer(InstancedTechnique.POSITION_LOCATION, 4, GLES20.GL_FLOAT, false, 0, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[1]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, normals.remaining() * BYTES_PER_FLOAT, normals, GLES20.GL_STATIC_DRAW);
+        GLES20.glEnableVertexAttribArray(InstancedTechnique.NORMAL_LOCATION);
+        GLES20.glVertexAttribPointer(InstancedTechnique.NORMAL_LOCATION, 3, GLES20.GL_FLOAT, false, 0, 0);
+
+        //A mat4 attribute is 4 vec4 attributes, one per column, each advancing once per instance
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, instanceMatrices.capacity() * BYTES_PER_FLOAT, null, GLES20.GL_DYNAMIC_DRAW);
+        for (int column = 0; column < 4; column++)
+        {
+            int location = InstancedTechnique.MODEL_MATRIX_LOCATION + column;
+            GLES20.glEnableVertexAttribArray(location);
+            GLES30.glVertexAttribDivisor(location, 1);
+        }
+        pointInstanceMatrices(0);
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[3]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, numIndices * 2, indices, GLES20.GL_STATIC_DRAW);
+
+        GLES30.glBindVertexArray(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Set the model matrix of an instance.  Takes effect on the next draw.
+     *
+     * @param instance    index of the instance
+     * @param modelMatrix
+     */
+    void setInstanceMatrix(int instance, Matrix4 modelMatrix)
+    {
+        instanceMatrices.position(instance * FLOATS_PER_MATRIX);
+        instanceMatrices.put(modelMatrix.m, 0, FLOATS_PER_MATRIX);
+        markDirty(instance, instance + 1);
+    }
+
+    /**
+     * Set model matrices of a contiguous range of instances from a packed array of column major matrices.  Takes effect on the next draw.
+     *
+     * @param firstInstance index of first instance to update
+     * @param matrices      packed matrix data
+     * @param offset        offset of the first matrix in matrices
+     * @param count         number of instances to update
+     */
+    void setInstanceMatrices(int firstInstance, float[] matrices, int offset, int count)
+    {
+        instanceMatrices.position(firstInstance * FLOATS_PER_MATRIX);
+        instanceMatrices.put(matrices, offset, count * FLOATS_PER_MATRIX);
+        markDirty(firstInstance, firstInstance + count);
+    }
+
+    /**
+     * Set how many instances (starting with instance 0) are drawn, all at the most detailed level.
+     *
+     * @param numInstances
+     */
+    void setNumInstances(int numInstances)
+    {
+        checkNumInstances(numInstances);
+        levelInstances[0] = numInstances;
+        for (int level = 1; level < levelInstances.length; level++)
+        {
+            levelInstances[level] = 0;
+        }
+    }
+
+    /**
+     * Set how many instances are drawn at each level of detail.  Instances of each level follow those of the previous level, starting with instance 0.
+     *
+     * @param instancesPerLevel number of instances of each level (copied)
+     */
+    void setLevelInstances(int[] instancesPerLevel)
+    {
+        int numInstances = 0;
+        for (int level = 0; level < levelInstances.length; level++)
+        {
+            numInstances += instancesPerLevel[level];
+        }
+        checkNumInstances(numInstances);
+        System.arraycopy(instancesPerLevel, 0, levelInstances, 0, levelInstances.length);
+    }
+
+    int getNumInstances()
+    {
+        int numInstances = 0;
+        for (int level = 0; level < levelInstances.length; level++)
+        {
+            numInstances += levelInstances[level];
+        }
+        return numInstances;
+    }
+
+    /**
+     * @return number of triangles drawn by drawTriangles(), over all instances
+     */
+    int getNumTriangles()
+    {
+        int numTriangles = 0;
+        for (int level = 0; level < levelInstances.length; level++)
+        {
+            numTriangles += levelIndexCounts[level] / 3 * levelInstances[level];
+        }
+        return numTriangles;
+    }
+
+    /**
+     * @return number of triangles each instance has at the level
+     */
+    int getNumTriangles(int level)
+    {
+        return levelIndexCounts[level] / 3;
+    }
+
+    /**
+     * Upload any changed instance matrices and draw all instances.  InstancedTechnique must be bound.
+     */
+    void drawTriangles()
+    {
+        GLES30.glBindVertexArray(vertexArray);
+        if (dirtyEnd > dirtyStart)
+        {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
+            instanceMatrices.position(dirtyStart * FLOATS_PER_MATRIX);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER,
+                    dirtyStart * FLOATS_PER_MATRIX * BYTES_PER_FLOAT,
+                    (dirtyEnd - dirtyStart) * FLOATS_PER_MATRIX * BYTES_PER_FLOAT,
+                    instanceMatrices);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            dirtyStart = 0;
+            dirtyEnd = 0;
+        }
+        if (levelInstances.length == 1)
+        {
+            GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, levelIndexCounts[0], GLES20.GL_UNSIGNED_SHORT, 0, levelInstances[0]);
+        }
+        else
+        {
+            //GLES 3.0 has no base instance, so each level's instances are reached by offsetting the matrix attributes
+            int firstInstance = 0;
+            for (int level = 0; level < levelInstances.length; level++)
+            {
+                if (levelInstances[level] > 0)
+                {
+                    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
+                    pointInstanceMatrices(firstInstance);
+                    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+                    GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, levelIndexCounts[level], GLES20.GL_UNSIGNED_SHORT, levelIndexOffsets[level] * 2, levelInstances[level]);
+                    firstInstance += levelInstances[level];
+                }
+            }
+        }
+        GLES30.glBindVertexArray(0);
+    }
+
+    /**
+     * Point the model matrix attributes of the bound vertex array at the instance matrix buffer (which must be bound), starting at the given instance.
+     */
+    private void pointInstanceMatrices(int firstInstance)
+    {
+        for (int column = 0; column < 4; column++)
+        {
+            GLES20.glVertexAttribPointer(InstancedTechnique.MODEL_MATRIX_LOCATION + column, 4, GLES20.GL_FLOAT, false, FLOATS_PER_MATRIX * BYTES_PER_FLOAT,
+                    (firstInstance * FLOATS_PER_MATRIX + column * 4) * BYTES_PER_FLOAT);
+        }
+    }
+
+    private void checkNumInstances(int numInstances)
+    {
+        if (numInstances > maxInstances)
+        {
+            throw new IllegalArgumentException("Cannot draw " + numInstances + " instances, maximum is " + maxInstances);
+        }
+    }
+
+    void destroy()
+    {
+        GLES20.glDeleteBuffers(buffers.length, buffers, 0);
+        GLES30.glDeleteVertexArrays(1, new int[]{vertexArray}, 0);
+    }
+
+    private void markDirty(int start, int end)
+    {
+        if (dirtyEnd == dirtyStart)
+        {
+            dirtyStart = start;
+            dirtyEnd = end;
+        }
+        else
+        {
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyEnd = Math.max(dirtyEnd, end);
+        }
+    }
+
+    private static int[] levelIndexOffsets(CachedMesh mesh)
+    {
+        int[] offsets = new int[mesh.getNumLevels()];
+        for (int level = 0; level < offsets.length; level++)
+        {
+            offsets[level] = mesh.getIndexOffset(level);
+        }
+        return offsets;
+    }
+
+    private static int[] levelIndexCounts(CachedMesh mesh)
+    {
+        int[] counts = new int[mesh.getNumLevels()];
+        for (int level = 0; level < counts.length; level++)
+        {
+            counts[level] = mesh.getIndexCount(level);
+        }
+        return counts;
+    }
+}
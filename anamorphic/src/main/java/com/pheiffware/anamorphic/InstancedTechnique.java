@@ -0,0 +1,224 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.pheiffware.lib.graphics.GraphicsException;
+
+/**
+ * A minimal GLES 3.0 technique for drawing InstancedMeshHandles.  Each instance's model matrix is a per-instance vertex attribute (see InstancedMeshHandle), rather than a uniform,
+ * so any number of copies of a mesh can be drawn with one draw call.
+ * Lighting is a single point light with ambient, diffuse and specular (Blinn-Phong) terms.  This is written separately from the library's HoloLighting shaders, so
+ * is not guaranteed to match Std3DTechnique exactly (e.g. in attenuation or specular details).  In debug builds AnamorphicRenderer measures the difference on the first
+ * frame, and InstancingParityTest fails when it exceeds AnamorphicRenderer.INSTANCING_PARITY_TOLERANCE.
+ * The light's diffuse and specular terms are shadowed by the same cube depth texture, and depth constants, the standard technique samples.
+ * Model matrices are assumed to have uniform scale (normals are transformed by the upper 3x3 of the model view matrix).
+ */
+class InstancedTechnique
+{
+    //Fixed attribute locations, shared with InstancedMeshHandle
+    static final int POSITION_LOCATION = 0;
+    static final int NORMAL_LOCATION = 1;
+    //Model matrix occupies 4 consecutive locations (one per column)
+    static final int MODEL_MATRIX_LOCATION = 2;
+    //Texture unit the cube shadow map is bound to.  The highest unit GLES 3.0 guarantees, clear of those the library's techniques use.
+    private static final int SHADOW_TEXTURE_UNIT = 15;
+
+    private static final String VERTEX_SHADER = "" +
+            "#version 300 es\n" +
+            "layout(location = 0) in vec4 vertexPosition;\n" +
+            "layout(location = 1) in vec3 vertexNormal;\n" +
+            "layout(location = 2) in mat4 modelMatrix;\n" +
+            "uniform mat4 projectionMatrix;\n" +
+            "uniform mat4 viewMatrix;\n" +
+            "out vec3 viewPosition;\n" +
+            "out vec3 viewNormal;\n" +
+            "out vec3 worldPosition;\n" +
+            "void main()\n" +
+            "{\n" +
+            "    vec4 world = modelMatrix * vertexPosition;\n" +
+            "    worldPosition = world.xyz;\n" +
+            "    mat4 modelViewMatrix = viewMatrix * modelMatrix;\n" +
+            "    vec4 position = viewMatrix * world;\n" +
+            "    viewPosition = position.xyz;\n" +
+            "    viewNormal = mat3(modelViewMatrix) * vertexNormal;\n" +
+            "    gl_Position = projectionMatrix * position;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER = "" +
+            "#version 300 es\n" +
+            //Shadow depth comparisons need more precision than mediump gives near the far plane
+            "precision highp float;\n" +
+            "uniform vec3 lightViewPosition;\n" +
+            "uniform vec4 ambientColor;\n" +
+            "uniform vec4 lightColor;\n" +
+            "uniform vec4 matColor;\n" +
+            "uniform vec4 specMatColor;\n" +
+            "uniform float shininess;\n" +
+            "uniform highp samplerCube cubeDepthTexture;\n" +
+            "uniform vec3 lightPosition;\n" +
+            "uniform float depthZConst;\n" +
+            "uniform float depthZFactor;\n" +
+            "in vec3 viewPosition;\n" +
+            "in vec3 viewNormal;\n" +
+            "in vec3 worldPosition;\n" +
+            "out vec4 fragColor;\n" +
+            //1 if lit, 0 if the cube depth texture has something closer to the light along the same direction
+            "float lightVisibility()\n" +
+            "{\n" +
+            "    vec3 fromLight = worldPosition - lightPosition;\n" +
+            "    vec3 distances = abs(fromLight);\n" +
+            //The face a direction samples is that of its major axis, and depth was written by a perspective projection along that axis:
+            //normalized device depth = depthZConst + depthZFactor / distance, mapped to window depth [0, 1]
+            "    float faceDistance = max(distances.x, max(distances.y, distances.z));\n" +
+            "    float depth = 0.5 * (depthZConst + depthZFactor / faceDistance) + 0.5;\n" +
+            //The bias keeps lit surfaces from shadowing themselves
+            "    return texture(cubeDepthTexture, fromLight).r + 0.0005 < depth ? 0.0 : 1.0;\n" +
+            "}\n" +
+            "void main()\n" +
+            "{\n" +
+            "    vec3 normal = normalize(viewNormal);\n" +
+            "    vec3 toLight = normalize(lightViewPosition - viewPosition);\n" +
+            "    vec3 toEye = normalize(-viewPosition);\n" +
+            "    float visibility = lightVisibility();\n" +
+            "    float diffuse = max(dot(normal, toLight), 0.0);\n" +
+            "    float specular = diffuse > 0.0 ? pow(max(dot(normal, normalize(toLight + toEye)), 0.0), shininess) : 0.0;\n" +
+            "    vec3 color = ambientColor.rgb * matColor.rgb + visibility * lightColor.rgb * (diffuse * matColor.rgb + specular * specMatColor.rgb);\n" +
+            "    fragColor = vec4(color, matColor.a);\n" +
+            "}\n";
+
+    private final int program;
+    private final int projectionMatrixLocation;
+    private final int viewMatrixLocation;
+    private final int lightViewPositionLocation;
+    private final int ambientColorLocation;
+    private final int lightColorLocation;
+    private final int matColorLocation;
+    private final int specMatColorLocation;
+    private final int shininessLocation;
+    private final int lightPositionLocation;
+    private final int depthZConstLocation;
+    private final int depthZFactorLocation;
+
+    InstancedTechnique(ProgramBinaryCache programCache) throws GraphicsException
+    {
+        program = programCache.buildProgram(VERTEX_SHADER, FRAGMENT_SHADER, "instanced");
+        projectionMatrixLocation = GLES20.glGetUniformLocation(program, "projectionMatrix");
+        viewMatrixLocation = GLES20.glGetUniformLocation(program, "viewMatrix");
+        lightViewPositionLocation = GLES20.glGetUniformLocation(program, "lightViewPosition");
+        ambientColorLocation = GLES20.glGetUniformLocation(program, "ambientColor");
+        lightColorLocation = GLES20.glGetUniformLocation(program, "lightColor");
+        matColorLocation = GLES20.glGetUniformLocation(program, "matColor");
+        specMatColorLocation = GLES20.glGetUniformLocation(program, "specMatColor");
+        shininessLocation = GLES20.glGetUniformLocation(program, "shininess");
+        lightPositionLocation = GLES20.glGetUniformLocation(program, "lightPosition");
+        depthZConstLocation = GLES20.glGetUniformLocation(program, "depthZConst");
+        depthZFactorLocation = GLES20.glGetUniformLocation(program, "depthZFactor");
+        GLES20.glUseProgram(program);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "cubeDepthTexture"), SHADOW_TEXTURE_UNIT);
+    }
+
+    /**
+     * Bind the program and set scene properties, which are shared by all views and meshes drawn in a frame.
+     *
+     * @param ambientColor
+     * @param lightColor
+     */
+    void bind(float[] ambientColor, float[] lightColor)
+    {
+        GLES20.glUseProgram(program);
+        GLES20.glUniform4fv(ambientColorLocation, 1, ambientColor, 0);
+        GLES20.glUniform4fv(lightColorLocation, 1, lightColor, 0);
+    }
+
+    /**
+     * Set the light's cube shadow map, which is shared by all views and meshes drawn in a frame.  Must be called after bind().
+     *
+     * @param cubeTextureHandle GL handle of the cube depth texture
+     * @param depthZConst       depth constant of the projection the texture was rendered with (see CubeDepthRenderer)
+     * @param depthZFactor      depth factor of the projection the texture was rendered with (see CubeDepthRenderer)
+     * @param lightPosition     light position, in world space
+     */
+    void setShadow(int cubeTextureHandle, float depthZConst, float depthZFactor, float[] lightPosition)
+    {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + SHADOW_TEXTURE_UNIT);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, cubeTextureHandle);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glUniform1f(depthZConstLocation, depthZConst);
+        GLES20.glUniform1f(depthZFactorLocation, depthZFactor);
+        GLES20.glUniform3fv(lightPositionLocation, 1, lightPosition, 0);
+    }
+
+    /**
+     * Bind the program and set the properties of one view.  Scene and material properties set earlier in the frame are retained.
+     *
+     * @param matrices          array holding the projection and view matrices
+     * @param projectionOffset  offset of the projection matrix in matrices
+     * @param viewOffset        offset of the view matrix in matrices
+     * @param lightViewPosition light position, already transformed by the view matrix
+     */
+    void setView(float[] matrices, int projectionOffset, int viewOffset, float[] lightViewPosition)
+    {
+        GLES20.glUseProgram(program);
+        GLES20.glUniformMatrix4fv(projectionMatrixLocation, 1, false, matrices, projectionOffset);
+        GLES20.glUniformMatrix4fv(viewMatrixLocation, 1, false, matrices, viewOffset);
+        GLES20.glUniform3fv(lightViewPositionLocation, 1, lightViewPosition, 0);
+    }
+
+    /**
+     * Set material properties.  Must be called after bind().
+     */
+    void setMaterial(float[] matColor, float[] specMatColor, float shininess)
+    {
+        GLES20.glUniform4fv(matColorLocation, 1, matColor, 0);
+        GLES20.glUniform4fv(specMatColorLocation, 1, specMatColor, 0);
+        GLES20.glUniform1f(shininessLocation, shininess);
+    }
+
+    void destroy()
+    {
+        GLES30.glDeleteProgram(program);
+    }
+
+    /**
+     * Compile and link a program from embedded sources.  Also used by other techniques drawing InstancedMeshHandles.
+     */
+    static int buildProgram(String vertexSource, String fragmentSource) throws GraphicsException
+    {
+        int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        //Allows ProgramBinaryCache to retrieve the linked binary
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        GLES20.glLinkProgram(program);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0)
+        {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new GraphicsException("Could not link instanced program: " + log);
+        }
+        return program;
+    }
+
+    private static int compileShader(int type, String source) throws GraphicsException
+    {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0)
+        {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new GraphicsException("Could not compile instanced shader: " + log);
+        }
+        return shader;
+    }
+}
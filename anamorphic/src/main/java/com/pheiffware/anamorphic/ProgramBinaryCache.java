@@ -0,0 +1,117 @@
+package com.pheiffware.anamorphic;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.pheiffware.anamorphic.shaderCache.ProgramBinaryStore;
+import com.pheiffware.lib.graphics.GraphicsException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds programs from linked binaries saved by earlier runs (GLES 3.0 glProgramBinary), compiling from source only when there is no binary for the
+ * current sources and driver, or the driver rejects it.  Binaries are keyed by shader sources, the driver's vendor, renderer and version strings and a
+ * configuration string.  Must be created and used on the GL thread.
+ */
+class ProgramBinaryCache
+{
+    private final ProgramBinaryStore store;
+    private final boolean supported;
+    private final String driver;
+    private int numHits;
+    private int numMisses;
+
+    /**
+     * @param store where binaries are kept, or null to always compile from source (e.g. to measure the cache's benefit)
+     */
+    ProgramBinaryCache(ProgramBinaryStore store)
+    {
+        this.store = store;
+        int[] numFormats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, numFormats, 0);
+        supported = store != null && numFormats[0] > 0;
+        driver = GLES20.glGetString(GLES20.GL_VENDOR) + "|" + GLES20.glGetString(GLES20.GL_RENDERER) + "|" + GLES20.glGetString(GLES20.GL_VERSION);
+    }
+
+    /**
+     * Get a linked program for the given sources.
+     *
+     * @param vertexSource
+     * @param fragmentSource
+     * @param config         anything else which changes the program (e.g. defines or flags used to generate the sources)
+     * @return program handle
+     * @throws GraphicsException if the sources don't compile or link
+     */
+    int buildProgram(String vertexSource, String fragmentSource, String config) throws GraphicsException
+    {
+        if (!supported)
+        {
+            numMisses++;
+            return InstancedTechnique.buildProgram(vertexSource, fragmentSource);
+        }
+        String key = ProgramBinaryStore.key(driver, vertexSource, fragmentSource, config);
+        ProgramBinaryStore.ProgramBinary binary = store.load(key);
+        if (binary != null)
+        {
+            int program = GLES20.glCreateProgram();
+            GLES30.glProgramBinary(program, binary.format, binary.data, binary.data.remaining());
+            int[] status = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+            if (status[0] != 0)
+            {
+                numHits++;
+                return program;
+            }
+            //Driver no longer accepts it (e.g. it was updated)
+            GLES20.glDeleteProgram(program);
+            store.delete(key);
+        }
+        numMisses++;
+        int program = InstancedTechnique.buildProgram(vertexSource, fragmentSource);
+        save(key, program);
+        return program;
+    }
+
+    /**
+     * @return number of programs loaded from binaries
+     */
+    int getNumHits()
+    {
+        return numHits;
+    }
+
+    /**
+     * @return number of programs compiled from source
+     */
+    int getNumMisses()
+    {
+        return numMisses;
+    }
+
+    /**
+     * Store a linked program's binary.  Failure only costs time on the next run, so is logged rather than thrown.
+     */
+    private void save(String key, int program)
+    {
+        int[] values = new int[2];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        if (values[0] == 0)
+        {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(values[0]).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, values[0], values, 0, values, 1, binary);
+        binary.limit(values[0]);
+        try
+        {
+            store.store(key, values[1], binary);
+        }
+        catch (IOException e)
+        {
+            Log.w("Render", "Could not save program binary", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.pheiffware.anamorphic;
+
+/**
+ * Decides whether a frame needs to be drawn, for render-on-demand mode.  A frame is needed if the eye has moved more than an epsilon (in screen coordinates)
+ * from where it was when the last frame was drawn, or if the scene has been marked dirty since then.
+ * Predicted eye positions keep moving between inputs (faces, rotations), so after drawing, further frames are requested for a bounded number of frames after the
+ * latest input, which lets the eye settle without rendering continuously.
+ * Decisions are made on the GL thread.  The scene may be marked dirty, input reported, and counts read, from any thread.
+ */
+class RedrawTracker
+{
+    private final float eyeEpsilonSquared;
+    private final int maxSettleFrames;
+
+    private boolean hasRendered;
+    private final float[] lastRenderedEye = new float[3];
+    private volatile boolean sceneDirty;
+    private volatile boolean inputArrived;
+    //Frames which may still be requested, without further input, while the eye settles
+    private int settleFramesRemaining;
+
+    //Single writer (GL thread)
+    private volatile long numFrames;
+    private volatile long numSkipped;
+
+    /**
+     * @param eyeEpsilon      movement of the eye, in screen coordinates, below which a frame is not redrawn
+     * @param maxSettleFrames number of frames, after the latest input, which are requested by rendered()
+     */
+    RedrawTracker(float eyeEpsilon, int maxSettleFrames)
+    {
+        eyeEpsilonSquared = eyeEpsilon * eyeEpsilon;
+        this.maxSettleFrames = maxSettleFrames;
+    }
+
+    /**
+     * Something other than the eye position changed (surface size, overlays, objects), so the next frame must be drawn.
+     */
+    void markSceneDirty()
+    {
+        sceneDirty = true;
+    }
+
+    /**
+     * New input, which may move the eye, arrived.  Frames drawn after this may request another maxSettleFrames frames.
+     */
+    void inputArrived()
+    {
+        inputArrived = true;
+    }
+
+    /**
+     * Decide whether to draw a frame from the given eye position.  The frame is counted as drawn or skipped accordingly.
+     *
+     * @param eye x, y, z of the eye
+     * @return true if the frame must be drawn, in which case rendered() should be called once it is
+     */
+    boolean needsRedraw(float[] eye)
+    {
+        numFrames++;
+        if (sceneDirty || !hasRendered)
+        {
+            return true;
+        }
+        float dx = eye[0] - lastRenderedEye[0];
+        float dy = eye[1] - lastRenderedEye[1];
+        float dz = eye[2] - lastRenderedEye[2];
+        if (dx * dx + dy * dy + dz * dz > eyeEpsilonSquared)
+        {
+            return true;
+        }
+        numSkipped++;
+        return false;
+    }
+
+    /**
+     * A frame was drawn from the given eye position.
+     *
+     * @param eye x, y, z of the eye
+     * @return true if another frame should be requested, to follow the eye as it settles
+     */
+    boolean rendered(float[] eye)
+    {
+        //Cleared before drawing finishes, so a scene change made during the draw still causes another draw
+        sceneDirty = false;
+        lastRenderedEye[0] = eye[0];
+        lastRenderedEye[1] = eye[1];
+        lastRenderedEye[2] = eye[2];
+        hasRendered = true;
+        if (inputArrived)
+        {
+            inputArrived = false;
+            settleFramesRemaining = maxSettleFrames;
+        }
+        if (settleFramesRemaining > 0)
+        {
+            settleFramesRemaining--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget the last rendered frame (e.g. when the surface is recreated), so the next frame is drawn.
+     */
+    void reset()
+    {
+        hasRendered = false;
+        settleFramesRemaining = 0;
+    }
+
+    long getNumFrames()
+    {
+        return numFrames;
+    }
+
+    long getNumSkipped()
+    {
+        return numSkipped;
+    }
+
+    /**
+     * @return fraction of frames, since creation, which were skipped
+     */
+    float getSkippedFraction()
+    {
+        long frames = numFrames;
+        if (frames == 0)
+        {
+            return 0;
+        }
+        return numSkipped / (float) frames;
+    }
+}
@@ -0,0 +1,150 @@
+package com.pheiffware.anamorphic;
+
+import android.graphics.PointF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.pheiffware.anamorphic.camera.FaceRegionTracker;
+import com.pheiffware.anamorphic.camera.LumaCrop;
+import com.pheiffware.anamorphic.camera.LumaFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects the face in each frame from a FrameSource, scanning only a window around the face's expected position once it has been found, as chosen by a
+ * FaceRegionTracker.  Windows are cropped from the frame and given to a detector set up for large faces, while full scans use the frame's buffer directly.
+ * Faces are reported in whole frame coordinates, so listeners can't tell which kind of scan found them.
+ */
+class RegionFaceFeeder extends DetectorFrameFeeder
+{
+    /**
+     * Receives detection results on the frame source's thread.
+     */
+    interface Listener
+    {
+        /**
+         * @param newFace         the face was not found in the previous frame
+         * @param width           face width
+         * @param height          face height
+         * @param x               left of the face in the whole, upright frame
+         * @param y               top of the face in the whole, upright frame
+         * @param frameWidth      width of the upright camera frame
+         * @param frameHeight     height of the upright camera frame
+         * @param frameTimeMillis detector time stamp of the frame
+         */
+        void onFace(boolean newFace, float width, float height, float x, float y, int frameWidth, int frameHeight, long frameTimeMillis);
+
+        void onFaceMissing(long frameTimeMillis);
+    }
+
+    private final Detector<Face> fullDetector;
+    private final Detector<Face> regionDetector;
+    private final FaceRegionTracker tracker;
+    private final Listener listener;
+    private final int[] region = new int[4];
+    private final int[] sensorRegion = new int[4];
+    private ByteBuffer cropBuffer;
+    private int frameWidth;
+    private int frameHeight;
+    //Frame size once turned upright, which face positions are relative to
+    private int uprightWidth;
+    private int uprightHeight;
+
+    /**
+     * @param fullDetector      detector for whole frames
+     * @param regionDetector    detector for windows around the face, in which the face fills much of the image
+     * @param sensorOrientation clockwise rotation, in degrees, of the camera image relative to the device's natural orientation
+     * @param tracker           chooses the windows, and keeps detection statistics
+     * @param listener          receives detection results
+     */
+    RegionFaceFeeder(Detector<Face> fullDetector, Detector<Face> regionDetector, int sensorOrientation, FaceRegionTracker tracker, Listener listener)
+    {
+        super(fullDetector, sensorOrientation);
+        this.fullDetector = fullDetector;
+        this.regionDetector = regionDetector;
+        this.tracker = tracker;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onFrame(LumaFrame frame)
+    {
+        try
+        {
+            detect(frame);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    private void detect(LumaFrame frame)
+    {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (width != frameWidth || height != frameHeight)
+        {
+            frameWidth = width;
+            frameHeight = height;
+            uprightWidth = LumaCrop.uprightWidth(rotation, width, height);
+            uprightHeight = LumaCrop.uprightHeight(rotation, width, height);
+            tracker.setFrameSize(uprightWidth, uprightHeight);
+            cropBuffer = ByteBuffer.allocateDirect(width * height);
+        }
+        long frameTimeMillis = toFrameTimeMillis(frame.getTimeStamp());
+        boolean regionScan = tracker.nextRegion(frame.getTimeStamp(), region);
+        Frame detectorFrame;
+        Detector<Face> detector;
+        if (regionScan)
+        {
+            LumaCrop.toSensorRegion(region, rotation, width, height, sensorRegion);
+            LumaCrop.crop(frame.getLuma(), frame.getRowStride(), sensorRegion, cropBuffer);
+            detectorFrame = buildFrame(cropBuffer, sensorRegion[2], sensorRegion[3], frame.getFrameNumber(), frameTimeMillis);
+            detector = regionDetector;
+        }
+        else
+        {
+            detectorFrame = buildFrame(frame.getLuma(), width, height, frame.getFrameNumber(), frameTimeMillis);
+            detector = fullDetector;
+        }
+        long start = System.nanoTime();
+        SparseArray<Face> faces = detector.detect(detectorFrame);
+        long detectionTime = System.nanoTime() - start;
+
+        Face face = largestFace(faces);
+        if (face == null)
+        {
+            tracker.faceMissing(regionScan, detectionTime);
+            listener.onFaceMissing(frameTimeMillis);
+            return;
+        }
+        PointF position = face.getPosition();
+        float x = position.x;
+        float y = position.y;
+        if (regionScan)
+        {
+            x += region[0];
+            y += region[1];
+        }
+        boolean newFace = !tracker.isTracking();
+        tracker.faceFound(frame.getTimeStamp(), regionScan, detectionTime, x, y, face.getWidth(), face.getHeight());
+        listener.onFace(newFace, face.getWidth(), face.getHeight(), x, y, uprightWidth, uprightHeight, frameTimeMillis);
+    }
+
+    private static Face largestFace(SparseArray<Face> faces)
+    {
+        Face largest = null;
+        for (int i = 0; i < faces.size(); i++)
+        {
+            Face face = faces.valueAt(i);
+            if (largest == null || face.getWidth() * face.getHeight() > largest.getWidth() * largest.getHeight())
+            {
+                largest = face;
+            }
+        }
+        return largest;
+    }
+}
@@ -0,0 +1,93 @@
+package com.pheiffware.anamorphic;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+
+/**
+ * Receives rotation vector events on a dedicated thread and writes them, time stamped, into a RotationSampleBuffer which the GL thread samples once per frame.
+ * Events are requested with a maximum report latency, so the sensor hub can batch them in its FIFO and wake the application processor less often.
+ * Time stamps are converted from the sensor clock (elapsedRealtimeNanos) to System.nanoTime(), the base used by the rest of the pipeline.
+ */
+class RotationSensorIngest implements SensorEventListener
+{
+    /**
+     * Notified of each event, on the sensor thread, after it has been added to the buffer.
+     */
+    interface Listener
+    {
+        /**
+         * @param eventTimeStamp the event's own time stamp, converted to System.nanoTime(), as added to the buffer
+         * @param values         event values (only valid during the call)
+         */
+        void onRotationSample(long eventTimeStamp, float[] values);
+    }
+
+    private final RotationSampleBuffer samples;
+    private final Listener listener;
+    private HandlerThread thread;
+    //elapsedRealtimeNanos() - nanoTime()
+    private volatile long clockOffset;
+
+    /**
+     * @param samples  buffer to write events into
+     * @param listener notified of each event, may be null
+     */
+    RotationSensorIngest(RotationSampleBuffer samples, Listener listener)
+    {
+        this.samples = samples;
+        this.listener = listener;
+    }
+
+    /**
+     * Start receiving events.
+     *
+     * @param sensorManager
+     * @param samplingPeriodUs   requested time between events
+     * @param maxReportLatencyUs how long events may be held in the sensor FIFO before being delivered
+     * @return false if there is no rotation vector sensor
+     */
+    boolean start(SensorManager sensorManager, int samplingPeriodUs, int maxReportLatencyUs)
+    {
+        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (sensor == null)
+        {
+            return false;
+        }
+        clockOffset = SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        thread = new HandlerThread("RotationSensor");
+        thread.start();
+        return sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, new Handler(thread.getLooper()));
+    }
+
+    void stop(SensorManager sensorManager)
+    {
+        sensorManager.unregisterListener(this);
+        if (thread != null)
+        {
+            thread.quitSafely();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event)
+    {
+        samples.add(event.timestamp - clockOffset, event.values);
+        if (listener != null)
+        {
+            listener.onRotationSample(event.timestamp - clockOffset, event.values);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy)
+    {
+    }
+}
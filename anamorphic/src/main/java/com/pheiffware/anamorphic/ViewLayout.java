@@ -0,0 +1,43 @@
+package com.pheiffware.anamorphic;
+
+/**
+ * How several views (e.g. a stereo pair) are arranged on the surface.  Each view gets an equal share of the surface and shows the whole physical screen,
+ * so views are squashed along the split axis, as expected by side-by-side and over-under stereo displays.
+ */
+enum ViewLayout
+{
+    //Views left to right
+    SIDE_BY_SIDE,
+    //Views layered top to bottom
+    STACKED;
+
+    /**
+     * Calculate the viewport of a view.
+     *
+     * @param view          index of the view
+     * @param numViews      total number of views
+     * @param surfaceWidth
+     * @param surfaceHeight
+     * @param viewportOut   receives x, y, width, height (GL convention, y up)
+     */
+    void getViewport(int view, int numViews, int surfaceWidth, int surfaceHeight, int[] viewportOut)
+    {
+        switch (this)
+        {
+            case SIDE_BY_SIDE:
+                int width = surfaceWidth / numViews;
+                viewportOut[0] = view * width;
+                viewportOut[1] = 0;
+                viewportOut[2] = width;
+                viewportOut[3] = surfaceHeight;
+                break;
+            case STACKED:
+                int height = surfaceHeight / numViews;
+                viewportOut[0] = 0;
+                viewportOut[1] = surfaceHeight - (view + 1) * height;
+                viewportOut[2] = surfaceWidth;
+                viewportOut[3] = height;
+                break;
+        }
+    }
+}
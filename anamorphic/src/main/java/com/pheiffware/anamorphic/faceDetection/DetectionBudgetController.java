@@ -0,0 +1,120 @@
+package com.pheiffware.anamorphic.faceDetection;
+
+/**
+ * Chooses a face detector configuration to keep the time taken to detect a face near a target.
+ * Configurations are given as an ordered list of levels, from cheapest to most expensive.  Detection times are averaged over windows of frames:
+ * if a window's average exceeds the target by more than STEP_DOWN_RATIO, a cheaper level is chosen immediately.  A more expensive level is only chosen after several consecutive windows
+ * well under the target (STEP_UP_RATIO).  The gap between the two thresholds, plus the extra windows required to step up, stops the controller flapping between levels.
+ */
+public class DetectionBudgetController
+{
+    //A window averaging more than this times the target steps down
+    private static final float STEP_DOWN_RATIO = 1.2f;
+
+    //A window averaging less than this times the target counts towards stepping up
+    private static final float STEP_UP_RATIO = 0.6f;
+
+    //Number of consecutive, under budget, windows required before stepping up
+    private static final int WINDOWS_TO_STEP_UP = 3;
+
+    /**
+     * Notified when the controller chooses a new configuration.
+     */
+    public interface Listener
+    {
+        /**
+         * @param from                previous configuration
+         * @param to                  new configuration
+         * @param meanDetectionMillis mean detection time over the window which triggered the change
+         * @param targetMillis        the target detection time
+         */
+        void onConfigurationChanged(DetectorConfiguration from, DetectorConfiguration to, float meanDetectionMillis, float targetMillis);
+    }
+
+    private final DetectorConfiguration[] levels;
+    private final float targetMillis;
+    private final int windowSize;
+    private final Listener listener;
+
+    private int level;
+    private long windowTotalNanos;
+    private int windowCount;
+    private int underBudgetWindows;
+
+    /**
+     * @param levels       configurations ordered from cheapest to most expensive
+     * @param initialLevel index of the starting configuration
+     * @param targetMillis target detection time
+     * @param windowSize   number of detections averaged before each decision
+     * @param listener     notified of changes
+     */
+    public DetectionBudgetController(DetectorConfiguration[] levels, int initialLevel, float targetMillis, int windowSize, Listener listener)
+    {
+        this.levels = levels;
+        this.level = initialLevel;
+        this.targetMillis = targetMillis;
+        this.windowSize = windowSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Record how long a detection took.  May notify the listener of a new configuration.
+     *
+     * @param detectionNanos time the detector took for one frame
+     */
+    public synchronized void recordDetectionTime(long detectionNanos)
+    {
+        windowTotalNanos += detectionNanos;
+        windowCount++;
+        if (windowCount < windowSize)
+        {
+            return;
+        }
+        float meanMillis = windowTotalNanos / (windowCount * 1000000.0f);
+        windowTotalNanos = 0;
+        windowCount = 0;
+
+        if (meanMillis > targetMillis * STEP_DOWN_RATIO)
+        {
+            underBudgetWindows = 0;
+            if (level > 0)
+            {
+                changeLevel(level - 1, meanMillis);
+            }
+        }
+        else if (meanMillis < targetMillis * STEP_UP_RATIO)
+        {
+            underBudgetWindows++;
+            if (underBudgetWindows >= WINDOWS_TO_STEP_UP && level < levels.length - 1)
+            {
+                underBudgetWindows = 0;
+                changeLevel(level + 1, meanMillis);
+            }
+        }
+        else
+        {
+            underBudgetWindows = 0;
+        }
+    }
+
+    /**
+     * Discard any partially measured window, for example after the detector was restarted.
+     */
+    public synchronized void resetWindow()
+    {
+        windowTotalNanos = 0;
+        windowCount = 0;
+    }
+
+    public synchronized DetectorConfiguration getConfiguration()
+    {
+        return levels[level];
+    }
+
+    private void changeLevel(int newLevel, float meanMillis)
+    {
+        DetectorConfiguration from = levels[level];
+        level = newLevel;
+        listener.onConfigurationChanged(from, levels[level], meanMillis, targetMillis);
+    }
+}
@@ -0,0 +1,29 @@
+package com.pheiffware.anamorphic.faceDetection;
+
+import java.util.Locale;
+
+/**
+ * One setting of the face detector and camera preview which the DetectionBudgetController can choose.
+ */
+public class DetectorConfiguration
+{
+    //Use the detector's accurate mode rather than its fast mode
+    public final boolean accurate;
+    //Requested camera preview height in pixels (width follows from the camera's aspect ratio)
+    public final int previewHeight;
+    //Requested camera frames per second
+    public final int fps;
+
+    public DetectorConfiguration(boolean accurate, int previewHeight, int fps)
+    {
+        this.accurate = accurate;
+        this.previewHeight = previewHeight;
+        this.fps = fps;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "mode=%s height=%d fps=%d", accurate ? "ACCURATE" : "FAST", previewHeight, fps);
+    }
+}
@@ -0,0 +1,55 @@
+package com.pheiffware.anamorphic.faceDetection;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+/**
+ * Wraps a detector, feeding the time each call to detect() takes to a DetectionBudgetController.  Frames given to receiveFrame() are detected through the wrapper,
+ * so this also times detection by a CameraSource, which calls the detector itself.  Set the processor on the wrapper, rather than on the wrapped detector.
+ */
+public class TimedDetector<T> extends Detector<T>
+{
+    private final Detector<T> detector;
+    private final DetectionBudgetController budgetController;
+
+    /**
+     * @param detector         detector to time
+     * @param budgetController receives the time taken by each detection
+     */
+    public TimedDetector(Detector<T> detector, DetectionBudgetController budgetController)
+    {
+        this.detector = detector;
+        this.budgetController = budgetController;
+    }
+
+    @Override
+    public SparseArray<T> detect(Frame frame)
+    {
+        long start = System.nanoTime();
+        SparseArray<T> detections = detector.detect(frame);
+        budgetController.recordDetectionTime(System.nanoTime() - start);
+        return detections;
+    }
+
+    @Override
+    public boolean isOperational()
+    {
+        return detector.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id)
+    {
+        return detector.setFocus(id);
+    }
+
+    @Override
+    public void release()
+    {
+        //Releases the processor
+        super.release();
+        detector.release();
+    }
+}
@@ -0,0 +1,194 @@
+package com.pheiffware.anamorphic;
+
+import com.pheiffware.anamorphic.eyeTracking.AutoRecalibrator;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.KalmanEyeFilter;
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+import com.pheiffware.anamorphic.eyeTracking.RotationVectorOrientation;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the non-GL part of the frame loop (rotation sampling, face hand off, eye sensing, calibration and eye tracking) and checks that, once warmed up, it
+ * allocates nothing at all.
+ * <p>
+ * The budget is zero bytes, with two exemptions:
+ * <ul>
+ * <li>JIT: when the JVM replaces compiled code (deoptimization), it can make a one off allocation on the thread running it, at any point.  So a window of frames
+ * which allocates is measured again, up to MAX_WINDOWS times.  An allocation by the code under test, of even one byte per window, repeats in every window.</li>
+ * <li>Profilers: an agent attached to the JVM (a profiler, coverage tool or flight recorder) may allocate on the threads it instruments, so the test is
+ * skipped.</li>
+ * </ul>
+ */
+public class EyePipelineAllocationTest
+{
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 20000;
+    //Windows of MEASURED_FRAMES measured, looking for one free of JIT allocations
+    private static final int MAX_WINDOWS = 5;
+
+    //Frames are drawn at 60Hz, face updates arrive at roughly 30Hz and rotation samples at roughly 200Hz
+    private static final long FRAME_NANOS = 16666667L;
+    private static final int FRAMES_PER_FACE = 2;
+    private static final int ROTATIONS_PER_FRAME = 3;
+    //Each cycle, the device is held still, then turned and turned back, so it is seen both stable and moving
+    private static final int ROTATION_CYCLE_FRAMES = 1000;
+    private static final int STILL_FRAMES = 800;
+    private static final float TURN_PER_FRAME = 0.005f;
+
+    //Calibration which won't finish within the test: no tolerance is met, and the targets take more samples than the test provides
+    private static final int CALIBRATION_TARGETS = 32;
+    private static final int CALIBRATION_SAMPLES_PER_TARGET = 2000;
+
+    private com.sun.management.ThreadMXBean allocationBean;
+
+    private FaceMailbox faceMailbox;
+    private EyeSensor eyeSensor;
+    private EyePipeline eyePipeline;
+    private RotationSampleBuffer rotationSamples;
+    private final float[] rotationVector = new float[4];
+    private final float[] eye = new float[3];
+    private long frameTime;
+    private int frame;
+
+    @Before
+    public void setUp()
+    {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            Assume.assumeFalse("Agent attached: " + argument, argument.startsWith("-javaagent") || argument.startsWith("-agent") || argument.contains("FlightRecorder"));
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        faceMailbox = new FaceMailbox();
+        eyeSensor = new EyeSensor(new EyeSensorCalibration(), 300, 400, 60, 45);
+        EyeTracker eyeTracker = new EyeTracker(0.1f, new RotationVectorOrientation());
+        eyeTracker.setPredictiveFilter(new KalmanEyeFilter(4.0f, 0.001f, 1.0f));
+        rotationSamples = new RotationSampleBuffer(256);
+        eyePipeline = new EyePipeline(faceMailbox, rotationSamples, eyeSensor, eyeTracker);
+        frameTime = System.nanoTime();
+        frame = 0;
+    }
+
+    @Test
+    public void steadyStateFrameLoop_allocatesNothing() throws Exception
+    {
+        AutoRecalibrator autoRecalibrator = new AutoRecalibrator(256, 64, 16, 0.02f);
+        eyeSensor.setAutoRecalibrator(autoRecalibrator);
+
+        runFrames(WARM_UP_FRAMES);
+        long allocated = measureSteadyState();
+
+        assertTrue(eyePipeline.getEye(frameTime, eye));
+        //Both stable and moving frames were seen, and the calibration was refined
+        assertTrue(autoRecalibrator.getNumCandidates() < frame / FRAMES_PER_FACE);
+        assertTrue(autoRecalibrator.getNumRefinements() > 0);
+        assertEquals("Allocated " + allocated + " bytes in every window of " + MEASURED_FRAMES + " frames", 0, allocated);
+    }
+
+    @Test
+    public void multiPointCalibration_allocatesNothing() throws Exception
+    {
+        float[] targets = new float[CALIBRATION_TARGETS * 3];
+        for (int target = 0; target < CALIBRATION_TARGETS; target++)
+        {
+            targets[target * 3] = (target % 2) * 0.6f - 0.3f;
+            targets[target * 3 + 1] = (target / 2 % 2) * 1.2f - 0.6f;
+            targets[target * 3 + 2] = 4.0f;
+        }
+        eyeSensor.calibrateMultiPoint(targets, CALIBRATION_SAMPLES_PER_TARGET, true, 0);
+
+        runFrames(WARM_UP_FRAMES);
+        long allocated = measureSteadyState();
+
+        assertTrue(eyeSensor.isCalibrating());
+        assertTrue(eyePipeline.getEye(frameTime, eye));
+        assertEquals("Allocated " + allocated + " bytes in every window of " + MEASURED_FRAMES + " frames", 0, allocated);
+    }
+
+    /**
+     * @return fewest bytes allocated by this thread over any window of MEASURED_FRAMES frames (see class comment)
+     */
+    private long measureSteadyState()
+    {
+        long allocated = measureFrames(MEASURED_FRAMES);
+        for (int window = 1; window < MAX_WINDOWS && allocated > 0; window++)
+        {
+            allocated = Math.min(allocated, measureFrames(MEASURED_FRAMES));
+        }
+        return allocated;
+    }
+
+    /**
+     * @return bytes allocated by this thread while running the frames
+     */
+    private long measureFrames(int numFrames)
+    {
+        long threadId = Thread.currentThread().getId();
+        //Cost of the measurement itself
+        long overheadStart = allocationBean.getThreadAllocatedBytes(threadId);
+        long overhead = allocationBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        long start = allocationBean.getThreadAllocatedBytes(threadId);
+        runFrames(numFrames);
+        return allocationBean.getThreadAllocatedBytes(threadId) - start - overhead;
+    }
+
+    /**
+     * Run frames as the renderer and the threads feeding it would, on a simulated clock.
+     */
+    private void runFrames(int numFrames)
+    {
+        for (int i = 0; i < numFrames; i++, frame++)
+        {
+            //Sensor thread
+            for (int sample = 0; sample < ROTATIONS_PER_FRAME; sample++)
+            {
+                setRotationAboutZ(rotationAngle(frame + sample / (float) ROTATIONS_PER_FRAME));
+                rotationSamples.add(frameTime - FRAME_NANOS + (sample + 1) * FRAME_NANOS / ROTATIONS_PER_FRAME, rotationVector);
+            }
+            //Detector thread: a slowly moving face
+            if (frame % FRAMES_PER_FACE == 0)
+            {
+                float phase = (frame % 1000) / 1000.0f;
+                faceMailbox.postFace(false, 80 + 10 * phase, 100 + 10 * phase, 150 + 20 * phase, 200 - 20 * phase, 300, 400, frame, frameTime - FRAME_NANOS);
+            }
+            //Renderer
+            eyePipeline.updateOrientation(frameTime);
+            eyePipeline.drainFace();
+            eyePipeline.getEye(frameTime + FRAME_NANOS, eye);
+            frameTime += FRAME_NANOS;
+        }
+    }
+
+    private static float rotationAngle(float frame)
+    {
+        float cycleFrame = frame % ROTATION_CYCLE_FRAMES;
+        if (cycleFrame < STILL_FRAMES)
+        {
+            return 0;
+        }
+        float turnFrames = (ROTATION_CYCLE_FRAMES - STILL_FRAMES) / 2;
+        return TURN_PER_FRAME * (cycleFrame < STILL_FRAMES + turnFrames ? cycleFrame - STILL_FRAMES : ROTATION_CYCLE_FRAMES - cycleFrame);
+    }
+
+    private void setRotationAboutZ(float angle)
+    {
+        rotationVector[0] = 0;
+        rotationVector[1] = 0;
+        rotationVector[2] = (float) Math.sin(angle / 2);
+        rotationVector[3] = (float) Math.cos(angle / 2);
+    }
+}
@@ -0,0 +1,99 @@
+package com.pheiffware.anamorphic;
+
+import com.pheiffware.anamorphic.camera.LumaCrop;
+import com.pheiffware.anamorphic.eyeTracking.EyeFilter;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+import com.pheiffware.anamorphic.eyeTracking.RotationVectorOrientation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Faces are normalized by the size of the upright frame they were found in, which the camera reports turned from its sensor's orientation.
+ * Eye samples are timed by when their camera frame was captured, not when the face arrived.
+ */
+public class EyePipelineTest
+{
+    //Landscape sensor frames, a quarter turn from the portrait device
+    private static final int SENSOR_WIDTH = 640;
+    private static final int SENSOR_HEIGHT = 480;
+    private static final int ROTATION = 1;
+
+    @Test
+    public void facesAreNormalizedByUprightFrameSize() throws Exception
+    {
+        int uprightWidth = LumaCrop.uprightWidth(ROTATION, SENSOR_WIDTH, SENSOR_HEIGHT);
+        int uprightHeight = LumaCrop.uprightHeight(ROTATION, SENSOR_WIDTH, SENSOR_HEIGHT);
+        assertEquals(SENSOR_HEIGHT, uprightWidth);
+        assertEquals(SENSOR_WIDTH, uprightHeight);
+
+        //A sensor set up for upright frames sees the face as the camera reports it
+        float[] expected = senseFace(uprightWidth, uprightHeight, uprightWidth, uprightHeight);
+        //A sensor set up with another size adopts the reported frame size
+        assertArrayEquals(expected, senseFace(SENSOR_WIDTH, SENSOR_HEIGHT, uprightWidth, uprightHeight), 1e-6f);
+        //Normalizing the upright face by the unrotated size puts the eye somewhere else
+        float[] unrotated = senseFace(uprightWidth, uprightHeight, SENSOR_WIDTH, SENSOR_HEIGHT);
+        assertTrue(Math.abs(unrotated[0] - expected[0]) > 0.01f || Math.abs(unrotated[1] - expected[1]) > 0.01f);
+    }
+
+    @Test
+    public void samplesAreTimedByCapture() throws Exception
+    {
+        final long[] sampleTime = new long[1];
+        EyeTracker eyeTracker = new EyeTracker(0.1f, new RotationVectorOrientation());
+        eyeTracker.setPredictiveFilter(new EyeFilter()
+        {
+            @Override
+            public void reset()
+            {
+            }
+
+            @Override
+            public void addSample(long timeStamp, float x, float y, float z)
+            {
+                sampleTime[0] = timeStamp;
+            }
+
+            @Override
+            public void rotate(float[] rotation)
+            {
+            }
+
+            @Override
+            public void setAngularVelocity(long timeStamp, float x, float y, float z)
+            {
+            }
+
+            @Override
+            public boolean predict(long timeStamp, float[] eyeOut)
+            {
+                return false;
+            }
+        });
+        FaceMailbox faceMailbox = new FaceMailbox();
+        EyeSensor eyeSensor = new EyeSensor(new EyeSensorCalibration(), SENSOR_HEIGHT, SENSOR_WIDTH, 60, 45);
+        EyePipeline eyePipeline = new EyePipeline(faceMailbox, new RotationSampleBuffer(16), eyeSensor, eyeTracker);
+
+        long captureTime = System.nanoTime() - 80000000L;
+        faceMailbox.postFace(true, 150, 200, 100, 50, SENSOR_HEIGHT, SENSOR_WIDTH, 0, captureTime);
+        assertNotNull(eyePipeline.drainFace());
+        assertEquals(captureTime, sampleTime[0]);
+    }
+
+    /**
+     * Sense a face, near the top of a portrait frame, through a pipeline whose sensor was constructed for one preview size, and posted with another.
+     */
+    private static float[] senseFace(int constructedWidth, int constructedHeight, int postedWidth, int postedHeight)
+    {
+        FaceMailbox faceMailbox = new FaceMailbox();
+        EyeSensor eyeSensor = new EyeSensor(new EyeSensorCalibration(), constructedWidth, constructedHeight, 60, 45);
+        EyePipeline eyePipeline = new EyePipeline(faceMailbox, new RotationSampleBuffer(16), eyeSensor, new EyeTracker(0.1f, new RotationVectorOrientation()));
+        faceMailbox.postFace(true, 150, 200, 100, 50, postedWidth, postedHeight, 0, System.nanoTime());
+        assertNotNull(eyePipeline.drainFace());
+        return eyePipeline.getSensedEye().clone();
+    }
+}
@@ -0,0 +1,131 @@
+package com.pheiffware.anamorphic.faceDetection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hysteresis of the controller: it steps down after one window averaging more than 1.2x the target, but only steps up after 3 consecutive windows averaging
+ * less than 0.6x the target.
+ */
+public class DetectionBudgetControllerTest
+{
+    private static final DetectorConfiguration[] LEVELS = new DetectorConfiguration[]{
+            new DetectorConfiguration(false, 240, 20),
+            new DetectorConfiguration(false, 320, 30),
+            new DetectorConfiguration(true, 400, 30)
+    };
+    private static final float TARGET_MILLIS = 30.0f;
+    private static final int WINDOW_SIZE = 10;
+
+    private DetectionBudgetController controller;
+    private int numChanges;
+
+    @Before
+    public void setUp()
+    {
+        numChanges = 0;
+        controller = new DetectionBudgetController(LEVELS, 1, TARGET_MILLIS, WINDOW_SIZE, new DetectionBudgetController.Listener()
+        {
+            @Override
+            public void onConfigurationChanged(DetectorConfiguration from, DetectorConfiguration to, float meanDetectionMillis, float targetMillis)
+            {
+                numChanges++;
+            }
+        });
+    }
+
+    @Test
+    public void stepsDownAfterOneWindowOverBudget()
+    {
+        recordWindow(1.15f);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        //Only a whole window decides
+        recordDetections(1.5f, WINDOW_SIZE - 1);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordDetections(1.5f, 1);
+        assertSame(LEVELS[0], controller.getConfiguration());
+        //Already the cheapest
+        recordWindow(2.0f);
+        assertSame(LEVELS[0], controller.getConfiguration());
+        assertEquals(1, numChanges);
+    }
+
+    @Test
+    public void stepsUpOnlyAfterThreeWindowsUnderBudget()
+    {
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordWindow(0.5f);
+        assertSame(LEVELS[2], controller.getConfiguration());
+        //The count starts again after stepping up, and stops at the most expensive level
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        assertSame(LEVELS[2], controller.getConfiguration());
+        assertEquals(1, numChanges);
+    }
+
+    @Test
+    public void windowBetweenThresholdsRestartsStepUpCount()
+    {
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        recordWindow(0.7f);
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordWindow(0.5f);
+        assertSame(LEVELS[2], controller.getConfiguration());
+    }
+
+    @Test
+    public void windowOverBudgetRestartsStepUpCount()
+    {
+        controller = new DetectionBudgetController(LEVELS, 2, TARGET_MILLIS, WINDOW_SIZE, new DetectionBudgetController.Listener()
+        {
+            @Override
+            public void onConfigurationChanged(DetectorConfiguration from, DetectorConfiguration to, float meanDetectionMillis, float targetMillis)
+            {
+            }
+        });
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        recordWindow(1.3f);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordWindow(0.5f);
+        recordWindow(0.5f);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordWindow(0.5f);
+        assertSame(LEVELS[2], controller.getConfiguration());
+    }
+
+    @Test
+    public void resetWindowDiscardsPartialWindow()
+    {
+        recordDetections(3.0f, WINDOW_SIZE - 1);
+        controller.resetWindow();
+        recordDetections(0.8f, 1);
+        assertSame(LEVELS[1], controller.getConfiguration());
+        recordDetections(0.8f, WINDOW_SIZE - 1);
+        assertSame(LEVELS[1], controller.getConfiguration());
+    }
+
+    /**
+     * Record a whole window of detections, each taking the given multiple of the target.
+     */
+    private void recordWindow(float targetRatio)
+    {
+        recordDetections(targetRatio, WINDOW_SIZE);
+    }
+
+    private void recordDetections(float targetRatio, int numDetections)
+    {
+        for (int i = 0; i < numDetections; i++)
+        {
+            controller.recordDetectionTime((long) (targetRatio * TARGET_MILLIS * 1000000L));
+        }
+    }
+}
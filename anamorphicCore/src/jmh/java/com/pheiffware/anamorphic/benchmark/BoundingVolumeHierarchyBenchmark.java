@@ -0,0 +1,104 @@
+package com.pheiffware.anamorphic.benchmark;
+
+import com.pheiffware.anamorphic.AnamorphicCamera;
+import com.pheiffware.anamorphic.culling.BoundingSphere;
+import com.pheiffware.anamorphic.culling.BoundingVolumeHierarchy;
+import com.pheiffware.anamorphic.culling.Frustum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Frustum culling every object directly, against culling, picking and refitting with a BoundingVolumeHierarchy.
+ * Objects are spread well beyond the screen's sides, in the depth range of the monkeys, so most of a large scene is outside the view.
+ */
+@State(Scope.Thread)
+public class BoundingVolumeHierarchyBenchmark
+{
+    private static final float SCENE_HALF_WIDTH = 50;
+    private static final float SCENE_NEAR_Z = 0.5f;
+    private static final float SCENE_FAR_Z = -28.5f;
+
+    @Param({"1000", "10000", "100000"})
+    public int numObjects;
+
+    private AnamorphicCamera camera;
+    private BoundingSphere[] bounds;
+    private BoundingVolumeHierarchy hierarchy;
+    private int[] visible;
+    private final BoundingSphere moved = new BoundingSphere();
+    private int frame;
+
+    @Setup
+    public void setup()
+    {
+        camera = new AnamorphicCamera(2.0f, -1.5f, 25.0f);
+        camera.setAspect(9.0f / 16.0f);
+        Random random = new Random(0);
+        bounds = new BoundingSphere[numObjects];
+        for (int i = 0; i < numObjects; i++)
+        {
+            bounds[i] = new BoundingSphere(
+                    (random.nextFloat() * 2 - 1) * SCENE_HALF_WIDTH,
+                    (random.nextFloat() * 2 - 1) * SCENE_HALF_WIDTH,
+                    SCENE_NEAR_Z + random.nextFloat() * (SCENE_FAR_Z - SCENE_NEAR_Z),
+                    0.3f);
+        }
+        hierarchy = new BoundingVolumeHierarchy(numObjects);
+        hierarchy.build(bounds, numObjects);
+        visible = new int[numObjects];
+    }
+
+    /**
+     * Vary the eye so no work can be hoisted.
+     */
+    private Frustum nextFrustum()
+    {
+        float phase = (frame++ & 1023) / 1024.0f;
+        camera.setPosition(0.2f * phase, -0.1f * phase, 2.5f + phase);
+        return camera.getFrustum();
+    }
+
+    @Benchmark
+    public int cullLinear()
+    {
+        return nextFrustum().cull(bounds, numObjects, visible);
+    }
+
+    @Benchmark
+    public int cullHierarchy()
+    {
+        return hierarchy.cull(nextFrustum(), visible);
+    }
+
+    @Benchmark
+    public int pickHierarchy()
+    {
+        float phase = (frame++ & 1023) / 1024.0f;
+        //From the eye, through a point sweeping across the screen
+        return hierarchy.pick(0, 0, 2.7f, phase - 0.5f, 0.5f - phase, -2.7f);
+    }
+
+    @Benchmark
+    public BoundingVolumeHierarchy refitHierarchy()
+    {
+        int index = ((frame++ * 7919) & Integer.MAX_VALUE) % numObjects;
+        BoundingSphere current = bounds[index];
+        float offset = (frame & 1) == 0 ? 0.01f : -0.01f;
+        moved.set(current.getCenterX() + offset, current.getCenterY(), current.getCenterZ(), current.getRadius());
+        hierarchy.refit(index, moved);
+        return hierarchy;
+    }
+
+    @Benchmark
+    public BoundingVolumeHierarchy buildHierarchy()
+    {
+        hierarchy.build(bounds, numObjects);
+        return hierarchy;
+    }
+}
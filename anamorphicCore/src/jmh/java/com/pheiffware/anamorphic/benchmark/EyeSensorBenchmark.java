@@ -0,0 +1,55 @@
+package com.pheiffware.anamorphic.benchmark;
+
+import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converting a face detection to an eye position (once per face update), and a full calibration run.
+ */
+@State(Scope.Thread)
+public class EyeSensorBenchmark
+{
+    private static final int PREVIEW_WIDTH = 300;
+    private static final int PREVIEW_HEIGHT = 400;
+    private static final int CALIBRATION_SAMPLES = 70;
+
+    private EyeSensor eyeSensor;
+    private final float[] eye = new float[3];
+    private int face;
+
+    @Setup
+    public void setup()
+    {
+        eyeSensor = new EyeSensor(new EyeSensorCalibration(), PREVIEW_WIDTH, PREVIEW_HEIGHT, 60, 45);
+    }
+
+    @Benchmark
+    public float[] getEyePosition()
+    {
+        float phase = (face++ & 1023) / 1024.0f;
+        eyeSensor.getEyePosition(80 + 10 * phase, 100 + 10 * phase, 150 + 20 * phase, 200 - 20 * phase, eye);
+        return eye;
+    }
+
+    /**
+     * Calibrate from scratch, feeding samples (with a little deterministic jitter) until the calibrator is satisfied.
+     */
+    @Benchmark
+    public EyeSensorCalibration calibrate()
+    {
+        EyeSensor sensor = new EyeSensor(new EyeSensorCalibration(), PREVIEW_WIDTH, PREVIEW_HEIGHT, 60, 45);
+        sensor.calibrate(CALIBRATION_SAMPLES, 0, 0, 2.5f);
+        int sample = 0;
+        while (sensor.isCalibrating())
+        {
+            float jitter = ((sample++ * 7919) % 13 - 6) * 0.05f;
+            sensor.getEyePosition(80 + jitter, 100 + jitter, 150 + jitter, 200 - jitter, eye);
+        }
+        return sensor.getCalibration();
+    }
+}
@@ -0,0 +1,49 @@
+package com.pheiffware.anamorphic.benchmark;
+
+import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.RotationVectorOrientation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of querying the weighted eye position with a given number of retained samples.  Queries use an explicit current time, so samples never expire during a run.
+ */
+@State(Scope.Thread)
+public class EyeTrackerBenchmark
+{
+    //Spacing of samples (30Hz face updates)
+    private static final long SAMPLE_PERIOD = 33333333L;
+
+    @Param({"1", "8", "64", "512"})
+    public int numSamples;
+
+    private EyeTracker eyeTracker;
+    private final float[] eye = new float[3];
+    private long now;
+
+    @Setup
+    public void setup()
+    {
+        //Samples must all still be live at "now"
+        float maxSampleAge = (numSamples + 2) * SAMPLE_PERIOD / 1000000000.0f;
+        eyeTracker = new EyeTracker(maxSampleAge, numSamples, new RotationVectorOrientation());
+        //One more sample than capacity, as the latest sample is held outside the ring
+        for (int i = 0; i <= numSamples; i++)
+        {
+            eyeTracker.addEye(i * SAMPLE_PERIOD, 0.01f * (i % 10), -0.01f * (i % 7), 2.5f);
+        }
+        now = (numSamples + 1) * SAMPLE_PERIOD;
+        eyeTracker.onOrientationSensorChanged(new float[]{0.01f, 0.02f, 0.0f, 0.9997499f});
+    }
+
+    @Benchmark
+    public float[] getEye()
+    {
+        eyeTracker.getEye(now, now, eye);
+        return eye;
+    }
+}
@@ -0,0 +1,51 @@
+package com.pheiffware.anamorphic.benchmark;
+
+import com.pheiffware.anamorphic.AnamorphicCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of moving the camera, which rebuilds the view and (asymmetric) projection matrices, for a single eye and for a batched stereo pair.  This happens once per frame.
+ */
+@State(Scope.Thread)
+public class ProjectionBenchmark
+{
+    private static final float INTERPUPILLARY_DISTANCE = 0.9f;
+
+    private AnamorphicCamera camera;
+    private int frame;
+    private final float[] eye = new float[3];
+    private final float[] stereoEyes = new float[6];
+    private final float[] stereoViews = new float[2 * AnamorphicCamera.FLOATS_PER_VIEW];
+
+    @Setup
+    public void setup()
+    {
+        camera = new AnamorphicCamera(2.0f, -1.5f, 25.0f);
+        camera.setAspect(9.0f / 16.0f);
+    }
+
+    @Benchmark
+    public float[] updateProjection()
+    {
+        //Vary the eye so no work can be hoisted
+        float phase = (frame++ & 1023) / 1024.0f;
+        camera.setPosition(0.2f * phase, -0.1f * phase, 2.5f + phase);
+        return camera.getProjectionMatrix();
+    }
+
+    @Benchmark
+    public float[] computeStereoViews()
+    {
+        float phase = (frame++ & 1023) / 1024.0f;
+        eye[0] = 0.2f * phase;
+        eye[1] = -0.1f * phase;
+        eye[2] = 2.5f + phase;
+        AnamorphicCamera.computeStereoEyes(eye, INTERPUPILLARY_DISTANCE, stereoEyes);
+        camera.computeViews(stereoEyes, 2, stereoViews);
+        return stereoViews;
+    }
+}
@@ -0,0 +1,137 @@
+package com.pheiffware.anamorphic;
+
+import com.pheiffware.anamorphic.culling.Frustum;
+
+/**
+ * A camera which produces anamorphic projections.  When using this camera, all object models, lights and camera position are expressed in "screen coordinates".
+ * Screen Coordinates:
+ * X-Axis: points in the x direction in the plane of the physical screen, according to the device's display's notion of x.  Right is positive.
+ * Y-Axis: points in the y direction in the plane of the physical screen, according to the device's display's notion of y.  Up is positive (towards top of screen).
+ * Z-Axis points in the direction normal to screen.  Into ("behind") the screen is negative, out of the screen is positive.
+ * Scale: The scale of all units is based on the height of the display.
+ * The top of the display will have a y-value of +height/2.  This will result in the right side of the display having x-value of +width/2.
+ * Z coordinates have the same scale.
+ * <p>
+ * If height is set to 2.0, then one can think of all coordinates being specified in units of "one half screen heights".
+ * <p>
+ * Matrices are column major float[16]s, as used by OpenGL.
+ * Created by Steve on 9/2/2017.
+ */
+
+public class AnamorphicCamera
+{
+    //Layout of each view written by computeViews(): a projection matrix followed by a view matrix
+    public static final int FLOATS_PER_VIEW = 32;
+    public static final int PROJECTION_OFFSET = 0;
+    public static final int VIEW_OFFSET = 16;
+
+    //The view matrix representing the current view.  This is always a translation.
+    private final float[] viewMatrix = new float[]{
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1};
+
+    private final AnamorphicProjection projection;
+
+    //Frustum of the current view, extracted on demand
+    private final Frustum frustum = new Frustum();
+    private boolean frustumStale = true;
+
+    public AnamorphicCamera(float screenHeight, float zNear, float zFar)
+    {
+        projection = new AnamorphicProjection(screenHeight, zNear, zFar);
+    }
+
+
+    /**
+     * Set the position of the camera in "screen coordinates".
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void setPosition(float x, float y, float z)
+    {
+        float screenCenterX = -x;
+        float screenCenterY = -y;
+        float screenCenterZ = -z;
+        viewMatrix[12] = screenCenterX;
+        viewMatrix[13] = screenCenterY;
+        viewMatrix[14] = screenCenterZ;
+        projection.setScreenCenter(-x, -y, -z);
+        frustumStale = true;
+    }
+
+    public void setAspect(float aspect)
+    {
+        projection.setAspect(aspect);
+        frustumStale = true;
+    }
+
+    public float[] getProjectionMatrix()
+    {
+        return projection.getProjectionMatrix();
+    }
+
+    public float[] getViewMatrix()
+    {
+        return viewMatrix;
+    }
+
+    /**
+     * Compute projection and view matrices for several eyes at once, without changing this camera's own position.
+     * For view i, the projection matrix starts at out[i * FLOATS_PER_VIEW + PROJECTION_OFFSET] and the view matrix at out[i * FLOATS_PER_VIEW + VIEW_OFFSET].
+     *
+     * @param eyes    packed x, y, z of each eye in screen coordinates
+     * @param numEyes number of eyes
+     * @param out     receives numEyes * FLOATS_PER_VIEW floats
+     */
+    public void computeViews(float[] eyes, int numEyes, float[] out)
+    {
+        projection.computeProjections(eyes, numEyes, out, PROJECTION_OFFSET, FLOATS_PER_VIEW);
+        for (int i = 0; i < numEyes; i++)
+        {
+            int viewStart = i * FLOATS_PER_VIEW + VIEW_OFFSET;
+            for (int j = 0; j < 16; j++)
+            {
+                out[viewStart + j] = j % 5 == 0 ? 1 : 0;
+            }
+            out[viewStart + 12] = -eyes[i * 3];
+            out[viewStart + 13] = -eyes[i * 3 + 1];
+            out[viewStart + 14] = -eyes[i * 3 + 2];
+        }
+    }
+
+    /**
+     * Compute a stereo pair of eye positions, either side of a tracked (cyclopean) eye, along the screen's x axis.
+     *
+     * @param eye                    x, y, z of the point between the eyes
+     * @param interpupillaryDistance distance between the eyes in screen coordinates
+     * @param eyesOut                receives x, y, z of the left eye, then the right eye
+     */
+    public static void computeStereoEyes(float[] eye, float interpupillaryDistance, float[] eyesOut)
+    {
+        float halfDistance = interpupillaryDistance / 2;
+        eyesOut[0] = eye[0] - halfDistance;
+        eyesOut[1] = eye[1];
+        eyesOut[2] = eye[2];
+        eyesOut[3] = eye[0] + halfDistance;
+        eyesOut[4] = eye[1];
+        eyesOut[5] = eye[2];
+    }
+
+    /**
+     * @return the view frustum, in screen coordinates, for the current position and aspect.  Updated in place.
+     */
+    public Frustum getFrustum()
+    {
+        if (frustumStale)
+        {
+            frustum.set(projection.getProjectionMatrix(), viewMatrix);
+            frustumStale = false;
+        }
+        return frustum;
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.pheiffware.anamorphic;
+
+/**
+ * Projects points onto the given screen, which may not be centered in the user's view.  In practice this is used as part of the AnamorphicCamera:
+ * 1. first offset points (so they move with the physical screen)
+ * 2. project points
+ * This gives the illusion of a universe attached to the screen itself.
+ * <p>
+ * The projection matrix is a column major float[16], as used by OpenGL, so this class has no dependency on any graphics library.
+ * <p>
+ * Created by Steve on 9/2/2017.
+ */
+
+public class AnamorphicProjection
+{
+    //Closest the near clipping plane may be to the eye.  When the eye is nearer the screen than the near plane (which may be in front of the screen), the near plane is moved up to just in front of the eye.
+    private static final float MIN_NEAR_DISTANCE = 0.01f;
+
+    //The height of the screen in screen coordinates
+    private final float screenHeight;
+
+    //Distance of closest z clipping plane (in screen coordinates).  This can be negative to put the near clipping plane in front of the screen (allowing objects to be projected above the screen).
+    private final float near;
+
+    //Distance of farthest z clipping plane (in screen coordinates)
+    private final float far;
+
+    private float screenCenterX = 0, screenCenterY = 0, screenCenterZ = 0;
+
+    private float aspect = 1;
+
+    //Column major projection matrix
+    private final float[] projectionMatrix = new float[16];
+
+    /**
+     * Sets up given projection, with screenCenter at (0,0,0) and aspect of 1.
+     *
+     * @param screenHeight
+     * @param near
+     * @param far
+     */
+    public AnamorphicProjection(float screenHeight, float near, float far)
+    {
+        this.screenHeight = screenHeight;
+        this.near = near;
+        this.far = far;
+        updateProjection();
+    }
+
+    public void setScreenCenter(float screenCenterX, float screenCenterY, float screenCenterZ)
+    {
+        this.screenCenterX = screenCenterX;
+        this.screenCenterY = screenCenterY;
+        this.screenCenterZ = screenCenterZ;
+        updateProjection();
+    }
+
+    public void setAspect(float aspect)
+    {
+        this.aspect = aspect;
+        updateProjection();
+    }
+
+    /**
+     * @return column major projection matrix.  The array is updated in place whenever the projection changes.
+     */
+    public float[] getProjectionMatrix()
+    {
+        return projectionMatrix;
+    }
+
+    /**
+     * Compute the projections for several eyes in one call (e.g. the two eyes of a stereo pair, or several viewers), using this projection's screen, clipping planes and aspect.
+     * This does not change this projection's own screen center or matrix.
+     *
+     * @param eyes    packed x, y, z of each eye in screen coordinates
+     * @param numEyes number of eyes
+     * @param out     receives one column major projection matrix per eye
+     * @param offset  index in out of the first matrix
+     * @param stride  number of floats between the starts of successive matrices in out (at least 16)
+     */
+    public void computeProjections(float[] eyes, int numEyes, float[] out, int offset, int stride)
+    {
+        for (int i = 0; i < numEyes; i++)
+        {
+            //The screen center, relative to the eye, is the negated eye position
+            computeProjection(screenHeight, aspect, near, far, -eyes[i * 3], -eyes[i * 3 + 1], -eyes[i * 3 + 2], out, offset + i * stride);
+        }
+    }
+
+    /**
+     * Fraction of the viewport's height covered by a length parallel to the screen (such as the diameter of a bounding sphere), under a projection computed by
+     * this class.  The projection's scale is the same across the whole screen, however far off-axis the eye is, so this only depends on the distance.
+     *
+     * @param projectionMatrix array holding a projection matrix from getProjectionMatrix() or computeProjections()
+     * @param offset           index of the matrix's first element
+     * @param length           length, in screen coordinates
+     * @param depth            distance of the length in front of the eye, along the screen's normal
+     * @return projected fraction of the viewport's height.  Infinite if the length is not in front of the eye.
+     */
+    public static float projectedHeight(float[] projectionMatrix, int offset, float length, float depth)
+    {
+        if (depth <= 0)
+        {
+            return Float.POSITIVE_INFINITY;
+        }
+        //clipY = yScale * y, clipW = depth, and the viewport is 2 high in normalized device coordinates
+        return length * projectionMatrix[offset + 5] / (2 * depth);
+    }
+
+    private void updateProjection()
+    {
+        computeProjection(screenHeight, aspect, near, far, screenCenterX, screenCenterY, screenCenterZ, projectionMatrix, 0);
+    }
+
+    private static void computeProjection(float screenHeight, float aspect, float near, float far, float screenCenterX, float screenCenterY, float screenCenterZ, float[] out, int offset)
+    {
+        float screenWidth = screenHeight * aspect;
+
+        //Where the center of the screen will be projected.  All projected (x,y) screen coordinates should be offset by this
+        float projectedCenterX = screenCenterX / -screenCenterZ;
+        float projectedCenterY = screenCenterY / -screenCenterZ;
+
+        //Once screen coordinates are offset, they should be scaled based on projected screen dimensions
+        //We want to scale coordinates to ranges y: [-1,1], x: [-aspect, aspect]
+        //We use 1/2 projected width/height because to match the screen coordinate convention that (width/2,height/2,0) corresponds to the upper right corner of the screen
+        float halfProjectedWidth = screenWidth / (2 * -screenCenterZ);
+        float halfProjectedHeight = screenHeight / (2 * -screenCenterZ);
+
+        //xProjected = (x/z - projectedCenterX) / halfProjectedWidth
+        //xProjected = (x/z) / halfProjectedWidth - projectedCenterX / halfProjectedWidth
+        //xProjected = (x/z) * xScale + xOffset
+
+        //Scale by inverse of 1/2 width
+        float xScale = 1 / halfProjectedWidth;
+
+        //Offset is positive, because it will be multiplied by z, but then divided by -z
+        float xOffset = projectedCenterX / halfProjectedWidth; // == 2 * screenCenterX / screenWidth
+
+        //Scale by inverse of 1/2 height
+        float yScale = 1 / halfProjectedHeight;
+
+        //Offset is positive, because it will be multiplied by z, but then divided by -z
+        float yOffset = projectedCenterY / halfProjectedHeight;  // == 2 * screenCenterY / screenHeight
+
+        float nearDistance = Math.max(MIN_NEAR_DISTANCE, near - screenCenterZ);
+        float farDistance = Math.max(nearDistance + MIN_NEAR_DISTANCE, far - screenCenterZ);
+        setProjection(xScale, yScale, xOffset, yOffset, nearDistance, farDistance, out, offset);
+    }
+
+    /**
+     * Perspective projection, with the given scale and offset of projected x and y, and near/far clipping distances (positive, measured in front of the eye).
+     * clipX = xScale * x + xOffset * z, clipY = yScale * y + yOffset * z, clipW = -z
+     */
+    private static void setProjection(float xScale, float yScale, float xOffset, float yOffset, float nearDistance, float farDistance, float[] out, int offset)
+    {
+        float depth = farDistance - nearDistance;
+        out[offset] = xScale;
+        out[offset + 1] = 0;
+        out[offset + 2] = 0;
+        out[offset + 3] = 0;
+
+        out[offset + 4] = 0;
+        out[offset + 5] = yScale;
+        out[offset + 6] = 0;
+        out[offset + 7] = 0;
+
+        out[offset + 8] = xOffset;
+        out[offset + 9] = yOffset;
+        out[offset + 10] = -(farDistance + nearDistance) / depth;
+        out[offset + 11] = -1;
+
+        out[offset + 12] = 0;
+        out[offset + 13] = 0;
+        out[offset + 14] = -2 * farDistance * nearDistance / depth;
+        out[offset + 15] = 0;
+    }
+
+}
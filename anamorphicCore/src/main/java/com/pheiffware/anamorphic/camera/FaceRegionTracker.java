@@ -0,0 +1,238 @@
+package com.pheiffware.anamorphic.camera;
+
+import com.pheiffware.anamorphic.latency.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Decides, frame by frame, whether face detection should scan the whole frame or only a region around where the face is expected to be.
+ * Once a face has been found, each following frame is cropped to a window around the face's predicted position: its last position moved along its recent
+ * velocity.  The window is the face's size plus a margin on each side, expanded by how far the face could have moved, given its speed, since it was last seen.
+ * If the face is not found in the window, or every fullScanInterval frames, the whole frame is scanned again.
+ * <p>
+ * All coordinates are upright frame pixels (after the frame's rotation is applied), as reported by the detector.
+ * Detection time and detection rate are kept separately for full and region scans, so the two can be compared.
+ */
+public class FaceRegionTracker
+{
+    //Detections further apart than this don't update velocity (nanoseconds)
+    private static final long MAX_VELOCITY_INTERVAL = 200000000L;
+    //Weight of each new velocity measurement
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    //Fraction of the predicted movement added to each side of the window, to allow for acceleration
+    private static final float MOVEMENT_UNCERTAINTY = 0.5f;
+    //If a window would cover more than this fraction of the frame, scan the whole frame instead
+    private static final float MAX_REGION_FRACTION = 0.6f;
+    //Smallest window side, in pixels, worth handing to the detector
+    private static final int MIN_REGION_SIZE = 32;
+
+    private final float margin;
+    private final int fullScanInterval;
+    private int frameWidth;
+    private int frameHeight;
+
+    //Last face found: center, size and frame time.  tracking is false until a face is found and after it is lost.
+    private boolean tracking;
+    private float centerX;
+    private float centerY;
+    private float faceWidth;
+    private float faceHeight;
+    private long faceTime;
+    //Pixels per second
+    private float velocityX;
+    private float velocityY;
+    private int framesSinceFullScan;
+
+    private final LatencyHistogram fullScanTimes = new LatencyHistogram();
+    private final LatencyHistogram regionScanTimes = new LatencyHistogram();
+    private long numFullScansFound;
+    private long numRegionScansFound;
+
+    /**
+     * @param frameWidth       upright frame width
+     * @param frameHeight      upright frame height
+     * @param margin           space left on each side of the face, as a fraction of the face's size
+     * @param fullScanInterval while tracking, scan the whole frame once every this many frames
+     */
+    public FaceRegionTracker(int frameWidth, int frameHeight, float margin, int fullScanInterval)
+    {
+        this.margin = margin;
+        this.fullScanInterval = fullScanInterval;
+        setFrameSize(frameWidth, frameHeight);
+    }
+
+    /**
+     * Change the frame size.  Tracking starts again with a full scan.
+     *
+     * @param frameWidth  upright frame width
+     * @param frameHeight upright frame height
+     */
+    public void setFrameSize(int frameWidth, int frameHeight)
+    {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        tracking = false;
+    }
+
+    /**
+     * Decide how the next frame should be scanned.
+     *
+     * @param frameTime capture time of the frame (nanoseconds)
+     * @param regionOut receives x, y, width, height of the region to scan, if a region scan
+     * @return true for a region scan, false for a full scan
+     */
+    public boolean nextRegion(long frameTime, int[] regionOut)
+    {
+        if (!tracking || framesSinceFullScan >= fullScanInterval - 1)
+        {
+            return false;
+        }
+        float elapsed = Math.max(0, frameTime - faceTime) / 1e9f;
+        float moveX = velocityX * elapsed;
+        float moveY = velocityY * elapsed;
+        float predictedX = centerX + moveX;
+        float predictedY = centerY + moveY;
+        float halfWidth = faceWidth * (0.5f + margin) + Math.abs(moveX) * MOVEMENT_UNCERTAINTY;
+        float halfHeight = faceHeight * (0.5f + margin) + Math.abs(moveY) * MOVEMENT_UNCERTAINTY;
+
+        int left = Math.max(0, (int) Math.floor(predictedX - halfWidth));
+        int top = Math.max(0, (int) Math.floor(predictedY - halfHeight));
+        int right = Math.min(frameWidth, (int) Math.ceil(predictedX + halfWidth));
+        int bottom = Math.min(frameHeight, (int) Math.ceil(predictedY + halfHeight));
+        int width = right - left;
+        int height = bottom - top;
+        if (width < MIN_REGION_SIZE || height < MIN_REGION_SIZE || width * height > MAX_REGION_FRACTION * frameWidth * frameHeight)
+        {
+            return false;
+        }
+        regionOut[0] = left;
+        regionOut[1] = top;
+        regionOut[2] = width;
+        regionOut[3] = height;
+        return true;
+    }
+
+    /**
+     * The face was found in the frame last passed to nextRegion().
+     *
+     * @param frameTime     capture time of the frame (nanoseconds)
+     * @param regionScan    what nextRegion() returned for the frame
+     * @param detectionTime time taken by the detector (nanoseconds)
+     * @param x             left of the face in the whole frame
+     * @param y             top of the face in the whole frame
+     * @param width         face width
+     * @param height        face height
+     */
+    public void faceFound(long frameTime, boolean regionScan, long detectionTime, float x, float y, float width, float height)
+    {
+        recordScan(regionScan, detectionTime, true);
+        float newCenterX = x + width / 2;
+        float newCenterY = y + height / 2;
+        long interval = frameTime - faceTime;
+        if (tracking && interval > 0 && interval < MAX_VELOCITY_INTERVAL)
+        {
+            float seconds = interval / 1e9f;
+            velocityX += VELOCITY_SMOOTHING * ((newCenterX - centerX) / seconds - velocityX);
+            velocityY += VELOCITY_SMOOTHING * ((newCenterY - centerY) / seconds - velocityY);
+        }
+        else
+        {
+            velocityX = 0;
+            velocityY = 0;
+        }
+        centerX = newCenterX;
+        centerY = newCenterY;
+        faceWidth = width;
+        faceHeight = height;
+        faceTime = frameTime;
+        tracking = true;
+    }
+
+    /**
+     * No face was found in the frame last passed to nextRegion().  The next frame will be fully scanned.
+     *
+     * @param regionScan    what nextRegion() returned for the frame
+     * @param detectionTime time taken by the detector (nanoseconds)
+     */
+    public void faceMissing(boolean regionScan, long detectionTime)
+    {
+        recordScan(regionScan, detectionTime, false);
+        tracking = false;
+    }
+
+    private void recordScan(boolean regionScan, long detectionTime, boolean found)
+    {
+        if (regionScan)
+        {
+            framesSinceFullScan++;
+            regionScanTimes.record(detectionTime);
+            if (found)
+            {
+                numRegionScansFound++;
+            }
+        }
+        else
+        {
+            framesSinceFullScan = 0;
+            fullScanTimes.record(detectionTime);
+            if (found)
+            {
+                numFullScansFound++;
+            }
+        }
+    }
+
+    public boolean isTracking()
+    {
+        return tracking;
+    }
+
+    /**
+     * @param regionScan statistics of region scans, rather than full scans
+     * @return detection times (nanoseconds)
+     */
+    public LatencyHistogram getDetectionTimes(boolean regionScan)
+    {
+        return regionScan ? regionScanTimes : fullScanTimes;
+    }
+
+    /**
+     * @param regionScan statistics of region scans, rather than full scans
+     * @return fraction of scans which found a face (0 if there were none)
+     */
+    public float getDetectionRate(boolean regionScan)
+    {
+        long numScans = getDetectionTimes(regionScan).getTotalCount();
+        long numFound = regionScan ? numRegionScansFound : numFullScansFound;
+        return numScans == 0 ? 0 : numFound / (float) numScans;
+    }
+
+    public void resetStatistics()
+    {
+        fullScanTimes.reset();
+        regionScanTimes.reset();
+        numFullScansFound = 0;
+        numRegionScansFound = 0;
+    }
+
+    /**
+     * Write detection time percentiles and detection rates of full and region scans.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writeReport(Writer writer) throws IOException
+    {
+        writeScans(writer, "full scans", false);
+        writeScans(writer, "region scans", true);
+    }
+
+    private void writeScans(Writer writer, String name, boolean regionScan) throws IOException
+    {
+        LatencyHistogram times = getDetectionTimes(regionScan);
+        writer.write(String.format(Locale.US, "%-16s n=%d found=%.1f%% p50=%.1fms p99=%.1fms%n", name, times.getTotalCount(), 100 * getDetectionRate(regionScan),
+                times.getValueAtPercentile(50) / 1e6, times.getValueAtPercentile(99) / 1e6));
+    }
+}
@@ -0,0 +1,248 @@
+package com.pheiffware.anamorphic.camera;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Plays a sequence of binary PGM (P5, 8 bit) image files as frames, at a fixed frame period, so face detection can be driven with synthetic or recorded
+ * frames on a workstation.  Each file is read straight into a pooled buffer, so frames behave as they do from a camera: a frame is dropped, and counted, if
+ * the listener is holding every buffer.  Time stamps are the System.nanoTime() at which each frame is delivered.
+ */
+public class FileFrameSource implements FrameSource
+{
+    private final List<File> files;
+    private final long framePeriod;
+    private final boolean loop;
+    private final int[] widths;
+    private final int[] heights;
+    private final LumaBufferPool pool;
+    private volatile boolean running;
+    private volatile long numDropped;
+    private volatile long numDelivered;
+    private Thread thread;
+
+    /**
+     * @param files       PGM files, played in order
+     * @param framePeriod nanoseconds between frames
+     * @param numBuffers  number of frames which may be held by the listener at once
+     * @param loop        repeat from the first file after the last, until stopped
+     * @throws IOException if a file is missing or is not an 8 bit binary PGM
+     */
+    public FileFrameSource(List<File> files, long framePeriod, int numBuffers, boolean loop) throws IOException
+    {
+        this.files = files;
+        this.framePeriod = framePeriod;
+        this.loop = loop;
+        widths = new int[files.size()];
+        heights = new int[files.size()];
+        int maxSize = 0;
+        for (int i = 0; i < files.size(); i++)
+        {
+            FileInputStream input = new FileInputStream(files.get(i));
+            try
+            {
+                readHeader(input, files.get(i), widths, heights, i);
+            }
+            finally
+            {
+                input.close();
+            }
+            maxSize = Math.max(maxSize, widths[i] * heights[i]);
+        }
+        pool = new LumaBufferPool(numBuffers, maxSize);
+    }
+
+    @Override
+    public synchronized void start(final FrameListener listener) throws IOException
+    {
+        if (running)
+        {
+            return;
+        }
+        running = true;
+        thread = new Thread("FileFrameSource")
+        {
+            @Override
+            public void run()
+            {
+                play(listener);
+            }
+        };
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        running = false;
+        if (thread != null)
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Wait until every file has been played.  Never returns if looping and not stopped.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitFinished() throws InterruptedException
+    {
+        Thread playing;
+        synchronized (this)
+        {
+            playing = thread;
+        }
+        if (playing != null)
+        {
+            playing.join();
+        }
+    }
+
+    @Override
+    public long getNumDropped()
+    {
+        return numDropped;
+    }
+
+    public long getNumDelivered()
+    {
+        return numDelivered;
+    }
+
+    private void play(FrameListener listener)
+    {
+        long nextFrameTime = System.nanoTime();
+        long frameNumber = 0;
+        do
+        {
+            for (int i = 0; i < files.size() && running; i++)
+            {
+                long wait = nextFrameTime - System.nanoTime();
+                if (wait > 0)
+                {
+                    try
+                    {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                nextFrameTime += framePeriod;
+                LumaFrame frame = pool.acquire();
+                if (frame == null)
+                {
+                    numDropped++;
+                    continue;
+                }
+                try
+                {
+                    readPixels(files.get(i), frame.getLuma(), widths[i] * heights[i]);
+                }
+                catch (IOException e)
+                {
+                    frame.release();
+                    throw new RuntimeException("Could not read frame: " + files.get(i), e);
+                }
+                frame.set(frame.getLuma(), widths[i], heights[i], widths[i], System.nanoTime(), frameNumber++, files.get(i));
+                numDelivered++;
+                listener.onFrame(frame);
+            }
+        }
+        while (loop && running);
+    }
+
+    private static void readPixels(File file, ByteBuffer luma, int size) throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            readHeader(input, file, null, null, 0);
+            //The stream was read byte by byte, so the channel is positioned just past the header
+            FileChannel channel = input.getChannel();
+            luma.clear();
+            luma.limit(size);
+            while (luma.hasRemaining())
+            {
+                if (channel.read(luma) < 0)
+                {
+                    throw new IOException("Truncated PGM file: " + file);
+                }
+            }
+            luma.flip();
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Parse a binary PGM header, leaving the stream positioned at the first pixel.
+     */
+    private static void readHeader(InputStream input, File file, int[] widths, int[] heights, int index) throws IOException
+    {
+        if (input.read() != 'P' || input.read() != '5')
+        {
+            throw new IOException("Not a binary PGM file: " + file);
+        }
+        int width = readHeaderValue(input, file);
+        int height = readHeaderValue(input, file);
+        int maxValue = readHeaderValue(input, file);
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 255)
+        {
+            throw new IOException("Unsupported PGM file (must be 8 bit): " + file);
+        }
+        if (widths != null)
+        {
+            widths[index] = width;
+            heights[index] = height;
+        }
+    }
+
+    /**
+     * Read a decimal value, skipping whitespace and comments before it, and consuming the single whitespace character after it.
+     */
+    private static int readHeaderValue(InputStream input, File file) throws IOException
+    {
+        int c = input.read();
+        while (c == '#' || Character.isWhitespace(c))
+        {
+            if (c == '#')
+            {
+                while (c != '\n' && c != -1)
+                {
+                    c = input.read();
+                }
+            }
+            c = input.read();
+        }
+        if (c < '0' || c > '9')
+        {
+            throw new IOException("Malformed PGM header: " + file);
+        }
+        int value = 0;
+        while (c >= '0' && c <= '9')
+        {
+            value = value * 10 + (c - '0');
+            c = input.read();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,15 @@
+package com.pheiffware.anamorphic.camera;
+
+/**
+ * Receives frames from a FrameSource.
+ */
+public interface FrameListener
+{
+    /**
+     * A frame was captured.  The frame's buffer belongs to the source's small pool, so the frame must be released, as soon as possible, once it is no longer needed.
+     * It may be released from any thread.  While frames are held, the source has fewer buffers to capture into and may drop frames.
+     *
+     * @param frame
+     */
+    void onFrame(LumaFrame frame);
+}
@@ -0,0 +1,27 @@
+package com.pheiffware.anamorphic.camera;
+
+import java.io.IOException;
+
+/**
+ * Produces luminance frames for face detection: a camera on a device, or files when testing on a workstation.
+ */
+public interface FrameSource
+{
+    /**
+     * Start delivering frames, on a thread owned by the source.
+     *
+     * @param listener receives each frame, and must release it
+     * @throws IOException if the source could not be started
+     */
+    void start(FrameListener listener) throws IOException;
+
+    /**
+     * Stop delivering frames.  Frames already delivered remain valid until released.
+     */
+    void stop();
+
+    /**
+     * @return number of frames the source dropped because all its buffers were held by the listener
+     */
+    long getNumDropped();
+}
@@ -0,0 +1,69 @@
+package com.pheiffware.anamorphic.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small, fixed set of frames, each with a direct buffer, which are handed out and returned rather than allocated per frame.
+ * If every frame is in use, acquire() fails rather than blocking, so a source drops frames instead of falling behind.  Thread safe.
+ */
+public class LumaBufferPool implements LumaFrame.Recycler
+{
+    private final LumaFrame[] free;
+    private int numFree;
+    private final int bufferSize;
+
+    /**
+     * @param numBuffers number of frames in the pool
+     * @param bufferSize size, in bytes, of each frame's buffer
+     */
+    public LumaBufferPool(int numBuffers, int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+        free = new LumaFrame[numBuffers];
+        for (int i = 0; i < numBuffers; i++)
+        {
+            LumaFrame frame = new LumaFrame(this);
+            frame.set(ByteBuffer.allocateDirect(bufferSize), 0, 0, 0, 0, 0, null);
+            free[i] = frame;
+        }
+        numFree = numBuffers;
+    }
+
+    /**
+     * @return a frame whose buffer is cleared and ready to fill, or null if all are in use
+     */
+    public synchronized LumaFrame acquire()
+    {
+        if (numFree == 0)
+        {
+            return null;
+        }
+        LumaFrame frame = free[--numFree];
+        free[numFree] = null;
+        frame.getLuma().clear();
+        return frame;
+    }
+
+    @Override
+    public synchronized void recycle(LumaFrame frame)
+    {
+        if (numFree == free.length)
+        {
+            throw new IllegalStateException("Frame released twice");
+        }
+        free[numFree++] = frame;
+    }
+
+    /**
+     * @return number of frames not currently in use
+     */
+    public synchronized int getNumFree()
+    {
+        return numFree;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,103 @@
+package com.pheiffware.anamorphic.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cropping of luminance frames to a region given in upright coordinates.
+ * A frame's rotation is the number of quarter turns clockwise which make the sensor image upright.  A detector given the cropped image, with the same rotation,
+ * reports positions relative to the upright region's top left corner.
+ */
+public class LumaCrop
+{
+    /**
+     * Convert an upright region to the matching region of the unrotated sensor image.
+     *
+     * @param uprightRegion x, y, width, height in upright coordinates
+     * @param rotation      quarter turns clockwise from sensor to upright (0..3)
+     * @param sensorWidth   width of the unrotated image
+     * @param sensorHeight  height of the unrotated image
+     * @param sensorRegionOut receives x, y, width, height in unrotated coordinates
+     */
+    public static void toSensorRegion(int[] uprightRegion, int rotation, int sensorWidth, int sensorHeight, int[] sensorRegionOut)
+    {
+        int x = uprightRegion[0];
+        int y = uprightRegion[1];
+        int width = uprightRegion[2];
+        int height = uprightRegion[3];
+        switch (rotation & 3)
+        {
+            case 0:
+                sensorRegionOut[0] = x;
+                sensorRegionOut[1] = y;
+                sensorRegionOut[2] = width;
+                sensorRegionOut[3] = height;
+                break;
+            case 1:
+                sensorRegionOut[0] = y;
+                sensorRegionOut[1] = sensorHeight - x - width;
+                sensorRegionOut[2] = height;
+                sensorRegionOut[3] = width;
+                break;
+            case 2:
+                sensorRegionOut[0] = sensorWidth - x - width;
+                sensorRegionOut[1] = sensorHeight - y - height;
+                sensorRegionOut[2] = width;
+                sensorRegionOut[3] = height;
+                break;
+            default:
+                sensorRegionOut[0] = sensorWidth - y - height;
+                sensorRegionOut[1] = x;
+                sensorRegionOut[2] = height;
+                sensorRegionOut[3] = width;
+                break;
+        }
+    }
+
+    /**
+     * @param rotation     quarter turns clockwise from sensor to upright (0..3)
+     * @param sensorWidth  width of the unrotated image
+     * @param sensorHeight height of the unrotated image
+     * @return width of the image once turned upright
+     */
+    public static int uprightWidth(int rotation, int sensorWidth, int sensorHeight)
+    {
+        return (rotation & 1) == 0 ? sensorWidth : sensorHeight;
+    }
+
+    /**
+     * @param rotation     quarter turns clockwise from sensor to upright (0..3)
+     * @param sensorWidth  width of the unrotated image
+     * @param sensorHeight height of the unrotated image
+     * @return height of the image once turned upright
+     */
+    public static int uprightHeight(int rotation, int sensorWidth, int sensorHeight)
+    {
+        return (rotation & 1) == 0 ? sensorHeight : sensorWidth;
+    }
+
+    /**
+     * Copy a region of an unrotated luminance image into a packed buffer.
+     *
+     * @param source       pixels, from position 0
+     * @param rowStride    bytes between rows of the source
+     * @param sensorRegion x, y, width, height to copy
+     * @param destination  receives the region's rows, packed.  Flipped, ready to read, afterwards.
+     */
+    public static void crop(ByteBuffer source, int rowStride, int[] sensorRegion, ByteBuffer destination)
+    {
+        int x = sensorRegion[0];
+        int y = sensorRegion[1];
+        int width = sensorRegion[2];
+        int height = sensorRegion[3];
+        ByteBuffer rows = source.duplicate();
+        destination.clear();
+        for (int row = 0; row < height; row++)
+        {
+            int rowStart = (y + row) * rowStride + x;
+            rows.limit(rowStart + width);
+            rows.position(rowStart);
+            destination.put(rows);
+        }
+        destination.flip();
+    }
+}
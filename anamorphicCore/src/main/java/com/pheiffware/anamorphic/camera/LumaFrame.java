@@ -0,0 +1,107 @@
+package com.pheiffware.anamorphic.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An 8 bit luminance image, referring to a buffer owned by a FrameSource, which is returned to the source when the frame is released.
+ * Frame objects are recycled by their source along with their buffers.
+ */
+public class LumaFrame
+{
+    /**
+     * Returns a released frame's buffer to its source.
+     */
+    public interface Recycler
+    {
+        void recycle(LumaFrame frame);
+    }
+
+    private final Recycler recycler;
+    private ByteBuffer luma;
+    private int width;
+    private int height;
+    private int rowStride;
+    private long timeStamp;
+    private long frameNumber;
+    //Source specific object backing the buffer (e.g. a camera Image)
+    private Object owner;
+
+    public LumaFrame(Recycler recycler)
+    {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Fill in the frame before it is delivered.  Called by sources.
+     *
+     * @param luma        pixel data, row by row, from position 0
+     * @param width       width in pixels
+     * @param height      height in pixels
+     * @param rowStride   bytes between the starts of consecutive rows
+     * @param timeStamp   capture time in the System.nanoTime() time base
+     * @param frameNumber sequence number of the frame from its source
+     * @param owner       source specific object backing the buffer, or null
+     */
+    public void set(ByteBuffer luma, int width, int height, int rowStride, long timeStamp, long frameNumber, Object owner)
+    {
+        this.luma = luma;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.timeStamp = timeStamp;
+        this.frameNumber = frameNumber;
+        this.owner = owner;
+    }
+
+    /**
+     * Return the frame's buffer to its source.  The frame must not be used afterwards.
+     */
+    public void release()
+    {
+        recycler.recycle(this);
+    }
+
+    /**
+     * @return the pixel data, which is not copied.  Must not be used after release().
+     */
+    public ByteBuffer getLuma()
+    {
+        return luma;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return bytes between the starts of consecutive rows (equal to width if rows are packed)
+     */
+    public int getRowStride()
+    {
+        return rowStride;
+    }
+
+    /**
+     * @return capture time in the System.nanoTime() time base
+     */
+    public long getTimeStamp()
+    {
+        return timeStamp;
+    }
+
+    public long getFrameNumber()
+    {
+        return frameNumber;
+    }
+
+    public Object getOwner()
+    {
+        return owner;
+    }
+}
@@ -0,0 +1,124 @@
+package com.pheiffware.anamorphic.culling;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A sphere bounding an object, used for frustum culling.
+ */
+public class BoundingSphere
+{
+    private float centerX;
+    private float centerY;
+    private float centerZ;
+    private float radius;
+
+    public BoundingSphere()
+    {
+    }
+
+    public BoundingSphere(float centerX, float centerY, float centerZ, float radius)
+    {
+        set(centerX, centerY, centerZ, radius);
+    }
+
+    /**
+     * Build a sphere around a list of positions.  The center is the center of their bounding box, which is not the tightest sphere, but is cheap and close enough for culling.
+     *
+     * @param positions packed position data
+     * @param stride    number of floats per position (e.g. 4 for POSITION4 data).  x, y, z are the first 3.
+     * @return bounding sphere
+     */
+    public static BoundingSphere fromPositions(float[] positions, int stride)
+    {
+        return fromPositions(FloatBuffer.wrap(positions), stride);
+    }
+
+    /**
+     * Build a sphere around a list of positions held in a buffer (e.g. mapped from a MeshCache), from its position to its limit.  See fromPositions(float[], int).
+     *
+     * @param positions packed position data
+     * @param stride    number of floats per position (e.g. 4 for POSITION4 data).  x, y, z are the first 3.
+     * @return bounding sphere
+     */
+    public static BoundingSphere fromPositions(FloatBuffer positions, int stride)
+    {
+        int start = positions.position();
+        int end = positions.limit();
+        if (end - start < 3)
+        {
+            return new BoundingSphere(0, 0, 0, 0);
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = start; i + 2 < end; i += stride)
+        {
+            minX = Math.min(minX, positions.get(i));
+            minY = Math.min(minY, positions.get(i + 1));
+            minZ = Math.min(minZ, positions.get(i + 2));
+            maxX = Math.max(maxX, positions.get(i));
+            maxY = Math.max(maxY, positions.get(i + 1));
+            maxZ = Math.max(maxZ, positions.get(i + 2));
+        }
+        float centerX = (minX + maxX) / 2;
+        float centerY = (minY + maxY) / 2;
+        float centerZ = (minZ + maxZ) / 2;
+        float radiusSquared = 0;
+        for (int i = start; i + 2 < end; i += stride)
+        {
+            float dx = positions.get(i) - centerX;
+            float dy = positions.get(i + 1) - centerY;
+            float dz = positions.get(i + 2) - centerZ;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        return new BoundingSphere(centerX, centerY, centerZ, (float) Math.sqrt(radiusSquared));
+    }
+
+    public void set(float centerX, float centerY, float centerZ, float radius)
+    {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radius = radius;
+    }
+
+    /**
+     * Set this to the given sphere transformed by a model matrix.  The radius is scaled by the matrix's largest axis scale, so the result still bounds the object under non-uniform scale.
+     *
+     * @param local       sphere in model coordinates
+     * @param modelMatrix column major model matrix
+     */
+    public void setTransformed(BoundingSphere local, float[] modelMatrix)
+    {
+        float x = local.centerX;
+        float y = local.centerY;
+        float z = local.centerZ;
+        float scaleXSquared = modelMatrix[0] * modelMatrix[0] + modelMatrix[1] * modelMatrix[1] + modelMatrix[2] * modelMatrix[2];
+        float scaleYSquared = modelMatrix[4] * modelMatrix[4] + modelMatrix[5] * modelMatrix[5] + modelMatrix[6] * modelMatrix[6];
+        float scaleZSquared = modelMatrix[8] * modelMatrix[8] + modelMatrix[9] * modelMatrix[9] + modelMatrix[10] * modelMatrix[10];
+        float maxScale = (float) Math.sqrt(Math.max(scaleXSquared, Math.max(scaleYSquared, scaleZSquared)));
+        set(modelMatrix[0] * x + modelMatrix[4] * y + modelMatrix[8] * z + modelMatrix[12],
+                modelMatrix[1] * x + modelMatrix[5] * y + modelMatrix[9] * z + modelMatrix[13],
+                modelMatrix[2] * x + modelMatrix[6] * y + modelMatrix[10] * z + modelMatrix[14],
+                local.radius * maxScale);
+    }
+
+    public float getCenterX()
+    {
+        return centerX;
+    }
+
+    public float getCenterY()
+    {
+        return centerY;
+    }
+
+    public float getCenterZ()
+    {
+        return centerZ;
+    }
+
+    public float getRadius()
+    {
+        return radius;
+    }
+}
@@ -0,0 +1,539 @@
+package com.pheiffware.anamorphic.culling;
+
+/**
+ * A bounding volume hierarchy over the bounding spheres of a scene's objects, in screen coordinates, so culling and picking visit only the parts of the
+ * scene near the frustum or ray instead of every object.
+ * <p>
+ * The tree is a binary tree of axis aligned boxes, built by splitting each node's objects at the median of their centers along the longest axis, so its
+ * depth is logarithmic in the number of objects.  Each node's objects are contiguous in a single ordering of the objects, so when a node is entirely inside a
+ * frustum all of its objects are accepted without visiting its descendants.  Queries cost O(log n + k) for k results.
+ * <p>
+ * When objects move, refit() updates the boxes on the path from the object's leaf to the root, without changing the tree's structure.  This stays efficient
+ * while objects move small distances relative to their neighbours; after large rearrangements build() should be called again.
+ * Nothing allocates after construction.  Results are returned in tree order, which only changes when the tree is rebuilt.
+ */
+public class BoundingVolumeHierarchy
+{
+    //Testing a few spheres directly is cheaper than descending further
+    private static final int MAX_LEAF_OBJECTS = 4;
+    //Median splits keep the depth near log2(n / MAX_LEAF_OBJECTS), so this is never reached
+    private static final int MAX_DEPTH = 64;
+    //Largest number of frusta a single cull() can test (one bit of a mask each)
+    public static final int MAX_FRUSTA = 32;
+
+    private final int maxObjects;
+    //x, y, z, radius of each object, by object index
+    private final float[] spheres;
+    private int numObjects;
+
+    //Object indices, ordered so each node's objects are contiguous
+    private final int[] order;
+    //Leaf node holding each object
+    private final int[] objectLeaves;
+
+    //Per node: bounds (minX, minY, minZ, maxX, maxY, maxZ), parent, first of two adjacent children (-1 for leaves) and range of objects in order
+    private final float[] nodeBounds;
+    private final int[] nodeParents;
+    private final int[] nodeChildren;
+    private final int[] nodeStarts;
+    private final int[] nodeCounts;
+    private int numNodes;
+    private int depth;
+
+    //Traversal stacks
+    private final int[] nodeStack = new int[MAX_DEPTH + 1];
+    private final int[] maskStack = new int[MAX_DEPTH + 1];
+    private final float[] distanceStack = new float[MAX_DEPTH + 1];
+    private final Frustum[] singleFrustum = new Frustum[1];
+
+    //Ray of the current pick: origin and 1 / direction
+    private final float[] rayOrigin = new float[3];
+    private final float[] rayDirection = new float[3];
+    private final float[] rayInverseDirection = new float[3];
+    private float pickDistance;
+
+    /**
+     * @param maxObjects largest number of objects which will be built into the hierarchy
+     */
+    public BoundingVolumeHierarchy(int maxObjects)
+    {
+        this.maxObjects = maxObjects;
+        spheres = new float[maxObjects * 4];
+        order = new int[maxObjects];
+        objectLeaves = new int[maxObjects];
+        //A binary tree with at most maxObjects leaves
+        int maxNodes = Math.max(1, 2 * maxObjects - 1);
+        nodeBounds = new float[maxNodes * 6];
+        nodeParents = new int[maxNodes];
+        nodeChildren = new int[maxNodes];
+        nodeStarts = new int[maxNodes];
+        nodeCounts = new int[maxNodes];
+    }
+
+    /**
+     * Build the hierarchy from scratch.  O(n log n).
+     *
+     * @param bounds     world space bounds of each object (copied).  An object's index in this array identifies it in queries.
+     * @param numObjects number of objects, from the start of the array
+     */
+    public void build(BoundingSphere[] bounds, int numObjects)
+    {
+        if (numObjects > maxObjects)
+        {
+            throw new IllegalArgumentException("Hierarchy holds at most " + maxObjects + " objects, not " + numObjects);
+        }
+        this.numObjects = numObjects;
+        for (int i = 0; i < numObjects; i++)
+        {
+            setSphere(i, bounds[i]);
+            order[i] = i;
+        }
+        numNodes = 0;
+        depth = 0;
+        if (numObjects > 0)
+        {
+            numNodes = 1;
+            buildNode(0, -1, 0, numObjects, 0);
+        }
+    }
+
+    /**
+     * An object moved or changed size.  Boxes from its leaf up are updated, stopping as soon as a box is unchanged.  O(log n).
+     *
+     * @param index  object index, as passed to build()
+     * @param bounds new world space bounds (copied)
+     */
+    public void refit(int index, BoundingSphere bounds)
+    {
+        setSphere(index, bounds);
+        int node = objectLeaves[index];
+        while (node != -1 && computeBounds(node))
+        {
+            node = nodeParents[node];
+        }
+    }
+
+    /**
+     * Find the objects whose bounds intersect a frustum.
+     *
+     * @param frustum        frustum to test
+     * @param visibleIndices receives the indices of visible objects
+     * @return number of visible objects
+     */
+    public int cull(Frustum frustum, int[] visibleIndices)
+    {
+        singleFrustum[0] = frustum;
+        return cull(singleFrustum, 1, visibleIndices);
+    }
+
+    /**
+     * Find the objects whose bounds intersect any of several frusta (e.g. the views of a stereo pair).  Each object is reported once.
+     * Below a node which is outside a frustum, that frustum is no longer tested.
+     *
+     * @param frusta         frusta to test
+     * @param numFrusta      number of frusta, from the start of the array (at most MAX_FRUSTA)
+     * @param visibleIndices receives the indices of visible objects
+     * @return number of visible objects
+     */
+    public int cull(Frustum[] frusta, int numFrusta, int[] visibleIndices)
+    {
+        if (numNodes == 0 || numFrusta == 0)
+        {
+            return 0;
+        }
+        int numVisible = 0;
+        int top = 0;
+        nodeStack[top] = 0;
+        maskStack[top++] = -1 >>> (MAX_FRUSTA - numFrusta);
+        while (top > 0)
+        {
+            top--;
+            int node = nodeStack[top];
+            int mask = maskStack[top];
+
+            //Frusta which partly overlap the node.  If any contains it entirely, all its objects are visible.
+            int overlapping = 0;
+            boolean contained = false;
+            int boundsIndex = node * 6;
+            for (int f = 0; f < numFrusta && !contained; f++)
+            {
+                if ((mask & (1 << f)) != 0)
+                {
+                    int classification = frusta[f].classifyBox(nodeBounds[boundsIndex], nodeBounds[boundsIndex + 1], nodeBounds[boundsIndex + 2],
+                            nodeBounds[boundsIndex + 3], nodeBounds[boundsIndex + 4], nodeBounds[boundsIndex + 5]);
+                    if (classification == Frustum.INSIDE)
+                    {
+                        contained = true;
+                    }
+                    else if (classification == Frustum.INTERSECTING)
+                    {
+                        overlapping |= 1 << f;
+                    }
+                }
+            }
+            if (contained)
+            {
+                System.arraycopy(order, nodeStarts[node], visibleIndices, numVisible, nodeCounts[node]);
+                numVisible += nodeCounts[node];
+            }
+            else if (overlapping != 0)
+            {
+                int child = nodeChildren[node];
+                if (child == -1)
+                {
+                    numVisible = cullLeaf(node, frusta, numFrusta, overlapping, visibleIndices, numVisible);
+                }
+                else
+                {
+                    //Second child first, so the first is visited first and results follow the tree order
+                    nodeStack[top] = child + 1;
+                    maskStack[top++] = overlapping;
+                    nodeStack[top] = child;
+                    maskStack[top++] = overlapping;
+                }
+            }
+        }
+        return numVisible;
+    }
+
+    private int cullLeaf(int node, Frustum[] frusta, int numFrusta, int mask, int[] visibleIndices, int numVisible)
+    {
+        int end = nodeStarts[node] + nodeCounts[node];
+        for (int i = nodeStarts[node]; i < end; i++)
+        {
+            int object = order[i];
+            int sphereIndex = object * 4;
+            for (int f = 0; f < numFrusta; f++)
+            {
+                if ((mask & (1 << f)) != 0 && frusta[f].intersectsSphere(spheres[sphereIndex], spheres[sphereIndex + 1], spheres[sphereIndex + 2], spheres[sphereIndex + 3]))
+                {
+                    visibleIndices[numVisible++] = object;
+                    break;
+                }
+            }
+        }
+        return numVisible;
+    }
+
+    /**
+     * Find the nearest object whose bounds a ray hits.  Nodes are visited nearest first, and any further than the nearest hit so far are skipped.
+     *
+     * @return index of the object hit, or -1 if none is.  If the ray starts inside an object's bounds, its distance is 0.
+     */
+    public int pick(float originX, float originY, float originZ, float directionX, float directionY, float directionZ)
+    {
+        rayOrigin[0] = originX;
+        rayOrigin[1] = originY;
+        rayOrigin[2] = originZ;
+        rayDirection[0] = directionX;
+        rayDirection[1] = directionY;
+        rayDirection[2] = directionZ;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            rayInverseDirection[axis] = 1.0f / rayDirection[axis];
+        }
+        int nearest = -1;
+        float nearestDistance = Float.POSITIVE_INFINITY;
+        pickDistance = nearestDistance;
+        if (numNodes == 0)
+        {
+            return nearest;
+        }
+        float rootDistance = rayBoxDistance(0);
+        if (rootDistance == Float.POSITIVE_INFINITY)
+        {
+            return nearest;
+        }
+        int top = 0;
+        nodeStack[top] = 0;
+        distanceStack[top++] = rootDistance;
+        while (top > 0)
+        {
+            top--;
+            int node = nodeStack[top];
+            if (distanceStack[top] >= nearestDistance)
+            {
+                continue;
+            }
+            int child = nodeChildren[node];
+            if (child == -1)
+            {
+                int end = nodeStarts[node] + nodeCounts[node];
+                for (int i = nodeStarts[node]; i < end; i++)
+                {
+                    float distance = raySphereDistance(order[i]);
+                    if (distance < nearestDistance)
+                    {
+                        nearestDistance = distance;
+                        nearest = order[i];
+                    }
+                }
+            }
+            else
+            {
+                float firstDistance = rayBoxDistance(child);
+                float secondDistance = rayBoxDistance(child + 1);
+                //Push the further child first, so the nearer is visited first
+                int near = child;
+                int far = child + 1;
+                if (secondDistance < firstDistance)
+                {
+                    near = child + 1;
+                    far = child;
+                    float swap = firstDistance;
+                    firstDistance = secondDistance;
+                    secondDistance = swap;
+                }
+                if (secondDistance < nearestDistance)
+                {
+                    nodeStack[top] = far;
+                    distanceStack[top++] = secondDistance;
+                }
+                if (firstDistance < nearestDistance)
+                {
+                    nodeStack[top] = near;
+                    distanceStack[top++] = firstDistance;
+                }
+            }
+        }
+        pickDistance = nearestDistance;
+        return nearest;
+    }
+
+    /**
+     * @return distance to the object found by the last pick(), in multiples of the ray's direction vector, or infinity if it missed
+     */
+    public float getPickDistance()
+    {
+        return pickDistance;
+    }
+
+    public int getNumObjects()
+    {
+        return numObjects;
+    }
+
+    /**
+     * @return depth of the tree (1 for a single leaf), or 0 if it is empty
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    private void buildNode(int node, int parent, int start, int count, int depth)
+    {
+        nodeParents[node] = parent;
+        nodeStarts[node] = start;
+        nodeCounts[node] = count;
+        this.depth = Math.max(this.depth, depth + 1);
+        if (count <= MAX_LEAF_OBJECTS || depth == MAX_DEPTH - 1)
+        {
+            nodeChildren[node] = -1;
+            for (int i = start; i < start + count; i++)
+            {
+                objectLeaves[order[i]] = node;
+            }
+        }
+        else
+        {
+            int axis = longestCenterAxis(start, count);
+            int half = count / 2;
+            select(start, start + count - 1, start + half, axis);
+            int child = numNodes;
+            numNodes += 2;
+            nodeChildren[node] = child;
+            buildNode(child, node, start, half, depth + 1);
+            buildNode(child + 1, node, start + half, count - half, depth + 1);
+        }
+        computeBounds(node);
+    }
+
+    /**
+     * @return axis (0, 1, 2) along which the centers of a range of objects are most spread out
+     */
+    private int longestCenterAxis(int start, int count)
+    {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = start; i < start + count; i++)
+        {
+            int sphereIndex = order[i] * 4;
+            minX = Math.min(minX, spheres[sphereIndex]);
+            minY = Math.min(minY, spheres[sphereIndex + 1]);
+            minZ = Math.min(minZ, spheres[sphereIndex + 2]);
+            maxX = Math.max(maxX, spheres[sphereIndex]);
+            maxY = Math.max(maxY, spheres[sphereIndex + 1]);
+            maxZ = Math.max(maxZ, spheres[sphereIndex + 2]);
+        }
+        float extentX = maxX - minX;
+        float extentY = maxY - minY;
+        float extentZ = maxZ - minZ;
+        if (extentX >= extentY && extentX >= extentZ)
+        {
+            return 0;
+        }
+        return extentY >= extentZ ? 1 : 2;
+    }
+
+    /**
+     * Quickselect: reorder order[left..right] so the object at nth has the nth smallest center along the axis, with no larger centers before it and no
+     * smaller centers after it.
+     */
+    private void select(int left, int right, int nth, int axis)
+    {
+        while (right > left)
+        {
+            float pivot = spheres[order[(left + right) >>> 1] * 4 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j)
+            {
+                while (spheres[order[i] * 4 + axis] < pivot)
+                {
+                    i++;
+                }
+                while (spheres[order[j] * 4 + axis] > pivot)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j)
+            {
+                right = j;
+            }
+            else if (nth >= i)
+            {
+                left = i;
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Recompute a node's box from its objects (leaf) or children.
+     *
+     * @return true if the box changed
+     */
+    private boolean computeBounds(int node)
+    {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        int child = nodeChildren[node];
+        if (child == -1)
+        {
+            int end = nodeStarts[node] + nodeCounts[node];
+            for (int i = nodeStarts[node]; i < end; i++)
+            {
+                int sphereIndex = order[i] * 4;
+                float radius = spheres[sphereIndex + 3];
+                minX = Math.min(minX, spheres[sphereIndex] - radius);
+                minY = Math.min(minY, spheres[sphereIndex + 1] - radius);
+                minZ = Math.min(minZ, spheres[sphereIndex + 2] - radius);
+                maxX = Math.max(maxX, spheres[sphereIndex] + radius);
+                maxY = Math.max(maxY, spheres[sphereIndex + 1] + radius);
+                maxZ = Math.max(maxZ, spheres[sphereIndex + 2] + radius);
+            }
+        }
+        else
+        {
+            int first = child * 6;
+            int second = first + 6;
+            minX = Math.min(nodeBounds[first], nodeBounds[second]);
+            minY = Math.min(nodeBounds[first + 1], nodeBounds[second + 1]);
+            minZ = Math.min(nodeBounds[first + 2], nodeBounds[second + 2]);
+            maxX = Math.max(nodeBounds[first + 3], nodeBounds[second + 3]);
+            maxY = Math.max(nodeBounds[first + 4], nodeBounds[second + 4]);
+            maxZ = Math.max(nodeBounds[first + 5], nodeBounds[second + 5]);
+        }
+        int boundsIndex = node * 6;
+        boolean changed = nodeBounds[boundsIndex] != minX || nodeBounds[boundsIndex + 1] != minY || nodeBounds[boundsIndex + 2] != minZ
+                || nodeBounds[boundsIndex + 3] != maxX || nodeBounds[boundsIndex + 4] != maxY || nodeBounds[boundsIndex + 5] != maxZ;
+        nodeBounds[boundsIndex] = minX;
+        nodeBounds[boundsIndex + 1] = minY;
+        nodeBounds[boundsIndex + 2] = minZ;
+        nodeBounds[boundsIndex + 3] = maxX;
+        nodeBounds[boundsIndex + 4] = maxY;
+        nodeBounds[boundsIndex + 5] = maxZ;
+        return changed;
+    }
+
+    /**
+     * Slab test of the current ray against a node's box.
+     *
+     * @return distance at which the ray enters the box (0 if it starts inside), or infinity if it misses
+     */
+    private float rayBoxDistance(int node)
+    {
+        float entry = 0;
+        float exit = Float.POSITIVE_INFINITY;
+        int boundsIndex = node * 6;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            float min = nodeBounds[boundsIndex + axis];
+            float max = nodeBounds[boundsIndex + 3 + axis];
+            if (rayDirection[axis] == 0)
+            {
+                //Parallel to the slab: inside it everywhere or nowhere
+                if (rayOrigin[axis] < min || rayOrigin[axis] > max)
+                {
+                    return Float.POSITIVE_INFINITY;
+                }
+            }
+            else
+            {
+                float near = (min - rayOrigin[axis]) * rayInverseDirection[axis];
+                float far = (max - rayOrigin[axis]) * rayInverseDirection[axis];
+                entry = Math.max(entry, Math.min(near, far));
+                exit = Math.min(exit, Math.max(near, far));
+            }
+        }
+        return entry <= exit ? entry : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return distance at which the current ray enters an object's sphere (0 if it starts inside), or infinity if it misses
+     */
+    private float raySphereDistance(int object)
+    {
+        int sphereIndex = object * 4;
+        float offsetX = rayOrigin[0] - spheres[sphereIndex];
+        float offsetY = rayOrigin[1] - spheres[sphereIndex + 1];
+        float offsetZ = rayOrigin[2] - spheres[sphereIndex + 2];
+        float radius = spheres[sphereIndex + 3];
+        float c = offsetX * offsetX + offsetY * offsetY + offsetZ * offsetZ - radius * radius;
+        if (c <= 0)
+        {
+            return 0;
+        }
+        float a = rayDirection[0] * rayDirection[0] + rayDirection[1] * rayDirection[1] + rayDirection[2] * rayDirection[2];
+        float b = offsetX * rayDirection[0] + offsetY * rayDirection[1] + offsetZ * rayDirection[2];
+        float discriminant = b * b - a * c;
+        //Outside the sphere and either pointing away from it or passing it by
+        if (b >= 0 || discriminant < 0)
+        {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) ((-b - Math.sqrt(discriminant)) / a);
+    }
+
+    private void setSphere(int index, BoundingSphere bounds)
+    {
+        int sphereIndex = index * 4;
+        spheres[sphereIndex] = bounds.getCenterX();
+        spheres[sphereIndex + 1] = bounds.getCenterY();
+        spheres[sphereIndex + 2] = bounds.getCenterZ();
+        spheres[sphereIndex + 3] = bounds.getRadius();
+    }
+}
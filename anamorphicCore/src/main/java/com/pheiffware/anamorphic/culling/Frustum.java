@@ -0,0 +1,221 @@
+package com.pheiffware.anamorphic.culling;
+
+/**
+ * The six planes of a view frustum, extracted from a projection and view matrix (Gribb/Hartmann), for culling objects before they are drawn.
+ * This works for any projection, including the asymmetric (off-axis) projection of the AnamorphicCamera, which changes every frame with the eye position.
+ * <p>
+ * Each plane is stored as (a, b, c, d), normalized so (a, b, c) is a unit normal pointing into the frustum.  A point p is inside a plane if a*p.x + b*p.y + c*p.z + d >= 0.
+ * Tests are conservative: objects reported as outside are definitely outside, while objects near corners may be reported as inside.
+ */
+public class Frustum
+{
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+    public static final int NUM_PLANES = 6;
+
+    //Results of classifyBox()
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    private final float[] planes = new float[NUM_PLANES * 4];
+    private final float[] viewProjection = new float[16];
+
+    /**
+     * Extract planes, in world coordinates, from the given matrices.
+     *
+     * @param projectionMatrix column major projection matrix
+     * @param viewMatrix       column major view matrix
+     */
+    public void set(float[] projectionMatrix, float[] viewMatrix)
+    {
+        set(projectionMatrix, 0, viewMatrix, 0);
+    }
+
+    /**
+     * Extract planes from matrices stored within larger arrays (such as the packed views from AnamorphicCamera.computeViews()).
+     */
+    public void set(float[] projectionMatrix, int projectionOffset, float[] viewMatrix, int viewOffset)
+    {
+        multiply(projectionMatrix, projectionOffset, viewMatrix, viewOffset, viewProjection);
+        set(viewProjection);
+    }
+
+    /**
+     * Extract planes from a combined (projection * view * model) matrix.  Planes are in the coordinate system the matrix transforms from.
+     *
+     * @param clipMatrix column major matrix
+     */
+    public void set(float[] clipMatrix)
+    {
+        set(clipMatrix, 0);
+    }
+
+    /**
+     * Extract planes from a combined matrix stored at the given offset.
+     *
+     * @param clipMatrix array holding a column major matrix
+     * @param offset     index of the matrix's first element
+     */
+    public void set(float[] clipMatrix, int offset)
+    {
+        //Row i of a column major matrix is (m[i], m[4 + i], m[8 + i], m[12 + i]).  A point is inside if -w <= x,y,z <= w, so each plane is row 3 +/- row i.
+        for (int axis = 0; axis < 3; axis++)
+        {
+            int positivePlane = axis * 2;
+            int negativePlane = axis * 2 + 1;
+            for (int column = 0; column < 4; column++)
+            {
+                float w = clipMatrix[offset + column * 4 + 3];
+                float value = clipMatrix[offset + column * 4 + axis];
+                planes[positivePlane * 4 + column] = w + value;
+                planes[negativePlane * 4 + column] = w - value;
+            }
+        }
+        for (int plane = 0; plane < NUM_PLANES; plane++)
+        {
+            int index = plane * 4;
+            float length = (float) Math.sqrt(planes[index] * planes[index] + planes[index + 1] * planes[index + 1] + planes[index + 2] * planes[index + 2]);
+            if (length > 0)
+            {
+                planes[index] /= length;
+                planes[index + 1] /= length;
+                planes[index + 2] /= length;
+                planes[index + 3] /= length;
+            }
+        }
+    }
+
+    /**
+     * @return signed distance from the given plane to the point, positive inside
+     */
+    public float distance(int plane, float x, float y, float z)
+    {
+        int index = plane * 4;
+        return planes[index] * x + planes[index + 1] * y + planes[index + 2] * z + planes[index + 3];
+    }
+
+    public boolean containsPoint(float x, float y, float z)
+    {
+        for (int plane = 0; plane < NUM_PLANES; plane++)
+        {
+            if (distance(plane, x, y, z) < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean intersectsSphere(float centerX, float centerY, float centerZ, float radius)
+    {
+        for (int plane = 0; plane < NUM_PLANES; plane++)
+        {
+            if (distance(plane, centerX, centerY, centerZ) < -radius)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean intersects(BoundingSphere sphere)
+    {
+        return intersectsSphere(sphere.getCenterX(), sphere.getCenterY(), sphere.getCenterZ(), sphere.getRadius());
+    }
+
+    /**
+     * Test an axis aligned box.  For each plane only the corner furthest along the plane's normal needs testing.
+     */
+    public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        for (int plane = 0; plane < NUM_PLANES; plane++)
+        {
+            int index = plane * 4;
+            float x = planes[index] >= 0 ? maxX : minX;
+            float y = planes[index + 1] >= 0 ? maxY : minY;
+            float z = planes[index + 2] >= 0 ? maxZ : minZ;
+            if (distance(plane, x, y, z) < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Classify an axis aligned box as outside, partly inside or entirely inside the frustum.  For each plane the corner furthest along the plane's normal
+     * decides if the box is outside it, and the nearest corner decides if the box is entirely inside it.
+     *
+     * @return OUTSIDE, INTERSECTING or INSIDE
+     */
+    public int classifyBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        int result = INSIDE;
+        for (int plane = 0; plane < NUM_PLANES; plane++)
+        {
+            int index = plane * 4;
+            boolean positiveX = planes[index] >= 0;
+            boolean positiveY = planes[index + 1] >= 0;
+            boolean positiveZ = planes[index + 2] >= 0;
+            if (distance(plane, positiveX ? maxX : minX, positiveY ? maxY : minY, positiveZ ? maxZ : minZ) < 0)
+            {
+                return OUTSIDE;
+            }
+            if (distance(plane, positiveX ? minX : maxX, positiveY ? minY : maxY, positiveZ ? minZ : maxZ) < 0)
+            {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find which of a list of spheres are visible.
+     *
+     * @param spheres        spheres to test
+     * @param numSpheres     number of spheres, from the start of the array, to test
+     * @param visibleIndices receives the indices of visible spheres, in order
+     * @return number of visible spheres
+     */
+    public int cull(BoundingSphere[] spheres, int numSpheres, int[] visibleIndices)
+    {
+        int numVisible = 0;
+        for (int i = 0; i < numSpheres; i++)
+        {
+            if (intersects(spheres[i]))
+            {
+                visibleIndices[numVisible++] = i;
+            }
+        }
+        return numVisible;
+    }
+
+    /**
+     * @param plane  index of the plane (LEFT, RIGHT, ...)
+     * @param out    receives (a, b, c, d)
+     */
+    public void getPlane(int plane, float[] out)
+    {
+        System.arraycopy(planes, plane * 4, out, 0, 4);
+    }
+
+    private static void multiply(float[] left, int leftOffset, float[] right, int rightOffset, float[] out)
+    {
+        for (int column = 0; column < 4; column++)
+        {
+            int rightColumn = rightOffset + column * 4;
+            for (int row = 0; row < 4; row++)
+            {
+                out[column * 4 + row] = left[leftOffset + row] * right[rightColumn]
+                        + left[leftOffset + 4 + row] * right[rightColumn + 1]
+                        + left[leftOffset + 8 + row] * right[rightColumn + 2]
+                        + left[leftOffset + 12 + row] * right[rightColumn + 3];
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Keeps refining an EyeSensorCalibration during normal use, without the viewer's eye being at a known position.
+ * <p>
+ * High confidence face samples, taken while the device is held still and the face is steady, are kept in a sliding window of the most recent samples, so the
+ * estimate follows changes such as a new viewer, glasses or lighting, rather than being anchored to the whole history of use.  Only a property which can be
+ * observed without a reference is used: the distances estimated from face width and from face height should agree, which fits normHeightCalibration relative
+ * to normWidthCalibration.
+ * <p>
+ * The estimate only needs sums over the window, which are updated as samples enter and leave it, so a sample costs O(1) and the calibration is moved a small
+ * step towards the estimate every few samples.  Nothing allocates after construction.  The distance scale (normWidthCalibration), the offsets and the field of
+ * view correction have no reference during normal use, so are left as set by explicit calibration.
+ */
+public class AutoRecalibrator
+{
+    //Faces smaller than this fraction of the frame are too far away to measure reliably
+    private static final float MIN_NORM_FACE_SIZE = 0.1f;
+    //Largest relative change in face size, and change in projected position, from the previous sample, for the face to be considered steady
+    private static final float MAX_SIZE_CHANGE = 0.05f;
+    private static final float MAX_POSITION_CHANGE = 0.02f;
+
+    private final int capacity;
+    private final int minSamples;
+    private final int refineInterval;
+    private final float refineRate;
+
+    //Ring of the most recent samples.  Candidate i is in slot i % capacity.
+    private final float[] normWidths;
+    private final float[] normHeights;
+    private int size;
+    //Number of samples which have entered the window
+    private long numCandidates;
+
+    //Sums over the window of: 1/(w h), 1/h^2
+    private double sumInverseWidthHeight;
+    private double sumInverseHeightSquared;
+    //Replacements since the sums were recomputed from scratch, to stop rounding errors accumulating
+    private int replacementsSinceRecompute;
+
+    private boolean hasPrevious;
+    private float previousNormWidth;
+    private float previousProjectedX;
+    private float previousProjectedY;
+    private int samplesSinceRefine;
+    private long numRefinements;
+
+    /**
+     * @param capacity       samples kept in the window
+     * @param minSamples     samples needed before the calibration is refined
+     * @param refineInterval samples between refinements
+     * @param refineRate     fraction of the way towards the estimate which each refinement moves the calibration
+     */
+    public AutoRecalibrator(int capacity, int minSamples, int refineInterval, float refineRate)
+    {
+        this.capacity = capacity;
+        this.minSamples = minSamples;
+        this.refineInterval = refineInterval;
+        this.refineRate = refineRate;
+        normWidths = new float[capacity];
+        normHeights = new float[capacity];
+    }
+
+    /**
+     * Offer a face sample.  It is used if the device is stable and the face is steady and large enough.
+     *
+     * @param normalizedFaceWidth  face width as a fraction of frame width
+     * @param normalizedFaceHeight face height as a fraction of frame height
+     * @param projectedFaceX       projected face position (see EyeSensor)
+     * @param projectedFaceY       projected face position (see EyeSensor)
+     * @param deviceStable         the device has not rotated significantly recently
+     * @return true if the sample entered the window
+     */
+    public boolean offerSample(float normalizedFaceWidth, float normalizedFaceHeight, float projectedFaceX, float projectedFaceY, boolean deviceStable)
+    {
+        boolean steady = hasPrevious
+                && Math.abs(normalizedFaceWidth - previousNormWidth) < MAX_SIZE_CHANGE * previousNormWidth
+                && Math.abs(projectedFaceX - previousProjectedX) < MAX_POSITION_CHANGE
+                && Math.abs(projectedFaceY - previousProjectedY) < MAX_POSITION_CHANGE;
+        hasPrevious = true;
+        previousNormWidth = normalizedFaceWidth;
+        previousProjectedX = projectedFaceX;
+        previousProjectedY = projectedFaceY;
+        if (!deviceStable || !steady || normalizedFaceWidth < MIN_NORM_FACE_SIZE || normalizedFaceHeight < MIN_NORM_FACE_SIZE)
+        {
+            return false;
+        }
+
+        int slot = (int) (numCandidates % capacity);
+        if (size < capacity)
+        {
+            size++;
+        }
+        else
+        {
+            //The oldest sample leaves the window
+            accumulate(slot, -1);
+            replacementsSinceRecompute++;
+        }
+        store(slot, normalizedFaceWidth, normalizedFaceHeight);
+        numCandidates++;
+        if (replacementsSinceRecompute >= capacity)
+        {
+            recomputeSums();
+        }
+        samplesSinceRefine++;
+        return true;
+    }
+
+    /**
+     * Discard the previous sample, so the next one isn't compared with it (e.g. after the face was lost).
+     */
+    public void resetSteadiness()
+    {
+        hasPrevious = false;
+    }
+
+    /**
+     * If enough samples have been gathered since the last refinement, move the calibration a step towards the window's estimate.  Constant time.
+     *
+     * @param calibration calibration to refine
+     * @return true if the calibration was changed
+     */
+    public boolean refine(EyeSensorCalibration calibration)
+    {
+        if (size < minSamples || samplesSinceRefine < refineInterval)
+        {
+            return false;
+        }
+        samplesSinceRefine = 0;
+        numRefinements++;
+
+        //Least squares fit of c / h to normWidthCalibration / w
+        float heightCalibration = (float) (calibration.normWidthCalibration * sumInverseWidthHeight / sumInverseHeightSquared);
+        calibration.normHeightCalibration += refineRate * (heightCalibration - calibration.normHeightCalibration);
+        return true;
+    }
+
+    private void store(int slot, float normWidth, float normHeight)
+    {
+        normWidths[slot] = normWidth;
+        normHeights[slot] = normHeight;
+        accumulate(slot, 1);
+    }
+
+    /**
+     * Add (sign 1) or remove (sign -1) a slot's sample from the sums.
+     */
+    private void accumulate(int slot, int sign)
+    {
+        double inverseWidth = 1.0 / normWidths[slot];
+        double inverseHeight = 1.0 / normHeights[slot];
+        sumInverseWidthHeight += sign * inverseWidth * inverseHeight;
+        sumInverseHeightSquared += sign * inverseHeight * inverseHeight;
+    }
+
+    private void recomputeSums()
+    {
+        sumInverseWidthHeight = 0;
+        sumInverseHeightSquared = 0;
+        for (int i = 0; i < size; i++)
+        {
+            accumulate(i, 1);
+        }
+        replacementsSinceRecompute = 0;
+    }
+
+    /**
+     * @return number of samples in the window
+     */
+    public int getNumSamples()
+    {
+        return size;
+    }
+
+    /**
+     * @return number of samples which have entered the window
+     */
+    public long getNumCandidates()
+    {
+        return numCandidates;
+    }
+
+    public long getNumRefinements()
+    {
+        return numRefinements;
+    }
+}
@@ -0,0 +1,26 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * A calibration in progress, which EyeSensor feeds with face samples until it is done.
+ */
+interface CalibrationProcess
+{
+    /**
+     * Submit a sample.
+     *
+     * @return true if the sample was accepted, false if it was rejected
+     */
+    boolean submitSample(float normalizedFaceWidth, float normalizedFaceHeight, float projectedFaceX, float projectedFaceY);
+
+    /**
+     * Write the current estimate into the calibration.
+     */
+    void calibrate();
+
+    boolean done();
+
+    /**
+     * @param targetOut receives the x, y, z position the viewer's eye should currently be at
+     */
+    void getTarget(float[] targetOut);
+}
@@ -0,0 +1,51 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * A filter which smooths eye samples from the camera and predicts the eye position at a given time (typically when the next frame will be displayed).
+ * All times are in nanoseconds on the System.nanoTime() time base.  Implementations must not allocate in any of these methods.
+ */
+public interface EyeFilter
+{
+    /**
+     * Discard all state.
+     */
+    void reset();
+
+    /**
+     * Add a measured eye position.
+     *
+     * @param timeStamp the time the position was captured
+     * @param x
+     * @param y
+     * @param z
+     */
+    void addSample(long timeStamp, float x, float y, float z);
+
+    /**
+     * Rotate all state (positions and velocities) by the given rotation.  Used when the orientation sensor's reference frame is re-zeroed.
+     *
+     * @param rotation a pure rotation, as a column major 4x4 matrix
+     */
+    void rotate(float[] rotation);
+
+    /**
+     * Set how fast the device is rotating.  Predictions for times after timeStamp are rotated by the rotation this rate produces by then: a viewer
+     * holding still appears to turn the opposite way about the screen's center, as the device turns.  A rate of zero (the state after reset()) predicts from
+     * the eye's own motion only.
+     *
+     * @param timeStamp the time up to which the device's rotation is already applied to predictions
+     * @param x         angular velocity about x (radians / second), in the frame of the filter's samples
+     * @param y
+     * @param z
+     */
+    void setAngularVelocity(long timeStamp, float x, float y, float z);
+
+    /**
+     * Predict the eye position at the given time.  Only elements 0..2 of the output are written.
+     *
+     * @param timeStamp time to predict the position at
+     * @param eyeOut    receives the predicted position
+     * @return false if no samples have been added yet
+     */
+    boolean predict(long timeStamp, float[] eyeOut);
+}
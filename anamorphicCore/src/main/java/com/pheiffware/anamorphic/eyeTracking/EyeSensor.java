@@ -0,0 +1,219 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Calculates the position of the viewer's eye relative to the center of the screen in "Screen Coordinates" (see Anamorphic Camera).
+ * Created by Steve on 9/3/2017.
+ */
+public class EyeSensor
+{
+    private float cameraPreviewWidth;
+    private float cameraPreviewHeight;
+    private final float tanFOVX;
+    private final float tanFOVY;
+
+    private final EyeSensorCalibration eyeSensorCalibration;
+    private CalibrationProcess calibrator;
+    private String calibration;
+    //Residual error of the last multi-point calibration, or -1 if there hasn't been one
+    private float calibrationResidual = -1;
+    //Refines the calibration in the background, when not explicitly calibrating, or null
+    private AutoRecalibrator autoRecalibrator;
+    private boolean deviceStable;
+
+    public EyeSensor(EyeSensorCalibration eyeSensorCalibration, float cameraPreviewWidth, float cameraPreviewHeight, float cameraFOVY, float cameraFOVX)
+    {
+        this.eyeSensorCalibration = eyeSensorCalibration;
+        this.cameraPreviewWidth = cameraPreviewWidth;
+        this.cameraPreviewHeight = cameraPreviewHeight;
+        tanFOVX = (float) Math.tan(Math.toRadians(cameraFOVY / 2.0));
+        tanFOVY = (float) Math.tan(Math.toRadians(cameraFOVX / 2.0));
+    }
+
+    /**
+     * Set the size of camera preview frames which face information comes from.  Face information is normalized by this size, so calibration remains valid when it changes.
+     *
+     * @param cameraPreviewWidth
+     * @param cameraPreviewHeight
+     */
+    public void setCameraPreviewSize(float cameraPreviewWidth, float cameraPreviewHeight)
+    {
+        this.cameraPreviewWidth = cameraPreviewWidth;
+        this.cameraPreviewHeight = cameraPreviewHeight;
+    }
+
+    /**
+     * Causes the eye sensor to start calibrating.  The viewer should hold their face so that their "eye" is at the given calibration (x,y,z).
+     * While calibrating, each new call to getEyePosition() will update the calibration and produce an eye position using the latest calibration.
+     *
+     * @param desiredNumSamples the most calibration samples to take.  Calibration finishes sooner once the samples taken are precise enough.
+     * @param calibrationX      the x position the eye should be at during the calibration process
+     * @param calibrationY      the y position the eye should be at during the calibration process
+     * @param calibrationZ      the z position the eye should be at during the calibration process
+     */
+    public void calibrate(int desiredNumSamples, float calibrationX, float calibrationY, float calibrationZ)
+    {
+        calibrator = new EyeSensorCalibrator(eyeSensorCalibration, desiredNumSamples, calibrationX, calibrationY, calibrationZ);
+    }
+
+    /**
+     * Causes the eye sensor to start calibrating against several targets.  The viewer should hold their face so that their "eye" is at each target in turn,
+     * given by getCalibrationTarget().  Calibration ends when the fit has converged, or after the last target.
+     *
+     * @param targets           x, y, z of each target, in the order they are visited
+     * @param samplesPerTarget  samples taken at each target before moving to the next
+     * @param fitProjectedScale also correct the camera's field of view, rather than only offsets and scale with distance
+     * @param tolerance         residual error (screen coordinates) at which calibration stops early
+     */
+    public void calibrateMultiPoint(float[] targets, int samplesPerTarget, boolean fitProjectedScale, float tolerance)
+    {
+        calibrator = new MultiPointCalibrator(eyeSensorCalibration, targets, samplesPerTarget, fitProjectedScale, tolerance);
+    }
+
+    /**
+     * Given information about the face, calculate the eye position in "Screen Coordinates".
+     *
+     * @param faceWidth
+     * @param faceHeight
+     * @param facePixelX
+     * @param facePixelY
+     * @return x, y, z of the eye
+     */
+    public float[] getEyePosition(float faceWidth, float faceHeight, float facePixelX, float facePixelY)
+    {
+        float[] eye = new float[3];
+        getEyePosition(faceWidth, faceHeight, facePixelX, facePixelY, eye);
+        return eye;
+    }
+
+    /**
+     * Given information about the face, calculate the eye position in "Screen Coordinates", without allocating.  Only elements 0..2 of the output are written.
+     *
+     * @param faceWidth
+     * @param faceHeight
+     * @param facePixelX
+     * @param facePixelY
+     * @param eyeOut     receives the eye position
+     */
+    public void getEyePosition(float faceWidth, float faceHeight, float facePixelX, float facePixelY, float[] eyeOut)
+    {
+        float normalizedWidth = faceWidth / cameraPreviewWidth;
+        float normalizedHeight = faceHeight / cameraPreviewHeight;
+        float projectedX = calcProjectedX(facePixelX);
+        float projectedY = calcProjectedY(facePixelY);
+        if (calibrator != null)
+        {
+            if (calibrator.submitSample(normalizedWidth, normalizedHeight, projectedX, projectedY))
+            {
+                calibrator.calibrate();
+            }
+            if (calibrator instanceof MultiPointCalibrator)
+            {
+                calibrationResidual = ((MultiPointCalibrator) calibrator).getResidualError();
+            }
+            if (calibrator.done())
+            {
+                calibrator = null;
+            }
+        }
+        else if (autoRecalibrator != null)
+        {
+            if (autoRecalibrator.offerSample(normalizedWidth, normalizedHeight, projectedX, projectedY, deviceStable))
+            {
+                autoRecalibrator.refine(eyeSensorCalibration);
+            }
+        }
+
+        float eyeZWidth = eyeSensorCalibration.normWidthCalibration / normalizedWidth;
+        float eyeZHeight = eyeSensorCalibration.normHeightCalibration / normalizedHeight;
+        float eyeZ = (eyeZWidth + eyeZHeight) / 2;
+        float eyeX = -(eyeSensorCalibration.projectedScaleX * projectedX * eyeZ + eyeSensorCalibration.offsetX);
+        float eyeY = -(eyeSensorCalibration.projectedScaleY * projectedY * eyeZ + eyeSensorCalibration.offsetY);
+        eyeOut[0] = eyeX;
+        eyeOut[1] = eyeY;
+        eyeOut[2] = eyeZ;
+    }
+
+    private float calcNormX(float faceCameraPixelX)
+    {
+        return (faceCameraPixelX - cameraPreviewWidth / 2) / (cameraPreviewWidth / 2);
+    }
+
+    private float calcNormY(float faceCameraPixelY)
+    {
+        return (faceCameraPixelY - cameraPreviewHeight / 2) / (cameraPreviewHeight / 2);
+    }
+
+    private float calcProjectedX(float facePixelX)
+    {
+        return calcNormX(facePixelX) * tanFOVX;
+    }
+
+    private float calcProjectedY(float facePixelY)
+    {
+        return calcNormY(facePixelY) * tanFOVY;
+    }
+
+    /**
+     * Refine the calibration in the background, from samples taken while not explicitly calibrating.
+     *
+     * @param autoRecalibrator the recalibrator to use, or null to stop
+     */
+    public void setAutoRecalibrator(AutoRecalibrator autoRecalibrator)
+    {
+        this.autoRecalibrator = autoRecalibrator;
+    }
+
+    /**
+     * Set whether the device is currently being held still.  Background recalibration only uses samples taken while it is.
+     *
+     * @param deviceStable
+     */
+    public void setDeviceStable(boolean deviceStable)
+    {
+        this.deviceStable = deviceStable;
+    }
+
+    /**
+     * The face was lost, so the next sample should not be compared with the last one.
+     */
+    public void faceLost()
+    {
+        if (autoRecalibrator != null)
+        {
+            autoRecalibrator.resetSteadiness();
+        }
+    }
+
+    public boolean isCalibrating()
+    {
+        return calibrator != null;
+    }
+
+    /**
+     * @param targetOut receives the x, y, z position the viewer's eye should be at
+     * @return false if not calibrating
+     */
+    public boolean getCalibrationTarget(float[] targetOut)
+    {
+        CalibrationProcess current = calibrator;
+        if (current == null)
+        {
+            return false;
+        }
+        current.getTarget(targetOut);
+        return true;
+    }
+
+    /**
+     * @return residual error (screen coordinates) of the current or last multi-point calibration, or -1 if there hasn't been one
+     */
+    public float getCalibrationResidual()
+    {
+        return calibrationResidual;
+    }
+
+    public EyeSensorCalibration getCalibration()
+    {
+        return eyeSensorCalibration;
+    }
+}
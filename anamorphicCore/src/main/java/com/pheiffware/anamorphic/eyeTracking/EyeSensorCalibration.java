@@ -0,0 +1,67 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Holds the information describing a calibration of the eye sensor.  This can transform the information from a face tracker to an eye position in "Screen Coordinates".
+ * Created by Steve on 9/3/2017.
+ */
+
+public class EyeSensorCalibration
+{
+    float normWidthCalibration;
+    float normHeightCalibration;
+    float offsetX;
+    float offsetY;
+    //Correction to the camera's nominal field of view: projected face positions are multiplied by these
+    float projectedScaleX;
+    float projectedScaleY;
+
+    public EyeSensorCalibration()
+    {
+        this(1, 1, 0, 0);
+    }
+
+    public EyeSensorCalibration(float normWidthCalibration, float normHeightCalibration, float offsetX, float offsetY)
+    {
+        this(normWidthCalibration, normHeightCalibration, offsetX, offsetY, 1, 1);
+    }
+
+    public EyeSensorCalibration(float normWidthCalibration, float normHeightCalibration, float offsetX, float offsetY, float projectedScaleX, float projectedScaleY)
+    {
+        this.normWidthCalibration = normWidthCalibration;
+        this.normHeightCalibration = normHeightCalibration;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.projectedScaleX = projectedScaleX;
+        this.projectedScaleY = projectedScaleY;
+    }
+
+    public float getNormWidthCalibration()
+    {
+        return normWidthCalibration;
+    }
+
+    public float getNormHeightCalibration()
+    {
+        return normHeightCalibration;
+    }
+
+    public float getOffsetX()
+    {
+        return offsetX;
+    }
+
+    public float getOffsetY()
+    {
+        return offsetY;
+    }
+
+    public float getProjectedScaleX()
+    {
+        return projectedScaleX;
+    }
+
+    public float getProjectedScaleY()
+    {
+        return projectedScaleY;
+    }
+}
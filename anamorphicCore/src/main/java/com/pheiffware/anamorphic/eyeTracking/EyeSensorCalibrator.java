@@ -0,0 +1,180 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Calibrates an EyeSensorCalibration, by averaging face samples taken while the viewer holds their eye at a known position.
+ * <p>
+ * Statistics are maintained incrementally (Welford's running mean/variance), so each sample costs O(1) and nothing is boxed.
+ * Once a few samples have been seen, samples far from the running mean (blinks, partial detections, etc.) are rejected and do not count towards the sample total.
+ * Without outliers the result is the plain average of all samples.
+ * <p>
+ * Calibration is done once the accepted samples pin the eye position down: when the standard error of the eye position they give at the target is below
+ * STANDARD_ERROR_TOLERANCE, after at least MIN_SAMPLES.  A steady viewer, with outliers rejected, finishes well before desiredNumSamples, which bounds
+ * calibration of a noisy one.
+ * Created by Steve on 9/3/2017.
+ */
+class EyeSensorCalibrator implements CalibrationProcess
+{
+    //Number of samples accepted unconditionally before outlier rejection starts
+    private static final int WARM_UP_SAMPLES = 10;
+
+    //Samples further than this many standard deviations from the mean, in any channel, are rejected
+    private static final float OUTLIER_STD_DEVS = 3.0f;
+
+    //Lower bound on the standard deviation used for rejection, so that a very steady warm up doesn't reject normal noise
+    private static final float MIN_STD_DEV = 0.005f;
+
+    //If this many samples in a row are rejected, the viewer has most likely moved, so the statistics are restarted
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 10;
+
+    //Accepted samples required before calibration can finish early, so the variance estimate itself is reliable
+    private static final int MIN_SAMPLES = 2 * WARM_UP_SAMPLES;
+
+    //Calibration finishes early once the standard error of the eye position, in every axis, is below this (screen coordinates)
+    private static final float STANDARD_ERROR_TOLERANCE = 0.02f;
+
+    private static final int NORM_WIDTH = 0;
+    private static final int NORM_HEIGHT = 1;
+    private static final int PROJECTED_X = 2;
+    private static final int PROJECTED_Y = 3;
+    private static final int NUM_CHANNELS = 4;
+
+    private final EyeSensorCalibration calibration;
+    private final int desiredNumSamples;
+    private final float calibrationX;
+    private final float calibrationY;
+    private final float calibrationZ;
+
+    private final double[] means = new double[NUM_CHANNELS];
+    private final double[] sumSquaredDeviations = new double[NUM_CHANNELS];
+    private final float[] sample = new float[NUM_CHANNELS];
+    private int numSamples;
+    private int numRejected;
+    private int consecutiveRejections;
+
+    EyeSensorCalibrator(EyeSensorCalibration calibration, int desiredNumSamples, float calibrationX, float calibrationY, float calibrationZ)
+    {
+        this.calibration = calibration;
+        this.desiredNumSamples = desiredNumSamples;
+        this.calibrationX = calibrationX;
+        this.calibrationY = calibrationY;
+        this.calibrationZ = calibrationZ;
+    }
+
+    @Override
+    public boolean submitSample(float normalizedFaceWidth, float normalizedFaceHeight, float projectedFaceX, float projectedFaceY)
+    {
+        sample[NORM_WIDTH] = normalizedFaceWidth;
+        sample[NORM_HEIGHT] = normalizedFaceHeight;
+        sample[PROJECTED_X] = projectedFaceX;
+        sample[PROJECTED_Y] = projectedFaceY;
+
+        if (isOutlier())
+        {
+            numRejected++;
+            consecutiveRejections++;
+            if (consecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS)
+            {
+                restart();
+            }
+            return false;
+        }
+        consecutiveRejections = 0;
+        numSamples++;
+        for (int i = 0; i < NUM_CHANNELS; i++)
+        {
+            double delta = sample[i] - means[i];
+            means[i] += delta / numSamples;
+            sumSquaredDeviations[i] += delta * (sample[i] - means[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Write the current estimate into the calibration.  This is constant time.  The field of view correction is left as it is.
+     */
+    @Override
+    public void calibrate()
+    {
+        if (numSamples == 0)
+        {
+            return;
+        }
+        calibration.normWidthCalibration = (float) means[NORM_WIDTH] * calibrationZ;
+        calibration.normHeightCalibration = (float) means[NORM_HEIGHT] * calibrationZ;
+        calibration.offsetX = -calibrationX - calibration.projectedScaleX * (float) means[PROJECTED_X] * calibrationZ;
+        calibration.offsetY = -calibrationY - calibration.projectedScaleY * (float) means[PROJECTED_Y] * calibrationZ;
+    }
+
+    int numSamples()
+    {
+        return numSamples;
+    }
+
+    int numRejected()
+    {
+        return numRejected;
+    }
+
+    @Override
+    public boolean done()
+    {
+        return numSamples >= desiredNumSamples || (numSamples >= MIN_SAMPLES && getStandardError() < STANDARD_ERROR_TOLERANCE);
+    }
+
+    /**
+     * @return largest standard error, over x, y and z, of the eye position at the target given by the accepted samples (screen coordinates)
+     */
+    float getStandardError()
+    {
+        if (numSamples < 2)
+        {
+            return Float.POSITIVE_INFINITY;
+        }
+        //Distance is inversely proportional to face size, and x, y proportional to projected position
+        double errorZ = calibrationZ * Math.max(standardError(NORM_WIDTH) / means[NORM_WIDTH], standardError(NORM_HEIGHT) / means[NORM_HEIGHT]);
+        double errorX = Math.abs(calibration.projectedScaleX) * calibrationZ * standardError(PROJECTED_X);
+        double errorY = Math.abs(calibration.projectedScaleY) * calibrationZ * standardError(PROJECTED_Y);
+        return (float) Math.max(errorZ, Math.max(errorX, errorY));
+    }
+
+    private double standardError(int channel)
+    {
+        return Math.sqrt(sumSquaredDeviations[channel] / ((numSamples - 1) * (double) numSamples));
+    }
+
+    @Override
+    public void getTarget(float[] targetOut)
+    {
+        targetOut[0] = calibrationX;
+        targetOut[1] = calibrationY;
+        targetOut[2] = calibrationZ;
+    }
+
+    private boolean isOutlier()
+    {
+        if (numSamples < WARM_UP_SAMPLES)
+        {
+            return false;
+        }
+        for (int i = 0; i < NUM_CHANNELS; i++)
+        {
+            double stdDev = Math.max(MIN_STD_DEV, Math.sqrt(sumSquaredDeviations[i] / (numSamples - 1)));
+            if (Math.abs(sample[i] - means[i]) > OUTLIER_STD_DEVS * stdDev)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void restart()
+    {
+        numSamples = 0;
+        consecutiveRejections = 0;
+        for (int i = 0; i < NUM_CHANNELS; i++)
+        {
+            means[i] = 0;
+            sumSquaredDeviations[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Tracks the location of the user's eye relative to the center of the screen in 3-dimensional space.  The position is tracked in Screen Coordinates (see AnamorphicCamera).
+ * Tracking uses a combination of the camera (for absolute position) and the orientation sensor (for quick, relative, updates and stabilization)
+ * <p>
+ * Samples are held in a fixed capacity ring buffer of primitives.  Each sample's weight decays linearly with its age, so the weighted sum can be maintained incrementally:
+ * sum(w_i * p_i) = sum(p_i) - (now * sum(p_i) - sum(t_i * p_i)) / maxSampleAge
+ * This makes getEye() constant time (plus any expired samples) and allocation free.
+ * <p>
+ * Optionally, a predictive EyeFilter can be set.  Camera samples are then also fed to the filter, which predicts the eye position at a requested time (such as the next vsync).
+ * In either mode, the latest orientation, from the OrientationSource, is applied to the result.  When predicting, the device's angular velocity (see
+ * setAngularVelocity()) is also passed to the filter, so the rotation expected between the latest orientation and the predicted time is included.
+ * Eye positions are float[]s holding x, y, z in elements 0..2.
+ * Created by Steve on 9/2/2017.
+ */
+
+public class EyeTracker
+{
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final float maxSampleAge;
+    private final int capacity;
+
+    //Struct-of-arrays ring buffer of samples, which have been stamped (see addEye()).  Index head is the oldest sample.
+    private final float[] sampleXs;
+    private final float[] sampleYs;
+    private final float[] sampleZs;
+    private final long[] sampleTimeStamps;
+    private int head;
+    private int numStampedSamples;
+
+    //The latest sample.  It does not have a time stamp yet and always has a weight of 1.
+    private boolean hasLatest;
+    private float latestX, latestY, latestZ;
+
+    //Running sums over stamped samples.  Times are in seconds, relative to timeBase, to preserve precision.
+    private long timeBase;
+    private double sumT;
+    private double sumX, sumY, sumZ;
+    private double sumTX, sumTY, sumTZ;
+
+    private final OrientationSource orientationSource;
+    private final float[] scratchEye = new float[3];
+
+    //If not null, used to predict eye position instead of the weighted average
+    private EyeFilter predictiveFilter;
+
+    //Device angular velocity in current screen coordinates, and the time of the orientation it extrapolates from
+    private final float[] angularVelocity = new float[3];
+    private long angularVelocityTimeStamp;
+
+    public EyeTracker(float maxSampleAge, OrientationSource orientationSource)
+    {
+        this(maxSampleAge, DEFAULT_CAPACITY, orientationSource);
+    }
+
+    /**
+     * @param maxSampleAge maximum age of a sample, in seconds, before it is discarded
+     * @param capacity          maximum number of samples retained.  When full, the oldest sample is discarded.
+     * @param orientationSource tracks device rotation relative to the orientation when zeroOrientation() was last called
+     */
+    public EyeTracker(float maxSampleAge, int capacity, OrientationSource orientationSource)
+    {
+        this.maxSampleAge = maxSampleAge;
+        this.orientationSource = orientationSource;
+        this.capacity = capacity;
+        sampleXs = new float[capacity];
+        sampleYs = new float[capacity];
+        sampleZs = new float[capacity];
+        sampleTimeStamps = new long[capacity];
+    }
+
+    public void addEye(float[] eye)
+    {
+        addEye(eye[0], eye[1], eye[2]);
+    }
+
+    public void addEye(float x, float y, float z)
+    {
+        addEye(System.nanoTime(), x, y, z);
+    }
+
+    /**
+     * Add a new eye sample from the camera.
+     *
+     * @param captureTimeStamp System.nanoTime() at which the camera frame the sample was measured from was captured
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addEye(long captureTimeStamp, float x, float y, float z)
+    {
+        if (predictiveFilter != null)
+        {
+            predictiveFilter.addSample(captureTimeStamp, x, y, z);
+        }
+
+        //Each sample gets a time stamp when the next sample is added.  A sample without a time stamp will never expire.
+        if (hasLatest)
+        {
+            pushStamped(latestX, latestY, latestZ, captureTimeStamp);
+        }
+        latestX = x;
+        latestY = y;
+        latestZ = z;
+        hasLatest = true;
+    }
+
+    public void zeroOrientation()
+    {
+        float[] orientationMatrix = orientationSource.getCurrentOrientation();
+        for (int i = 0; i < numStampedSamples; i++)
+        {
+            int index = (head + i) % capacity;
+            VectorMath.transformPoint(orientationMatrix, sampleXs[index], sampleYs[index], sampleZs[index], scratchEye);
+            sampleXs[index] = scratchEye[0];
+            sampleYs[index] = scratchEye[1];
+            sampleZs[index] = scratchEye[2];
+        }
+        if (hasLatest)
+        {
+            VectorMath.transformPoint(orientationMatrix, latestX, latestY, latestZ, scratchEye);
+            latestX = scratchEye[0];
+            latestY = scratchEye[1];
+            latestZ = scratchEye[2];
+        }
+        //Samples changed, so rebuild sums from scratch (this also discards any accumulated rounding error)
+        recomputeSums();
+        if (predictiveFilter != null)
+        {
+            predictiveFilter.rotate(orientationMatrix);
+        }
+        orientationSource.zeroOrientation();
+    }
+
+    /**
+     * Get the current, weighted, eye position.  Allocates a new array, see getEye(float[]) for an allocation free version.
+     *
+     * @return the eye position or null if there are no samples
+     */
+    public float[] getEye()
+    {
+        float[] eye = new float[3];
+        if (getEye(eye))
+        {
+            return eye;
+        }
+        return null;
+    }
+
+    /**
+     * Get the current eye position.  Only elements 0..2 of the output are written.
+     *
+     * @param eyeOut receives the eye position
+     * @return false if there are no samples (eyeOut is left unchanged)
+     */
+    public boolean getEye(float[] eyeOut)
+    {
+        return getEye(System.nanoTime(), eyeOut);
+    }
+
+    /**
+     * Get the eye position at the given time.  If a predictive filter is set, the position is extrapolated to that time, otherwise this is the current weighted average.
+     * Only elements 0..2 of the output are written.
+     *
+     * @param timeStamp System.nanoTime() based time at which the eye position is wanted (such as when the frame being rendered will be displayed)
+     * @param eyeOut    receives the eye position
+     * @return false if there are no samples (eyeOut is left unchanged)
+     */
+    public boolean getEye(long timeStamp, float[] eyeOut)
+    {
+        return getEye(System.nanoTime(), timeStamp, eyeOut);
+    }
+
+    /**
+     * Get the eye position at the given time, with an explicit current time (used when replaying recorded data).
+     *
+     * @param now       System.nanoTime() based current time, used to age samples for the weighted average
+     * @param timeStamp time at which the eye position is wanted (used by the predictive filter)
+     * @param eyeOut    receives the eye position
+     * @return false if there are no samples (eyeOut is left unchanged)
+     */
+    public boolean getEye(long now, long timeStamp, float[] eyeOut)
+    {
+        if (!hasLatest)
+        {
+            return false;
+        }
+        if (predictiveFilter != null)
+        {
+            float[] orientationMatrix = orientationSource.getCurrentOrientation();
+            //The filter works in the frame of the last zeroOrientation(), so the rotation rate is expressed in that frame
+            VectorMath.inverseRotateVector(orientationMatrix, angularVelocity[0], angularVelocity[1], angularVelocity[2], scratchEye);
+            predictiveFilter.setAngularVelocity(angularVelocityTimeStamp, scratchEye[0], scratchEye[1], scratchEye[2]);
+            if (predictiveFilter.predict(timeStamp, eyeOut))
+            {
+                VectorMath.transformPoint(orientationMatrix, eyeOut[0], eyeOut[1], eyeOut[2], eyeOut);
+                return true;
+            }
+        }
+        expireSamples(now);
+
+        //The latest sample has weight 1
+        double nowRel = toSeconds(now);
+        double stampedWeight = numStampedSamples - (nowRel * numStampedSamples - sumT) / maxSampleAge;
+        double totalWeight = 1.0 + stampedWeight;
+        double totalX = latestX + sumX - (nowRel * sumX - sumTX) / maxSampleAge;
+        double totalY = latestY + sumY - (nowRel * sumY - sumTY) / maxSampleAge;
+        double totalZ = latestZ + sumZ - (nowRel * sumZ - sumTZ) / maxSampleAge;
+
+        //Orientation is linear, so it is applied once to the fused result, rather than to every sample
+        VectorMath.transformPoint(orientationSource.getCurrentOrientation(), (float) (totalX / totalWeight), (float) (totalY / totalWeight), (float) (totalZ / totalWeight), eyeOut);
+        return true;
+    }
+
+    public void onOrientationSensorChanged(float[] sensorEventValues)
+    {
+        orientationSource.onSensorChanged(sensorEventValues);
+    }
+
+    /**
+     * Set how fast the device is rotating, so that predictions include the rotation expected after the latest orientation.  Only used by the predictive filter.
+     *
+     * @param timeStamp       time of the orientation last passed to onOrientationSensorChanged()
+     * @param angularVelocity radians / second about the screen's x, y and z axes (see RotationSampleBuffer.getAngularVelocity())
+     */
+    public void setAngularVelocity(long timeStamp, float[] angularVelocity)
+    {
+        this.angularVelocity[0] = angularVelocity[0];
+        this.angularVelocity[1] = angularVelocity[1];
+        this.angularVelocity[2] = angularVelocity[2];
+        angularVelocityTimeStamp = timeStamp;
+    }
+
+    /**
+     * Set a filter used to predict eye positions.  Null reverts to the time weighted average of recent samples.
+     *
+     * @param predictiveFilter
+     */
+    public void setPredictiveFilter(EyeFilter predictiveFilter)
+    {
+        if (predictiveFilter != null)
+        {
+            predictiveFilter.reset();
+        }
+        this.predictiveFilter = predictiveFilter;
+    }
+
+    private void pushStamped(float x, float y, float z, long timeStamp)
+    {
+        if (numStampedSamples == capacity)
+        {
+            popOldest();
+        }
+        if (numStampedSamples == 0)
+        {
+            timeBase = timeStamp;
+        }
+        int index = (head + numStampedSamples) % capacity;
+        sampleXs[index] = x;
+        sampleYs[index] = y;
+        sampleZs[index] = z;
+        sampleTimeStamps[index] = timeStamp;
+        numStampedSamples++;
+        accumulate(index, 1);
+    }
+
+    private void expireSamples(long now)
+    {
+        while (numStampedSamples > 0 && (now - sampleTimeStamps[head]) / 1000000000.0 > maxSampleAge)
+        {
+            popOldest();
+        }
+    }
+
+    private void popOldest()
+    {
+        accumulate(head, -1);
+        head = (head + 1) % capacity;
+        numStampedSamples--;
+        if (numStampedSamples == 0)
+        {
+            head = 0;
+            clearSums();
+        }
+    }
+
+    private void recomputeSums()
+    {
+        clearSums();
+        if (numStampedSamples > 0)
+        {
+            timeBase = sampleTimeStamps[head];
+        }
+        for (int i = 0; i < numStampedSamples; i++)
+        {
+            accumulate((head + i) % capacity, 1);
+        }
+    }
+
+    private void accumulate(int index, int sign)
+    {
+        double t = toSeconds(sampleTimeStamps[index]);
+        float x = sampleXs[index];
+        float y = sampleYs[index];
+        float z = sampleZs[index];
+        sumT += sign * t;
+        sumX += sign * x;
+        sumY += sign * y;
+        sumZ += sign * z;
+        sumTX += sign * t * x;
+        sumTY += sign * t * y;
+        sumTZ += sign * t * z;
+    }
+
+    private void clearSums()
+    {
+        sumT = 0;
+        sumX = 0;
+        sumY = 0;
+        sumZ = 0;
+        sumTX = 0;
+        sumTY = 0;
+        sumTZ = 0;
+    }
+
+    private double toSeconds(long timeStamp)
+    {
+        return (timeStamp - timeBase) / 1000000000.0;
+    }
+}
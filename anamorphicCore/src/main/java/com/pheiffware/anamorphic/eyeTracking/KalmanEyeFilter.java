@@ -0,0 +1,140 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Constant velocity Kalman filter, run independently on each axis.  State is (position, velocity) with a white noise acceleration process model.
+ * Tuning:
+ * accelerationNoise - larger values trust new samples more (less latency, more jitter).
+ * measurementNoise - larger values trust the model more (less jitter, more latency).
+ */
+public class KalmanEyeFilter implements EyeFilter
+{
+    //Variance of (unmodeled) acceleration in (units/s^2)^2
+    private final float accelerationNoise;
+
+    //Variance of a measured position in units^2
+    private final float measurementNoise;
+
+    //Initial variance of velocity in (units/s)^2
+    private final float initialVelocityVariance;
+
+    private final float[] positions = new float[3];
+    private final float[] velocities = new float[3];
+
+    //Covariance matrix entries [[p00, p01], [p01, p11]] for each axis
+    private final float[] p00 = new float[3];
+    private final float[] p01 = new float[3];
+    private final float[] p11 = new float[3];
+
+    private boolean initialized;
+    private long lastTimeStamp;
+
+    //Device rotation rate, and the time from which it is extrapolated
+    private final float[] angularVelocity = new float[3];
+    private long angularVelocityTimeStamp;
+
+    public KalmanEyeFilter(float accelerationNoise, float measurementNoise, float initialVelocityVariance)
+    {
+        this.accelerationNoise = accelerationNoise;
+        this.measurementNoise = measurementNoise;
+        this.initialVelocityVariance = initialVelocityVariance;
+    }
+
+    @Override
+    public void reset()
+    {
+        initialized = false;
+        angularVelocity[0] = 0;
+        angularVelocity[1] = 0;
+        angularVelocity[2] = 0;
+    }
+
+    @Override
+    public void addSample(long timeStamp, float x, float y, float z)
+    {
+        if (!initialized)
+        {
+            initAxis(0, x);
+            initAxis(1, y);
+            initAxis(2, z);
+            lastTimeStamp = timeStamp;
+            initialized = true;
+            return;
+        }
+        //Out of order samples are treated as simultaneous
+        float dt = Math.max(0, (timeStamp - lastTimeStamp) / 1000000000.0f);
+        updateAxis(0, x, dt);
+        updateAxis(1, y, dt);
+        updateAxis(2, z, dt);
+        lastTimeStamp = Math.max(lastTimeStamp, timeStamp);
+    }
+
+    @Override
+    public void rotate(float[] rotation)
+    {
+        if (!initialized)
+        {
+            return;
+        }
+        //Covariance is treated as isotropic, so only the state needs rotating
+        VectorMath.rotateVector(rotation, positions);
+        VectorMath.rotateVector(rotation, velocities);
+    }
+
+    @Override
+    public void setAngularVelocity(long timeStamp, float x, float y, float z)
+    {
+        angularVelocity[0] = x;
+        angularVelocity[1] = y;
+        angularVelocity[2] = z;
+        angularVelocityTimeStamp = timeStamp;
+    }
+
+    @Override
+    public boolean predict(long timeStamp, float[] eyeOut)
+    {
+        if (!initialized)
+        {
+            return false;
+        }
+        float dt = (timeStamp - lastTimeStamp) / 1000000000.0f;
+        eyeOut[0] = positions[0] + velocities[0] * dt;
+        eyeOut[1] = positions[1] + velocities[1] * dt;
+        eyeOut[2] = positions[2] + velocities[2] * dt;
+        if (timeStamp > angularVelocityTimeStamp)
+        {
+            //The eye is fixed while the device turns, so it turns the opposite way relative to the screen
+            VectorMath.rotateByAngularVelocity(angularVelocity, -(timeStamp - angularVelocityTimeStamp) / 1000000000.0f, eyeOut);
+        }
+        return true;
+    }
+
+    private void initAxis(int axis, float position)
+    {
+        positions[axis] = position;
+        velocities[axis] = 0;
+        p00[axis] = measurementNoise;
+        p01[axis] = 0;
+        p11[axis] = initialVelocityVariance;
+    }
+
+    private void updateAxis(int axis, float measurement, float dt)
+    {
+        //Predict
+        float dt2 = dt * dt;
+        positions[axis] += velocities[axis] * dt;
+        p00[axis] += dt * (2 * p01[axis] + dt * p11[axis]) + accelerationNoise * dt2 * dt2 / 4;
+        p01[axis] += dt * p11[axis] + accelerationNoise * dt2 * dt / 2;
+        p11[axis] += accelerationNoise * dt2;
+
+        //Correct
+        float s = p00[axis] + measurementNoise;
+        float k0 = p00[axis] / s;
+        float k1 = p01[axis] / s;
+        float residual = measurement - positions[axis];
+        positions[axis] += k0 * residual;
+        velocities[axis] += k1 * residual;
+        p11[axis] -= k1 * p01[axis];
+        p00[axis] *= 1 - k0;
+        p01[axis] *= 1 - k0;
+    }
+}
@@ -0,0 +1,230 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Calibrates an EyeSensorCalibration from samples taken while the viewer holds their eye at each of several target positions in turn.
+ * Every calibration term is fitted by recursive least squares, so each sample is an O(1) update of the fit rather than a batch solve:
+ * <ul>
+ * <li>normWidthCalibration, normHeightCalibration: z = c / normalizedSize</li>
+ * <li>offsetX, offsetY and, optionally, projectedScaleX, projectedScaleY: x = -(scale * projectedX * z + offset)</li>
+ * </ul>
+ * Using one target cannot separate scale from offset, but several targets spread across the screen can, and also fit the offset better away from the center.
+ * <p>
+ * The fit is scored by the error between the eye position it predicts, before each sample is added, and the target.  As samples from a target which the fit
+ * has not yet seen are predicted this way, this measures how well the calibration generalizes.  Once enough targets have been visited, calibration ends as soon
+ * as this residual error is below a tolerance.
+ */
+class MultiPointCalibrator implements CalibrationProcess
+{
+    //Samples ignored after moving to each target, while the viewer moves their eye there
+    private static final int SETTLE_SAMPLES = 10;
+    //Samples at a target accepted unconditionally, before outlier rejection starts
+    private static final int WARM_UP_SAMPLES = 5;
+    //Samples with an error more than this multiple of the residual error are rejected
+    private static final float OUTLIER_FACTOR = 4.0f;
+    //Targets visited before the fit can be considered converged (two, on opposite sides, separate scale from offset)
+    private static final int MIN_CONVERGED_TARGETS = 3;
+    //Weight of each sample's squared error in the residual error
+    private static final float RESIDUAL_SMOOTHING = 0.1f;
+    //Variance of the initial parameters, which are those of the existing calibration
+    private static final double INITIAL_VARIANCE = 100;
+
+    private final EyeSensorCalibration calibration;
+    private final float[] targets;
+    private final int samplesPerTarget;
+    private final boolean fitProjectedScale;
+    private final float tolerance;
+
+    private final RecursiveLeastSquares widthFit;
+    private final RecursiveLeastSquares heightFit;
+    private final RecursiveLeastSquares xFit;
+    private final RecursiveLeastSquares yFit;
+    private final double[] sizeRegressors = new double[1];
+    private final double[] positionRegressors;
+
+    private int targetIndex;
+    private int samplesAtTarget;
+    private int numSamples;
+    private int numRejected;
+    private float meanSquaredError;
+    private boolean converged;
+
+    /**
+     * @param calibration       calibration to update.  Its current values are the starting estimate.
+     * @param targets           x, y, z of each target, in the order they are visited
+     * @param samplesPerTarget  samples accepted at each target before moving to the next
+     * @param fitProjectedScale also fit the field of view correction
+     * @param tolerance         residual error (screen coordinates) at which the fit is considered converged
+     */
+    MultiPointCalibrator(EyeSensorCalibration calibration, float[] targets, int samplesPerTarget, boolean fitProjectedScale, float tolerance)
+    {
+        this.calibration = calibration;
+        this.targets = targets.clone();
+        this.samplesPerTarget = samplesPerTarget;
+        this.fitProjectedScale = fitProjectedScale;
+        this.tolerance = tolerance;
+        widthFit = new RecursiveLeastSquares(new double[]{calibration.normWidthCalibration}, INITIAL_VARIANCE, 1);
+        heightFit = new RecursiveLeastSquares(new double[]{calibration.normHeightCalibration}, INITIAL_VARIANCE, 1);
+        if (fitProjectedScale)
+        {
+            xFit = new RecursiveLeastSquares(new double[]{calibration.projectedScaleX, calibration.offsetX}, INITIAL_VARIANCE, 1);
+            yFit = new RecursiveLeastSquares(new double[]{calibration.projectedScaleY, calibration.offsetY}, INITIAL_VARIANCE, 1);
+            positionRegressors = new double[2];
+        }
+        else
+        {
+            xFit = new RecursiveLeastSquares(new double[]{calibration.offsetX}, INITIAL_VARIANCE, 1);
+            yFit = new RecursiveLeastSquares(new double[]{calibration.offsetY}, INITIAL_VARIANCE, 1);
+            positionRegressors = new double[1];
+        }
+    }
+
+    @Override
+    public boolean submitSample(float normalizedFaceWidth, float normalizedFaceHeight, float projectedFaceX, float projectedFaceY)
+    {
+        if (done())
+        {
+            return false;
+        }
+        samplesAtTarget++;
+        if (samplesAtTarget <= SETTLE_SAMPLES)
+        {
+            return false;
+        }
+        float targetX = targets[targetIndex * 3];
+        float targetY = targets[targetIndex * 3 + 1];
+        float targetZ = targets[targetIndex * 3 + 2];
+
+        //Error of the eye position predicted, before this sample is added, at the target
+        sizeRegressors[0] = 1.0 / normalizedFaceWidth;
+        double zFromWidth = widthFit.predict(sizeRegressors);
+        sizeRegressors[0] = 1.0 / normalizedFaceHeight;
+        double zFromHeight = heightFit.predict(sizeRegressors);
+        double errorZ = targetZ - (zFromWidth + zFromHeight) / 2;
+        setPositionRegressors(projectedFaceX, targetZ);
+        double errorX = targetX - xFit.predict(positionRegressors) - offsetAdjustment(projectedFaceX, targetZ, calibration.projectedScaleX);
+        setPositionRegressors(projectedFaceY, targetZ);
+        double errorY = targetY - yFit.predict(positionRegressors) - offsetAdjustment(projectedFaceY, targetZ, calibration.projectedScaleY);
+        float squaredError = (float) (errorX * errorX + errorY * errorY + errorZ * errorZ);
+
+        int acceptedAtTarget = samplesAtTarget - SETTLE_SAMPLES;
+        if (acceptedAtTarget > WARM_UP_SAMPLES && squaredError > OUTLIER_FACTOR * OUTLIER_FACTOR * Math.max(meanSquaredError, tolerance * tolerance))
+        {
+            //Blink, partial detection, or the viewer looking away
+            samplesAtTarget--;
+            numRejected++;
+            return false;
+        }
+        meanSquaredError = numSamples == 0 ? squaredError : meanSquaredError + RESIDUAL_SMOOTHING * (squaredError - meanSquaredError);
+        numSamples++;
+
+        sizeRegressors[0] = 1.0 / normalizedFaceWidth;
+        widthFit.update(sizeRegressors, targetZ);
+        sizeRegressors[0] = 1.0 / normalizedFaceHeight;
+        heightFit.update(sizeRegressors, targetZ);
+        setPositionRegressors(projectedFaceX, targetZ);
+        xFit.update(positionRegressors, targetX - offsetAdjustment(projectedFaceX, targetZ, calibration.projectedScaleX));
+        setPositionRegressors(projectedFaceY, targetZ);
+        yFit.update(positionRegressors, targetY - offsetAdjustment(projectedFaceY, targetZ, calibration.projectedScaleY));
+
+        if (targetIndex + 1 >= MIN_CONVERGED_TARGETS && acceptedAtTarget > WARM_UP_SAMPLES && getResidualError() < tolerance)
+        {
+            converged = true;
+        }
+        else if (acceptedAtTarget >= samplesPerTarget)
+        {
+            targetIndex++;
+            samplesAtTarget = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Regressors of x = -(scale * projected * z + offset), for the fitted terms only.
+     */
+    private void setPositionRegressors(float projected, float z)
+    {
+        if (fitProjectedScale)
+        {
+            positionRegressors[0] = -projected * z;
+            positionRegressors[1] = -1;
+        }
+        else
+        {
+            positionRegressors[0] = -1;
+        }
+    }
+
+    /**
+     * Part of x which is not fitted: the fixed scale term, when only offsets are fitted.
+     */
+    private double offsetAdjustment(float projected, float z, float fixedScale)
+    {
+        return fitProjectedScale ? 0 : -fixedScale * projected * z;
+    }
+
+    @Override
+    public void calibrate()
+    {
+        if (numSamples == 0)
+        {
+            return;
+        }
+        calibration.normWidthCalibration = (float) widthFit.getParameter(0);
+        calibration.normHeightCalibration = (float) heightFit.getParameter(0);
+        if (fitProjectedScale)
+        {
+            calibration.projectedScaleX = (float) xFit.getParameter(0);
+            calibration.offsetX = (float) xFit.getParameter(1);
+            calibration.projectedScaleY = (float) yFit.getParameter(0);
+            calibration.offsetY = (float) yFit.getParameter(1);
+        }
+        else
+        {
+            calibration.offsetX = (float) xFit.getParameter(0);
+            calibration.offsetY = (float) yFit.getParameter(0);
+        }
+    }
+
+    @Override
+    public boolean done()
+    {
+        return converged || targetIndex * 3 >= targets.length;
+    }
+
+    @Override
+    public void getTarget(float[] targetOut)
+    {
+        int index = Math.min(targetIndex, targets.length / 3 - 1) * 3;
+        targetOut[0] = targets[index];
+        targetOut[1] = targets[index + 1];
+        targetOut[2] = targets[index + 2];
+    }
+
+    /**
+     * @return smoothed distance, in screen coordinates, between the eye position predicted for each sample, before adding it to the fit, and the target
+     */
+    float getResidualError()
+    {
+        return (float) Math.sqrt(meanSquaredError);
+    }
+
+    boolean isConverged()
+    {
+        return converged;
+    }
+
+    int getTargetIndex()
+    {
+        return targetIndex;
+    }
+
+    int numSamples()
+    {
+        return numSamples;
+    }
+
+    int numRejected()
+    {
+        return numRejected;
+    }
+}
@@ -0,0 +1,121 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * One-Euro filter (Casiez et al.), run independently on each axis, which extrapolates using its smoothed velocity estimate.
+ * The low pass cutoff frequency increases with speed, so it smooths heavily while the head is still and lags little while it moves.
+ * Tuning:
+ * minCutoff - cutoff (Hz) when still.  Lower means less jitter.
+ * beta - how quickly the cutoff rises with speed.  Higher means less lag.
+ * derivativeCutoff - cutoff (Hz) used to smooth the velocity estimate.
+ */
+public class OneEuroEyeFilter implements EyeFilter
+{
+    private final float minCutoff;
+    private final float beta;
+    private final float derivativeCutoff;
+
+    private final float[] positions = new float[3];
+    private final float[] velocities = new float[3];
+    private boolean initialized;
+    private long lastTimeStamp;
+
+    //Device rotation rate, and the time from which it is extrapolated
+    private final float[] angularVelocity = new float[3];
+    private long angularVelocityTimeStamp;
+
+    public OneEuroEyeFilter(float minCutoff, float beta, float derivativeCutoff)
+    {
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+        this.derivativeCutoff = derivativeCutoff;
+    }
+
+    @Override
+    public void reset()
+    {
+        initialized = false;
+        angularVelocity[0] = 0;
+        angularVelocity[1] = 0;
+        angularVelocity[2] = 0;
+    }
+
+    @Override
+    public void addSample(long timeStamp, float x, float y, float z)
+    {
+        if (!initialized)
+        {
+            positions[0] = x;
+            positions[1] = y;
+            positions[2] = z;
+            velocities[0] = 0;
+            velocities[1] = 0;
+            velocities[2] = 0;
+            lastTimeStamp = timeStamp;
+            initialized = true;
+            return;
+        }
+        float dt = (timeStamp - lastTimeStamp) / 1000000000.0f;
+        if (dt <= 0)
+        {
+            //Duplicate or out of order sample
+            return;
+        }
+        updateAxis(0, x, dt);
+        updateAxis(1, y, dt);
+        updateAxis(2, z, dt);
+        lastTimeStamp = timeStamp;
+    }
+
+    @Override
+    public void rotate(float[] rotation)
+    {
+        if (!initialized)
+        {
+            return;
+        }
+        VectorMath.rotateVector(rotation, positions);
+        VectorMath.rotateVector(rotation, velocities);
+    }
+
+    @Override
+    public void setAngularVelocity(long timeStamp, float x, float y, float z)
+    {
+        angularVelocity[0] = x;
+        angularVelocity[1] = y;
+        angularVelocity[2] = z;
+        angularVelocityTimeStamp = timeStamp;
+    }
+
+    @Override
+    public boolean predict(long timeStamp, float[] eyeOut)
+    {
+        if (!initialized)
+        {
+            return false;
+        }
+        float dt = (timeStamp - lastTimeStamp) / 1000000000.0f;
+        eyeOut[0] = positions[0] + velocities[0] * dt;
+        eyeOut[1] = positions[1] + velocities[1] * dt;
+        eyeOut[2] = positions[2] + velocities[2] * dt;
+        if (timeStamp > angularVelocityTimeStamp)
+        {
+            //The eye is fixed while the device turns, so it turns the opposite way relative to the screen
+            VectorMath.rotateByAngularVelocity(angularVelocity, -(timeStamp - angularVelocityTimeStamp) / 1000000000.0f, eyeOut);
+        }
+        return true;
+    }
+
+    private void updateAxis(int axis, float measurement, float dt)
+    {
+        float rawVelocity = (measurement - positions[axis]) / dt;
+        velocities[axis] += smoothingFactor(derivativeCutoff, dt) * (rawVelocity - velocities[axis]);
+        float cutoff = minCutoff + beta * Math.abs(velocities[axis]);
+        positions[axis] += smoothingFactor(cutoff, dt) * (measurement - positions[axis]);
+    }
+
+    private static float smoothingFactor(float cutoff, float dt)
+    {
+        float tau = (float) (1.0 / (2 * Math.PI * cutoff));
+        return 1.0f / (1.0f + tau / dt);
+    }
+}
@@ -0,0 +1,24 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Supplies the device's change in orientation, from rotation vector sensor events, relative to an orientation which can be re-zeroed.
+ * Matrices are column major float[16]s and are pure rotations.
+ */
+public interface OrientationSource
+{
+    /**
+     * @param rotationVector values from a rotation vector sensor event
+     */
+    void onSensorChanged(float[] rotationVector);
+
+    /**
+     * @return rotation which takes positions, in screen coordinates, at the time of the last zeroOrientation() to positions in current screen coordinates.
+     * The array may be reused by the source.
+     */
+    float[] getCurrentOrientation();
+
+    /**
+     * Make the current orientation the reference orientation.
+     */
+    void zeroOrientation();
+}
@@ -0,0 +1,94 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Fits the parameters of a linear model, y = x . theta, one observation at a time, giving the same result as a batch least squares solve over all
+ * observations so far (when forgetting is 1).  Each update costs O(n^2) in the number of parameters, which is tiny here, and never allocates.
+ */
+class RecursiveLeastSquares
+{
+    private final int numParameters;
+    //Weight of older observations relative to each new one (1 keeps all observations equally)
+    private final double forgetting;
+    private final double[] parameters;
+    //Covariance of the parameter estimate (row major, numParameters x numParameters)
+    private final double[] covariance;
+    private final double[] gain;
+    private final double[] covarianceX;
+
+    /**
+     * @param initialParameters  starting estimate
+     * @param initialVariance    variance of the starting estimate: large values let the first observations override it completely
+     * @param forgetting         weight of older observations relative to each new one, in (0, 1]
+     */
+    RecursiveLeastSquares(double[] initialParameters, double initialVariance, double forgetting)
+    {
+        numParameters = initialParameters.length;
+        this.forgetting = forgetting;
+        parameters = initialParameters.clone();
+        covariance = new double[numParameters * numParameters];
+        gain = new double[numParameters];
+        covarianceX = new double[numParameters];
+        for (int i = 0; i < numParameters; i++)
+        {
+            covariance[i * numParameters + i] = initialVariance;
+        }
+    }
+
+    /**
+     * @param x regressors
+     * @return the model's prediction of y for x, with the current parameters
+     */
+    double predict(double[] x)
+    {
+        double y = 0;
+        for (int i = 0; i < numParameters; i++)
+        {
+            y += x[i] * parameters[i];
+        }
+        return y;
+    }
+
+    /**
+     * Add an observation.
+     *
+     * @param x regressors
+     * @param y observed value
+     * @return the prediction error before the update (y - predict(x))
+     */
+    double update(double[] x, double y)
+    {
+        //P x, and x' P x
+        double denominator = forgetting;
+        for (int i = 0; i < numParameters; i++)
+        {
+            double sum = 0;
+            for (int j = 0; j < numParameters; j++)
+            {
+                sum += covariance[i * numParameters + j] * x[j];
+            }
+            covarianceX[i] = sum;
+            denominator += x[i] * sum;
+        }
+        double error = y - predict(x);
+        for (int i = 0; i < numParameters; i++)
+        {
+            gain[i] = covarianceX[i] / denominator;
+            parameters[i] += gain[i] * error;
+        }
+        //P = (P - k x' P) / forgetting.  P is symmetric, so x' P is (P x)'.
+        for (int i = 0; i < numParameters; i++)
+        {
+            for (int j = 0; j < numParameters; j++)
+            {
+                int index = i * numParameters + j;
+                covariance[index] = (covariance[index] - gain[i] * covarianceX[j]) / forgetting;
+            }
+        }
+        return error;
+    }
+
+    double getParameter(int index)
+    {
+        return parameters[index];
+    }
+}
@@ -0,0 +1,323 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring buffer of time stamped rotation vector samples, stored as unit quaternions in primitive arrays.  One thread (the sensor thread) adds samples, while
+ * others read the rotation at any time covered by the buffer, without locking or allocating.
+ * <p>
+ * The writer fills a slot, then publishes it by incrementing a volatile count.  A reader works from the published count and, after reading, checks that the
+ * writer has not since wrapped around onto the slots it read, retrying if it has.  Slots are held in atomic arrays, written with ordered stores and read with
+ * volatile loads: a plain load could be reordered after the reader's check of the count, so it could return a sample the writer had half overwritten without
+ * the check noticing.  Quaternions are stored in the same hemisphere as the previous sample, so neighbouring samples can be interpolated directly.
+ */
+public class RotationSampleBuffer
+{
+    private final int mask;
+    private final AtomicLongArray timeStamps;
+    //Raw int bits of x, y, z, w of each sample
+    private final AtomicIntegerArray quaternions;
+    //Number of samples ever added.  Sample i is in slot i & mask.
+    private volatile long numSamples;
+    //Rotations at either end of the window of getAngularVelocity()
+    private final float[] startScratch = new float[4];
+    private final float[] endScratch = new float[4];
+
+    /**
+     * @param capacity number of samples kept, rounded up to a power of 2
+     */
+    public RotationSampleBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        timeStamps = new AtomicLongArray(size);
+        quaternions = new AtomicIntegerArray(size * 4);
+    }
+
+    /**
+     * Add a sample.  Only one thread may add samples.  Samples must be added in time order.
+     *
+     * @param timeStamp      sample time (nanoseconds)
+     * @param rotationVector values from a rotation vector sensor event: the vector part of a unit quaternion, optionally followed by the scalar part
+     */
+    public void add(long timeStamp, float[] rotationVector)
+    {
+        long index = numSamples;
+        float x = rotationVector[0];
+        float y = rotationVector[1];
+        float z = rotationVector[2];
+        float w;
+        if (rotationVector.length >= 4)
+        {
+            w = rotationVector[3];
+        }
+        else
+        {
+            w = 1 - x * x - y * y - z * z;
+            w = w > 0 ? (float) Math.sqrt(w) : 0;
+        }
+        if (index > 0)
+        {
+            //q and -q are the same rotation.  Pick the one closest to the previous sample.
+            int previous = (int) ((index - 1) & mask) * 4;
+            if (x * quaternion(previous) + y * quaternion(previous + 1) + z * quaternion(previous + 2) + w * quaternion(previous + 3) < 0)
+            {
+                x = -x;
+                y = -y;
+                z = -z;
+                w = -w;
+            }
+        }
+        int slot = (int) (index & mask);
+        timeStamps.lazySet(slot, timeStamp);
+        quaternions.lazySet(slot * 4, Float.floatToRawIntBits(x));
+        quaternions.lazySet(slot * 4 + 1, Float.floatToRawIntBits(y));
+        quaternions.lazySet(slot * 4 + 2, Float.floatToRawIntBits(z));
+        quaternions.lazySet(slot * 4 + 3, Float.floatToRawIntBits(w));
+        numSamples = index + 1;
+    }
+
+    /**
+     * Get the rotation at a time, interpolated between the samples either side of it.  Times before the oldest retained sample, or after the newest,
+     * get that sample's rotation (there is no extrapolation).
+     *
+     * @param time            nanoseconds
+     * @param quaternionOut   receives x, y, z, w
+     * @return false if there are no samples
+     */
+    public boolean getRotation(long time, float[] quaternionOut)
+    {
+        while (true)
+        {
+            long count = numSamples;
+            if (count == 0)
+            {
+                return false;
+            }
+            long after = findFirstAfter(time, count);
+            long oldestRead;
+            if (after == count)
+            {
+                //After the newest sample
+                oldestRead = count - 1;
+                copy(oldestRead, quaternionOut);
+            }
+            else if (after == oldestRetained(count))
+            {
+                oldestRead = after;
+                copy(after, quaternionOut);
+            }
+            else
+            {
+                oldestRead = after - 1;
+                int beforeSlot = (int) (oldestRead & mask);
+                int afterSlot = (int) (after & mask);
+                long beforeTime = timeStamps.get(beforeSlot);
+                long afterTime = timeStamps.get(afterSlot);
+                float fraction = afterTime > beforeTime ? (time - beforeTime) / (float) (afterTime - beforeTime) : 1;
+                interpolate(beforeSlot, afterSlot, fraction, quaternionOut);
+            }
+            if (isIntact(oldestRead))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the sample nearest in time to the given time.
+     *
+     * @param time          nanoseconds
+     * @param quaternionOut receives x, y, z, w
+     * @return the sample's time stamp, or Long.MIN_VALUE if there are no samples
+     */
+    public long getNearest(long time, float[] quaternionOut)
+    {
+        while (true)
+        {
+            long count = numSamples;
+            if (count == 0)
+            {
+                return Long.MIN_VALUE;
+            }
+            long after = findFirstAfter(time, count);
+            long nearest;
+            if (after == count)
+            {
+                nearest = count - 1;
+            }
+            else if (after == oldestRetained(count))
+            {
+                nearest = after;
+            }
+            else
+            {
+                long beforeTime = timeStamps.get((int) ((after - 1) & mask));
+                long afterTime = timeStamps.get((int) (after & mask));
+                nearest = time - beforeTime <= afterTime - time ? after - 1 : after;
+            }
+            long nearestTime = timeStamps.get((int) (nearest & mask));
+            copy(nearest, quaternionOut);
+            if (isIntact(nearest))
+            {
+                return nearestTime;
+            }
+        }
+    }
+
+    /**
+     * Get the device's average angular velocity over a window of time ending at the given time (or at the newest sample, if that is earlier).
+     * The velocity is in device coordinates, which match screen coordinates: a world fixed point p appears to move at -angularVelocity x p.
+     * Uses scratch space held by the buffer, so unlike the other readers only one thread may call this at a time.
+     *
+     * @param time               end of the window (nanoseconds)
+     * @param window             length of the window (nanoseconds).  Longer windows smooth sensor noise, but respond to changes in rate later.
+     * @param angularVelocityOut receives radians / second about x, y, z
+     * @return the end of the window, or Long.MIN_VALUE if there are fewer than 2 samples or either end could not be read
+     */
+    public long getAngularVelocity(long time, long window, float[] angularVelocityOut)
+    {
+        if (numSamples < 2)
+        {
+            return Long.MIN_VALUE;
+        }
+        long end = Math.min(time, getLatestTimeStamp());
+        if (!getRotation(end - window, startScratch) || !getRotation(end, endScratch))
+        {
+            return Long.MIN_VALUE;
+        }
+        //Rotation over the window, in the device's frame: conjugate(start) * end
+        float sx = startScratch[0], sy = startScratch[1], sz = startScratch[2], sw = startScratch[3];
+        float ex = endScratch[0], ey = endScratch[1], ez = endScratch[2], ew = endScratch[3];
+        float dw = sw * ew + sx * ex + sy * ey + sz * ez;
+        float dx = sw * ex - ew * sx - (sy * ez - sz * ey);
+        float dy = sw * ey - ew * sy - (sz * ex - sx * ez);
+        float dz = sw * ez - ew * sz - (sx * ey - sy * ex);
+        if (dw < 0)
+        {
+            dw = -dw;
+            dx = -dx;
+            dy = -dy;
+            dz = -dz;
+        }
+        float sinHalfAngle = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (sinHalfAngle == 0)
+        {
+            angularVelocityOut[0] = 0;
+            angularVelocityOut[1] = 0;
+            angularVelocityOut[2] = 0;
+            return end;
+        }
+        float angle = 2 * (float) Math.atan2(sinHalfAngle, dw);
+        float scale = angle / (sinHalfAngle * (window / 1000000000.0f));
+        angularVelocityOut[0] = dx * scale;
+        angularVelocityOut[1] = dy * scale;
+        angularVelocityOut[2] = dz * scale;
+        return end;
+    }
+
+    /**
+     * @return time stamp of the newest sample, or Long.MIN_VALUE if there are none
+     */
+    public long getLatestTimeStamp()
+    {
+        while (true)
+        {
+            long count = numSamples;
+            if (count == 0)
+            {
+                return Long.MIN_VALUE;
+            }
+            long timeStamp = timeStamps.get((int) ((count - 1) & mask));
+            if (isIntact(count - 1))
+            {
+                return timeStamp;
+            }
+        }
+    }
+
+    /**
+     * @return number of samples ever added
+     */
+    public long getNumSamples()
+    {
+        return numSamples;
+    }
+
+    /**
+     * Find the oldest sample newer than time, by binary search over the retained samples.
+     *
+     * @return its index, or count if there is none
+     */
+    private long findFirstAfter(long time, long count)
+    {
+        long low = oldestRetained(count);
+        long high = count;
+        while (low < high)
+        {
+            long middle = (low + high) >>> 1;
+            if (timeStamps.get((int) (middle & mask)) > time)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Leaves one slot spare, which the writer may be filling.
+     */
+    private long oldestRetained(long count)
+    {
+        return Math.max(0, count - mask);
+    }
+
+    /**
+     * Samples are read with volatile loads, so they cannot be reordered after this check's load of the count.
+     *
+     * @return true if the writer has not overwritten samples from index oldestRead onwards since they were read
+     */
+    private boolean isIntact(long oldestRead)
+    {
+        return oldestRead >= numSamples - mask;
+    }
+
+    private void copy(long index, float[] quaternionOut)
+    {
+        int start = (int) (index & mask) * 4;
+        quaternionOut[0] = quaternion(start);
+        quaternionOut[1] = quaternion(start + 1);
+        quaternionOut[2] = quaternion(start + 2);
+        quaternionOut[3] = quaternion(start + 3);
+    }
+
+    private float quaternion(int index)
+    {
+        return Float.intBitsToFloat(quaternions.get(index));
+    }
+
+    /**
+     * Normalized linear interpolation, which is close to spherical interpolation for the small angles between sensor samples.
+     */
+    private void interpolate(int fromSlot, int toSlot, float fraction, float[] quaternionOut)
+    {
+        float lengthSquared = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            float from = quaternion(fromSlot * 4 + i);
+            float value = from + fraction * (quaternion(toSlot * 4 + i) - from);
+            quaternionOut[i] = value;
+            lengthSquared += value * value;
+        }
+        float scale = lengthSquared > 0 ? (float) (1 / Math.sqrt(lengthSquared)) : 0;
+        for (int i = 0; i < 4; i++)
+        {
+            quaternionOut[i] *= scale;
+        }
+    }
+}
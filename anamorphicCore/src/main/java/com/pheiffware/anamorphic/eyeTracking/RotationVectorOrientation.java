@@ -0,0 +1,80 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Pure Java OrientationSource.  Converts rotation vector sensor values (the vector part of a unit quaternion, optionally followed by the scalar part) to rotation matrices,
+ * as SensorManager.getRotationMatrixFromVector() does, and reports rotation relative to the zeroed orientation.
+ * If R maps device coordinates to world coordinates, a world fixed point seen at p0 in the zeroed device frame is seen at R^T * R0 * p0 now.
+ */
+public class RotationVectorOrientation implements OrientationSource
+{
+    //Device to world rotations (row major 3x3)
+    private final float[] current = new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+    private final float[] zero = new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    //Relative orientation (column major 4x4)
+    private final float[] relative = new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+    private boolean relativeStale;
+
+    @Override
+    public void onSensorChanged(float[] rotationVector)
+    {
+        float qx = rotationVector[0];
+        float qy = rotationVector[1];
+        float qz = rotationVector[2];
+        float qw;
+        if (rotationVector.length >= 4)
+        {
+            qw = rotationVector[3];
+        }
+        else
+        {
+            qw = 1 - qx * qx - qy * qy - qz * qz;
+            qw = qw > 0 ? (float) Math.sqrt(qw) : 0;
+        }
+        float xx2 = 2 * qx * qx;
+        float yy2 = 2 * qy * qy;
+        float zz2 = 2 * qz * qz;
+        float xy2 = 2 * qx * qy;
+        float zw2 = 2 * qz * qw;
+        float xz2 = 2 * qx * qz;
+        float yw2 = 2 * qy * qw;
+        float yz2 = 2 * qy * qz;
+        float xw2 = 2 * qx * qw;
+
+        current[0] = 1 - yy2 - zz2;
+        current[1] = xy2 - zw2;
+        current[2] = xz2 + yw2;
+        current[3] = xy2 + zw2;
+        current[4] = 1 - xx2 - zz2;
+        current[5] = yz2 - xw2;
+        current[6] = xz2 - yw2;
+        current[7] = yz2 + xw2;
+        current[8] = 1 - xx2 - yy2;
+        relativeStale = true;
+    }
+
+    @Override
+    public float[] getCurrentOrientation()
+    {
+        if (relativeStale)
+        {
+            //relative = current^T * zero.  Element (row, col) goes to column major index col * 4 + row.
+            for (int row = 0; row < 3; row++)
+            {
+                for (int col = 0; col < 3; col++)
+                {
+                    relative[col * 4 + row] = current[row] * zero[col] + current[3 + row] * zero[3 + col] + current[6 + row] * zero[6 + col];
+                }
+            }
+            relativeStale = false;
+        }
+        return relative;
+    }
+
+    @Override
+    public void zeroOrientation()
+    {
+        System.arraycopy(current, 0, zero, 0, 9);
+        relativeStale = true;
+    }
+}
@@ -0,0 +1,79 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+/**
+ * Small helpers for transforming 3-vectors, stored in float[]s, by column major 4x4 matrices.
+ */
+class VectorMath
+{
+    /**
+     * Transform the point (x, y, z, 1) by matrix, storing the result's x, y, z in out[0..2].
+     */
+    static void transformPoint(float[] matrix, float x, float y, float z, float[] out)
+    {
+        float outX = matrix[0] * x + matrix[4] * y + matrix[8] * z + matrix[12];
+        float outY = matrix[1] * x + matrix[5] * y + matrix[9] * z + matrix[13];
+        float outZ = matrix[2] * x + matrix[6] * y + matrix[10] * z + matrix[14];
+        out[0] = outX;
+        out[1] = outY;
+        out[2] = outZ;
+    }
+
+    /**
+     * Rotate the vector in out[0..2] in place, ignoring any translation in the matrix.
+     */
+    static void rotateVector(float[] matrix, float[] vector)
+    {
+        float x = vector[0];
+        float y = vector[1];
+        float z = vector[2];
+        vector[0] = matrix[0] * x + matrix[4] * y + matrix[8] * z;
+        vector[1] = matrix[1] * x + matrix[5] * y + matrix[9] * z;
+        vector[2] = matrix[2] * x + matrix[6] * y + matrix[10] * z;
+    }
+
+    /**
+     * Rotate (x, y, z) by the inverse (transpose) of the matrix's rotation, storing the result in out[0..2].
+     */
+    static void inverseRotateVector(float[] matrix, float x, float y, float z, float[] out)
+    {
+        float outX = matrix[0] * x + matrix[1] * y + matrix[2] * z;
+        float outY = matrix[4] * x + matrix[5] * y + matrix[6] * z;
+        float outZ = matrix[8] * x + matrix[9] * y + matrix[10] * z;
+        out[0] = outX;
+        out[1] = outY;
+        out[2] = outZ;
+    }
+
+    /**
+     * Rotate the vector in out[0..2] in place, by the rotation an angular velocity produces over a time (Rodrigues' formula).
+     *
+     * @param angularVelocity radians / second about each axis, right handed
+     * @param time            seconds.  Negative rotates the opposite way.
+     * @param vector          the vector to rotate
+     */
+    static void rotateByAngularVelocity(float[] angularVelocity, float time, float[] vector)
+    {
+        float wx = angularVelocity[0];
+        float wy = angularVelocity[1];
+        float wz = angularVelocity[2];
+        float rate = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+        float angle = rate * time;
+        if (angle == 0)
+        {
+            return;
+        }
+        //Unit axis
+        float ax = wx / rate;
+        float ay = wy / rate;
+        float az = wz / rate;
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+        float x = vector[0];
+        float y = vector[1];
+        float z = vector[2];
+        float axisDot = (ax * x + ay * y + az * z) * (1 - cos);
+        vector[0] = x * cos + (ay * z - az * y) * sin + ax * axisDot;
+        vector[1] = y * cos + (az * x - ax * z) * sin + ay * axisDot;
+        vector[2] = z * cos + (ax * y - ay * x) * sin + az * axisDot;
+    }
+}
@@ -0,0 +1,107 @@
+package com.pheiffware.anamorphic.latency;
+
+/**
+ * Fixed size histogram of non-negative values with bounded relative error, in the style of HdrHistogram.  Values are grouped into power of 2 ranges, each of which is
+ * split into SUB_BUCKET_COUNT equal sub-buckets, giving roughly 3% precision over the whole range.  Recording is constant time and never allocates.
+ * Not thread safe.
+ */
+public class LatencyHistogram
+{
+    //Each power of 2 range is split into 2^SUB_BUCKET_BITS sub-buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    //Values at or above 2^(MAX_MAGNITUDE + 1) are clamped
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final long[] counts = new long[(MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        else if (value > MAX_VALUE)
+        {
+            value = MAX_VALUE;
+        }
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        if (value > maxValue)
+        {
+            maxValue = value;
+        }
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    public long getMaxValue()
+    {
+        return maxValue;
+    }
+
+    /**
+     * Get the value at the given percentile.  The result is the upper bound of the bucket containing the percentile (but never more than the maximum recorded value).
+     *
+     * @param percentile between 0 and 100
+     * @return the value or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            count += counts[i];
+            if (count >= countAtPercentile)
+            {
+                return Math.min(bucketUpperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index)
+    {
+        int bucket = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if (bucket == 0)
+        {
+            return subBucket;
+        }
+        long lowerBound = (long) (SUB_BUCKET_COUNT + subBucket) << (bucket - 1);
+        return lowerBound + (1L << (bucket - 1)) - 1;
+    }
+}
@@ -0,0 +1,25 @@
+package com.pheiffware.anamorphic.latency;
+
+/**
+ * The intervals of the face to photon pipeline which are measured by the LatencyTracer.
+ */
+public enum LatencyStage
+{
+    //Camera frame capture until face detection finished
+    DETECTION("capture->detected"),
+    //Detection finished until the GL thread picked it up
+    HANDOFF("detected->drained"),
+    //GL thread picked up a face until it started issuing draw calls (eye sensing, tracking and prediction)
+    TRACKING("drained->draw"),
+    //Start of draw calls until the frame was handed off for display
+    RENDER("draw->swap"),
+    //Capture of the most recent face used by a frame until that frame was handed off for display
+    MOTION_TO_PHOTON("capture->swap");
+
+    public final String label;
+
+    LatencyStage(String label)
+    {
+        this.label = label;
+    }
+}
@@ -0,0 +1,147 @@
+package com.pheiffware.anamorphic.latency;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Records the latency of each stage of the pipeline from camera capture to display (see LatencyStage) into histograms.
+ * All time stamps are System.nanoTime() based.  Recording happens on the GL thread and does not allocate; reports may be requested from any thread.
+ */
+public class LatencyTracer
+{
+    private static final double[] REPORTED_PERCENTILES = new double[]{50, 90, 99, 99.9};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[LatencyStage.values().length];
+
+    //Capture time of the most recent face, which is what the current frame's eye position is based on
+    private boolean hasCaptureTime;
+    private long latestCaptureTime;
+    //Is there a drained face which hasn't been drawn yet
+    private boolean drainPending;
+    private long drainTime;
+    private long drawStartTime;
+
+    public LatencyTracer()
+    {
+        for (int i = 0; i < histograms.length; i++)
+        {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * A face detection was picked up by the GL thread.
+     *
+     * @param captureTime time the camera frame was captured
+     * @param postTime    time detection finished
+     * @param drainTime   time the GL thread picked it up
+     */
+    public synchronized void faceDrained(long captureTime, long postTime, long drainTime)
+    {
+        record(LatencyStage.DETECTION, postTime - captureTime);
+        record(LatencyStage.HANDOFF, drainTime - postTime);
+        hasCaptureTime = true;
+        latestCaptureTime = captureTime;
+        drainPending = true;
+        this.drainTime = drainTime;
+    }
+
+    /**
+     * The frame started issuing draw calls.
+     *
+     * @param drawStartTime
+     */
+    public synchronized void drawStarted(long drawStartTime)
+    {
+        if (drainPending)
+        {
+            record(LatencyStage.TRACKING, drawStartTime - drainTime);
+            drainPending = false;
+        }
+        this.drawStartTime = drawStartTime;
+    }
+
+    /**
+     * The frame was finished and handed off for display.
+     *
+     * @param swapTime
+     */
+    public synchronized void frameSwapped(long swapTime)
+    {
+        record(LatencyStage.RENDER, swapTime - drawStartTime);
+        if (hasCaptureTime)
+        {
+            record(LatencyStage.MOTION_TO_PHOTON, swapTime - latestCaptureTime);
+        }
+    }
+
+    /**
+     * The frame was skipped, as nothing visible changed.  Any drained face did not lead to a draw, so is not attributed to the next drawn frame.
+     */
+    public synchronized void frameSkipped()
+    {
+        drainPending = false;
+    }
+
+    public synchronized void reset()
+    {
+        for (LatencyHistogram histogram : histograms)
+        {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return latency of the stage, in microseconds, at the given percentile
+     */
+    public synchronized long getValueAtPercentile(LatencyStage stage, double percentile)
+    {
+        return histograms[stage.ordinal()].getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Write a table of percentiles (in milliseconds) for each stage.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public synchronized void writeReport(Writer writer) throws IOException
+    {
+        writer.write(String.format(Locale.US, "%-16s %8s", "stage", "count"));
+        for (double percentile : REPORTED_PERCENTILES)
+        {
+            writer.write(String.format(Locale.US, " %8s", "p" + percentile));
+        }
+        writer.write(String.format(Locale.US, " %8s%n", "max"));
+        for (LatencyStage stage : LatencyStage.values())
+        {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            writer.write(String.format(Locale.US, "%-16s %8d", stage.label, histogram.getTotalCount()));
+            for (double percentile : REPORTED_PERCENTILES)
+            {
+                writer.write(String.format(Locale.US, " %8.2f", histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            writer.write(String.format(Locale.US, " %8.2f%n", histogram.getMaxValue() / 1000.0));
+        }
+    }
+
+    /**
+     * @return a short, multi-line summary (median and 99th percentile in milliseconds) suitable for an on-screen overlay
+     */
+    public synchronized String getSummary()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (LatencyStage stage : LatencyStage.values())
+        {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            builder.append(String.format(Locale.US, "%s: %.1f / %.1f ms%n", stage.label, histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0));
+        }
+        return builder.toString();
+    }
+
+    private void record(LatencyStage stage, long nanos)
+    {
+        histograms[stage.ordinal()].record(nanos / 1000);
+    }
+}
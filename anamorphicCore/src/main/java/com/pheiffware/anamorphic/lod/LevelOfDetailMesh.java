@@ -0,0 +1,85 @@
+package com.pheiffware.anamorphic.lod;
+
+/**
+ * Triangle indices of several levels of detail of one mesh, all referring to the same vertex data, packed into a single index array so that they can share
+ * one index buffer.  Level 0 is the original mesh; each further level is simplified more (see MeshSimplifier).  A level is drawn as the range of indices
+ * [getIndexOffset(level), getIndexOffset(level) + getIndexCount(level)).
+ */
+public class LevelOfDetailMesh
+{
+    private final short[] indices;
+    private final int[] indexOffsets;
+    private final int[] indexCounts;
+
+    /**
+     * Generate levels of detail by simplifying a mesh at successively coarser grid resolutions.
+     *
+     * @param positions       packed position data
+     * @param stride          number of floats per position (e.g. 4 for POSITION4 data)
+     * @param indices         vertex indices of the original mesh's triangles
+     * @param gridResolutions grid resolution of each simplified level (see MeshSimplifier), in decreasing order
+     * @return level 0, the original mesh, followed by one level per grid resolution
+     */
+    public static LevelOfDetailMesh build(float[] positions, int stride, short[] indices, int[] gridResolutions)
+    {
+        short[][] levels = new short[gridResolutions.length + 1][];
+        levels[0] = indices;
+        for (int i = 0; i < gridResolutions.length; i++)
+        {
+            levels[i + 1] = MeshSimplifier.simplify(positions, stride, indices, gridResolutions[i]);
+        }
+        return new LevelOfDetailMesh(levels);
+    }
+
+    /**
+     * @param levels triangle indices of each level, most detailed first
+     */
+    public LevelOfDetailMesh(short[][] levels)
+    {
+        indexOffsets = new int[levels.length];
+        indexCounts = new int[levels.length];
+        int numIndices = 0;
+        for (int level = 0; level < levels.length; level++)
+        {
+            indexOffsets[level] = numIndices;
+            indexCounts[level] = levels[level].length;
+            numIndices += levels[level].length;
+        }
+        indices = new short[numIndices];
+        for (int level = 0; level < levels.length; level++)
+        {
+            System.arraycopy(levels[level], 0, indices, indexOffsets[level], indexCounts[level]);
+        }
+    }
+
+    /**
+     * @return indices of all levels, packed
+     */
+    public short[] getIndices()
+    {
+        return indices;
+    }
+
+    public int getNumLevels()
+    {
+        return indexOffsets.length;
+    }
+
+    /**
+     * @return index, in getIndices(), of the level's first index
+     */
+    public int getIndexOffset(int level)
+    {
+        return indexOffsets[level];
+    }
+
+    public int getIndexCount(int level)
+    {
+        return indexCounts[level];
+    }
+
+    public int getNumTriangles(int level)
+    {
+        return indexCounts[level] / 3;
+    }
+}
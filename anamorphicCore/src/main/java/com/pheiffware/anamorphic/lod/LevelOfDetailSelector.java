@@ -0,0 +1,79 @@
+package com.pheiffware.anamorphic.lod;
+
+/**
+ * Chooses a level of detail for each object from its projected size, remembering each object's level so that an object near a threshold doesn't flicker
+ * between levels (popping) as its size jitters with the tracked eye.
+ * <p>
+ * Level i is used while the projected size is at least thresholds[i], the last level below all thresholds.  Moving to a coarser level requires the size to
+ * drop a fraction (the hysteresis) below the threshold between the levels, and moving to a finer level requires it to rise the same fraction above.
+ * Nothing allocates after construction.
+ */
+public class LevelOfDetailSelector
+{
+    private final float[] thresholds;
+    private final float hysteresis;
+    private final int[] levels;
+    private long numLevelChanges;
+
+    /**
+     * @param maxObjects largest object index + 1
+     * @param thresholds smallest projected size at which each level but the last is used, in decreasing order.  numLevels = thresholds.length + 1.
+     * @param hysteresis fraction of a threshold by which the size must cross it to change level (e.g. 0.1)
+     */
+    public LevelOfDetailSelector(int maxObjects, float[] thresholds, float hysteresis)
+    {
+        this.thresholds = thresholds.clone();
+        this.hysteresis = hysteresis;
+        levels = new int[maxObjects];
+    }
+
+    /**
+     * Choose an object's level for this frame.
+     *
+     * @param object        object index
+     * @param projectedSize object's projected size, in the units of the thresholds
+     * @return level to draw the object at
+     */
+    public int select(int object, float projectedSize)
+    {
+        int current = levels[object];
+        //Count the thresholds the size is below, with each threshold moved away from the current level
+        int level = 0;
+        for (int i = 0; i < thresholds.length; i++)
+        {
+            //Threshold i separates level i from level i + 1
+            float threshold = current <= i ? thresholds[i] * (1 - hysteresis) : thresholds[i] * (1 + hysteresis);
+            if (projectedSize < threshold)
+            {
+                level = i + 1;
+            }
+        }
+        if (level != current)
+        {
+            levels[object] = level;
+            numLevelChanges++;
+        }
+        return level;
+    }
+
+    /**
+     * @return the level chosen for the object by the last select()
+     */
+    public int getLevel(int object)
+    {
+        return levels[object];
+    }
+
+    public int getNumLevels()
+    {
+        return thresholds.length + 1;
+    }
+
+    /**
+     * @return total number of times an object changed level
+     */
+    public long getNumLevelChanges()
+    {
+        return numLevelChanges;
+    }
+}
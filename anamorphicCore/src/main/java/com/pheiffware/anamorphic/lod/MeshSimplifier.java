@@ -0,0 +1,113 @@
+package com.pheiffware.anamorphic.lod;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simplifies triangle meshes by vertex clustering (Rossignac and Borrel): the mesh's bounding box is divided into a grid of cubic cells, every vertex in a
+ * cell is replaced by one representative vertex, and triangles which collapse are dropped.
+ * <p>
+ * The representative of each cell is the original vertex nearest the mean of the cell's vertices, so a simplified mesh is just a new index list over the
+ * original vertex data, with the original normals.  Several simplifications of a mesh can then share one vertex buffer.
+ * This runs once, at load time, so it favours simplicity over speed and allocates freely.
+ */
+public class MeshSimplifier
+{
+    /**
+     * Simplify a mesh.
+     *
+     * @param positions      packed position data
+     * @param stride         number of floats per position (e.g. 4 for POSITION4 data).  x, y, z are the first 3.
+     * @param indices        vertex indices of triangles (unsigned)
+     * @param gridResolution number of cells along the longest side of the mesh's bounding box.  Coarser grids give simpler meshes.
+     * @return vertex indices of the remaining triangles, referring to the original vertices
+     */
+    public static short[] simplify(float[] positions, int stride, short[] indices, int gridResolution)
+    {
+        int numVertices = positions.length / stride;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < numVertices; i++)
+        {
+            minX = Math.min(minX, positions[i * stride]);
+            minY = Math.min(minY, positions[i * stride + 1]);
+            minZ = Math.min(minZ, positions[i * stride + 2]);
+            maxX = Math.max(maxX, positions[i * stride]);
+            maxY = Math.max(maxY, positions[i * stride + 1]);
+            maxZ = Math.max(maxZ, positions[i * stride + 2]);
+        }
+        float maxExtent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        if (numVertices == 0 || maxExtent == 0)
+        {
+            return indices.clone();
+        }
+        float cellSize = maxExtent / gridResolution;
+
+        //Cluster of each vertex, and the sum of each cluster's positions
+        int[] vertexClusters = new int[numVertices];
+        Map<Long, Integer> cellClusters = new HashMap<>();
+        float[] sums = new float[numVertices * 3];
+        int[] clusterSizes = new int[numVertices];
+        for (int i = 0; i < numVertices; i++)
+        {
+            long cellX = cell(positions[i * stride], minX, cellSize, gridResolution);
+            long cellY = cell(positions[i * stride + 1], minY, cellSize, gridResolution);
+            long cellZ = cell(positions[i * stride + 2], minZ, cellSize, gridResolution);
+            Long key = (cellX * (gridResolution + 1) + cellY) * (gridResolution + 1) + cellZ;
+            Integer cluster = cellClusters.get(key);
+            if (cluster == null)
+            {
+                cluster = cellClusters.size();
+                cellClusters.put(key, cluster);
+            }
+            vertexClusters[i] = cluster;
+            sums[cluster * 3] += positions[i * stride];
+            sums[cluster * 3 + 1] += positions[i * stride + 1];
+            sums[cluster * 3 + 2] += positions[i * stride + 2];
+            clusterSizes[cluster]++;
+        }
+
+        //Representative of each cluster: the member nearest the cluster's mean
+        int numClusters = cellClusters.size();
+        int[] representatives = new int[numClusters];
+        float[] representativeDistances = new float[numClusters];
+        Arrays.fill(representativeDistances, Float.POSITIVE_INFINITY);
+        for (int i = 0; i < numVertices; i++)
+        {
+            int cluster = vertexClusters[i];
+            float dx = positions[i * stride] - sums[cluster * 3] / clusterSizes[cluster];
+            float dy = positions[i * stride + 1] - sums[cluster * 3 + 1] / clusterSizes[cluster];
+            float dz = positions[i * stride + 2] - sums[cluster * 3 + 2] / clusterSizes[cluster];
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (distance < representativeDistances[cluster])
+            {
+                representativeDistances[cluster] = distance;
+                representatives[cluster] = i;
+            }
+        }
+
+        //Remap triangles, dropping those with fewer than 3 distinct vertices
+        short[] simplified = new short[indices.length];
+        int numIndices = 0;
+        for (int i = 0; i + 2 < indices.length; i += 3)
+        {
+            int a = representatives[vertexClusters[indices[i] & 0xFFFF]];
+            int b = representatives[vertexClusters[indices[i + 1] & 0xFFFF]];
+            int c = representatives[vertexClusters[indices[i + 2] & 0xFFFF]];
+            if (a != b && b != c && a != c)
+            {
+                simplified[numIndices++] = (short) a;
+                simplified[numIndices++] = (short) b;
+                simplified[numIndices++] = (short) c;
+            }
+        }
+        return Arrays.copyOf(simplified, numIndices);
+    }
+
+    private static long cell(float value, float min, float cellSize, int gridResolution)
+    {
+        //The maximum lands exactly on the far edge of the last cell
+        return Math.min(gridResolution, (long) ((value - min) / cellSize));
+    }
+}
@@ -0,0 +1,114 @@
+package com.pheiffware.anamorphic.meshCache;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A mesh, with its levels of detail, in the layout of a MeshCache file: either memory mapped from the file, or built in (direct) memory to be stored.
+ * Vertex data are views of that memory, so they can be uploaded to GL without being parsed or staged on the heap.  Each getter returns a new view,
+ * positioned at 0, so callers can't disturb each other.
+ * <p>
+ * All levels share the same vertices.  Level 0 is the full mesh, and level i is drawn as the range of indices [getIndexOffset(i), getIndexOffset(i) + getIndexCount(i)).
+ */
+public class CachedMesh
+{
+    private final ByteBuffer data;
+    private final int numVertices;
+    private final int numIndices;
+    private final int[] indexOffsets;
+    private final int[] indexCounts;
+    private final int positionsStart;
+    private final int normalsStart;
+    private final int indicesStart;
+
+    /**
+     * @param data        whole file content
+     * @param indexCounts number of indices of each level, which must sum to numIndices
+     */
+    CachedMesh(ByteBuffer data, int numVertices, int numIndices, int[] indexCounts)
+    {
+        this.data = data;
+        this.numVertices = numVertices;
+        this.numIndices = numIndices;
+        this.indexCounts = indexCounts;
+        indexOffsets = new int[indexCounts.length];
+        for (int level = 1; level < indexCounts.length; level++)
+        {
+            indexOffsets[level] = indexOffsets[level - 1] + indexCounts[level - 1];
+        }
+        positionsStart = MeshCacheFormat.getDataStart(indexCounts.length);
+        normalsStart = positionsStart + MeshCacheFormat.POSITION_SIZE * 4 * numVertices;
+        indicesStart = normalsStart + MeshCacheFormat.NORMAL_SIZE * 4 * numVertices;
+    }
+
+    /**
+     * @return x, y, z, w of each vertex
+     */
+    public FloatBuffer getPositions()
+    {
+        return slice(positionsStart, normalsStart).asFloatBuffer();
+    }
+
+    /**
+     * @return x, y, z of each vertex's normal
+     */
+    public FloatBuffer getNormals()
+    {
+        return slice(normalsStart, indicesStart).asFloatBuffer();
+    }
+
+    /**
+     * @return vertex indices of triangles of all levels, packed
+     */
+    public ShortBuffer getIndices()
+    {
+        return slice(indicesStart, indicesStart + 2 * numIndices).asShortBuffer();
+    }
+
+    public int getNumVertices()
+    {
+        return numVertices;
+    }
+
+    /**
+     * @return number of indices of all levels
+     */
+    public int getNumIndices()
+    {
+        return numIndices;
+    }
+
+    public int getNumLevels()
+    {
+        return indexCounts.length;
+    }
+
+    /**
+     * @return index, in getIndices(), of the level's first index
+     */
+    public int getIndexOffset(int level)
+    {
+        return indexOffsets[level];
+    }
+
+    public int getIndexCount(int level)
+    {
+        return indexCounts[level];
+    }
+
+    /**
+     * @return the whole content, as it is laid out in the file
+     */
+    ByteBuffer getData()
+    {
+        return slice(0, data.capacity());
+    }
+
+    private ByteBuffer slice(int start, int end)
+    {
+        ByteBuffer view = data.duplicate();
+        view.limit(end).position(start);
+        return view.slice().order(MeshCacheFormat.BYTE_ORDER);
+    }
+}
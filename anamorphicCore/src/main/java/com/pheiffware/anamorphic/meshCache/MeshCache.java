@@ -0,0 +1,221 @@
+package com.pheiffware.anamorphic.meshCache;
+
+import com.pheiffware.anamorphic.lod.LevelOfDetailMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A single mesh, with its levels of detail, stored in a compact binary file (see MeshCacheFormat), so it can be loaded without parsing its source (e.g. Collada)
+ * format or simplifying it again.
+ * The file records a hash of the source file's content, and the grid resolutions of the levels.  A cache whose hash or levels don't match is stale and is not loaded.
+ * Files are written to a temporary file and renamed into place, so a partially written cache is never loaded.
+ */
+public class MeshCache
+{
+    private final File file;
+
+    /**
+     * @param file the cache file, which need not exist
+     */
+    public MeshCache(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Hash the content of a source file, to key the cache.  Closes the stream.
+     *
+     * @param in source content
+     * @return hash to pass to load() and store()
+     * @throws IOException
+     */
+    public static byte[] hash(InputStream in) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance(MeshCacheFormat.HASH_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[16384];
+        try
+        {
+            int numRead;
+            while ((numRead = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, numRead);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Map the cached mesh.
+     *
+     * @param sourceHash      hash of the current source
+     * @param gridResolutions grid resolution of each simplified level of detail which is wanted (see MeshSimplifier)
+     * @return the mesh, or null if there is no cache, it was built from a different source or with different levels, or it is unreadable
+     */
+    public CachedMesh load(byte[] sourceHash, int[] gridResolutions)
+    {
+        if (!file.isFile() || file.length() < MeshCacheFormat.HEADER_SIZE)
+        {
+            return null;
+        }
+        MappedByteBuffer data;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+        {
+            //The mapping remains valid after the file is closed
+            data = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        data.order(MeshCacheFormat.BYTE_ORDER);
+        if (data.getInt() != MeshCacheFormat.MAGIC || data.getInt() != MeshCacheFormat.VERSION)
+        {
+            return null;
+        }
+        byte[] hash = new byte[MeshCacheFormat.HASH_SIZE];
+        data.get(hash);
+        if (!Arrays.equals(hash, sourceHash))
+        {
+            return null;
+        }
+        int numVertices = data.getInt();
+        int numIndices = data.getInt();
+        int numLevels = data.getInt();
+        if (numVertices < 0 || numIndices < 0 || numLevels != gridResolutions.length + 1
+                || data.capacity() != MeshCacheFormat.getFileSize(numVertices, numIndices, numLevels))
+        {
+            return null;
+        }
+        for (int gridResolution : gridResolutions)
+        {
+            if (data.getInt() != gridResolution)
+            {
+                return null;
+            }
+        }
+        int[] indexCounts = new int[numLevels];
+        long totalIndices = 0;
+        for (int level = 0; level < numLevels; level++)
+        {
+            indexCounts[level] = data.getInt();
+            if (indexCounts[level] < 0)
+            {
+                return null;
+            }
+            totalIndices += indexCounts[level];
+        }
+        if (totalIndices != numIndices)
+        {
+            return null;
+        }
+        return new CachedMesh(data, numVertices, numIndices, indexCounts);
+    }
+
+    /**
+     * Lay out a mesh, and its levels of detail, as a cache file in direct memory.  The result can be drawn straight away and passed to store().
+     *
+     * @param sourceHash      hash of the source the mesh was built from
+     * @param gridResolutions grid resolution each simplified level was built with (levels.getNumLevels() - 1 of them)
+     * @param positions       x, y, z, w of each vertex
+     * @param normals         x, y, z of each vertex's normal
+     * @param levels          vertex indices of triangles of each level of detail
+     * @return the mesh
+     */
+    public static CachedMesh build(byte[] sourceHash, int[] gridResolutions, float[] positions, float[] normals, LevelOfDetailMesh levels)
+    {
+        if (sourceHash.length != MeshCacheFormat.HASH_SIZE)
+        {
+            throw new IllegalArgumentException("Hash must be " + MeshCacheFormat.HASH_SIZE + " bytes, was " + sourceHash.length);
+        }
+        int numLevels = levels.getNumLevels();
+        if (gridResolutions.length != numLevels - 1)
+        {
+            throw new IllegalArgumentException("Mesh has " + numLevels + " levels, but " + gridResolutions.length + " grid resolutions");
+        }
+        int numVertices = positions.length / MeshCacheFormat.POSITION_SIZE;
+        if (normals.length != numVertices * MeshCacheFormat.NORMAL_SIZE)
+        {
+            throw new IllegalArgumentException("Mesh has " + numVertices + " positions, but " + normals.length / MeshCacheFormat.NORMAL_SIZE + " normals");
+        }
+        short[] indices = levels.getIndices();
+        ByteBuffer data = ByteBuffer.allocateDirect(MeshCacheFormat.getFileSize(numVertices, indices.length, numLevels)).order(MeshCacheFormat.BYTE_ORDER);
+        data.putInt(MeshCacheFormat.MAGIC);
+        data.putInt(MeshCacheFormat.VERSION);
+        data.put(sourceHash);
+        data.putInt(numVertices);
+        data.putInt(indices.length);
+        data.putInt(numLevels);
+        int[] indexCounts = new int[numLevels];
+        for (int level = 0; level < numLevels; level++)
+        {
+            indexCounts[level] = levels.getIndexCount(level);
+        }
+        data.asIntBuffer().put(gridResolutions).put(indexCounts);
+        data.position(MeshCacheFormat.getDataStart(numLevels));
+        data.asFloatBuffer().put(positions).put(normals);
+        data.position(MeshCacheFormat.getDataStart(numLevels) + 4 * (positions.length + normals.length));
+        data.asShortBuffer().put(indices);
+        data.position(0);
+        return new CachedMesh(data, numVertices, indices.length, indexCounts);
+    }
+
+    /**
+     * Write the cache, replacing any existing one.
+     *
+     * @param mesh mesh from build()
+     * @throws IOException
+     */
+    public void store(CachedMesh mesh) throws IOException
+    {
+        ByteBuffer data = mesh.getData();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw"))
+        {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (data.hasRemaining())
+            {
+                channel.write(data);
+            }
+        }
+        if (!tempFile.renameTo(file))
+        {
+            //Rename doesn't replace an existing file on all platforms
+            file.delete();
+            if (!tempFile.renameTo(file))
+            {
+                tempFile.delete();
+                throw new IOException("Could not write mesh cache: " + file);
+            }
+        }
+    }
+
+    /**
+     * Remove the cache file, if any.
+     */
+    public void delete()
+    {
+        file.delete();
+    }
+}
@@ -0,0 +1,37 @@
+package com.pheiffware.anamorphic.meshCache;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a cached mesh file, all little endian (the native order of GPUs it is uploaded to):
+ * Header: int MAGIC, int VERSION, byte[HASH_SIZE] hash of the source file, int numVertices, int numIndices, int numLevels
+ * Levels: int[numLevels - 1] grid resolution each simplified level was built with, int[numLevels] index count of each level
+ * Data: float[4 * numVertices] positions, float[3 * numVertices] normals, short[numIndices] indices of all levels, most detailed first
+ * The header and level tables are a multiple of 4 bytes, so the float arrays are aligned.
+ */
+class MeshCacheFormat
+{
+    static final int MAGIC = 0x414E4D53;
+    static final int VERSION = 2;
+    //SHA-256
+    static final String HASH_ALGORITHM = "SHA-256";
+    static final int HASH_SIZE = 32;
+    static final int HEADER_SIZE = 4 + 4 + HASH_SIZE + 4 + 4 + 4;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int POSITION_SIZE = 4;
+    static final int NORMAL_SIZE = 3;
+
+    /**
+     * @return offset of the positions, following the header and level tables
+     */
+    static int getDataStart(int numLevels)
+    {
+        return HEADER_SIZE + 4 * (2 * numLevels - 1);
+    }
+
+    static int getFileSize(int numVertices, int numIndices, int numLevels)
+    {
+        return getDataStart(numLevels) + (POSITION_SIZE + NORMAL_SIZE) * 4 * numVertices + 2 * numIndices;
+    }
+}
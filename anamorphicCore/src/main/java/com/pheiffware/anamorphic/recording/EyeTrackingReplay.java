@@ -0,0 +1,181 @@
+package com.pheiffware.anamorphic.recording;
+
+import com.pheiffware.anamorphic.eyeTracking.EyeSensor;
+import com.pheiffware.anamorphic.eyeTracking.EyeSensorCalibration;
+import com.pheiffware.anamorphic.eyeTracking.EyeTracker;
+import com.pheiffware.anamorphic.eyeTracking.KalmanEyeFilter;
+import com.pheiffware.anamorphic.eyeTracking.RotationSampleBuffer;
+import com.pheiffware.anamorphic.eyeTracking.RotationVectorOrientation;
+import com.pheiffware.anamorphic.latency.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Feeds a recorded tracking log through EyeSensor and EyeTracker, as the app would, and measures throughput and per-event processing time.
+ * Frames are simulated at a fixed period of recorded time: before each event, every frame which would have been drawn since the previous event is simulated.
+ * Like the renderer, each frame samples the device's rotation, and angular velocity, from a RotationSampleBuffer at the frame's time, then takes the latest face
+ * to arrive (if any) and finally queries the eye position.
+ * All timing decisions use recorded time stamps, so results are deterministic for a given log and configuration.
+ */
+public class EyeTrackingReplay implements TrackingListener
+{
+    //Rotation samples kept for lookup by time, and the window angular velocity is averaged over, as in AnamorphicRenderer
+    private static final int ROTATION_SAMPLE_CAPACITY = 256;
+    private static final long ANGULAR_VELOCITY_WINDOW = 20000000L;
+
+    private final EyeSensor eyeSensor;
+    private final EyeTracker eyeTracker;
+    private final long framePeriod;
+    private final long predictionHorizon;
+
+    private final RotationSampleBuffer rotationSamples = new RotationSampleBuffer(ROTATION_SAMPLE_CAPACITY);
+    private final float[] frameRotation = new float[4];
+    private final float[] angularVelocity = new float[3];
+
+    //The latest face to arrive since the last frame.  Only the latest is kept, as with the app's face mailbox.
+    private boolean facePending;
+    private long faceCaptureTime;
+    private float faceWidth;
+    private float faceHeight;
+    private float faceX;
+    private float faceY;
+    private int facePreviewWidth;
+    private int facePreviewHeight;
+
+    private final float[] sensedEye = new float[3];
+    private final float[] eye = new float[3];
+    private long nextFrameTime = Long.MIN_VALUE;
+
+    //Processing time of face events and of simulated frames (nanoseconds)
+    private final LatencyHistogram faceProcessingTimes = new LatencyHistogram();
+    private final LatencyHistogram frameProcessingTimes = new LatencyHistogram();
+    private long numRotationEvents;
+
+    /**
+     * @param eyeSensor         sensor, including the calibration, to evaluate
+     * @param eyeTracker        tracker, including any predictive filter, to evaluate
+     * @param framePeriod       simulated time between frames (nanoseconds)
+     * @param predictionHorizon how far ahead of each frame eye positions are predicted (nanoseconds)
+     */
+    public EyeTrackingReplay(EyeSensor eyeSensor, EyeTracker eyeTracker, long framePeriod, long predictionHorizon)
+    {
+        this.eyeSensor = eyeSensor;
+        this.eyeTracker = eyeTracker;
+        this.framePeriod = framePeriod;
+        this.predictionHorizon = predictionHorizon;
+    }
+
+    @Override
+    public void onFace(long time, long captureTime, long frameTimeMillis, float width, float height, float x, float y, int previewWidth, int previewHeight)
+    {
+        simulateFramesUntil(time);
+        facePending = true;
+        faceCaptureTime = captureTime;
+        faceWidth = width;
+        faceHeight = height;
+        faceX = x;
+        faceY = y;
+        facePreviewWidth = previewWidth;
+        facePreviewHeight = previewHeight;
+    }
+
+    @Override
+    public void onFaceMissing(long time, long captureTime, long frameTimeMillis)
+    {
+        simulateFramesUntil(time);
+    }
+
+    @Override
+    public void onRotation(long time, long eventTimeStamp, float[] values)
+    {
+        simulateFramesUntil(time);
+        rotationSamples.add(eventTimeStamp, values);
+        numRotationEvents++;
+    }
+
+    public void writeReport(PrintStream out, long numEvents, long wallTime)
+    {
+        out.println(String.format(Locale.US, "events: %d in %.3f s (%.0f events/s)", numEvents, wallTime / 1e9, numEvents / (wallTime / 1e9)));
+        out.println(String.format(Locale.US, "faces: %d, rotation events: %d, frames: %d", faceProcessingTimes.getTotalCount(), numRotationEvents, frameProcessingTimes.getTotalCount()));
+        writeHistogram(out, "face processing", faceProcessingTimes);
+        writeHistogram(out, "frame processing", frameProcessingTimes);
+    }
+
+    private void simulateFramesUntil(long time)
+    {
+        if (nextFrameTime == Long.MIN_VALUE)
+        {
+            nextFrameTime = time;
+        }
+        while (nextFrameTime <= time)
+        {
+            simulateFrame(nextFrameTime);
+            nextFrameTime += framePeriod;
+        }
+    }
+
+    /**
+     * The non-GL part of a frame, in the same order as AnamorphicRenderer.onDrawFrame().
+     */
+    private void simulateFrame(long frameTime)
+    {
+        long start = System.nanoTime();
+        if (rotationSamples.getRotation(frameTime, frameRotation))
+        {
+            eyeTracker.onOrientationSensorChanged(frameRotation);
+            long rotationTime = rotationSamples.getAngularVelocity(frameTime, ANGULAR_VELOCITY_WINDOW, angularVelocity);
+            if (rotationTime != Long.MIN_VALUE)
+            {
+                eyeTracker.setAngularVelocity(rotationTime, angularVelocity);
+            }
+        }
+        if (facePending)
+        {
+            facePending = false;
+            long faceStart = System.nanoTime();
+            eyeTracker.zeroOrientation();
+            eyeSensor.setCameraPreviewSize(facePreviewWidth, facePreviewHeight);
+            eyeSensor.getEyePosition(faceWidth, faceHeight, faceX, faceY, sensedEye);
+            eyeTracker.addEye(faceCaptureTime, sensedEye[0], sensedEye[1], sensedEye[2]);
+            faceProcessingTimes.record(System.nanoTime() - faceStart);
+        }
+        eyeTracker.getEye(frameTime, frameTime + predictionHorizon, eye);
+        frameProcessingTimes.record(System.nanoTime() - start);
+    }
+
+    private static void writeHistogram(PrintStream out, String name, LatencyHistogram histogram)
+    {
+        out.println(String.format(Locale.US, "%s (ns): p50=%d p99=%d p99.9=%d max=%d", name,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMaxValue()));
+    }
+
+    /**
+     * Replay a log and print a report.
+     * Usage: EyeTrackingReplay logFile [--realtime]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: EyeTrackingReplay logFile [--realtime]");
+            System.exit(1);
+        }
+        boolean realTime = args.length > 1 && args[1].equals("--realtime");
+        //Tracker settings match AnamorphicRenderer.  Camera field of view varies by device, these are typical front camera values.
+        //Preview size is replaced by the recorded frame size on each face.
+        EyeSensor eyeSensor = new EyeSensor(new EyeSensorCalibration(), 300, 400, 60, 45);
+        EyeTracker eyeTracker = new EyeTracker(0.1f, new RotationVectorOrientation());
+        eyeTracker.setPredictiveFilter(new KalmanEyeFilter(4.0f, 0.001f, 1.0f));
+        EyeTrackingReplay replay = new EyeTrackingReplay(eyeSensor, eyeTracker, 16666667L, 33000000L);
+
+        TrackingLogReader reader = new TrackingLogReader(new File(args[0]));
+        long start = System.nanoTime();
+        long numEvents = reader.replay(replay, realTime);
+        long wallTime = System.nanoTime() - start;
+        reader.close();
+        replay.writeReport(System.out, numEvents, wallTime);
+    }
+}
@@ -0,0 +1,18 @@
+package com.pheiffware.anamorphic.recording;
+
+/**
+ * Receives events replayed from a tracking log.  Arrays passed in are reused between calls.
+ */
+public interface TrackingListener
+{
+    void onFace(long time, long captureTime, long frameTimeMillis, float width, float height, float x, float y, int previewWidth, int previewHeight);
+
+    void onFaceMissing(long time, long captureTime, long frameTimeMillis);
+
+    /**
+     * @param time           arrival time
+     * @param eventTimeStamp the sensor event's own time stamp, in the System.nanoTime() base
+     * @param values         sensor values.  The array is exactly numValues long.
+     */
+    void onRotation(long time, long eventTimeStamp, float[] values);
+}
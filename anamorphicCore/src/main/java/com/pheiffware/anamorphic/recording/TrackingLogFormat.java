@@ -0,0 +1,31 @@
+package com.pheiffware.anamorphic.recording;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a tracking log: a header followed by an append-only sequence of little endian records.  A log holds a single recording session, so all times share
+ * one System.nanoTime() base.
+ * Header: int MAGIC, int VERSION
+ * Every record starts with: byte type, long time (System.nanoTime() of the recording device when the event arrived)
+ * FACE: long captureTime (nanoTime base), long detector frame time (millis), float width, float height, float x, float y, int previewWidth, int previewHeight
+ * FACE_MISSING: long captureTime (nanoTime base), long detector frame time (millis)
+ * ROTATION: long sensor event time stamp (converted to the nanoTime base), byte number of values, float[number of values] values
+ */
+class TrackingLogFormat
+{
+    static final int MAGIC = 0x414E5452;
+    //Version 2: rotation event time stamps are in the nanoTime base, rather than the sensor's
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final byte FACE = 1;
+    static final byte FACE_MISSING = 2;
+    static final byte ROTATION = 3;
+
+    //Rotation vector events have at most 5 values
+    static final int MAX_ROTATION_VALUES = 8;
+
+    //Upper bound on the size of any record
+    static final int MAX_RECORD_SIZE = 1 + 8 + 8 + 1 + 4 * MAX_ROTATION_VALUES + 32;
+}
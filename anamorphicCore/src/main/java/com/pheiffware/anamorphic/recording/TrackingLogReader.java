@@ -0,0 +1,154 @@
+package com.pheiffware.anamorphic.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a tracking log (see TrackingLogFormat) into a TrackingListener.
+ * The log is read through a sliding memory mapped window, so logs of any length replay without being loaded onto the heap.
+ * Events are either delivered as fast as possible or paced to match the original timing.  A truncated final record (from a recording which was killed) is ignored.
+ */
+public class TrackingLogReader
+{
+    //Size of each mapped window of the file
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private final float[][] rotationValues = new float[TrackingLogFormat.MAX_ROTATION_VALUES + 1][];
+
+    public TrackingLogReader(File file) throws IOException
+    {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        fileSize = channel.size();
+        for (int i = 0; i < rotationValues.length; i++)
+        {
+            rotationValues[i] = new float[i];
+        }
+        mapWindow(0);
+        if (fileSize < TrackingLogFormat.HEADER_SIZE || window.getInt() != TrackingLogFormat.MAGIC)
+        {
+            channel.close();
+            throw new IOException("Not a tracking log: " + file);
+        }
+        int version = window.getInt();
+        if (version != TrackingLogFormat.VERSION)
+        {
+            channel.close();
+            throw new IOException("Unsupported tracking log version " + version + ": " + file);
+        }
+    }
+
+    /**
+     * Deliver every event in the log to the listener.
+     *
+     * @param listener
+     * @param realTime if true, events are delivered with the same spacing as they were recorded, otherwise as fast as possible
+     * @return the number of events delivered
+     * @throws IOException
+     */
+    public long replay(TrackingListener listener, boolean realTime) throws IOException
+    {
+        long numEvents = 0;
+        long firstEventTime = 0;
+        long replayStartTime = System.nanoTime();
+        while (true)
+        {
+            if (window.remaining() < TrackingLogFormat.MAX_RECORD_SIZE && windowStart + window.limit() < fileSize)
+            {
+                mapWindow(windowStart + window.position());
+            }
+            if (window.remaining() < 9)
+            {
+                break;
+            }
+            int recordStart = window.position();
+            byte type = window.get();
+            long time = window.getLong();
+            if (numEvents == 0)
+            {
+                firstEventTime = time;
+            }
+            if (!hasRemaining(type))
+            {
+                //Truncated record
+                window.position(recordStart);
+                break;
+            }
+            if (realTime)
+            {
+                waitUntil(replayStartTime + (time - firstEventTime));
+            }
+            switch (type)
+            {
+                case TrackingLogFormat.FACE:
+                    listener.onFace(time, window.getLong(), window.getLong(), window.getFloat(), window.getFloat(), window.getFloat(), window.getFloat(), window.getInt(), window.getInt());
+                    break;
+                case TrackingLogFormat.FACE_MISSING:
+                    listener.onFaceMissing(time, window.getLong(), window.getLong());
+                    break;
+                case TrackingLogFormat.ROTATION:
+                    long eventTimeStamp = window.getLong();
+                    float[] values = rotationValues[window.get()];
+                    for (int i = 0; i < values.length; i++)
+                    {
+                        values[i] = window.getFloat();
+                    }
+                    listener.onRotation(time, eventTimeStamp, values);
+                    break;
+                default:
+                    throw new IOException("Corrupt tracking log, unknown record type " + type + " at " + (windowStart + recordStart));
+            }
+            numEvents++;
+        }
+        return numEvents;
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private boolean hasRemaining(byte type)
+    {
+        switch (type)
+        {
+            case TrackingLogFormat.FACE:
+                return window.remaining() >= 8 + 8 + 16 + 8;
+            case TrackingLogFormat.FACE_MISSING:
+                return window.remaining() >= 8 + 8;
+            case TrackingLogFormat.ROTATION:
+                if (window.remaining() < 8 + 1)
+                {
+                    return false;
+                }
+                int numValues = window.get(window.position() + 8);
+                return numValues >= 0 && numValues <= TrackingLogFormat.MAX_ROTATION_VALUES && window.remaining() >= 8 + 1 + 4 * numValues;
+            default:
+                return true;
+        }
+    }
+
+    private void mapWindow(long start) throws IOException
+    {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+        window.order(TrackingLogFormat.BYTE_ORDER);
+    }
+
+    private static void waitUntil(long time)
+    {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
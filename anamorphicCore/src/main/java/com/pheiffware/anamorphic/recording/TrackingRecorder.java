@@ -0,0 +1,140 @@
+package com.pheiffware.anamorphic.recording;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes raw face detections and rotation vector events to a compact binary log (see TrackingLogFormat), so tracking can later be replayed without a person or a device.
+ * Records are staged in a direct buffer and written in large blocks.  Recording methods may be called from any thread and do not allocate.
+ * Threads still holding the recorder when it is closed may keep calling it: once closed, recording and flushing do nothing.
+ */
+public class TrackingRecorder
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(TrackingLogFormat.BYTE_ORDER);
+    //Guarded by this
+    private boolean closed;
+
+    /**
+     * Start a new log, replacing any existing log in the file.  Logs are never appended to, as System.nanoTime() time stamps from another run of the app
+     * have an unrelated base.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public TrackingRecorder(File file) throws IOException
+    {
+        channel = new FileOutputStream(file, false).getChannel();
+        buffer.putInt(TrackingLogFormat.MAGIC);
+        buffer.putInt(TrackingLogFormat.VERSION);
+    }
+
+    public synchronized void recordFace(long time, long captureTime, long frameTimeMillis, float width, float height, float x, float y, int previewWidth, int previewHeight) throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        ensureSpace();
+        buffer.put(TrackingLogFormat.FACE);
+        buffer.putLong(time);
+        buffer.putLong(captureTime);
+        buffer.putLong(frameTimeMillis);
+        buffer.putFloat(width);
+        buffer.putFloat(height);
+        buffer.putFloat(x);
+        buffer.putFloat(y);
+        buffer.putInt(previewWidth);
+        buffer.putInt(previewHeight);
+    }
+
+    public synchronized void recordFaceMissing(long time, long captureTime, long frameTimeMillis) throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        ensureSpace();
+        buffer.put(TrackingLogFormat.FACE_MISSING);
+        buffer.putLong(time);
+        buffer.putLong(captureTime);
+        buffer.putLong(frameTimeMillis);
+    }
+
+    /**
+     * @param time           arrival time (System.nanoTime())
+     * @param eventTimeStamp the sensor event's time stamp, converted to the System.nanoTime() base
+     * @param values         sensor values
+     */
+    public synchronized void recordRotation(long time, long eventTimeStamp, float[] values) throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        int numValues = Math.min(values.length, TrackingLogFormat.MAX_ROTATION_VALUES);
+        ensureSpace();
+        buffer.put(TrackingLogFormat.ROTATION);
+        buffer.putLong(time);
+        buffer.putLong(eventTimeStamp);
+        buffer.put((byte) numValues);
+        for (int i = 0; i < numValues; i++)
+        {
+            buffer.putFloat(values[i]);
+        }
+    }
+
+    /**
+     * Write all buffered records to the file.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write all buffered records and close the file.  Later calls to the recorder do nothing.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void ensureSpace() throws IOException
+    {
+        if (buffer.remaining() < TrackingLogFormat.MAX_RECORD_SIZE)
+        {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.pheiffware.anamorphic.resolution;
+
+/**
+ * Chooses the scale, relative to the surface, at which the scene is rendered, so GPU frame time stays under a target.
+ * <p>
+ * Frame times are smoothed with an exponential moving average.  The scale drops one step once the smoothed time has been over the target for a number of consecutive
+ * frames, and rises one step once it has been comfortably under the target (below upThreshold * target) for a longer run.  The gap between the two thresholds, the
+ * frame counts and a cool down after each change stop the scale oscillating between two steps.
+ */
+public class ResolutionScaler
+{
+    //Smoothing factor for frame times (weight of the newest sample)
+    private static final float SMOOTHING = 0.1f;
+
+    private final long targetFrameTime;
+    private final float minScale;
+    private final float maxScale;
+    private final float step;
+
+    //Fraction of the target below which the scale may rise
+    private float upThreshold = 0.7f;
+    //Consecutive frames over (under) threshold required to lower (raise) the scale
+    private int framesToScaleDown = 10;
+    private int framesToScaleUp = 60;
+    //Frames after a change during which no further change is made, as the smoothed time catches up
+    private int coolDownFrames = 30;
+
+    private float scale;
+    private boolean hasFrameTime;
+    private float smoothedFrameTime;
+    private long lastFrameTime;
+    private int framesOver;
+    private int framesUnder;
+    private int coolDown;
+    private long numScaleChanges;
+
+    /**
+     * @param targetFrameTime GPU frame time to stay under, in nanoseconds
+     * @param minScale        smallest allowed scale (0, 1]
+     * @param maxScale        largest allowed scale, at least minScale
+     * @param step            amount the scale changes by each time
+     */
+    public ResolutionScaler(long targetFrameTime, float minScale, float maxScale, float step)
+    {
+        if (minScale <= 0 || maxScale < minScale || step <= 0)
+        {
+            throw new IllegalArgumentException("Invalid scale bounds [" + minScale + ", " + maxScale + "] or step " + step);
+        }
+        this.targetFrameTime = targetFrameTime;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.step = step;
+        scale = maxScale;
+    }
+
+    /**
+     * @param upThreshold       fraction of the target frame time below which the scale may rise
+     * @param framesToScaleDown consecutive frames over the target before the scale drops
+     * @param framesToScaleUp   consecutive frames under upThreshold * target before the scale rises
+     * @param coolDownFrames    frames after a change during which the scale is held
+     */
+    public void setHysteresis(float upThreshold, int framesToScaleDown, int framesToScaleUp, int coolDownFrames)
+    {
+        this.upThreshold = upThreshold;
+        this.framesToScaleDown = framesToScaleDown;
+        this.framesToScaleUp = framesToScaleUp;
+        this.coolDownFrames = coolDownFrames;
+    }
+
+    /**
+     * Record the GPU time of a frame and adjust the scale if needed.
+     *
+     * @param frameTime nanoseconds
+     * @return true if the scale changed
+     */
+    public boolean addFrameTime(long frameTime)
+    {
+        lastFrameTime = frameTime;
+        if (hasFrameTime)
+        {
+            smoothedFrameTime += SMOOTHING * (frameTime - smoothedFrameTime);
+        }
+        else
+        {
+            smoothedFrameTime = frameTime;
+            hasFrameTime = true;
+        }
+        if (coolDown > 0)
+        {
+            coolDown--;
+            return false;
+        }
+
+        if (smoothedFrameTime > targetFrameTime)
+        {
+            framesOver++;
+            framesUnder = 0;
+            if (framesOver >= framesToScaleDown && scale > minScale)
+            {
+                return setScale(Math.max(minScale, scale - step));
+            }
+        }
+        else if (smoothedFrameTime < upThreshold * targetFrameTime)
+        {
+            framesUnder++;
+            framesOver = 0;
+            if (framesUnder >= framesToScaleUp && scale < maxScale)
+            {
+                return setScale(Math.min(maxScale, scale + step));
+            }
+        }
+        else
+        {
+            framesOver = 0;
+            framesUnder = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Return to the maximum scale and forget frame time history (e.g. after the surface is recreated).
+     */
+    public void reset()
+    {
+        scale = maxScale;
+        hasFrameTime = false;
+        framesOver = 0;
+        framesUnder = 0;
+        coolDown = 0;
+    }
+
+    /**
+     * @return current scale of the render target relative to the surface
+     */
+    public float getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * @return most recent frame time, in nanoseconds
+     */
+    public long getLastFrameTime()
+    {
+        return lastFrameTime;
+    }
+
+    /**
+     * @return smoothed frame time, in nanoseconds
+     */
+    public float getSmoothedFrameTime()
+    {
+        return smoothedFrameTime;
+    }
+
+    public long getNumScaleChanges()
+    {
+        return numScaleChanges;
+    }
+
+    private boolean setScale(float newScale)
+    {
+        scale = newScale;
+        framesOver = 0;
+        framesUnder = 0;
+        coolDown = coolDownFrames;
+        numScaleChanges++;
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+package com.pheiffware.anamorphic.shaderCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores linked GL program binaries (from glGetProgramBinary) in a directory, one file per program.
+ * Files are named by a key hashing everything which affects the binary: shader sources, the driver and any configuration, so a binary is never
+ * offered to a driver or program it wasn't built for.  The driver may still reject a binary (e.g. after an update which kept its version string), in which
+ * case the caller should delete() it and rebuild from source.
+ * <p>
+ * File layout (little endian): int MAGIC, int VERSION, int binary format, int binary length, byte[binary length] binary
+ */
+public class ProgramBinaryStore
+{
+    private static final int MAGIC = 0x414E5042;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String EXTENSION = ".bin";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /**
+     * @param directory directory holding binaries, created if needed
+     */
+    public ProgramBinaryStore(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the key of a program.
+     *
+     * @param driver description of the GL driver (vendor, renderer and version strings)
+     * @param parts  shader sources and configuration of the program
+     * @return hex string
+     */
+    public static String key(String driver, String... parts)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+        update(digest, driver);
+        for (String part : parts)
+        {
+            update(digest, part);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            builder.append(String.format("%02x", b & 0xFF));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param key key of the program
+     * @return the stored binary, or null if there is none or it is unreadable
+     */
+    public ProgramBinary load(String key)
+    {
+        File file = getFile(key);
+        if (!file.isFile() || file.length() < HEADER_SIZE)
+        {
+            return null;
+        }
+        MappedByteBuffer data;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+        {
+            data = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt() != MAGIC || data.getInt() != VERSION)
+        {
+            return null;
+        }
+        int format = data.getInt();
+        int length = data.getInt();
+        if (length != data.remaining())
+        {
+            return null;
+        }
+        //Mapped, so the slice is direct, as GL requires
+        return new ProgramBinary(format, data.slice());
+    }
+
+    /**
+     * Store a binary, replacing any existing one.
+     *
+     * @param key    key of the program
+     * @param format binary format reported by the driver
+     * @param binary binary data, from position to limit
+     * @throws IOException
+     */
+    public void store(String key, int format, ByteBuffer binary) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create program binary directory: " + directory);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(binary.remaining());
+        header.flip();
+        ByteBuffer data = binary.duplicate();
+
+        File file = getFile(key);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw"))
+        {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (header.hasRemaining())
+            {
+                channel.write(header);
+            }
+            while (data.hasRemaining())
+            {
+                channel.write(data);
+            }
+        }
+        file.delete();
+        if (!tempFile.renameTo(file))
+        {
+            tempFile.delete();
+            throw new IOException("Could not write program binary: " + file);
+        }
+    }
+
+    /**
+     * Remove a stored binary, e.g. because the driver rejected it.
+     */
+    public void delete(String key)
+    {
+        getFile(key).delete();
+    }
+
+    private File getFile(String key)
+    {
+        return new File(directory, key + EXTENSION);
+    }
+
+    private static void update(MessageDigest digest, String part)
+    {
+        byte[] bytes = part.getBytes(UTF8);
+        //Length prefix, so different splits of the same text give different keys
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * A stored program binary.
+     */
+    public static class ProgramBinary
+    {
+        public final int format;
+        //Direct buffer holding exactly the binary
+        public final ByteBuffer data;
+
+        ProgramBinary(int format, ByteBuffer data)
+        {
+            this.format = format;
+            this.data = data;
+        }
+    }
+}
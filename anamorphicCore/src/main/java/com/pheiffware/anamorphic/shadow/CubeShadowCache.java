@@ -0,0 +1,243 @@
+package com.pheiffware.anamorphic.shadow;
+
+import com.pheiffware.anamorphic.culling.BoundingSphere;
+import com.pheiffware.anamorphic.culling.BoundingVolumeHierarchy;
+import com.pheiffware.anamorphic.culling.Frustum;
+
+/**
+ * Tracks which faces of a point light's cube shadow map are out of date, so that only those faces are re-rendered.
+ * A face is dirty when the light moves, or when an object whose bounds touch that face's frustum (before or after the change) is added or moved.
+ * For each dirty face, the objects which can cast into it are found by culling a BoundingVolumeHierarchy of the objects against the face's frustum.
+ * <p>
+ * Faces follow the OpenGL cube map order and orientation (+X, -X, +Y, -Y, +Z, -Z), so a face rendered with getFaceViewProjections() can be sampled as a standard cube map.
+ * Nothing allocates after construction.
+ */
+public class CubeShadowCache
+{
+    public static final int NUM_FACES = 6;
+
+    //Forward and up directions of each face's camera (OpenGL cube map convention)
+    private static final float[][] FACE_FORWARDS = new float[][]{
+            {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+    private static final float[][] FACE_UPS = new float[][]{
+            {0, -1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}, {0, -1, 0}, {0, -1, 0}};
+
+    private final float near;
+    private final float far;
+
+    private boolean hasLight;
+    private final float[] lightPosition = new float[3];
+
+    //Column major view-projection matrix of each face, packed
+    private final float[] faceViewProjections = new float[NUM_FACES * 16];
+    private final Frustum[] faceFrusta = new Frustum[NUM_FACES];
+    private final boolean[] faceDirty = new boolean[NUM_FACES];
+
+    private final BoundingSphere[] objectBounds;
+    private int numObjects;
+    //Rebuilt when objects are added, and refitted when they move
+    private final BoundingVolumeHierarchy objectHierarchy;
+    private boolean hierarchyStale;
+
+    private long numFacesRendered;
+
+    /**
+     * @param near       near clipping distance of each face
+     * @param far        far clipping distance of each face
+     * @param maxObjects maximum number of shadow casting objects
+     */
+    public CubeShadowCache(float near, float far, int maxObjects)
+    {
+        this.near = near;
+        this.far = far;
+        objectBounds = new BoundingSphere[maxObjects];
+        objectHierarchy = new BoundingVolumeHierarchy(maxObjects);
+        for (int i = 0; i < maxObjects; i++)
+        {
+            objectBounds[i] = new BoundingSphere();
+        }
+        for (int face = 0; face < NUM_FACES; face++)
+        {
+            faceFrusta[face] = new Frustum();
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Set the light position.  If it changed, every face is dirty.
+     */
+    public void setLightPosition(float x, float y, float z)
+    {
+        if (hasLight && x == lightPosition[0] && y == lightPosition[1] && z == lightPosition[2])
+        {
+            return;
+        }
+        hasLight = true;
+        lightPosition[0] = x;
+        lightPosition[1] = y;
+        lightPosition[2] = z;
+        for (int face = 0; face < NUM_FACES; face++)
+        {
+            computeFaceViewProjection(face);
+            faceFrusta[face].set(faceViewProjections, face * 16);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Add a shadow casting object.
+     *
+     * @param bounds world space bounds (copied)
+     * @return index of the object, used to move it
+     */
+    public int addObject(BoundingSphere bounds)
+    {
+        if (numObjects == objectBounds.length)
+        {
+            throw new IllegalStateException("Shadow cache is full (" + objectBounds.length + " objects)");
+        }
+        int index = numObjects++;
+        copy(bounds, objectBounds[index]);
+        invalidateTouched(objectBounds[index]);
+        hierarchyStale = true;
+        return index;
+    }
+
+    /**
+     * An object moved (or changed shape).  Faces its old or new bounds touch become dirty.
+     *
+     * @param index  index returned by addObject()
+     * @param bounds new world space bounds (copied)
+     */
+    public void moveObject(int index, BoundingSphere bounds)
+    {
+        BoundingSphere current = objectBounds[index];
+        if (current.getCenterX() == bounds.getCenterX() && current.getCenterY() == bounds.getCenterY() && current.getCenterZ() == bounds.getCenterZ() && current.getRadius() == bounds.getRadius())
+        {
+            return;
+        }
+        invalidateTouched(current);
+        copy(bounds, current);
+        invalidateTouched(current);
+        if (!hierarchyStale)
+        {
+            objectHierarchy.refit(index, current);
+        }
+    }
+
+    /**
+     * Mark every face dirty (e.g. the shadow map texture was recreated).
+     */
+    public void invalidateAll()
+    {
+        for (int face = 0; face < NUM_FACES; face++)
+        {
+            faceDirty[face] = true;
+        }
+    }
+
+    /**
+     * @return true if the face must be re-rendered before it is used.  Always true until a light position is set.
+     */
+    public boolean isFaceDirty(int face)
+    {
+        return faceDirty[face];
+    }
+
+    /**
+     * Find the objects which can cast shadows into a face.
+     *
+     * @param face           face index
+     * @param visibleObjects receives the indices of objects touching the face's frustum, in no particular order
+     * @return number of objects
+     */
+    public int getFaceCasters(int face, int[] visibleObjects)
+    {
+        if (hierarchyStale)
+        {
+            objectHierarchy.build(objectBounds, numObjects);
+            hierarchyStale = false;
+        }
+        return objectHierarchy.cull(faceFrusta[face], visibleObjects);
+    }
+
+    /**
+     * The face has been re-rendered.
+     */
+    public void faceRendered(int face)
+    {
+        faceDirty[face] = false;
+        numFacesRendered++;
+    }
+
+    /**
+     * @return packed, column major view-projection matrices of each face (face i starts at i * 16).  Valid once a light position is set.
+     */
+    public float[] getFaceViewProjections()
+    {
+        return faceViewProjections;
+    }
+
+    /**
+     * @return total number of face renders (a full update is 6)
+     */
+    public long getNumFacesRendered()
+    {
+        return numFacesRendered;
+    }
+
+    private void invalidateTouched(BoundingSphere bounds)
+    {
+        if (!hasLight)
+        {
+            return;
+        }
+        for (int face = 0; face < NUM_FACES; face++)
+        {
+            if (faceFrusta[face].intersects(bounds))
+            {
+                faceDirty[face] = true;
+            }
+        }
+    }
+
+    /**
+     * 90 degree, square, perspective projection looking along the face's axis from the light.
+     */
+    private void computeFaceViewProjection(int face)
+    {
+        float[] forward = FACE_FORWARDS[face];
+        float[] up = FACE_UPS[face];
+        //right = forward x up
+        float rightX = forward[1] * up[2] - forward[2] * up[1];
+        float rightY = forward[2] * up[0] - forward[0] * up[2];
+        float rightZ = forward[0] * up[1] - forward[1] * up[0];
+
+        float depthScale = -(far + near) / (far - near);
+        float depthOffset = -2 * far * near / (far - near);
+
+        //Rows of the view-projection matrix: clip = (right.(p-L), up.(p-L), -depthScale * forward.(p-L) + depthOffset, forward.(p-L))
+        int start = face * 16;
+        setRow(start, 0, rightX, rightY, rightZ);
+        setRow(start, 1, up[0], up[1], up[2]);
+        setRow(start, 2, -depthScale * forward[0], -depthScale * forward[1], -depthScale * forward[2]);
+        faceViewProjections[start + 14] += depthOffset;
+        setRow(start, 3, forward[0], forward[1], forward[2]);
+    }
+
+    /**
+     * Set a row of a face matrix to (a, b, c, -(a, b, c).L).
+     */
+    private void setRow(int start, int row, float a, float b, float c)
+    {
+        faceViewProjections[start + row] = a;
+        faceViewProjections[start + 4 + row] = b;
+        faceViewProjections[start + 8 + row] = c;
+        faceViewProjections[start + 12 + row] = -(a * lightPosition[0] + b * lightPosition[1] + c * lightPosition[2]);
+    }
+
+    private static void copy(BoundingSphere from, BoundingSphere to)
+    {
+        to.set(from.getCenterX(), from.getCenterY(), from.getCenterZ(), from.getRadius());
+    }
+}
@@ -0,0 +1,151 @@
+package com.pheiffware.anamorphic;
+
+import com.pheiffware.anamorphic.culling.Frustum;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The batched computeViews() and computeProjections() give the same matrices as positioning the camera at each eye in turn, and the camera's frustum follows
+ * its position.
+ */
+public class AnamorphicCameraTest
+{
+    private static final float SCREEN_HEIGHT = 2.0f;
+    private static final float NEAR = -1.5f;
+    private static final float FAR = 25.0f;
+    private static final float ASPECT = 0.6f;
+    private static final int NUM_EYES = 5;
+
+    @Test
+    public void computeViewsMatchesSingleEye() throws Exception
+    {
+        float[] eyes = randomEyes(new Random(1), NUM_EYES);
+        AnamorphicCamera camera = new AnamorphicCamera(SCREEN_HEIGHT, NEAR, FAR);
+        camera.setAspect(ASPECT);
+        camera.setPosition(0.1f, 0.2f, 3);
+        float[] ownProjection = camera.getProjectionMatrix().clone();
+        float[] ownView = camera.getViewMatrix().clone();
+        float[] views = new float[NUM_EYES * AnamorphicCamera.FLOATS_PER_VIEW];
+        camera.computeViews(eyes, NUM_EYES, views);
+        //The camera's own position is untouched
+        assertArrayEquals(ownProjection, camera.getProjectionMatrix(), 0);
+        assertArrayEquals(ownView, camera.getViewMatrix(), 0);
+
+        AnamorphicCamera single = new AnamorphicCamera(SCREEN_HEIGHT, NEAR, FAR);
+        single.setAspect(ASPECT);
+        for (int i = 0; i < NUM_EYES; i++)
+        {
+            single.setPosition(eyes[i * 3], eyes[i * 3 + 1], eyes[i * 3 + 2]);
+            int viewStart = i * AnamorphicCamera.FLOATS_PER_VIEW;
+            assertMatrixEquals("Projection " + i, single.getProjectionMatrix(), views, viewStart + AnamorphicCamera.PROJECTION_OFFSET);
+            assertMatrixEquals("View " + i, single.getViewMatrix(), views, viewStart + AnamorphicCamera.VIEW_OFFSET);
+        }
+    }
+
+    @Test
+    public void computeProjectionsMatchesSingleEye() throws Exception
+    {
+        float[] eyes = randomEyes(new Random(2), NUM_EYES);
+        AnamorphicProjection projection = new AnamorphicProjection(SCREEN_HEIGHT, NEAR, FAR);
+        projection.setAspect(ASPECT);
+        //Matrices packed at an offset, with gaps between them, which must be left alone
+        int offset = 3;
+        int stride = 20;
+        float[] out = new float[offset + NUM_EYES * stride];
+        Arrays.fill(out, Float.NaN);
+        projection.computeProjections(eyes, NUM_EYES, out, offset, stride);
+
+        AnamorphicProjection single = new AnamorphicProjection(SCREEN_HEIGHT, NEAR, FAR);
+        single.setAspect(ASPECT);
+        for (int i = 0; i < NUM_EYES; i++)
+        {
+            single.setScreenCenter(-eyes[i * 3], -eyes[i * 3 + 1], -eyes[i * 3 + 2]);
+            assertMatrixEquals("Projection " + i, single.getProjectionMatrix(), out, offset + i * stride);
+            for (int j = 16; j < stride; j++)
+            {
+                assertTrue(Float.isNaN(out[offset + i * stride + j]));
+            }
+        }
+        for (int j = 0; j < offset; j++)
+        {
+            assertTrue(Float.isNaN(out[j]));
+        }
+    }
+
+    @Test
+    public void stereoEyesStraddleTrackedEye() throws Exception
+    {
+        float[] eye = new float[]{0.3f, -0.4f, 5};
+        float[] eyes = new float[6];
+        AnamorphicCamera.computeStereoEyes(eye, 0.2f, eyes);
+        assertArrayEquals(new float[]{0.2f, -0.4f, 5, 0.4f, -0.4f, 5}, eyes, 1e-6f);
+
+        //Each eye of the pair gets the view it would get on its own
+        AnamorphicCamera camera = new AnamorphicCamera(SCREEN_HEIGHT, NEAR, FAR);
+        camera.setAspect(ASPECT);
+        float[] views = new float[2 * AnamorphicCamera.FLOATS_PER_VIEW];
+        camera.computeViews(eyes, 2, views);
+        for (int i = 0; i < 2; i++)
+        {
+            camera.setPosition(eyes[i * 3], eyes[i * 3 + 1], eyes[i * 3 + 2]);
+            int viewStart = i * AnamorphicCamera.FLOATS_PER_VIEW;
+            assertMatrixEquals("Projection " + i, camera.getProjectionMatrix(), views, viewStart + AnamorphicCamera.PROJECTION_OFFSET);
+            assertMatrixEquals("View " + i, camera.getViewMatrix(), views, viewStart + AnamorphicCamera.VIEW_OFFSET);
+        }
+    }
+
+    @Test
+    public void frustumFollowsPosition() throws Exception
+    {
+        float[] eyes = randomEyes(new Random(3), NUM_EYES);
+        AnamorphicCamera camera = new AnamorphicCamera(SCREEN_HEIGHT, NEAR, FAR);
+        float[] views = new float[NUM_EYES * AnamorphicCamera.FLOATS_PER_VIEW];
+        Frustum expected = new Frustum();
+        float[] expectedPlane = new float[4];
+        float[] plane = new float[4];
+        for (int i = 0; i < NUM_EYES; i++)
+        {
+            //Alternate aspects, so the cached frustum must be refreshed for either kind of change
+            camera.setAspect(i % 2 == 0 ? ASPECT : 1);
+            camera.computeViews(eyes, NUM_EYES, views);
+            camera.setPosition(eyes[i * 3], eyes[i * 3 + 1], eyes[i * 3 + 2]);
+            int viewStart = i * AnamorphicCamera.FLOATS_PER_VIEW;
+            expected.set(views, viewStart + AnamorphicCamera.PROJECTION_OFFSET, views, viewStart + AnamorphicCamera.VIEW_OFFSET);
+            Frustum frustum = camera.getFrustum();
+            for (int p = 0; p < Frustum.NUM_PLANES; p++)
+            {
+                expected.getPlane(p, expectedPlane);
+                frustum.getPlane(p, plane);
+                assertArrayEquals("Eye " + i + " plane " + p, expectedPlane, plane, 1e-5f);
+            }
+        }
+    }
+
+    /**
+     * Eyes in front of the screen, some well off to the side.
+     */
+    private static float[] randomEyes(Random random, int numEyes)
+    {
+        float[] eyes = new float[numEyes * 3];
+        for (int i = 0; i < numEyes; i++)
+        {
+            eyes[i * 3] = (random.nextFloat() * 2 - 1) * 4;
+            eyes[i * 3 + 1] = (random.nextFloat() * 2 - 1) * 4;
+            eyes[i * 3 + 2] = 0.5f + random.nextFloat() * 8;
+        }
+        return eyes;
+    }
+
+    private static void assertMatrixEquals(String message, float[] expected, float[] actual, int offset)
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            assertEquals(message + " element " + i, expected[i], actual[offset + i], 0);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.pheiffware.anamorphic.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Choice of scan regions while tracking a face, and cropping them from rotated frames.
+ */
+public class FaceRegionTrackerTest
+{
+    private static final long FRAME_PERIOD = 33333333L;
+
+    @Test
+    public void fullScanUntilFound() throws Exception
+    {
+        FaceRegionTracker tracker = new FaceRegionTracker(480, 640, 0.5f, 10);
+        int[] region = new int[4];
+        assertFalse(tracker.nextRegion(0, region));
+        tracker.faceMissing(false, 1000);
+        assertFalse(tracker.nextRegion(FRAME_PERIOD, region));
+        tracker.faceFound(FRAME_PERIOD, false, 1000, 200, 300, 80, 100);
+        assertTrue(tracker.nextRegion(2 * FRAME_PERIOD, region));
+        //Face size plus half of it on each side, centered on the stationary face
+        assertArrayEquals(new int[]{160, 250, 160, 200}, region);
+    }
+
+    @Test
+    public void regionFollowsMovingFace() throws Exception
+    {
+        FaceRegionTracker tracker = new FaceRegionTracker(480, 640, 0.5f, 100);
+        int[] region = new int[4];
+        //Moving right at 3 pixels per frame
+        for (int i = 0; i < 10; i++)
+        {
+            boolean regionScan = tracker.nextRegion(i * FRAME_PERIOD, region);
+            assertEquals(i > 0, regionScan);
+            tracker.faceFound(i * FRAME_PERIOD, regionScan, 1000, 100 + 3 * i, 300, 80, 100);
+        }
+        assertTrue(tracker.nextRegion(10 * FRAME_PERIOD, region));
+        float regionCenter = region[0] + region[2] / 2.0f;
+        assertEquals(100 + 3 * 10 + 40, regionCenter, 1.5f);
+        //Wider than for a stationary face, to allow for movement
+        assertTrue(region[2] > 160);
+        assertEquals(200, region[3]);
+    }
+
+    @Test
+    public void fallsBackOnLossAndPeriodically() throws Exception
+    {
+        FaceRegionTracker tracker = new FaceRegionTracker(480, 640, 0.5f, 4);
+        int[] region = new int[4];
+        long time = 0;
+        tracker.faceFound(time, false, 1000, 200, 300, 80, 100);
+        for (int i = 0; i < 3; i++)
+        {
+            time += FRAME_PERIOD;
+            assertTrue(tracker.nextRegion(time, region));
+            tracker.faceFound(time, true, 500, 200, 300, 80, 100);
+        }
+        //Every 4th frame is a full scan
+        time += FRAME_PERIOD;
+        assertFalse(tracker.nextRegion(time, region));
+        tracker.faceFound(time, false, 1000, 200, 300, 80, 100);
+
+        time += FRAME_PERIOD;
+        assertTrue(tracker.nextRegion(time, region));
+        tracker.faceMissing(true, 500);
+        assertFalse(tracker.nextRegion(time + FRAME_PERIOD, region));
+
+        assertEquals(2, tracker.getDetectionTimes(false).getTotalCount());
+        assertEquals(4, tracker.getDetectionTimes(true).getTotalCount());
+        assertEquals(0.75f, tracker.getDetectionRate(true), 0.0001f);
+        assertEquals(1.0f, tracker.getDetectionRate(false), 0.0001f);
+    }
+
+    @Test
+    public void largeFaceScansWholeFrame() throws Exception
+    {
+        FaceRegionTracker tracker = new FaceRegionTracker(480, 640, 0.5f, 10);
+        int[] region = new int[4];
+        tracker.faceFound(0, false, 1000, 40, 40, 400, 500);
+        assertFalse(tracker.nextRegion(FRAME_PERIOD, region));
+    }
+
+    @Test
+    public void cropsUprightRegionFromRotatedFrame() throws Exception
+    {
+        int sensorWidth = 7;
+        int sensorHeight = 5;
+        ByteBuffer sensor = ByteBuffer.allocate(sensorWidth * sensorHeight);
+        for (int i = 0; i < sensorWidth * sensorHeight; i++)
+        {
+            sensor.put(i, (byte) i);
+        }
+        for (int rotation = 0; rotation < 4; rotation++)
+        {
+            int[] uprightRegion = new int[]{1, 2, 2, 3};
+            int[] sensorRegion = new int[4];
+            LumaCrop.toSensorRegion(uprightRegion, rotation, sensorWidth, sensorHeight, sensorRegion);
+            ByteBuffer cropped = ByteBuffer.allocate(6);
+            LumaCrop.crop(sensor, sensorWidth, sensorRegion, cropped);
+            assertEquals(6, cropped.remaining());
+            //Every pixel of the upright region must appear in the crop
+            for (int y = 0; y < 3; y++)
+            {
+                for (int x = 0; x < 2; x++)
+                {
+                    byte expected = sensor.get(toSensorIndex(1 + x, 2 + y, rotation, sensorWidth, sensorHeight));
+                    boolean present = false;
+                    for (int i = 0; i < 6; i++)
+                    {
+                        present |= cropped.get(i) == expected;
+                    }
+                    assertTrue("rotation " + rotation, present);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void uprightSizeOfRotatedFrame() throws Exception
+    {
+        for (int rotation = 0; rotation < 4; rotation++)
+        {
+            int uprightWidth = LumaCrop.uprightWidth(rotation, 7, 5);
+            int uprightHeight = LumaCrop.uprightHeight(rotation, 7, 5);
+            assertEquals(rotation % 2 == 0 ? 7 : 5, uprightWidth);
+            assertEquals(rotation % 2 == 0 ? 5 : 7, uprightHeight);
+            //The whole upright frame maps onto the whole sensor frame
+            int[] sensorRegion = new int[4];
+            LumaCrop.toSensorRegion(new int[]{0, 0, uprightWidth, uprightHeight}, rotation, 7, 5, sensorRegion);
+            assertArrayEquals(new int[]{0, 0, 7, 5}, sensorRegion);
+        }
+    }
+
+    @Test
+    public void regionsOfRotatedFrameStayInBounds() throws Exception
+    {
+        //Landscape sensor, turned upright to portrait, as RegionFaceFeeder sets the tracker up
+        int sensorWidth = 640;
+        int sensorHeight = 480;
+        int rotation = 1;
+        int uprightWidth = LumaCrop.uprightWidth(rotation, sensorWidth, sensorHeight);
+        int uprightHeight = LumaCrop.uprightHeight(rotation, sensorWidth, sensorHeight);
+        FaceRegionTracker tracker = new FaceRegionTracker(uprightWidth, uprightHeight, 0.5f, 10);
+        int[] region = new int[4];
+        int[] sensorRegion = new int[4];
+        //A face low in the portrait frame: below the unrotated frame's height, but inside the upright frame
+        tracker.faceFound(0, false, 1000, 200, 520, 80, 100);
+        assertTrue(tracker.nextRegion(FRAME_PERIOD, region));
+        assertTrue(region[1] + region[3] <= uprightHeight && region[1] > sensorHeight - region[3]);
+        LumaCrop.toSensorRegion(region, rotation, sensorWidth, sensorHeight, sensorRegion);
+        assertTrue(sensorRegion[0] >= 0 && sensorRegion[0] + sensorRegion[2] <= sensorWidth);
+        assertTrue(sensorRegion[1] >= 0 && sensorRegion[1] + sensorRegion[3] <= sensorHeight);
+    }
+
+    /**
+     * Index, in the sensor image, of an upright pixel, rotating the sensor image clockwise by the given quarter turns.
+     */
+    private static int toSensorIndex(int x, int y, int rotation, int sensorWidth, int sensorHeight)
+    {
+        switch (rotation)
+        {
+            case 0:
+                return y * sensorWidth + x;
+            case 1:
+                //Upright (x, y) came from sensor (y, sensorHeight - 1 - x)
+                return (sensorHeight - 1 - x) * sensorWidth + y;
+            case 2:
+                return (sensorHeight - 1 - y) * sensorWidth + (sensorWidth - 1 - x);
+            default:
+                //Upright (x, y) came from sensor (sensorWidth - 1 - y, x)
+                return x * sensorWidth + (sensorWidth - 1 - y);
+        }
+    }
+}
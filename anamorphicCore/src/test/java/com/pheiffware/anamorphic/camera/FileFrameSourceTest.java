@@ -0,0 +1,121 @@
+package com.pheiffware.anamorphic.camera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Playing synthetic frames from PGM files through a buffer pool.
+ */
+public class FileFrameSourceTest
+{
+    @Test
+    public void deliversFramesInOrder() throws Exception
+    {
+        List<File> files = new ArrayList<>();
+        files.add(writePgm(4, 2, (byte) 10));
+        files.add(writePgm(3, 3, (byte) 20));
+        FileFrameSource source = new FileFrameSource(files, 1000000, 2, false);
+        final List<Integer> values = new ArrayList<>();
+        final List<Long> timeStamps = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        source.start(new FrameListener()
+        {
+            @Override
+            public void onFrame(LumaFrame frame)
+            {
+                values.add((int) frame.getLuma().get(frame.getLuma().limit() - 1));
+                timeStamps.add(frame.getTimeStamp());
+                sizes.add(frame.getWidth() * frame.getHeight());
+                assertEquals(frame.getWidth() * frame.getHeight(), frame.getLuma().remaining());
+                frame.release();
+            }
+        });
+        source.awaitFinished();
+        assertEquals(2, values.size());
+        assertEquals(10, (int) values.get(0));
+        assertEquals(20, (int) values.get(1));
+        assertEquals(8, (int) sizes.get(0));
+        assertEquals(9, (int) sizes.get(1));
+        assertTrue(timeStamps.get(1) > timeStamps.get(0));
+        assertEquals(0, source.getNumDropped());
+    }
+
+    @Test
+    public void dropsFramesWhenBuffersAreHeld() throws Exception
+    {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            files.add(writePgm(2, 2, (byte) i));
+        }
+        FileFrameSource source = new FileFrameSource(files, 0, 2, false);
+        final List<LumaFrame> held = new ArrayList<>();
+        source.start(new FrameListener()
+        {
+            @Override
+            public void onFrame(LumaFrame frame)
+            {
+                held.add(frame);
+            }
+        });
+        source.awaitFinished();
+        assertEquals(2, held.size());
+        assertEquals(3, source.getNumDropped());
+        for (LumaFrame frame : held)
+        {
+            frame.release();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRelease() throws Exception
+    {
+        LumaBufferPool pool = new LumaBufferPool(1, 16);
+        LumaFrame frame = pool.acquire();
+        assertNull(pool.acquire());
+        frame.release();
+        frame.release();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws Exception
+    {
+        File file = File.createTempFile("frame", ".pgm");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        output.write("P2\n2 2\n255\n0 0 0 0\n".getBytes("US-ASCII"));
+        output.close();
+        List<File> files = new ArrayList<>();
+        files.add(file);
+        new FileFrameSource(files, 0, 1, false);
+    }
+
+    private static File writePgm(int width, int height, byte value) throws IOException
+    {
+        File file = File.createTempFile("frame", ".pgm");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        try
+        {
+            output.write(("P5\n# synthetic\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+            byte[] pixels = new byte[width * height];
+            for (int i = 0; i < pixels.length; i++)
+            {
+                pixels[i] = value;
+            }
+            output.write(pixels);
+        }
+        finally
+        {
+            output.close();
+        }
+        return file;
+    }
+}
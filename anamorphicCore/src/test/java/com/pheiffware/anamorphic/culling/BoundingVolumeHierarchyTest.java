@@ -0,0 +1,215 @@
+package com.pheiffware.anamorphic.culling;
+
+import com.pheiffware.anamorphic.AnamorphicCamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queries of the hierarchy must give the same objects as testing every object directly, before and after objects move.
+ */
+public class BoundingVolumeHierarchyTest
+{
+    private static final int NUM_OBJECTS = 1000;
+
+    @Test
+    public void cullMatchesLinearCull() throws Exception
+    {
+        Random random = new Random(1);
+        BoundingSphere[] spheres = randomSpheres(random, NUM_OBJECTS);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(NUM_OBJECTS);
+        hierarchy.build(spheres, NUM_OBJECTS);
+        //Balanced: 250 leaves of 4
+        assertTrue(hierarchy.getDepth() <= 10);
+
+        for (int i = 0; i < 20; i++)
+        {
+            Frustum frustum = frustumFromEye(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2, 1 + random.nextFloat() * 4);
+            assertSameObjects(linearCull(spheres, frustum), hierarchyCull(hierarchy, frustum));
+        }
+    }
+
+    @Test
+    public void cullAfterRefit() throws Exception
+    {
+        Random random = new Random(2);
+        BoundingSphere[] spheres = randomSpheres(random, NUM_OBJECTS);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(NUM_OBJECTS);
+        hierarchy.build(spheres, NUM_OBJECTS);
+        Frustum frustum = frustumFromEye(0.5f, 0, 3);
+
+        //Move some objects a long way, and shrink others
+        for (int i = 0; i < NUM_OBJECTS; i += 7)
+        {
+            spheres[i].set(spheres[i].getCenterX() + random.nextFloat() * 10 - 5, spheres[i].getCenterY(), spheres[i].getCenterZ() - random.nextFloat() * 10, spheres[i].getRadius());
+            hierarchy.refit(i, spheres[i]);
+        }
+        for (int i = 3; i < NUM_OBJECTS; i += 11)
+        {
+            spheres[i].set(spheres[i].getCenterX(), spheres[i].getCenterY(), spheres[i].getCenterZ(), 0.01f);
+            hierarchy.refit(i, spheres[i]);
+        }
+        assertSameObjects(linearCull(spheres, frustum), hierarchyCull(hierarchy, frustum));
+    }
+
+    @Test
+    public void cullMultipleFrustaReportsEachObjectOnce() throws Exception
+    {
+        Random random = new Random(3);
+        BoundingSphere[] spheres = randomSpheres(random, NUM_OBJECTS);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(NUM_OBJECTS);
+        hierarchy.build(spheres, NUM_OBJECTS);
+        //A stereo pair
+        Frustum[] frusta = new Frustum[]{frustumFromEye(-0.45f, 0, 3), frustumFromEye(0.45f, 0, 3)};
+
+        boolean[] expected = new boolean[NUM_OBJECTS];
+        for (Frustum frustum : frusta)
+        {
+            for (int index : linearCull(spheres, frustum))
+            {
+                expected[index] = true;
+            }
+        }
+        int[] visible = new int[NUM_OBJECTS];
+        int numVisible = hierarchy.cull(frusta, frusta.length, visible);
+        boolean[] actual = new boolean[NUM_OBJECTS];
+        for (int i = 0; i < numVisible; i++)
+        {
+            assertFalse("Reported twice: " + visible[i], actual[visible[i]]);
+            actual[visible[i]] = true;
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void pickFindsNearestHit() throws Exception
+    {
+        Random random = new Random(4);
+        BoundingSphere[] spheres = randomSpheres(random, NUM_OBJECTS);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(NUM_OBJECTS);
+        hierarchy.build(spheres, NUM_OBJECTS);
+        int numHits = 0;
+        for (int i = 0; i < 200; i++)
+        {
+            //From an eye in front of the screen, through a point on the screen
+            float eyeX = random.nextFloat() - 0.5f;
+            float eyeY = random.nextFloat() - 0.5f;
+            float eyeZ = 3;
+            float directionX = random.nextFloat() * 2 - 1 - eyeX;
+            float directionY = random.nextFloat() * 2 - 1 - eyeY;
+            float directionZ = -eyeZ;
+
+            int expected = -1;
+            float expectedDistance = Float.POSITIVE_INFINITY;
+            for (int j = 0; j < NUM_OBJECTS; j++)
+            {
+                float distance = raySphereDistance(spheres[j], eyeX, eyeY, eyeZ, directionX, directionY, directionZ);
+                if (distance < expectedDistance)
+                {
+                    expectedDistance = distance;
+                    expected = j;
+                }
+            }
+            int picked = hierarchy.pick(eyeX, eyeY, eyeZ, directionX, directionY, directionZ);
+            assertEquals(expected, picked);
+            if (picked != -1)
+            {
+                assertEquals(expectedDistance, hierarchy.getPickDistance(), 1e-4);
+                numHits++;
+            }
+        }
+        //Most rays should hit something, or this isn't testing much
+        assertTrue(numHits > 100);
+    }
+
+    @Test
+    public void pickAxisAlignedRays() throws Exception
+    {
+        BoundingSphere[] spheres = new BoundingSphere[]{
+                new BoundingSphere(0, 0, -5, 1),
+                new BoundingSphere(0, 0, -2, 0.5f),
+                new BoundingSphere(3, 0, -2, 0.5f)};
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(spheres.length);
+        hierarchy.build(spheres, spheres.length);
+        assertEquals(1, hierarchy.pick(0, 0, 3, 0, 0, -1));
+        assertEquals(4.5f, hierarchy.getPickDistance(), 1e-5);
+        assertEquals(2, hierarchy.pick(3, 0, 3, 0, 0, -1));
+        //Pointing away
+        assertEquals(-1, hierarchy.pick(0, 0, 3, 0, 0, 1));
+        assertEquals(-1, hierarchy.pick(1.5f, 0, 3, 0, 0, -1));
+        //Starting inside
+        assertEquals(0, hierarchy.pick(0, 0, -5, 1, 0, 0));
+        assertEquals(0, hierarchy.getPickDistance(), 0);
+    }
+
+    @Test
+    public void emptyHierarchy() throws Exception
+    {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(10);
+        hierarchy.build(new BoundingSphere[0], 0);
+        assertEquals(0, hierarchy.cull(frustumFromEye(0, 0, 3), new int[10]));
+        assertEquals(-1, hierarchy.pick(0, 0, 3, 0, 0, -1));
+        assertEquals(0, hierarchy.getDepth());
+    }
+
+    /**
+     * Spheres spread through the volume behind the screen, like the scene's monkeys.
+     */
+    private static BoundingSphere[] randomSpheres(Random random, int numSpheres)
+    {
+        BoundingSphere[] spheres = new BoundingSphere[numSpheres];
+        for (int i = 0; i < numSpheres; i++)
+        {
+            spheres[i] = new BoundingSphere(random.nextFloat() * 8 - 4, random.nextFloat() * 8 - 4, 0.5f - random.nextFloat() * 29, 0.05f + random.nextFloat() * 0.3f);
+        }
+        return spheres;
+    }
+
+    private static Frustum frustumFromEye(float x, float y, float z)
+    {
+        AnamorphicCamera camera = new AnamorphicCamera(2.0f, -1.5f, 25.0f);
+        camera.setAspect(1);
+        camera.setPosition(x, y, z);
+        return camera.getFrustum();
+    }
+
+    private static int[] linearCull(BoundingSphere[] spheres, Frustum frustum)
+    {
+        int[] visible = new int[spheres.length];
+        return Arrays.copyOf(visible, frustum.cull(spheres, spheres.length, visible));
+    }
+
+    private static int[] hierarchyCull(BoundingVolumeHierarchy hierarchy, Frustum frustum)
+    {
+        int[] visible = new int[hierarchy.getNumObjects()];
+        return Arrays.copyOf(visible, hierarchy.cull(frustum, visible));
+    }
+
+    private static void assertSameObjects(int[] expected, int[] actual)
+    {
+        int[] sortedActual = actual.clone();
+        Arrays.sort(sortedActual);
+        assertArrayEquals(expected, sortedActual);
+    }
+
+    private static float raySphereDistance(BoundingSphere sphere, float originX, float originY, float originZ, float directionX, float directionY, float directionZ)
+    {
+        float offsetX = originX - sphere.getCenterX();
+        float offsetY = originY - sphere.getCenterY();
+        float offsetZ = originZ - sphere.getCenterZ();
+        double a = directionX * directionX + directionY * directionY + directionZ * directionZ;
+        double b = offsetX * directionX + offsetY * directionY + offsetZ * directionZ;
+        double c = offsetX * offsetX + offsetY * offsetY + offsetZ * offsetZ - sphere.getRadius() * sphere.getRadius();
+        double discriminant = b * b - a * c;
+        if (discriminant < 0)
+        {
+            return Float.POSITIVE_INFINITY;
+        }
+        double distance = (-b - Math.sqrt(discriminant)) / a;
+        return distance < 0 ? Float.POSITIVE_INFINITY : (float) distance;
+    }
+}
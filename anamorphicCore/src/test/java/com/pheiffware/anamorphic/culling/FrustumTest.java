@@ -0,0 +1,135 @@
+package com.pheiffware.anamorphic.culling;
+
+import com.pheiffware.anamorphic.AnamorphicCamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frustum extraction from the off-axis AnamorphicCamera, at ordinary and extreme eye positions.
+ * The camera shows a screen 2 high and (aspect 1) 2 wide, centered at the origin, with the near plane 1.5 in front of it and the far plane 25 behind it.
+ */
+public class FrustumTest
+{
+    private static final float SCREEN_HEIGHT = 2.0f;
+    private static final float NEAR = -1.5f;
+    private static final float FAR = 25.0f;
+
+    private static final int NUM_OBJECTS = 30;
+
+    @Test
+    public void centeredEye() throws Exception
+    {
+        Frustum frustum = frustumFromEye(0, 0, 3);
+        assertTrue(frustum.containsPoint(0, 0, 0));
+        assertTrue(frustum.containsPoint(0.99f, 0.99f, 0));
+        assertTrue(frustum.containsPoint(-0.99f, -0.99f, 0));
+        //Edges of the frustum pass through the edges of the screen
+        assertFalse(frustum.containsPoint(1.01f, 0, 0));
+        assertFalse(frustum.containsPoint(0, -1.01f, 0));
+        //Behind the screen, the frustum widens: at z = -3 the edges are at +/-2
+        assertTrue(frustum.containsPoint(1.99f, 0, -3));
+        assertFalse(frustum.containsPoint(2.01f, 0, -3));
+        //Between the eye and the near plane
+        assertFalse(frustum.containsPoint(0, 0, 2));
+        //Beyond the far plane
+        assertFalse(frustum.containsPoint(0, 0, -25.1f));
+
+        //A sphere straddling the edge of the screen is visible, one just outside is not
+        assertTrue(frustum.intersectsSphere(1.2f, 0, 0, 0.3f));
+        assertFalse(frustum.intersectsSphere(1.4f, 0, 0, 0.3f));
+        assertTrue(frustum.intersectsBox(0.9f, -0.1f, -0.1f, 1.5f, 0.1f, 0.1f));
+        assertFalse(frustum.intersectsBox(1.1f, -0.1f, -0.1f, 1.5f, 0.1f, 0.1f));
+    }
+
+    @Test
+    public void veryObliqueEye() throws Exception
+    {
+        //Eye far to the right and close to the plane of the screen: the frustum is a thin wedge, skewed far to the left behind the screen
+        Frustum frustum = frustumFromEye(10, 0, 1);
+        //The screen itself is always visible
+        assertTrue(frustum.containsPoint(0, 0, 0));
+        assertTrue(frustum.containsPoint(0.99f, 0.99f, 0));
+        assertTrue(frustum.containsPoint(-0.99f, -0.99f, 0));
+        //At z = -2, rays through the screen edges (x = +/-1) reach x = -17 and x = -23
+        assertTrue(frustum.containsPoint(-20, 0, -2));
+        assertFalse(frustum.containsPoint(-16, 0, -2));
+        assertFalse(frustum.containsPoint(-24, 0, -2));
+        //Directly behind the screen is out of view
+        assertFalse(frustum.containsPoint(0, 0, -2));
+    }
+
+    @Test
+    public void eyeCloseToScreen() throws Exception
+    {
+        //The eye is closer to the screen than the near plane, so the near plane must move in front of the eye rather than behind it
+        Frustum frustum = frustumFromEye(0, 0, 0.05f);
+        assertTrue(frustum.containsPoint(0, 0, 0));
+        assertTrue(frustum.containsPoint(0, 0, 0.03f));
+        assertTrue(frustum.containsPoint(0.99f, 0.99f, 0));
+        //Very wide: at z = -1, rays through the screen edges reach x = +/-21
+        assertTrue(frustum.containsPoint(20, 0, -1));
+        assertFalse(frustum.containsPoint(22, 0, -1));
+        //Behind the eye
+        assertFalse(frustum.containsPoint(0, 0, 0.5f));
+        assertFalse(frustum.containsPoint(0, 0, 2));
+    }
+
+    @Test
+    public void cullCounts() throws Exception
+    {
+        //A row of objects receding behind the center of the screen (as the renderer's monkeys)
+        BoundingSphere[] spheres = new BoundingSphere[NUM_OBJECTS];
+        for (int i = 0; i < NUM_OBJECTS; i++)
+        {
+            spheres[i] = new BoundingSphere(0, 0, 0.5f - i, 0.3f);
+        }
+        int[] visible = new int[NUM_OBJECTS];
+
+        //Objects from z = -25.5 onwards are beyond the far plane
+        int numVisible = frustumFromEye(0, 0, 3).cull(spheres, NUM_OBJECTS, visible);
+        assertEquals(26, numVisible);
+        assertEquals(25, visible[numVisible - 1]);
+
+        //From a very oblique eye, the line x = 0 is only in view very near the screen (-0.11 < z < 0.09), which falls between the objects at z = 0.5 and z = -0.5
+        numVisible = frustumFromEye(10, 0, 1).cull(spheres, NUM_OBJECTS, visible);
+        assertEquals(0, numVisible);
+        //Slightly larger objects reach it
+        spheres[0].set(0, 0, 0.5f, 0.45f);
+        spheres[1].set(0, 0, -0.5f, 0.45f);
+        numVisible = frustumFromEye(10, 0, 1).cull(spheres, NUM_OBJECTS, visible);
+        assertEquals(2, numVisible);
+        assertEquals(0, visible[0]);
+        assertEquals(1, visible[1]);
+
+        //Eye off to the side but far away, so everything within range is still visible through the screen
+        numVisible = frustumFromEye(0, 0.5f, 30).cull(spheres, NUM_OBJECTS, visible);
+        assertEquals(26, numVisible);
+    }
+
+    @Test
+    public void transformedSphere() throws Exception
+    {
+        BoundingSphere local = BoundingSphere.fromPositions(new float[]{-1, -1, -1, 1, 1, 1, 1, 1}, 4);
+        assertEquals(0, local.getCenterX(), 1e-6);
+        assertEquals((float) Math.sqrt(3), local.getRadius(), 1e-6);
+
+        //Translate by (1, 2, 3) and scale by (0.5, 2, 1)
+        float[] model = new float[]{0.5f, 0, 0, 0, 0, 2, 0, 0, 0, 0, 1, 0, 1, 2, 3, 1};
+        BoundingSphere world = new BoundingSphere();
+        world.setTransformed(local, model);
+        assertEquals(1, world.getCenterX(), 1e-6);
+        assertEquals(2, world.getCenterY(), 1e-6);
+        assertEquals(3, world.getCenterZ(), 1e-6);
+        assertEquals(2 * (float) Math.sqrt(3), world.getRadius(), 1e-6);
+    }
+
+    private static Frustum frustumFromEye(float x, float y, float z)
+    {
+        AnamorphicCamera camera = new AnamorphicCamera(SCREEN_HEIGHT, NEAR, FAR);
+        camera.setAspect(1);
+        camera.setPosition(x, y, z);
+        return camera.getFrustum();
+    }
+}
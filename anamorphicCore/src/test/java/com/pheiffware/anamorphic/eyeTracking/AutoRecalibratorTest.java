@@ -0,0 +1,107 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Background refinement of a calibration from steady samples, which only fits the height calibration and follows recent samples.
+ */
+public class AutoRecalibratorTest
+{
+    //The calibration samples are generated from
+    private static final EyeSensorCalibration TRUE_CALIBRATION = new EyeSensorCalibration(0.8f, 1.0f, 0.1f, -0.05f);
+
+    @Test
+    public void fitsHeightCalibration() throws Exception
+    {
+        //Offsets from an explicit calibration, which background refinement has no reference to correct
+        EyeSensorCalibration calibration = new EyeSensorCalibration(0.8f, 0.7f, 0.3f, 0.2f);
+        AutoRecalibrator recalibrator = new AutoRecalibrator(64, 32, 8, 0.2f);
+        Random random = new Random(1);
+        float eyeX = 0;
+        float eyeY = 0;
+        for (int i = 0; i < 5000; i++)
+        {
+            //Eye wanders slowly around a rest position, which is not the center of the screen
+            eyeX = 0.98f * eyeX + 0.01f * (float) random.nextGaussian();
+            eyeY = 0.98f * eyeY + 0.01f * (float) random.nextGaussian();
+            offer(recalibrator, TRUE_CALIBRATION, 0.5f + eyeX, -0.4f + eyeY, 4, true);
+            recalibrator.refine(calibration);
+        }
+        assertEquals(64, recalibrator.getNumSamples());
+        assertTrue(recalibrator.getNumRefinements() > 100);
+        assertEquals(1.0f, calibration.getNormHeightCalibration(), 0.001f);
+        assertEquals(0.8f, calibration.getNormWidthCalibration(), 0);
+        assertEquals(0.3f, calibration.getOffsetX(), 0);
+        assertEquals(0.2f, calibration.getOffsetY(), 0);
+    }
+
+    @Test
+    public void followsRecentSamples() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration(0.8f, 1.0f, 0, 0);
+        AutoRecalibrator recalibrator = new AutoRecalibrator(64, 32, 8, 0.2f);
+        //A long session with one face, then a face whose height relative to its width is greater
+        EyeSensorCalibration taller = new EyeSensorCalibration(0.8f, 1.2f, 0.1f, -0.05f);
+        for (int i = 0; i < 10000; i++)
+        {
+            offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, true);
+            recalibrator.refine(calibration);
+        }
+        assertEquals(1.0f, calibration.getNormHeightCalibration(), 0.001f);
+        recalibrator.resetSteadiness();
+        for (int i = 0; i < 400; i++)
+        {
+            offer(recalibrator, taller, 0, 0, 4, true);
+            recalibrator.refine(calibration);
+        }
+        //Once the window holds only the new face, the history before it has no weight
+        assertEquals(1.2f, calibration.getNormHeightCalibration(), 0.001f);
+    }
+
+    @Test
+    public void ignoresUnstableAndUnsteadySamples() throws Exception
+    {
+        AutoRecalibrator recalibrator = new AutoRecalibrator(64, 32, 8, 0.2f);
+        //First sample has nothing to be compared with
+        assertFalse(offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, true));
+        assertTrue(offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, true));
+        assertFalse(offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, false));
+        //Face jumped
+        assertFalse(offer(recalibrator, TRUE_CALIBRATION, 0.5f, 0, 4, true));
+        //Face moved away
+        assertFalse(offer(recalibrator, TRUE_CALIBRATION, 0.5f, 0, 3, true));
+        recalibrator.resetSteadiness();
+        assertFalse(offer(recalibrator, TRUE_CALIBRATION, 0.5f, 0, 3, true));
+        assertEquals(1, recalibrator.getNumCandidates());
+    }
+
+    @Test
+    public void waitsForEnoughSamples() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        AutoRecalibrator recalibrator = new AutoRecalibrator(64, 32, 8, 0.2f);
+        for (int i = 0; i < 32; i++)
+        {
+            offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, true);
+            assertFalse(recalibrator.refine(calibration));
+        }
+        offer(recalibrator, TRUE_CALIBRATION, 0, 0, 4, true);
+        assertTrue(recalibrator.refine(calibration));
+    }
+
+    /**
+     * Offer the sample the given calibration would produce for an eye at (x, y, z).
+     */
+    private static boolean offer(AutoRecalibrator recalibrator, EyeSensorCalibration trueCalibration, float x, float y, float z, boolean stable)
+    {
+        float normalizedWidth = trueCalibration.getNormWidthCalibration() / z;
+        float normalizedHeight = trueCalibration.getNormHeightCalibration() / z;
+        float projectedX = (-x - trueCalibration.getOffsetX()) / z;
+        float projectedY = (-y - trueCalibration.getOffsetY()) / z;
+        return recalibrator.offerSample(normalizedWidth, normalizedHeight, projectedX, projectedY, stable);
+    }
+}
@@ -0,0 +1,195 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The streaming calibrator gives the same result as the original plain average on clean data, ignores blinks and partial detections, and finishes as soon as
+ * the samples it has accepted are precise enough.
+ */
+public class EyeSensorCalibratorTest
+{
+    private static final float X = 0.25f;
+    private static final float Y = 0.5f;
+    private static final float Z = 4.0f;
+    private static final int NUM_SAMPLES = 70;
+
+    @Test
+    public void cleanDataMatchesPlainAverage() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        EyeSensorCalibrator calibrator = new EyeSensorCalibrator(calibration, NUM_SAMPLES, X, Y, Z);
+        float[][] samples = cleanSamples(new Random(1), NUM_SAMPLES);
+        for (float[] sample : samples)
+        {
+            assertTrue(calibrator.submitSample(sample[0], sample[1], sample[2], sample[3]));
+        }
+        assertTrue(calibrator.done());
+        assertEquals(0, calibrator.numRejected());
+        calibrator.calibrate();
+        assertMatchesAverage(samples, samples.length, calibration);
+    }
+
+    @Test
+    public void rejectsOutliers() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        EyeSensorCalibrator calibrator = new EyeSensorCalibrator(calibration, NUM_SAMPLES, X, Y, Z);
+        Random random = new Random(2);
+        float[][] samples = cleanSamples(random, NUM_SAMPLES);
+        int numOutliers = 0;
+        for (int i = 0; i < samples.length; i++)
+        {
+            float[] sample = samples[i];
+            if (i >= 15 && i % 7 == 0)
+            {
+                //Blink: the detected face shrinks vertically
+                assertFalse(calibrator.submitSample(sample[0], sample[1] * 0.6f, sample[2], sample[3]));
+                numOutliers++;
+            }
+            if (i >= 15 && i % 11 == 0)
+            {
+                //Partial detection: half the face, off to one side
+                assertFalse(calibrator.submitSample(sample[0] * 0.5f, sample[1], sample[2] + 0.05f, sample[3]));
+                numOutliers++;
+            }
+            assertTrue(calibrator.submitSample(sample[0], sample[1], sample[2], sample[3]));
+        }
+        assertEquals(numOutliers, calibrator.numRejected());
+        assertEquals(NUM_SAMPLES, calibrator.numSamples());
+        calibrator.calibrate();
+        assertMatchesAverage(samples, samples.length, calibration);
+    }
+
+    @Test
+    public void restartsWhenViewerMoves() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        EyeSensorCalibrator calibrator = new EyeSensorCalibrator(calibration, NUM_SAMPLES, X, Y, Z);
+        Random random = new Random(3);
+        for (float[] sample : cleanSamples(random, 20))
+        {
+            calibrator.submitSample(sample[0], sample[1], sample[2], sample[3]);
+        }
+        //The viewer settles somewhere else.  After a run of rejections, only the new position counts.
+        float[][] moved = cleanSamples(random, 40);
+        for (float[] sample : moved)
+        {
+            sample[2] += 0.1f;
+            calibrator.submitSample(sample[0], sample[1], sample[2], sample[3]);
+        }
+        int numAccepted = calibrator.numSamples();
+        assertTrue(numAccepted > 0 && numAccepted < moved.length);
+        calibrator.calibrate();
+        float[][] accepted = new float[numAccepted][];
+        System.arraycopy(moved, moved.length - numAccepted, accepted, 0, numAccepted);
+        assertMatchesAverage(accepted, numAccepted, calibration);
+    }
+
+    @Test
+    public void steadyViewerFinishesEarly() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        EyeSensorCalibrator calibrator = new EyeSensorCalibrator(calibration, NUM_SAMPLES, X, Y, Z);
+        float[][] samples = cleanSamples(new Random(4), NUM_SAMPLES);
+        int numSubmitted = submitUntilDone(calibrator, samples);
+        assertTrue(numSubmitted < NUM_SAMPLES / 2);
+        assertTrue(calibrator.getStandardError() < 0.02f);
+        calibrator.calibrate();
+        assertMatchesAverage(samples, numSubmitted, calibration);
+    }
+
+    @Test
+    public void rejectedOutliersDontDelayFinish() throws Exception
+    {
+        float[][] samples = cleanSamples(new Random(5), NUM_SAMPLES);
+        EyeSensorCalibrator clean = new EyeSensorCalibrator(new EyeSensorCalibration(), NUM_SAMPLES, X, Y, Z);
+        int numClean = submitUntilDone(clean, samples);
+
+        //The same samples, with a blink after each from the warm up on
+        EyeSensorCalibrator blinking = new EyeSensorCalibrator(new EyeSensorCalibration(), NUM_SAMPLES, X, Y, Z);
+        for (int i = 0; !blinking.done(); i++)
+        {
+            float[] sample = samples[i];
+            blinking.submitSample(sample[0], sample[1], sample[2], sample[3]);
+            if (i >= 15)
+            {
+                blinking.submitSample(sample[0], sample[1] * 0.6f, sample[2], sample[3]);
+            }
+        }
+        assertEquals(numClean, blinking.numSamples());
+        assertTrue(blinking.numRejected() > 0);
+    }
+
+    @Test
+    public void noisyViewerTakesDesiredSamples() throws Exception
+    {
+        EyeSensorCalibrator calibrator = new EyeSensorCalibrator(new EyeSensorCalibration(), NUM_SAMPLES, X, Y, Z);
+        float[][] samples = samples(new Random(6), NUM_SAMPLES, 0.05f);
+        assertEquals(NUM_SAMPLES, submitUntilDone(calibrator, samples));
+        assertTrue(calibrator.getStandardError() > 0.02f);
+    }
+
+    /**
+     * @return number of samples submitted before the calibrator was done
+     */
+    private static int submitUntilDone(EyeSensorCalibrator calibrator, float[][] samples)
+    {
+        int numSubmitted = 0;
+        while (!calibrator.done())
+        {
+            float[] sample = samples[numSubmitted++];
+            calibrator.submitSample(sample[0], sample[1], sample[2], sample[3]);
+        }
+        return numSubmitted;
+    }
+
+    /**
+     * Samples of a face held still, with a little detection noise.  The noise is bounded well inside the rejection threshold.
+     */
+    private static float[][] cleanSamples(Random random, int numSamples)
+    {
+        return samples(random, numSamples, 0.004f);
+    }
+
+    private static float[][] samples(Random random, int numSamples, float noise)
+    {
+        float[][] samples = new float[numSamples][];
+        for (int i = 0; i < numSamples; i++)
+        {
+            samples[i] = new float[]{
+                    0.2f + noise(random, noise),
+                    0.25f + noise(random, noise),
+                    -0.1f + noise(random, noise),
+                    -0.12f + noise(random, noise)};
+        }
+        return samples;
+    }
+
+    private static float noise(Random random, float amplitude)
+    {
+        return (random.nextFloat() * 2 - 1) * amplitude;
+    }
+
+    /**
+     * The original calibrator's result: a plain average of every sample.
+     */
+    private static void assertMatchesAverage(float[][] samples, int numSamples, EyeSensorCalibration calibration)
+    {
+        double[] averages = new double[4];
+        for (int i = 0; i < numSamples; i++)
+        {
+            for (int channel = 0; channel < 4; channel++)
+            {
+                averages[channel] += samples[i][channel] / numSamples;
+            }
+        }
+        assertEquals(averages[0] * Z, calibration.getNormWidthCalibration(), 1e-5);
+        assertEquals(averages[1] * Z, calibration.getNormHeightCalibration(), 1e-5);
+        assertEquals(-X - averages[2] * Z, calibration.getOffsetX(), 1e-5);
+        assertEquals(-Y - averages[3] * Z, calibration.getOffsetY(), 1e-5);
+    }
+}
@@ -0,0 +1,212 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The ring buffer's incrementally maintained weighted average matches the original linked list implementation, as samples age out and the buffer wraps.
+ * Predictions are rotated with the device, up to the predicted time.
+ */
+public class EyeTrackerTest
+{
+    private static final float MAX_SAMPLE_AGE = 0.1f;
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void empty() throws Exception
+    {
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, new RotationVectorOrientation());
+        float[] eye = new float[]{7, 7, 7};
+        assertFalse(tracker.getEye(0, 0, eye));
+        assertArrayEquals(new float[]{7, 7, 7}, eye, 0);
+    }
+
+    @Test
+    public void latestSampleNeverExpires() throws Exception
+    {
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, new RotationVectorOrientation());
+        tracker.addEye(0, 1, 2, 3);
+        tracker.addEye(10 * MILLIS, 4, 5, 6);
+        float[] eye = new float[3];
+        //Long after both arrived, only the unstamped latest sample is left
+        assertTrue(tracker.getEye(10000 * MILLIS, 10000 * MILLIS, eye));
+        assertArrayEquals(new float[]{4, 5, 6}, eye, 0);
+    }
+
+    @Test
+    public void samplesAgeLikeLinkedList() throws Exception
+    {
+        //Samples arrive every 10-30ms, so about 5 are live at once and a capacity of 8 wraps many times
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, 8, new RotationVectorOrientation());
+        LinkedListEyeTracker reference = new LinkedListEyeTracker(MAX_SAMPLE_AGE);
+        Random random = new Random(1);
+        long time = 1000 * MILLIS;
+        float[] eye = new float[3];
+        for (int i = 0; i < 1000; i++)
+        {
+            time += (10 + random.nextInt(21)) * MILLIS;
+            float x = random.nextFloat() * 2 - 1;
+            float y = random.nextFloat() * 2 - 1;
+            float z = 2 + random.nextFloat() * 4;
+            tracker.addEye(time, x, y, z);
+            reference.addEye(time, x, y, z);
+
+            //Query a little after arrival, sometimes after a gap long enough to expire everything
+            long now = time + (i % 50 == 0 ? 500 : random.nextInt(40)) * MILLIS;
+            assertTrue(tracker.getEye(now, now, eye));
+            float[] expected = reference.getEye(now);
+            assertArrayEquals("Sample " + i, expected, eye, 1e-5f);
+        }
+    }
+
+    @Test
+    public void fullBufferDiscardsOldest() throws Exception
+    {
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, 4, new RotationVectorOrientation());
+        LinkedListEyeTracker reference = new LinkedListEyeTracker(MAX_SAMPLE_AGE);
+        float[] eye = new float[3];
+        //Samples 1ms apart, so none expire before the buffer fills
+        for (int i = 0; i < 10; i++)
+        {
+            tracker.addEye(i * MILLIS, i, 0, 4);
+            reference.addEye(i * MILLIS, i, 0, 4);
+        }
+        //4 stamped samples are kept, as well as the latest
+        while (reference.samples.size() > 5)
+        {
+            reference.samples.removeFirst();
+            reference.timeStamps.removeFirst();
+        }
+        assertTrue(tracker.getEye(12 * MILLIS, 12 * MILLIS, eye));
+        assertArrayEquals(reference.getEye(12 * MILLIS), eye, 1e-5f);
+    }
+
+    @Test
+    public void orientationIsApplied() throws Exception
+    {
+        RotationVectorOrientation orientation = new RotationVectorOrientation();
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, orientation);
+        tracker.addEye(0, 1, 0, 4);
+        //Quarter turn about z
+        float halfAngle = (float) (Math.PI / 4);
+        tracker.onOrientationSensorChanged(new float[]{0, 0, (float) Math.sin(halfAngle), (float) Math.cos(halfAngle)});
+        float[] rotated = new float[3];
+        tracker.getEye(0, 0, rotated);
+        assertEquals(1, Math.sqrt(rotated[0] * rotated[0] + rotated[1] * rotated[1]), 1e-5);
+        assertEquals(0, rotated[2] - 4, 1e-5);
+
+        //Zeroing bakes the rotation into the samples
+        tracker.zeroOrientation();
+        float[] zeroed = new float[3];
+        tracker.getEye(0, 0, zeroed);
+        assertArrayEquals(rotated, zeroed, 1e-5f);
+    }
+
+    @Test
+    public void predictionIncludesDeviceRotation() throws Exception
+    {
+        RotationVectorOrientation orientation = new RotationVectorOrientation();
+        EyeTracker tracker = new EyeTracker(MAX_SAMPLE_AGE, orientation);
+        tracker.setPredictiveFilter(new KalmanEyeFilter(4.0f, 0.001f, 1.0f));
+        RotationSampleBuffer rotations = new RotationSampleBuffer(64);
+        //The eye holds still, in front of the device, while the device is still
+        for (int i = -10; i <= 0; i++)
+        {
+            tracker.addEye(i * 10 * MILLIS, 0.5f, 0.2f, 4);
+        }
+        //Then the device turns about y, at 2 radians / second, for 100ms
+        for (int i = 0; i <= 20; i++)
+        {
+            rotations.add(i * 5 * MILLIS, rotationAboutY(2 * i * 0.005f));
+        }
+        float[] latest = new float[4];
+        rotations.getRotation(100 * MILLIS, latest);
+        tracker.onOrientationSensorChanged(latest);
+        float[] angularVelocity = new float[3];
+        tracker.setAngularVelocity(rotations.getAngularVelocity(100 * MILLIS, 20 * MILLIS, angularVelocity), angularVelocity);
+
+        float[] predicted = new float[3];
+        tracker.getEye(100 * MILLIS, 150 * MILLIS, predicted);
+
+        //Where the still eye will be seen, relative to the device, 150ms in
+        RotationVectorOrientation future = new RotationVectorOrientation();
+        future.onSensorChanged(rotationAboutY(0.3f));
+        float[] expected = new float[3];
+        VectorMath.transformPoint(future.getCurrentOrientation(), 0.5f, 0.2f, 4, expected);
+        assertArrayEquals(expected, predicted, 1e-3f);
+
+        //Without the rate, the prediction stops at the latest orientation, which is far off
+        tracker.setAngularVelocity(100 * MILLIS, new float[3]);
+        tracker.getEye(100 * MILLIS, 150 * MILLIS, predicted);
+        assertTrue(Math.abs(predicted[0] - expected[0]) > 0.3f);
+    }
+
+    private static float[] rotationAboutY(float angle)
+    {
+        return new float[]{0, (float) Math.sin(angle / 2), 0, (float) Math.cos(angle / 2)};
+    }
+
+    /**
+     * The original EyeTracker algorithm, with explicit times: linked lists of samples, each stamped when the next arrives, and weighted by
+     * 1 - age / maxSampleAge on every query.
+     */
+    private static class LinkedListEyeTracker
+    {
+        private final float maxSampleAge;
+        private final LinkedList<float[]> samples = new LinkedList<>();
+        private final LinkedList<Long> timeStamps = new LinkedList<>();
+
+        LinkedListEyeTracker(float maxSampleAge)
+        {
+            this.maxSampleAge = maxSampleAge;
+        }
+
+        void addEye(long time, float x, float y, float z)
+        {
+            timeStamps.add(null);
+            samples.add(new float[]{x, y, z});
+            if (timeStamps.size() > 1)
+            {
+                timeStamps.set(timeStamps.size() - 2, time);
+            }
+        }
+
+        float[] getEye(long now)
+        {
+            float[] total = new float[3];
+            float totalWeight = 0;
+            Iterator<float[]> sampleIterator = samples.iterator();
+            Iterator<Long> timeIterator = timeStamps.iterator();
+            while (sampleIterator.hasNext())
+            {
+                float[] sample = sampleIterator.next();
+                Long timeStamp = timeIterator.next();
+                float age = timeStamp == null ? 0 : (float) ((now - timeStamp) / 1000000000.0);
+                if (age > maxSampleAge)
+                {
+                    sampleIterator.remove();
+                    timeIterator.remove();
+                }
+                else
+                {
+                    float weight = 1.0f - Math.min(1.0f, age / maxSampleAge);
+                    totalWeight += weight;
+                    for (int i = 0; i < 3; i++)
+                    {
+                        total[i] += sample[i] * weight;
+                    }
+                }
+            }
+            for (int i = 0; i < 3; i++)
+            {
+                total[i] /= totalWeight;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Smoothing and extrapolation of the constant velocity Kalman filter.
+ */
+public class KalmanEyeFilterTest
+{
+    private static final long FRAME = 33333333L;
+
+    @Test
+    public void noPredictionBeforeSamples() throws Exception
+    {
+        KalmanEyeFilter filter = new KalmanEyeFilter(4.0f, 0.001f, 1.0f);
+        assertFalse(filter.predict(0, new float[3]));
+        filter.addSample(0, 1, 2, 3);
+        float[] eye = new float[3];
+        assertTrue(filter.predict(FRAME, eye));
+        //No velocity yet
+        assertArrayEquals(new float[]{1, 2, 3}, eye, 0);
+        filter.reset();
+        assertFalse(filter.predict(0, eye));
+    }
+
+    @Test
+    public void extrapolatesConstantVelocity() throws Exception
+    {
+        KalmanEyeFilter filter = new KalmanEyeFilter(4.0f, 0.001f, 1.0f);
+        long time = 0;
+        for (int i = 0; i < 60; i++)
+        {
+            time = i * FRAME;
+            float t = time / 1000000000.0f;
+            filter.addSample(time, 0.5f * t, -0.2f * t, 4 - 0.3f * t);
+        }
+        float[] eye = new float[3];
+        long future = time + 50000000L;
+        filter.predict(future, eye);
+        float t = future / 1000000000.0f;
+        assertArrayEquals(new float[]{0.5f * t, -0.2f * t, 4 - 0.3f * t}, eye, 0.002f);
+    }
+
+    @Test
+    public void smoothsNoise() throws Exception
+    {
+        KalmanEyeFilter filter = new KalmanEyeFilter(4.0f, 0.001f, 1.0f);
+        Random random = new Random(1);
+        float noise = 0.03f;
+        float[] eye = new float[3];
+        double sumSquares = 0;
+        int numPredictions = 0;
+        for (int i = 0; i < 300; i++)
+        {
+            filter.addSample(i * FRAME, (float) random.nextGaussian() * noise, 0, 4);
+            if (i >= 100)
+            {
+                filter.predict(i * FRAME, eye);
+                sumSquares += eye[0] * eye[0];
+                numPredictions++;
+            }
+        }
+        assertTrue(Math.sqrt(sumSquares / numPredictions) < noise / 2);
+    }
+
+    @Test
+    public void rotatesState() throws Exception
+    {
+        KalmanEyeFilter filter = new KalmanEyeFilter(4.0f, 0.001f, 1.0f);
+        for (int i = 0; i < 30; i++)
+        {
+            filter.addSample(i * FRAME, 1 + i * 0.01f, 0, 4);
+        }
+        float[] before = new float[3];
+        filter.predict(30 * FRAME, before);
+        //Quarter turn about z: (x, y) -> (-y, x)
+        filter.rotate(new float[]{0, 1, 0, 0, -1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1});
+        float[] after = new float[3];
+        filter.predict(30 * FRAME, after);
+        assertArrayEquals(new float[]{-before[1], before[0], before[2]}, after, 1e-5f);
+    }
+
+    @Test
+    public void extrapolatesDeviceRotation() throws Exception
+    {
+        KalmanEyeFilter filter = new KalmanEyeFilter(4.0f, 0.001f, 1.0f);
+        filter.addSample(0, 0, 0, 4);
+        //Turning about y at 2 radians / second, from 10ms
+        filter.setAngularVelocity(10000000L, 0, 2, 0);
+        float[] eye = new float[3];
+        //Before the rate applies, nothing changes
+        filter.predict(10000000L, eye);
+        assertArrayEquals(new float[]{0, 0, 4}, eye, 0);
+        //The still eye turns -0.1 radians about y in the device's frame over the next 50ms
+        filter.predict(60000000L, eye);
+        assertArrayEquals(new float[]{4 * (float) Math.sin(-0.1), 0, 4 * (float) Math.cos(-0.1)}, eye, 1e-5f);
+        filter.reset();
+        filter.addSample(0, 0, 0, 4);
+        filter.predict(60000000L, eye);
+        assertArrayEquals(new float[]{0, 0, 4}, eye, 0);
+    }
+}
@@ -0,0 +1,157 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of a known calibration from synthetic samples at several targets.
+ */
+public class MultiPointCalibratorTest
+{
+    private static final float[] TARGETS = new float[]{
+            0, 0, 4,
+            -0.3f, 0.6f, 4,
+            0.3f, -0.6f, 4,
+            0.3f, 0.6f, 4,
+            -0.3f, -0.6f, 4};
+
+    //The calibration samples are generated from
+    private static final EyeSensorCalibration TRUE_CALIBRATION = new EyeSensorCalibration(0.8f, 1.0f, 0.1f, -0.05f, 1.2f, 0.9f);
+
+    @Test
+    public void fitsScaleAndOffset() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        MultiPointCalibrator calibrator = new MultiPointCalibrator(calibration, TARGETS, 40, true, 0.01f);
+        int numSubmitted = feed(calibrator, calibration, new Random(1), 0.0005f, 1000);
+        assertTrue(calibrator.done());
+        assertTrue(calibrator.isConverged());
+        //Stopped before visiting every target
+        assertTrue(numSubmitted < 5 * 50);
+        assertTrue(calibrator.getResidualError() < 0.01f);
+        assertEquals(0.8f, calibration.getNormWidthCalibration(), 0.01f);
+        assertEquals(1.0f, calibration.getNormHeightCalibration(), 0.01f);
+        assertEquals(0.1f, calibration.getOffsetX(), 0.01f);
+        assertEquals(-0.05f, calibration.getOffsetY(), 0.01f);
+        assertEquals(1.2f, calibration.getProjectedScaleX(), 0.02f);
+        assertEquals(0.9f, calibration.getProjectedScaleY(), 0.02f);
+    }
+
+    @Test
+    public void offsetsOnlyLeavesScale() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration(1, 1, 0, 0, 1.2f, 0.9f);
+        MultiPointCalibrator calibrator = new MultiPointCalibrator(calibration, TARGETS, 40, false, 0.01f);
+        feed(calibrator, calibration, new Random(2), 0.0005f, 1000);
+        assertTrue(calibrator.isConverged());
+        assertEquals(0.1f, calibration.getOffsetX(), 0.01f);
+        assertEquals(-0.05f, calibration.getOffsetY(), 0.01f);
+        assertEquals(1.2f, calibration.getProjectedScaleX(), 0);
+        assertEquals(0.9f, calibration.getProjectedScaleY(), 0);
+    }
+
+    @Test
+    public void walksThroughTargets() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        //Tolerance can't be met, so every target is visited
+        MultiPointCalibrator calibrator = new MultiPointCalibrator(calibration, TARGETS, 20, true, 0);
+        float[] target = new float[3];
+        for (int i = 0; i < 5; i++)
+        {
+            assertFalse(calibrator.done());
+            calibrator.getTarget(target);
+            assertEquals(TARGETS[i * 3], target[0], 0);
+            assertEquals(TARGETS[i * 3 + 1], target[1], 0);
+            //Settling samples, then the target's samples
+            for (int j = 0; j < 30; j++)
+            {
+                submit(calibrator, target, null, 0);
+            }
+        }
+        assertTrue(calibrator.done());
+        assertFalse(calibrator.isConverged());
+        assertEquals(100, calibrator.numSamples());
+    }
+
+    @Test
+    public void rejectsOutliers() throws Exception
+    {
+        EyeSensorCalibration calibration = new EyeSensorCalibration();
+        MultiPointCalibrator calibrator = new MultiPointCalibrator(calibration, TARGETS, 40, true, 0.01f);
+        float[] target = new float[3];
+        calibrator.getTarget(target);
+        for (int i = 0; i < 30; i++)
+        {
+            submit(calibrator, target, null, 0);
+        }
+        //Face detected at half size
+        assertFalse(calibrator.submitSample(0.4f / target[2], 0.5f / target[2], 0, 0));
+        assertEquals(1, calibrator.numRejected());
+    }
+
+    @Test
+    public void leastSquaresMatchesBatchSolve() throws Exception
+    {
+        //y = 2 x0 - 3 x1, with noise.  Batch solution computed from the normal equations.
+        RecursiveLeastSquares fit = new RecursiveLeastSquares(new double[]{0, 0}, 1e9, 1);
+        Random random = new Random(3);
+        double sxx = 0, sxy = 0, syy = 0, sxr = 0, syr = 0;
+        for (int i = 0; i < 50; i++)
+        {
+            double[] x = new double[]{random.nextDouble(), random.nextDouble()};
+            double y = 2 * x[0] - 3 * x[1] + 0.01 * random.nextGaussian();
+            fit.update(x, y);
+            sxx += x[0] * x[0];
+            sxy += x[0] * x[1];
+            syy += x[1] * x[1];
+            sxr += x[0] * y;
+            syr += x[1] * y;
+        }
+        double determinant = sxx * syy - sxy * sxy;
+        assertEquals((syy * sxr - sxy * syr) / determinant, fit.getParameter(0), 1e-6);
+        assertEquals((sxx * syr - sxy * sxr) / determinant, fit.getParameter(1), 1e-6);
+    }
+
+    /**
+     * Submit samples of the true calibration until done, writing the fit to the calibration after each, as EyeSensor does.
+     *
+     * @return number of samples submitted
+     */
+    private static int feed(MultiPointCalibrator calibrator, EyeSensorCalibration calibration, Random random, float noise, int maxSamples)
+    {
+        float[] target = new float[3];
+        int numSubmitted = 0;
+        while (!calibrator.done() && numSubmitted < maxSamples)
+        {
+            calibrator.getTarget(target);
+            if (submit(calibrator, target, random, noise))
+            {
+                calibrator.calibrate();
+            }
+            numSubmitted++;
+        }
+        return numSubmitted;
+    }
+
+    /**
+     * Submit the sample the true calibration would produce for an eye at the target.
+     */
+    private static boolean submit(MultiPointCalibrator calibrator, float[] target, Random random, float noise)
+    {
+        float z = target[2];
+        float normalizedWidth = TRUE_CALIBRATION.getNormWidthCalibration() / z;
+        float normalizedHeight = TRUE_CALIBRATION.getNormHeightCalibration() / z;
+        float projectedX = (-target[0] - TRUE_CALIBRATION.getOffsetX()) / (TRUE_CALIBRATION.getProjectedScaleX() * z);
+        float projectedY = (-target[1] - TRUE_CALIBRATION.getOffsetY()) / (TRUE_CALIBRATION.getProjectedScaleY() * z);
+        if (random != null)
+        {
+            projectedX += noise * random.nextGaussian();
+            projectedY += noise * random.nextGaussian();
+        }
+        return calibrator.submitSample(normalizedWidth, normalizedHeight, projectedX, projectedY);
+    }
+}
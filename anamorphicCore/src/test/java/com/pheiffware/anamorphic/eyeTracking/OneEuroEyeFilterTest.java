@@ -0,0 +1,91 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Speed adaptive smoothing and extrapolation of the One-Euro filter.
+ */
+public class OneEuroEyeFilterTest
+{
+    private static final long FRAME = 33333333L;
+
+    @Test
+    public void noPredictionBeforeSamples() throws Exception
+    {
+        OneEuroEyeFilter filter = new OneEuroEyeFilter(1.0f, 10.0f, 1.0f);
+        assertFalse(filter.predict(0, new float[3]));
+        filter.addSample(0, 1, 2, 3);
+        float[] eye = new float[3];
+        assertTrue(filter.predict(FRAME, eye));
+        assertArrayEquals(new float[]{1, 2, 3}, eye, 0);
+        filter.reset();
+        assertFalse(filter.predict(0, eye));
+    }
+
+    @Test
+    public void followsMovingEye() throws Exception
+    {
+        OneEuroEyeFilter filter = new OneEuroEyeFilter(1.0f, 10.0f, 1.0f);
+        long time = 0;
+        for (int i = 0; i < 90; i++)
+        {
+            time = i * FRAME;
+            filter.addSample(time, 0.5f * time / 1000000000.0f, 0, 4);
+        }
+        float[] eye = new float[3];
+        long future = time + 50000000L;
+        filter.predict(future, eye);
+        //A low pass filter lags a ramp slightly, but the cutoff has risen with speed
+        assertEquals(0.5f * future / 1000000000.0f, eye[0], 0.02f);
+        assertEquals(4, eye[2], 1e-5f);
+    }
+
+    @Test
+    public void smoothsNoiseWhileStill() throws Exception
+    {
+        OneEuroEyeFilter filter = new OneEuroEyeFilter(1.0f, 10.0f, 1.0f);
+        Random random = new Random(1);
+        float noise = 0.01f;
+        float[] eye = new float[3];
+        double sumSquares = 0;
+        int numPredictions = 0;
+        for (int i = 0; i < 300; i++)
+        {
+            filter.addSample(i * FRAME, (float) random.nextGaussian() * noise, 0, 4);
+            if (i >= 100)
+            {
+                filter.predict(i * FRAME, eye);
+                sumSquares += eye[0] * eye[0];
+                numPredictions++;
+            }
+        }
+        assertTrue(Math.sqrt(sumSquares / numPredictions) < noise / 2);
+    }
+
+    @Test
+    public void ignoresOutOfOrderSamples() throws Exception
+    {
+        OneEuroEyeFilter filter = new OneEuroEyeFilter(1.0f, 10.0f, 1.0f);
+        filter.addSample(FRAME, 0, 0, 4);
+        filter.addSample(FRAME, 1, 0, 4);
+        filter.addSample(0, 1, 0, 4);
+        float[] eye = new float[3];
+        filter.predict(FRAME, eye);
+        assertArrayEquals(new float[]{0, 0, 4}, eye, 0);
+    }
+
+    @Test
+    public void extrapolatesDeviceRotation() throws Exception
+    {
+        OneEuroEyeFilter filter = new OneEuroEyeFilter(1.0f, 10.0f, 1.0f);
+        filter.addSample(0, 0, 0, 4);
+        filter.setAngularVelocity(10000000L, 0, 2, 0);
+        float[] eye = new float[3];
+        filter.predict(60000000L, eye);
+        assertArrayEquals(new float[]{4 * (float) Math.sin(-0.1), 0, 4 * (float) Math.cos(-0.1)}, eye, 1e-5f);
+    }
+}
@@ -0,0 +1,199 @@
+package com.pheiffware.anamorphic.eyeTracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lookup and interpolation of buffered rotation samples, including while another thread is adding samples.
+ */
+public class RotationSampleBufferTest
+{
+    @Test
+    public void empty() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        float[] quaternion = new float[4];
+        assertFalse(buffer.getRotation(0, quaternion));
+        assertEquals(Long.MIN_VALUE, buffer.getNearest(0, quaternion));
+        assertEquals(Long.MIN_VALUE, buffer.getLatestTimeStamp());
+    }
+
+    @Test
+    public void interpolatesBetweenSamples() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        buffer.add(1000, rotationAboutZ(0));
+        buffer.add(2000, rotationAboutZ(0.2f));
+        float[] quaternion = new float[4];
+
+        assertTrue(buffer.getRotation(1500, quaternion));
+        assertEquals(0.1f, angleAboutZ(quaternion), 0.0001f);
+
+        //Clamped, not extrapolated
+        buffer.getRotation(500, quaternion);
+        assertEquals(0, angleAboutZ(quaternion), 0.0001f);
+        buffer.getRotation(5000, quaternion);
+        assertEquals(0.2f, angleAboutZ(quaternion), 0.0001f);
+    }
+
+    @Test
+    public void nearest() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        buffer.add(1000, rotationAboutZ(0));
+        buffer.add(2000, rotationAboutZ(0.2f));
+        buffer.add(3000, rotationAboutZ(0.4f));
+        float[] quaternion = new float[4];
+        assertEquals(2000, buffer.getNearest(2400, quaternion));
+        assertEquals(0.2f, angleAboutZ(quaternion), 0.0001f);
+        assertEquals(3000, buffer.getNearest(2600, quaternion));
+        assertEquals(3000, buffer.getNearest(9000, quaternion));
+        assertEquals(1000, buffer.getNearest(0, quaternion));
+    }
+
+    @Test
+    public void wrapsAround() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        for (int i = 0; i < 100; i++)
+        {
+            buffer.add(i * 1000, rotationAboutZ(i * 0.01f));
+        }
+        assertEquals(100, buffer.getNumSamples());
+        assertEquals(99000, buffer.getLatestTimeStamp());
+        float[] quaternion = new float[4];
+        buffer.getRotation(95500, quaternion);
+        assertEquals(0.955f, angleAboutZ(quaternion), 0.0001f);
+        //Older samples have been overwritten, so the oldest retained sample is used
+        assertTrue(buffer.getNearest(0, quaternion) > 90000);
+    }
+
+    @Test
+    public void interpolatesAcrossSignFlip() throws Exception
+    {
+        //The sensor may report q or -q for the same rotation
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        buffer.add(1000, rotationAboutZ(0.2f));
+        float[] flipped = rotationAboutZ(0.4f);
+        for (int i = 0; i < 4; i++)
+        {
+            flipped[i] = -flipped[i];
+        }
+        buffer.add(2000, flipped);
+        float[] quaternion = new float[4];
+        buffer.getRotation(1500, quaternion);
+        assertEquals(0.3f, angleAboutZ(quaternion), 0.0001f);
+    }
+
+    @Test
+    public void threeValueRotationVector() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        float[] rotation = rotationAboutZ(0.5f);
+        buffer.add(1000, new float[]{rotation[0], rotation[1], rotation[2]});
+        float[] quaternion = new float[4];
+        buffer.getRotation(1000, quaternion);
+        assertEquals(rotation[3], quaternion[3], 0.0001f);
+    }
+
+    @Test
+    public void angularVelocity() throws Exception
+    {
+        RotationSampleBuffer buffer = new RotationSampleBuffer(64);
+        float[] angularVelocity = new float[3];
+        assertEquals(Long.MIN_VALUE, buffer.getAngularVelocity(0, 20000000L, angularVelocity));
+        //Turning at 1.5 radians / second about z, sampled every 5ms
+        for (int i = 0; i <= 20; i++)
+        {
+            buffer.add(i * 5000000L, rotationAboutZ(1.5f * i * 0.005f));
+        }
+        assertEquals(60000000L, buffer.getAngularVelocity(60000000L, 20000000L, angularVelocity));
+        assertArrayEquals(new float[]{0, 0, 1.5f}, angularVelocity, 1e-3f);
+        //Past the newest sample, the window ends at the newest sample
+        assertEquals(100000000L, buffer.getAngularVelocity(200000000L, 20000000L, angularVelocity));
+        assertArrayEquals(new float[]{0, 0, 1.5f}, angularVelocity, 1e-3f);
+    }
+
+    @Test
+    public void angularVelocityIsInDeviceFrame() throws Exception
+    {
+        //Turned a quarter turn about z, then turning about the world's x axis, which is the device's -y axis
+        RotationSampleBuffer buffer = new RotationSampleBuffer(64);
+        float[] base = rotationAboutZ((float) (Math.PI / 2));
+        for (int i = 0; i <= 10; i++)
+        {
+            float halfAngle = 0.5f * i * 0.01f / 2;
+            float[] aboutX = new float[]{(float) Math.sin(halfAngle), 0, 0, (float) Math.cos(halfAngle)};
+            buffer.add(i * 10000000L, multiply(aboutX, base));
+        }
+        float[] angularVelocity = new float[3];
+        buffer.getAngularVelocity(100000000L, 50000000L, angularVelocity);
+        assertArrayEquals(new float[]{0, -0.5f, 0}, angularVelocity, 1e-3f);
+    }
+
+    @Test
+    public void readsWhileWritingAreNeverTorn() throws Exception
+    {
+        //A small buffer, so the writer is constantly overwriting slots the reader is in the middle of reading
+        final RotationSampleBuffer buffer = new RotationSampleBuffer(8);
+        final int numSamples = 200000;
+        //Large steps between samples, so a time stamp or component from another sample is far from the expected rotation
+        final float step = 0.3f;
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < numSamples; i++)
+                {
+                    buffer.add(i, rotationAboutZ(i * step));
+                }
+            }
+        };
+        writer.start();
+        float[] quaternion = new float[4];
+        float[] angularVelocity = new float[3];
+        int numReads = 0;
+        while (writer.isAlive() || numReads == 0)
+        {
+            long timeStamp = buffer.getNearest(buffer.getLatestTimeStamp() - 3, quaternion);
+            if (timeStamp == Long.MIN_VALUE)
+            {
+                continue;
+            }
+            float[] expected = rotationAboutZ(timeStamp * step);
+            float dot = 0;
+            for (int i = 0; i < 4; i++)
+            {
+                dot += expected[i] * quaternion[i];
+            }
+            assertEquals("Sample " + timeStamp, 1, Math.abs(dot), 1e-4f);
+            if (buffer.getAngularVelocity(timeStamp, 1, angularVelocity) != Long.MIN_VALUE)
+            {
+                assertFalse(Float.isNaN(angularVelocity[2]));
+            }
+            numReads++;
+        }
+        writer.join();
+    }
+
+    private static float[] multiply(float[] a, float[] b)
+    {
+        return new float[]{
+                a[3] * b[0] + b[3] * a[0] + a[1] * b[2] - a[2] * b[1],
+                a[3] * b[1] + b[3] * a[1] + a[2] * b[0] - a[0] * b[2],
+                a[3] * b[2] + b[3] * a[2] + a[0] * b[1] - a[1] * b[0],
+                a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2]};
+    }
+
+    private static float[] rotationAboutZ(float angle)
+    {
+        return new float[]{0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2)};
+    }
+
+    private static float angleAboutZ(float[] quaternion)
+    {
+        return (float) (2 * Math.atan2(quaternion[2], quaternion[3]));
+    }
+}
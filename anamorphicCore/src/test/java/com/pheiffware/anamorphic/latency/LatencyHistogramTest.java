@@ -0,0 +1,107 @@
+package com.pheiffware.anamorphic.latency;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Percentiles are within the histogram's stated precision of the exact percentiles of the recorded values.
+ */
+public class LatencyHistogramTest
+{
+    //Width of a sub-bucket relative to its lower bound
+    private static final double PRECISION = 1.0 / 32;
+
+    @Test
+    public void empty() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getTotalCount());
+    }
+
+    @Test
+    public void bucketsAreContiguous() throws Exception
+    {
+        //Every value up to well past a second, in nanoseconds, falls in the bucket whose upper bound follows the previous bucket's
+        long previousUpperBound = -1;
+        for (int index = 0; previousUpperBound < 4000000000L; index++)
+        {
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertEquals(index, LatencyHistogram.bucketIndex(previousUpperBound + 1));
+            assertEquals(index, LatencyHistogram.bucketIndex(upperBound));
+            assertTrue(upperBound - (previousUpperBound + 1) <= (previousUpperBound + 1) * PRECISION);
+            previousUpperBound = upperBound;
+        }
+    }
+
+    @Test
+    public void smallValuesAreExact() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 32; value++)
+        {
+            histogram.record(value);
+        }
+        for (int value = 0; value < 32; value++)
+        {
+            assertEquals(value, histogram.getValueAtPercentile((value + 1) * 100.0 / 32));
+        }
+    }
+
+    @Test
+    public void percentilesMatchSortedValues() throws Exception
+    {
+        //Frame latencies in microseconds: mostly around 20ms, with a long tail of stalls
+        Random random = new Random(1);
+        int numValues = 100000;
+        long[] values = new long[numValues];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < numValues; i++)
+        {
+            double value = 20000 + 3000 * random.nextGaussian();
+            if (random.nextInt(100) == 0)
+            {
+                value += -200000 * Math.log(1 - random.nextDouble());
+            }
+            values[i] = Math.max(0, (long) value);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(numValues, histogram.getTotalCount());
+        assertEquals(values[numValues - 1], histogram.getMaxValue());
+        for (double percentile : new double[]{0, 1, 10, 50, 90, 95, 99, 99.9, 99.99, 100})
+        {
+            long exact = values[Math.max(0, (int) Math.ceil(percentile / 100.0 * numValues) - 1)];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue("Percentile " + percentile + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue("Percentile " + percentile + ": " + estimate + " too far above " + exact, estimate <= exact + exact * PRECISION);
+        }
+        assertEquals(values[numValues - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 41) - 1, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void resetClears() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMaxValue());
+        histogram.record(10);
+        assertEquals(10, histogram.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,116 @@
+package com.pheiffware.anamorphic.lod;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Levels generated from a finely tessellated sphere get simpler, and stay valid triangle lists over the original vertices.
+ */
+public class LevelOfDetailMeshTest
+{
+    private static final int RINGS = 32;
+    private static final int SEGMENTS = 64;
+
+    @Test
+    public void levelsGetSimpler() throws Exception
+    {
+        float[] positions = spherePositions();
+        short[] indices = sphereIndices();
+        LevelOfDetailMesh mesh = LevelOfDetailMesh.build(positions, 4, indices, new int[]{16, 8, 4});
+        assertEquals(4, mesh.getNumLevels());
+        assertEquals(indices.length, mesh.getIndexCount(0));
+        assertEquals(0, mesh.getIndexOffset(0));
+
+        short[] packed = mesh.getIndices();
+        int numVertices = positions.length / 4;
+        for (int level = 0; level < mesh.getNumLevels(); level++)
+        {
+            if (level > 0)
+            {
+                assertTrue("Level " + level, mesh.getNumTriangles(level) < mesh.getNumTriangles(level - 1));
+                assertEquals(mesh.getIndexOffset(level - 1) + mesh.getIndexCount(level - 1), mesh.getIndexOffset(level));
+            }
+            //Even the coarsest level keeps a recognizable shape
+            assertTrue(mesh.getNumTriangles(level) >= 8);
+            assertEquals(0, mesh.getIndexCount(level) % 3);
+            int start = mesh.getIndexOffset(level);
+            for (int i = start; i < start + mesh.getIndexCount(level); i += 3)
+            {
+                int a = packed[i] & 0xFFFF;
+                int b = packed[i + 1] & 0xFFFF;
+                int c = packed[i + 2] & 0xFFFF;
+                assertTrue(a < numVertices && b < numVertices && c < numVertices);
+                assertTrue("Degenerate triangle", a != b && b != c && a != c);
+            }
+        }
+    }
+
+    @Test
+    public void simplifiedVerticesStayOnTheSurface() throws Exception
+    {
+        float[] positions = spherePositions();
+        short[] simplified = MeshSimplifier.simplify(positions, 4, sphereIndices(), 4);
+        //Representatives are original vertices, so all lie on the unit sphere
+        for (short index : simplified)
+        {
+            int vertex = (index & 0xFFFF) * 4;
+            float length = (float) Math.sqrt(positions[vertex] * positions[vertex] + positions[vertex + 1] * positions[vertex + 1] + positions[vertex + 2] * positions[vertex + 2]);
+            assertEquals(1, length, 1e-5);
+        }
+    }
+
+    @Test
+    public void fineGridOnlyMergesCoincidentVertices() throws Exception
+    {
+        short[] indices = sphereIndices();
+        //Cells much smaller than the spacing of the vertices.  Only the triangles touching the poles, each of which has two vertices at the same pole, collapse.
+        short[] simplified = MeshSimplifier.simplify(spherePositions(), 4, indices, 10000);
+        assertEquals(indices.length / 3 - 2 * SEGMENTS, simplified.length / 3);
+    }
+
+    /**
+     * Unit sphere, as rings of SEGMENTS vertices between the poles (POSITION4 layout).
+     */
+    private static float[] spherePositions()
+    {
+        float[] positions = new float[(RINGS + 1) * SEGMENTS * 4];
+        int index = 0;
+        for (int ring = 0; ring <= RINGS; ring++)
+        {
+            double polar = Math.PI * ring / RINGS;
+            for (int segment = 0; segment < SEGMENTS; segment++)
+            {
+                double azimuth = 2 * Math.PI * segment / SEGMENTS;
+                positions[index++] = (float) (Math.sin(polar) * Math.cos(azimuth));
+                positions[index++] = (float) Math.cos(polar);
+                positions[index++] = (float) (Math.sin(polar) * Math.sin(azimuth));
+                positions[index++] = 1;
+            }
+        }
+        return positions;
+    }
+
+    private static short[] sphereIndices()
+    {
+        short[] indices = new short[RINGS * SEGMENTS * 6];
+        int index = 0;
+        for (int ring = 0; ring < RINGS; ring++)
+        {
+            for (int segment = 0; segment < SEGMENTS; segment++)
+            {
+                int a = ring * SEGMENTS + segment;
+                int b = ring * SEGMENTS + (segment + 1) % SEGMENTS;
+                int c = a + SEGMENTS;
+                int d = b + SEGMENTS;
+                indices[index++] = (short) a;
+                indices[index++] = (short) c;
+                indices[index++] = (short) b;
+                indices[index++] = (short) b;
+                indices[index++] = (short) c;
+                indices[index++] = (short) d;
+            }
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,62 @@
+package com.pheiffware.anamorphic.lod;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Level choice from projected size, with hysteresis around each threshold.
+ */
+public class LevelOfDetailSelectorTest
+{
+    //Levels 0 (>= 400), 1 (>= 200), 2 (>= 100) and 3
+    private static final float[] THRESHOLDS = new float[]{400, 200, 100};
+    private static final float HYSTERESIS = 0.1f;
+
+    @Test
+    public void levelsFollowSize() throws Exception
+    {
+        LevelOfDetailSelector selector = new LevelOfDetailSelector(4, THRESHOLDS, HYSTERESIS);
+        assertEquals(4, selector.getNumLevels());
+        assertEquals(0, selector.select(0, 1000));
+        assertEquals(1, selector.select(1, 300));
+        assertEquals(2, selector.select(2, 150));
+        assertEquals(3, selector.select(3, 10));
+        assertEquals(3, selector.getLevel(3));
+    }
+
+    @Test
+    public void jitterAroundThresholdDoesNotPop() throws Exception
+    {
+        LevelOfDetailSelector selector = new LevelOfDetailSelector(1, THRESHOLDS, HYSTERESIS);
+        assertEquals(0, selector.select(0, 500));
+        //Just below the threshold is not enough to become coarser
+        assertEquals(0, selector.select(0, 390));
+        assertEquals(0, selector.select(0, 361));
+        assertEquals(1, selector.select(0, 359));
+        //...and once coarser, just above is not enough to become finer
+        assertEquals(1, selector.select(0, 410));
+        assertEquals(1, selector.select(0, 439));
+        assertEquals(0, selector.select(0, 441));
+        assertEquals(2, selector.getNumLevelChanges());
+
+        for (int i = 0; i < 100; i++)
+        {
+            selector.select(0, i % 2 == 0 ? 390 : 410);
+        }
+        assertEquals(2, selector.getNumLevelChanges());
+    }
+
+    @Test
+    public void largeChangesSkipLevels() throws Exception
+    {
+        LevelOfDetailSelector selector = new LevelOfDetailSelector(1, THRESHOLDS, HYSTERESIS);
+        assertEquals(0, selector.select(0, 1000));
+        assertEquals(3, selector.select(0, 50));
+        assertEquals(0, selector.select(0, 1000));
+        //From the coarsest level, the finer thresholds are all raised
+        assertEquals(3, selector.select(0, 50));
+        assertEquals(3, selector.select(0, 105));
+        assertEquals(2, selector.select(0, 115));
+    }
+}
@@ -0,0 +1,111 @@
+package com.pheiffware.anamorphic.meshCache;
+
+import com.pheiffware.anamorphic.lod.LevelOfDetailMesh;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip and staleness checks of the binary mesh cache.
+ */
+public class MeshCacheTest
+{
+    private static final float[] POSITIONS = new float[]{0, 0, 0, 1, 1, 0, 0, 1, 0, 1, 0, 1, 1, 1, 0, 1};
+    private static final float[] NORMALS = new float[]{0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+    //Two triangles, and a coarser level of one of them
+    private static final LevelOfDetailMesh LEVELS = new LevelOfDetailMesh(new short[][]{{0, 1, 2, 1, 3, 2}, {0, 1, 2}});
+    private static final int[] GRID_RESOLUTIONS = new int[]{8};
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        MeshCache cache = new MeshCache(tempFile());
+        byte[] hash = hash("source");
+        CachedMesh built = MeshCache.build(hash, GRID_RESOLUTIONS, POSITIONS, NORMALS, LEVELS);
+        assertMatches(built);
+        cache.store(built);
+
+        CachedMesh mesh = cache.load(hash, GRID_RESOLUTIONS);
+        assertNotNull(mesh);
+        assertMatches(mesh);
+    }
+
+    @Test
+    public void staleOrMissingCacheIsNotLoaded() throws Exception
+    {
+        File file = tempFile();
+        MeshCache cache = new MeshCache(file);
+        byte[] hash = hash("source");
+        assertNull(cache.load(hash, GRID_RESOLUTIONS));
+
+        cache.store(MeshCache.build(hash, GRID_RESOLUTIONS, POSITIONS, NORMALS, LEVELS));
+        byte[] editedHash = hash("edited source");
+        assertNull(cache.load(editedHash, GRID_RESOLUTIONS));
+        //Levels built differently from those wanted
+        assertNull(cache.load(hash, new int[]{6}));
+        assertNull(cache.load(hash, new int[]{8, 4}));
+
+        //Rebuilt from the edited source
+        cache.store(MeshCache.build(editedHash, GRID_RESOLUTIONS, POSITIONS, NORMALS, LEVELS));
+        assertNotNull(cache.load(editedHash, GRID_RESOLUTIONS));
+    }
+
+    @Test
+    public void truncatedCacheIsNotLoaded() throws Exception
+    {
+        File file = tempFile();
+        MeshCache cache = new MeshCache(file);
+        byte[] hash = hash("source");
+        cache.store(MeshCache.build(hash, GRID_RESOLUTIONS, POSITIONS, NORMALS, LEVELS));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+        {
+            randomAccessFile.setLength(file.length() - 2);
+        }
+        assertNull(cache.load(hash, GRID_RESOLUTIONS));
+    }
+
+    private static void assertMatches(CachedMesh mesh)
+    {
+        assertEquals(4, mesh.getNumVertices());
+        assertEquals(9, mesh.getNumIndices());
+        assertArrayEquals(POSITIONS, toArray(mesh.getPositions()), 0);
+        assertArrayEquals(NORMALS, toArray(mesh.getNormals()), 0);
+        ShortBuffer indices = mesh.getIndices();
+        short[] loadedIndices = new short[indices.remaining()];
+        indices.get(loadedIndices);
+        assertArrayEquals(LEVELS.getIndices(), loadedIndices);
+        assertEquals(LEVELS.getNumLevels(), mesh.getNumLevels());
+        for (int level = 0; level < LEVELS.getNumLevels(); level++)
+        {
+            assertEquals(LEVELS.getIndexOffset(level), mesh.getIndexOffset(level));
+            assertEquals(LEVELS.getIndexCount(level), mesh.getIndexCount(level));
+        }
+    }
+
+    private static byte[] hash(String source) throws Exception
+    {
+        return MeshCache.hash(new ByteArrayInputStream(source.getBytes("UTF-8")));
+    }
+
+    private static File tempFile() throws Exception
+    {
+        File file = File.createTempFile("mesh", ".cache");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static float[] toArray(FloatBuffer buffer)
+    {
+        float[] array = new float[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+}
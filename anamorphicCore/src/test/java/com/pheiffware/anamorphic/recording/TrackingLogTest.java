@@ -0,0 +1,151 @@
+package com.pheiffware.anamorphic.recording;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Events written by TrackingRecorder are read back unchanged, and in order, by TrackingLogReader.
+ */
+public class TrackingLogTest
+{
+    @Test
+    public void roundTrip() throws Exception
+    {
+        File file = tempFile();
+        TrackingRecorder recorder = new TrackingRecorder(file);
+        recorder.recordRotation(100, 90, new float[]{0.1f, 0.2f, 0.3f, 0.9f, 0.5f});
+        recorder.recordFace(200, 150, 12, 80, 100, 20.5f, 30.25f, 480, 640);
+        recorder.recordRotation(250, 245, new float[]{0.4f, 0.5f, 0.6f});
+        recorder.recordFaceMissing(300, 260, 13);
+        recorder.close();
+
+        List<String> events = replay(file);
+        assertEquals(Arrays.asList(
+                "rotation 100 90 [0.1, 0.2, 0.3, 0.9, 0.5]",
+                "face 200 150 12 80.0 100.0 20.5 30.25 480 640",
+                "rotation 250 245 [0.4, 0.5, 0.6]",
+                "missing 300 260 13"), events);
+    }
+
+    @Test
+    public void manyEventsSpanBufferFlushes() throws Exception
+    {
+        File file = tempFile();
+        TrackingRecorder recorder = new TrackingRecorder(file);
+        int numEvents = 10000;
+        for (int i = 0; i < numEvents; i++)
+        {
+            if (i % 3 == 0)
+            {
+                recorder.recordFace(i, i - 1, i / 30, i, i + 1, i + 2, i + 3, 480, 640);
+            }
+            else if (i % 3 == 1)
+            {
+                recorder.recordRotation(i, i - 1, new float[]{i, -i, 0, 1});
+            }
+            else
+            {
+                recorder.recordFaceMissing(i, i - 1, i / 30);
+            }
+        }
+        recorder.close();
+
+        List<String> events = replay(file);
+        assertEquals(numEvents, events.size());
+        assertEquals("face 9999 9998 333 9999.0 10000.0 10001.0 10002.0 480 640", events.get(numEvents - 1));
+        assertEquals("rotation 9997 9996 [9997.0, -9997.0, 0.0, 1.0]", events.get(numEvents - 3));
+        assertEquals("missing 9998 9997 333", events.get(numEvents - 2));
+    }
+
+    @Test
+    public void truncatedRecordIsIgnored() throws Exception
+    {
+        File file = tempFile();
+        TrackingRecorder recorder = new TrackingRecorder(file);
+        recorder.recordFaceMissing(100, 90, 1);
+        recorder.recordFace(200, 150, 2, 80, 100, 20, 30, 480, 640);
+        recorder.close();
+        //Cut the face record short, as if the app were killed while writing it
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(raw.length() - 5);
+        raw.close();
+
+        assertEquals(Arrays.asList("missing 100 90 1"), replay(file));
+    }
+
+    @Test
+    public void newRecordingReplacesOldLog() throws Exception
+    {
+        File file = tempFile();
+        TrackingRecorder first = new TrackingRecorder(file);
+        first.recordFaceMissing(1000000, 999000, 1);
+        first.close();
+        //A later run of the app has an unrelated System.nanoTime() base, so must not be mixed with the first
+        TrackingRecorder second = new TrackingRecorder(file);
+        second.recordFaceMissing(5, 4, 1);
+        second.close();
+
+        assertEquals(Arrays.asList("missing 5 4 1"), replay(file));
+    }
+
+    @Test
+    public void recordingAfterCloseIsIgnored() throws Exception
+    {
+        File file = tempFile();
+        TrackingRecorder recorder = new TrackingRecorder(file);
+        recorder.recordFaceMissing(100, 90, 1);
+        recorder.close();
+        //Sensor and detector threads may still hold the recorder after it is closed
+        recorder.recordFace(200, 150, 2, 80, 100, 20, 30, 480, 640);
+        recorder.recordRotation(250, 245, new float[]{0.4f, 0.5f, 0.6f});
+        recorder.recordFaceMissing(300, 260, 3);
+        recorder.flush();
+        recorder.close();
+
+        assertEquals(Arrays.asList("missing 100 90 1"), replay(file));
+    }
+
+    private static List<String> replay(File file) throws Exception
+    {
+        final List<String> events = new ArrayList<>();
+        TrackingLogReader reader = new TrackingLogReader(file);
+        long numEvents = reader.replay(new TrackingListener()
+        {
+            @Override
+            public void onFace(long time, long captureTime, long frameTimeMillis, float width, float height, float x, float y, int previewWidth, int previewHeight)
+            {
+                events.add("face " + time + " " + captureTime + " " + frameTimeMillis + " " + width + " " + height + " " + x + " " + y + " " + previewWidth + " " + previewHeight);
+            }
+
+            @Override
+            public void onFaceMissing(long time, long captureTime, long frameTimeMillis)
+            {
+                events.add("missing " + time + " " + captureTime + " " + frameTimeMillis);
+            }
+
+            @Override
+            public void onRotation(long time, long eventTimeStamp, float[] values)
+            {
+                events.add("rotation " + time + " " + eventTimeStamp + " " + Arrays.toString(values));
+            }
+        }, false);
+        reader.close();
+        assertEquals(events.size(), numEvents);
+        return events;
+    }
+
+    private static File tempFile() throws Exception
+    {
+        File file = File.createTempFile("tracking", ".log");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
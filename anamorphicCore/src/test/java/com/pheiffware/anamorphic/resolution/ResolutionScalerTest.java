@@ -0,0 +1,78 @@
+package com.pheiffware.anamorphic.resolution;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scale adaptation, bounds and hysteresis of ResolutionScaler.
+ */
+public class ResolutionScalerTest
+{
+    private static final long TARGET = 16000000L;
+
+    @Test
+    public void dropsToMinimumWhenSlow() throws Exception
+    {
+        ResolutionScaler scaler = new ResolutionScaler(TARGET, 0.5f, 1.0f, 0.1f);
+        assertEquals(1.0f, scaler.getScale(), 0);
+        addFrames(scaler, 2 * TARGET, 1000);
+        assertEquals(0.5f, scaler.getScale(), 0.0001f);
+    }
+
+    @Test
+    public void risesToMaximumWhenFast() throws Exception
+    {
+        ResolutionScaler scaler = new ResolutionScaler(TARGET, 0.5f, 1.0f, 0.1f);
+        addFrames(scaler, 2 * TARGET, 1000);
+        addFrames(scaler, TARGET / 4, 10000);
+        assertEquals(1.0f, scaler.getScale(), 0.0001f);
+    }
+
+    @Test
+    public void holdsBetweenThresholds() throws Exception
+    {
+        ResolutionScaler scaler = new ResolutionScaler(TARGET, 0.5f, 1.0f, 0.1f);
+        addFrames(scaler, 2 * TARGET, 1000);
+        //Under the target, but not by enough to scale up
+        addFrames(scaler, (long) (0.85 * TARGET), 10000);
+        assertEquals(0.5f, scaler.getScale(), 0.0001f);
+    }
+
+    @Test
+    public void ignoresBriefSpikes() throws Exception
+    {
+        ResolutionScaler scaler = new ResolutionScaler(TARGET, 0.5f, 1.0f, 0.1f);
+        addFrames(scaler, TARGET / 2, 100);
+        for (int i = 0; i < 50; i++)
+        {
+            //A single slow frame every 20 frames
+            addFrames(scaler, 3 * TARGET, 1);
+            addFrames(scaler, TARGET / 2, 19);
+        }
+        assertEquals(1.0f, scaler.getScale(), 0);
+        assertEquals(0, scaler.getNumScaleChanges());
+    }
+
+    @Test
+    public void doesNotOscillate() throws Exception
+    {
+        //Frame time proportional to pixel count: 1.0 scale takes 1.2 * target, 0.9 takes 0.97 * target
+        ResolutionScaler scaler = new ResolutionScaler(TARGET, 0.5f, 1.0f, 0.1f);
+        for (int i = 0; i < 10000; i++)
+        {
+            float scale = scaler.getScale();
+            scaler.addFrameTime((long) (1.2 * TARGET * scale * scale));
+        }
+        assertEquals(0.9f, scaler.getScale(), 0.0001f);
+        assertEquals(1, scaler.getNumScaleChanges());
+    }
+
+    private static void addFrames(ResolutionScaler scaler, long frameTime, int numFrames)
+    {
+        for (int i = 0; i < numFrames; i++)
+        {
+            scaler.addFrameTime(frameTime);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.pheiffware.anamorphic.shaderCache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keys and storage of program binaries.
+ */
+public class ProgramBinaryStoreTest
+{
+    private static final String DRIVER = "Vendor Renderer OpenGL ES 3.2 V@1.0";
+
+    @Test
+    public void keyDependsOnEverything() throws Exception
+    {
+        String key = ProgramBinaryStore.key(DRIVER, "vertex", "fragment", "config");
+        assertEquals(key, ProgramBinaryStore.key(DRIVER, "vertex", "fragment", "config"));
+        assertFalse(key.equals(ProgramBinaryStore.key(DRIVER + "2", "vertex", "fragment", "config")));
+        assertFalse(key.equals(ProgramBinaryStore.key(DRIVER, "vertex2", "fragment", "config")));
+        assertFalse(key.equals(ProgramBinaryStore.key(DRIVER, "vertex", "fragment", "config2")));
+        //Same text, split differently
+        assertFalse(key.equals(ProgramBinaryStore.key(DRIVER, "vertexfragment", "", "config")));
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        ProgramBinaryStore store = new ProgramBinaryStore(tempDirectory());
+        String key = ProgramBinaryStore.key(DRIVER, "vertex", "fragment");
+        assertNull(store.load(key));
+
+        byte[] binary = new byte[]{1, 2, 3, 4, 5, 6, 7};
+        store.store(key, 0x8740, ByteBuffer.wrap(binary));
+        ProgramBinaryStore.ProgramBinary loaded = store.load(key);
+        assertNotNull(loaded);
+        assertEquals(0x8740, loaded.format);
+        assertTrue(loaded.data.isDirect());
+        byte[] loadedBinary = new byte[loaded.data.remaining()];
+        loaded.data.get(loadedBinary);
+        assertArrayEquals(binary, loadedBinary);
+
+        store.delete(key);
+        assertNull(store.load(key));
+    }
+
+    private static File tempDirectory() throws Exception
+    {
+        File directory = File.createTempFile("programs", "");
+        directory.delete();
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,153 @@
+package com.pheiffware.anamorphic.shadow;
+
+import com.pheiffware.anamorphic.culling.BoundingSphere;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dirty tracking of cube shadow map faces.
+ */
+public class CubeShadowCacheTest
+{
+    private static final int POSITIVE_X = 0;
+    private static final int NEGATIVE_X = 1;
+    private static final int POSITIVE_Y = 2;
+    private static final int NEGATIVE_Y = 3;
+    private static final int POSITIVE_Z = 4;
+    private static final int NEGATIVE_Z = 5;
+
+    @Test
+    public void staticSceneIsRenderedOnce() throws Exception
+    {
+        CubeShadowCache cache = new CubeShadowCache(0.1f, 100, 4);
+        cache.setLightPosition(1, 2, 3);
+        cache.addObject(new BoundingSphere(1, 2, -5, 0.5f));
+        renderDirtyFaces(cache);
+        assertEquals(6, cache.getNumFacesRendered());
+
+        //Nothing changes
+        cache.setLightPosition(1, 2, 3);
+        cache.moveObject(0, new BoundingSphere(1, 2, -5, 0.5f));
+        renderDirtyFaces(cache);
+        assertEquals(6, cache.getNumFacesRendered());
+    }
+
+    @Test
+    public void movingObjectOnlyDirtiesTouchedFaces() throws Exception
+    {
+        CubeShadowCache cache = new CubeShadowCache(0.1f, 100, 4);
+        cache.setLightPosition(0, 0, 0);
+        int object = cache.addObject(new BoundingSphere(5, 0, 0, 0.5f));
+        renderDirtyFaces(cache);
+
+        //Stays in front of the +X face
+        cache.moveObject(object, new BoundingSphere(5, 0.5f, 0, 0.5f));
+        assertDirty(cache, POSITIVE_X);
+        renderDirtyFaces(cache);
+
+        //Moves from +X to -Z, so both are dirty
+        cache.moveObject(object, new BoundingSphere(0, 0, -5, 0.5f));
+        assertDirty(cache, POSITIVE_X, NEGATIVE_Z);
+        renderDirtyFaces(cache);
+
+        //Straddling the edge between -Z and +Y
+        cache.moveObject(object, new BoundingSphere(0, 5, -5, 0.5f));
+        assertDirty(cache, NEGATIVE_Z, POSITIVE_Y);
+    }
+
+    @Test
+    public void movingLightDirtiesAllFaces() throws Exception
+    {
+        CubeShadowCache cache = new CubeShadowCache(0.1f, 100, 4);
+        cache.setLightPosition(0, 0, 0);
+        cache.addObject(new BoundingSphere(5, 0, 0, 0.5f));
+        renderDirtyFaces(cache);
+        cache.setLightPosition(0, 0, 0.1f);
+        assertDirty(cache, POSITIVE_X, NEGATIVE_X, POSITIVE_Y, NEGATIVE_Y, POSITIVE_Z, NEGATIVE_Z);
+    }
+
+    @Test
+    public void faceCasters() throws Exception
+    {
+        CubeShadowCache cache = new CubeShadowCache(0.1f, 100, 4);
+        cache.setLightPosition(0, 0, 2.7f);
+        cache.addObject(new BoundingSphere(0, 0, 0.5f, 0.3f));
+        cache.addObject(new BoundingSphere(0, 0, -10, 0.3f));
+        cache.addObject(new BoundingSphere(3, 0, 2.7f, 0.3f));
+        //Beyond the far plane
+        cache.addObject(new BoundingSphere(0, 0, -200, 0.3f));
+        int[] casters = new int[4];
+
+        assertEquals(2, cache.getFaceCasters(NEGATIVE_Z, casters));
+        assertEquals(0, casters[0]);
+        assertEquals(1, casters[1]);
+        assertEquals(1, cache.getFaceCasters(POSITIVE_X, casters));
+        assertEquals(2, casters[0]);
+        assertEquals(0, cache.getFaceCasters(POSITIVE_Z, casters));
+    }
+
+    @Test
+    public void faceMatricesMatchCubeMapLookup() throws Exception
+    {
+        CubeShadowCache cache = new CubeShadowCache(0.1f, 100, 1);
+        cache.setLightPosition(1, 2, 3);
+        float[] matrices = cache.getFaceViewProjections();
+
+        //Standard cube map lookup for direction (rx, ry, rz) with major axis +X: s = -rz / |rx|, t = -ry / |rx|
+        float[] clip = transform(matrices, POSITIVE_X * 16, 1 + 4, 2 + 1, 3 + 2);
+        assertEquals(-0.5f, clip[0] / clip[3], 1e-5);
+        assertEquals(-0.25f, clip[1] / clip[3], 1e-5);
+
+        //Major axis +Y: s = rx / |ry|, t = rz / |ry|
+        clip = transform(matrices, POSITIVE_Y * 16, 1 + 1, 2 + 4, 3 - 2);
+        assertEquals(0.25f, clip[0] / clip[3], 1e-5);
+        assertEquals(-0.5f, clip[1] / clip[3], 1e-5);
+
+        //Major axis -Z: s = -rx / |rz|, t = -ry / |rz|
+        clip = transform(matrices, NEGATIVE_Z * 16, 1 + 1, 2 - 2, 3 - 4);
+        assertEquals(-0.25f, clip[0] / clip[3], 1e-5);
+        assertEquals(0.5f, clip[1] / clip[3], 1e-5);
+
+        //Depth maps the near and far distances to -1 and 1
+        clip = transform(matrices, NEGATIVE_Z * 16, 1, 2, 3 - 0.1f);
+        assertEquals(-1, clip[2] / clip[3], 1e-4);
+        clip = transform(matrices, NEGATIVE_Z * 16, 1, 2, 3 - 100);
+        assertEquals(1, clip[2] / clip[3], 1e-4);
+    }
+
+    private static void renderDirtyFaces(CubeShadowCache cache)
+    {
+        for (int face = 0; face < CubeShadowCache.NUM_FACES; face++)
+        {
+            if (cache.isFaceDirty(face))
+            {
+                cache.faceRendered(face);
+            }
+        }
+    }
+
+    private static void assertDirty(CubeShadowCache cache, int... dirtyFaces)
+    {
+        boolean[] expected = new boolean[CubeShadowCache.NUM_FACES];
+        for (int face : dirtyFaces)
+        {
+            expected[face] = true;
+        }
+        for (int face = 0; face < CubeShadowCache.NUM_FACES; face++)
+        {
+            assertEquals("Face " + face, expected[face], cache.isFaceDirty(face));
+        }
+    }
+
+    private static float[] transform(float[] matrices, int offset, float x, float y, float z)
+    {
+        float[] clip = new float[4];
+        for (int row = 0; row < 4; row++)
+        {
+            clip[row] = matrices[offset + row] * x + matrices[offset + 4 + row] * y + matrices[offset + 8 + row] * z + matrices[offset + 12 + row];
+        }
+        return clip;
+    }
+}